@@ -14,30 +14,48 @@ import com.appdynamics.extensions.MetricWriteHelper;
 import com.appdynamics.extensions.TasksExecutionServiceProvider;
 import com.appdynamics.extensions.conf.MonitorContextConfiguration;
 import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.appdynamics.extensions.tibco.collectors.AbstractMetricCollector;
+import com.appdynamics.extensions.tibco.collectors.CardinalityBudget;
 import com.appdynamics.extensions.tibco.collectors.ConsumerMetricCollector;
+import com.appdynamics.extensions.tibco.collectors.DestinationDecisions;
+import com.appdynamics.extensions.tibco.collectors.DestinationFilterCache;
 import com.appdynamics.extensions.tibco.collectors.DurableMetricCollector;
 import com.appdynamics.extensions.tibco.collectors.ProducerMetricCollector;
+import com.appdynamics.extensions.tibco.collectors.PublishedValues;
 import com.appdynamics.extensions.tibco.collectors.QueueMetricCollector;
 import com.appdynamics.extensions.tibco.collectors.RouteMetricCollector;
 import com.appdynamics.extensions.tibco.collectors.ServerMetricCollector;
+import com.appdynamics.extensions.tibco.collectors.SnapshotStore;
+import com.appdynamics.extensions.tibco.collectors.StreamingMetricBuffer;
 import com.appdynamics.extensions.tibco.collectors.TopicMetricCollector;
+import com.appdynamics.extensions.tibco.connection.AdminConnectionPool;
+import com.appdynamics.extensions.tibco.connection.AdminSession;
+import com.appdynamics.extensions.tibco.connection.AdminSessionRegistry;
+import com.appdynamics.extensions.tibco.connection.ConnectCircuitBreaker;
+import com.appdynamics.extensions.tibco.connection.ServerRunContext;
+import com.appdynamics.extensions.tibco.execution.CollectorExecutor;
+import com.appdynamics.extensions.tibco.execution.CollectorSchedule;
 import com.appdynamics.extensions.tibco.metrics.Metrics;
 import com.appdynamics.extensions.tibco.util.Constants;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
 import com.appdynamics.extensions.util.CryptoUtils;
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
 import com.tibco.tibjms.TibjmsSSL;
+import com.tibco.tibjms.admin.ServerInfo;
 import com.tibco.tibjms.admin.TibjmsAdmin;
 import com.tibco.tibjms.admin.TibjmsAdminException;
 
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Phaser;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * @author Satish Muddam, Kevin Mcmanus
@@ -51,15 +69,29 @@ public class TibcoEMSMetricFetcher implements AMonitorTaskRunnable {
     private MetricWriteHelper metricWriteHelper;
     private Metrics.EMSMetrics emsMetrics;
     private String metricPrefix;
+    private AdminSessionRegistry sessionRegistry;
+    private CollectorExecutor collectorExecutor;
+    private CollectorSchedule collectorSchedule;
 
-    public TibcoEMSMetricFetcher(TasksExecutionServiceProvider serviceProvider, MonitorContextConfiguration configuration, Map<String, ?> emsServer) {
+    public TibcoEMSMetricFetcher(TasksExecutionServiceProvider serviceProvider, MonitorContextConfiguration configuration, Map<String, ?> emsServer,
+                                 AdminSessionRegistry sessionRegistry, CollectorExecutor collectorExecutor, CollectorSchedule collectorSchedule) {
         this.configuration = configuration;
         this.emsServer = emsServer;
+        this.sessionRegistry = sessionRegistry;
+        this.collectorExecutor = collectorExecutor;
+        this.collectorSchedule = collectorSchedule;
         this.metricWriteHelper = serviceProvider.getMetricWriteHelper();
         this.metricPrefix = configuration.getMetricPrefix();
         emsMetrics = (Metrics.EMSMetrics) configuration.getMetricsXml();
     }
 
+    /**
+     * Key under which the admin session of the given server is kept across runs.
+     */
+    public static String getServerKey(Map<String, ?> emsServer) {
+        return Strings.nullToEmpty((String) emsServer.get(Constants.DISPLAY_NAME));
+    }
+
     public void onTaskComplete() {
         logger.info("All tasks for server {} finished", this.emsServer.get(Constants.DISPLAY_NAME));
 
@@ -181,150 +213,478 @@ public class TibcoEMSMetricFetcher implements AMonitorTaskRunnable {
         return sb.toString();
     }
 
-    private List<Pattern> buildPattern(List<String> patternStrings) {
-        List<Pattern> patternList = new ArrayList<>();
+    private Map<DestinationType, DestinationDecisions> getDestinationDecisions(ServerRunContext runContext, boolean showSystem, boolean showTemp) {
+        DestinationFilterCache destinationFilterCache = runContext.getDestinationFilterCache();
+        boolean serverSideDestinationFilter = runContext.isServerSideDestinationFilter();
+        int maxDecisions = runContext.getMaxDestinationDecisions();
+
+        Map<DestinationType, DestinationDecisions> destinationDecisions = new EnumMap<>(DestinationType.class);
+        destinationDecisions.put(DestinationType.QUEUE, getDestinationDecisions(destinationFilterCache, DestinationType.QUEUE, "Queues", serverSideDestinationFilter, showSystem, showTemp, maxDecisions));
+        destinationDecisions.put(DestinationType.TOPIC, getDestinationDecisions(destinationFilterCache, DestinationType.TOPIC, "Topics", serverSideDestinationFilter, showSystem, showTemp, maxDecisions));
+        destinationDecisions.put(DestinationType.DURABLE, getDestinationDecisions(destinationFilterCache, DestinationType.DURABLE, "Durables", false, showSystem, showTemp, maxDecisions));
+        destinationDecisions.put(DestinationType.ROUTE, getDestinationDecisions(destinationFilterCache, DestinationType.ROUTE, "Routes", false, showSystem, showTemp, maxDecisions));
+        destinationDecisions.put(DestinationType.PRODUCER, getDestinationDecisions(destinationFilterCache, DestinationType.PRODUCER, "Producers", false, showSystem, showTemp, maxDecisions));
+        destinationDecisions.put(DestinationType.CONSUMER, getDestinationDecisions(destinationFilterCache, DestinationType.CONSUMER, "Consumers", false, showSystem, showTemp, maxDecisions));
+        return destinationDecisions;
+    }
 
-        if (patternStrings != null) {
-            for (String pattern : patternStrings) {
-                patternList.add(Pattern.compile(pattern));
-            }
-        }
-        return patternList;
+    /**
+     * @param destinations the suffix of the server's include and exclude entries, e.g. Queues for includeQueues and excludeQueues
+     */
+    private DestinationDecisions getDestinationDecisions(DestinationFilterCache destinationFilterCache, DestinationType destinationType, String destinations,
+                                                         boolean emsWildcards, boolean showSystem, boolean showTemp, int maxDecisions) {
+        return destinationFilterCache.getDecisions(destinationType, (List) emsServer.get("include" + destinations),
+                (List) emsServer.get("exclude" + destinations), emsWildcards, showSystem, showTemp, maxDecisions);
     }
 
     private void collectMetrics(String emsURL, String user, String plainPassword, Hashtable sslParams, String displayName) {
 
-        boolean showTemp = emsMetrics.isShowTemp();
-        boolean showSystem = emsMetrics.isShowSystem();
-        List<String> includeQueues = (List) emsServer.get("includeQueues");
+        String fullMetricPrefix;
+        if (displayName != null) {
+            fullMetricPrefix = refine(metricPrefix) + "|" + displayName;
+        } else {
+            fullMetricPrefix = refine(metricPrefix) + "|";
+        }
 
-        List<String> includeTopics = (List) emsServer.get("includeTopics");
+        String serverKey = getServerKey(emsServer);
+        long startNanos = System.nanoTime();
 
-        List<String> includeDurables = (List) emsServer.get("includeDurables");
+        //Groups whose interval has not elapsed yet are skipped before connecting, they cost neither a task nor an admin call
+        List<Metrics> dueMetrics = getDueMetrics(emsMetrics.getMetrics(), serverKey, startNanos);
+        if (dueMetrics.isEmpty()) {
+            logger.debug("No collectors due for Tibco EMS server [ {} ] in this run", displayName);
+            return;
+        }
 
-        List<String> includeRoutes = (List) emsServer.get("includeRoutes");
+        AdminSession adminSession = sessionRegistry.getSession(serverKey);
+        adminSession.getRunContext().configure(configuration.getConfigYml(), emsServer);
 
-        List<String> includeProducers = (List) emsServer.get("includeProducers");
+        //A collector of an earlier run which still holds its thread, e.g. on a hung broker, is not queued a second time
+        List<Metrics> runningMetrics = removeRunningMetrics(dueMetrics, adminSession, displayName);
+        if (dueMetrics.isEmpty()) {
+            publishTimedOut(fullMetricPrefix, runningMetrics);
+            return;
+        }
 
-        List<String> includeConsumers = (List) emsServer.get("includeConsumers");
+        TibjmsAdmin tibjmsAdmin = connect(adminSession, emsURL, user, plainPassword, sslParams, dueMetrics, fullMetricPrefix, startNanos, displayName);
+        if (tibjmsAdmin == null) {
+            return;
+        }
 
+        ServerRun serverRun = new ServerRun(serverKey, displayName, fullMetricPrefix, startNanos, adminSession, tibjmsAdmin);
+        beginRun(serverRun);
 
-        List<Pattern> includeQueuesPatterns = buildPattern(includeQueues);
+        Phaser phaser = new Phaser();
 
-        List<Pattern> includeTopicsPatterns = buildPattern(includeTopics);
+        //Register for this task
+        phaser.register();
 
-        List<Pattern> includeDurablesPatterns = buildPattern(includeDurables);
+        try {
+            startCollectors(serverRun, dueMetrics, phaser);
+        } catch (Exception e) {
+            logger.error("Unknown Error while collecting metrics from Tibco EMS server [ " + displayName + " ]", e);
+        } finally {
+            //Arrive for this task and Wait for all other tasks, but not longer than the latest collector deadline
+            awaitCollectors(phaser, serverRun.latestDeadlineNanos, displayName);
+        }
 
-        List<Pattern> includeRoutesPatterns = buildPattern(includeRoutes);
+        List<com.appdynamics.extensions.metrics.Metric> collectorStatusMetrics = finishCollectors(serverRun, runningMetrics);
+        publishMetrics(serverRun, collectorStatusMetrics);
+    }
 
-        List<Pattern> includeProducersPatterns = buildPattern(includeProducers);
+    /**
+     * Connects to the server, unless it keeps failing to connect and its backoff has not elapsed yet. A server which is
+     * not connected is reported as unreachable.
+     *
+     * @return the admin connection, or null if the server is not collected in this run
+     */
+    private TibjmsAdmin connect(AdminSession adminSession, String emsURL, String user, String plainPassword, Hashtable sslParams,
+                                List<Metrics> dueMetrics, String fullMetricPrefix, long startNanos, String displayName) {
+        //A server which keeps failing to connect is not tried again until its backoff elapsed, the run only reports it
+        ConnectCircuitBreaker circuitBreaker = adminSession.getCircuitBreaker();
+        if (!circuitBreaker.allowAttempt(startNanos)) {
+            logger.debug("Skipping Tibco EMS server [ {} ] until its connect backoff elapsed", displayName);
+            publishUnreachable(fullMetricPrefix, circuitBreaker);
+            return null;
+        }
 
-        List<Pattern> includeConsumersPatterns = buildPattern(includeConsumers);
+        //The Server collector calls getInfo() first thing, only runs without it check a reused connection up front
+        boolean checkReusedConnection = !isDue(dueMetrics, DestinationType.SERVER);
+        TibjmsAdmin tibjmsAdmin = adminSession.connect(emsURL, user, plainPassword, sslParams, checkReusedConnection);
 
+        if (tibjmsAdmin == null) { //Could not get connection
+            publishUnreachable(fullMetricPrefix, circuitBreaker);
+        }
+        return tibjmsAdmin;
+    }
 
-        List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = new CopyOnWriteArrayList<>();
+    /**
+     * Prepares the stores of the server for a new run, and the admin connections and destination decisions the
+     * collectors of the run share.
+     */
+    private void beginRun(ServerRun serverRun) {
+        ServerRunContext runContext = serverRun.runContext;
 
-        String fullMetricPrefix;
-        if (displayName != null) {
-            fullMetricPrefix = refine(metricPrefix) + "|" + displayName;
-        } else {
-            fullMetricPrefix = refine(metricPrefix) + "|";
+        //With more than one admin connection per server, collectors of the server no longer queue on the shared one
+        int adminConnections = runContext.getAdminConnections();
+        serverRun.connectionPool = adminConnections > 1 ? serverRun.adminSession.getConnectionPool(adminConnections) : null;
+
+        //Include and exclude entries are compiled into a single pass matcher, which with the decisions made by it is kept
+        //until the entries, showSystem or showTemp change. Known destinations then cost one lookup.
+        serverRun.destinationDecisions = getDestinationDecisions(runContext, emsMetrics.isShowSystem(), emsMetrics.isShowTemp());
+
+        runContext.beginRun();
+
+        //Deltas and rates of cumulative counters are computed from the values kept since the previous runs
+        SnapshotStore snapshotStore = runContext.getSnapshotStore();
+        if (snapshotStore.needsStartTimeCheck(serverRun.adminSession.getConnectCount())) {
+            verifyServerStartTime(snapshotStore, serverRun.tibjmsAdmin, serverRun.displayName);
         }
+    }
 
-        TibjmsAdmin tibjmsAdmin = createConnection(emsURL, user, plainPassword, sslParams, displayName);
+    /**
+     * Starts a collector for each due group, with a deadline from the collection timeout of the server or the group.
+     */
+    private void startCollectors(ServerRun serverRun, List<Metrics> dueMetrics, Phaser phaser) {
+        ServerRunContext runContext = serverRun.runContext;
+        PublishedValues publishedValues = runContext.getPublishedValues();
+        long serverTimeoutInSeconds = runContext.getCollectionTimeoutInSeconds();
 
-        if (tibjmsAdmin == null) { //Could not get connection
-            return;
+        //In streaming mode collectors publish fixed size chunks as they go instead of handing over their whole output
+        int publishChunkSize = runContext.getPublishChunkSize();
+
+        Map<String, String> queueTopicMetricPrefixes = getQueueTopicMetricPrefixes(emsMetrics.getMetrics());
+
+        for (Metrics metrics : dueMetrics) {
+
+            String type = metrics.getType();
+
+            long timeoutInSeconds = serverTimeoutInSeconds;
+            Integer collectorTimeoutInSeconds = metrics.getTimeoutInSeconds();
+            if (collectorTimeoutInSeconds != null && collectorTimeoutInSeconds < timeoutInSeconds) {
+                timeoutInSeconds = collectorTimeoutInSeconds;
+            }
+            long deadlineNanos = serverRun.startNanos + TimeUnit.SECONDS.toNanos(timeoutInSeconds);
+
+            //Each collector fills its own buffer, the buffers are merged once the collectors are done
+            List<com.appdynamics.extensions.metrics.Metric> collectedMetrics;
+            if (publishChunkSize > 0) {
+                collectedMetrics = new StreamingMetricBuffer(metricWriteHelper, publishChunkSize, deadlineNanos);
+            } else {
+                collectedMetrics = new ArrayList<>();
+            }
+
+            AbstractMetricCollector collector = createCollector(serverRun, metrics, phaser, collectedMetrics, queueTopicMetricPrefixes);
+            if (collector == null) {
+                continue;
+            }
+
+            if (serverRun.connectionPool != null) {
+                collector.setAdminConnectionPool(serverRun.connectionPool);
+            }
+            collector.setMetricPathCache(runContext.getMetricPathCache());
+            collector.setSnapshotStore(runContext.getSnapshotStore());
+            collector.setPublishedValues(publishedValues);
+            if (publishedValues != null) {
+                publishedValues.beginGroupRun(metrics);
+            }
+            collector.setCardinalityBudget(runContext.getCardinalityBudget());
+            collector.setDestinationDecisions(serverRun.destinationDecisions.get(DestinationType.byType(type)));
+            collector.setDestinationTrace(runContext.getDestinationTrace());
+
+            if (collectedMetrics instanceof StreamingMetricBuffer) {
+                collector.setCompletionListener(((StreamingMetricBuffer) collectedMetrics)::flush);
+            }
+
+            if (deadlineNanos - serverRun.latestDeadlineNanos > 0) {
+                serverRun.latestDeadlineNanos = deadlineNanos;
+            }
+
+            serverRun.collectorRuns.add(new CollectorRun(type, metrics, collector, collectedMetrics, deadlineNanos));
+            serverRun.adminSession.collectorStarted(type, collector);
+            collectorExecutor.execute(serverRun.serverKey, serverRun.displayName + ": " + type + "MetricCollector", collector);
+            collectorSchedule.started(serverRun.serverKey, type, serverRun.startNanos);
+        }
+    }
+
+    /**
+     * @return the collector of the group, or null if the group has no collector
+     */
+    private AbstractMetricCollector createCollector(ServerRun serverRun, Metrics metrics, Phaser phaser,
+                                                    List<com.appdynamics.extensions.metrics.Metric> collectedMetrics, Map<String, String> queueTopicMetricPrefixes) {
+        TibjmsAdmin tibjmsAdmin = serverRun.tibjmsAdmin;
+        String fullMetricPrefix = serverRun.fullMetricPrefix;
+        boolean showSystem = emsMetrics.isShowSystem();
+        boolean showTemp = emsMetrics.isShowTemp();
+        ServerRunContext runContext = serverRun.runContext;
+
+        DestinationType destinationType = DestinationType.byType(metrics.getType());
+        DestinationDecisions destinationDecisions = serverRun.destinationDecisions.get(destinationType);
+        DestinationMatcher matcher = destinationDecisions != null ? destinationDecisions.getDestinationMatcher() : null;
+        switch (destinationType) {
+            case SERVER:
+                return new ServerMetricCollector(tibjmsAdmin, showSystem, showTemp, metrics, fullMetricPrefix, phaser, collectedMetrics);
+            case QUEUE:
+                return new QueueMetricCollector(tibjmsAdmin, matcher, showSystem, showTemp, metrics, fullMetricPrefix, phaser, collectedMetrics,
+                        runContext.getQueueServerSidePatterns());
+            case TOPIC:
+                return new TopicMetricCollector(tibjmsAdmin, matcher, showSystem, showTemp, metrics, fullMetricPrefix, phaser, collectedMetrics,
+                        runContext.getTopicServerSidePatterns());
+            case PRODUCER:
+                return new ProducerMetricCollector(tibjmsAdmin, matcher, showSystem, showTemp, metrics, fullMetricPrefix, phaser, collectedMetrics,
+                        queueTopicMetricPrefixes, runContext.getDisplayDynamicIdsInMetricPath());
+            case CONSUMER:
+                return new ConsumerMetricCollector(tibjmsAdmin, matcher, showSystem, showTemp, metrics, fullMetricPrefix, phaser, collectedMetrics,
+                        queueTopicMetricPrefixes, runContext.getDisplayDynamicIdsInMetricPath());
+            case ROUTE:
+                return new RouteMetricCollector(tibjmsAdmin, matcher, showSystem, showTemp, metrics, fullMetricPrefix, phaser, collectedMetrics);
+            case DURABLE:
+                return new DurableMetricCollector(tibjmsAdmin, matcher, showSystem, showTemp, metrics, fullMetricPrefix, phaser, collectedMetrics,
+                        queueTopicMetricPrefixes);
+            default:
+                return null;
         }
+    }
 
-        try {
-            Phaser phaser = new Phaser();
-
-            //Register for this task
-            phaser.register();
-            Metrics[] allMetrics = emsMetrics.getMetrics();
-
-            Map<String, String> queueTopicMetricPrefixes = getQueueTopicMetricPrefixes(allMetrics);
-
-            Boolean displayDynamicIdsInMetricPath = (Boolean) configuration.getConfigYml().get("displayDynamicIdsInMetricPath");
-
-            for (Metrics metrics : allMetrics) {
-
-                String type = metrics.getType();
-                Boolean enabled = metrics.isEnabled();
-
-                if (enabled) {
-                    switch (DestinationType.byType(type)) {
-                        case SERVER:
-                            ServerMetricCollector serverMetricCollector = new ServerMetricCollector(tibjmsAdmin, showSystem, showTemp, metrics, fullMetricPrefix, phaser, collectedMetrics);
-                            configuration.getContext().getExecutorService().execute(displayName + ": ServerMetricCollector", serverMetricCollector);
-                            break;
-                        case QUEUE:
-                            QueueMetricCollector queueMetricCollector = new QueueMetricCollector(tibjmsAdmin, includeQueuesPatterns, showSystem, showTemp, metrics, fullMetricPrefix, phaser, collectedMetrics);
-                            configuration.getContext().getExecutorService().execute(displayName + ": QueueMetricCollector", queueMetricCollector);
-                            break;
-                        case TOPIC:
-                            TopicMetricCollector topicMetricCollector = new TopicMetricCollector(tibjmsAdmin, includeTopicsPatterns, showSystem, showTemp, metrics, fullMetricPrefix, phaser, collectedMetrics);
-                            configuration.getContext().getExecutorService().execute(displayName + ": TopicMetricCollector", topicMetricCollector);
-                            break;
-                        case PRODUCER:
-                            ProducerMetricCollector producerMetricCollector = new ProducerMetricCollector(tibjmsAdmin, includeProducersPatterns, showSystem, showTemp, metrics, fullMetricPrefix, phaser, collectedMetrics, queueTopicMetricPrefixes, displayDynamicIdsInMetricPath);
-                            configuration.getContext().getExecutorService().execute(displayName + ": ProducerMetricCollector", producerMetricCollector);
-                            break;
-                        case CONSUMER:
-                            ConsumerMetricCollector consumerMetricCollector = new ConsumerMetricCollector(tibjmsAdmin, includeConsumersPatterns, showSystem, showTemp, metrics, fullMetricPrefix, phaser, collectedMetrics, queueTopicMetricPrefixes, displayDynamicIdsInMetricPath);
-                            configuration.getContext().getExecutorService().execute(displayName + ": ConsumerMetricCollector", consumerMetricCollector);
-                            break;
-                        case ROUTE:
-                            RouteMetricCollector routeMetricCollector = new RouteMetricCollector(tibjmsAdmin, includeRoutesPatterns, showSystem, showTemp, metrics, fullMetricPrefix, phaser, collectedMetrics);
-                            configuration.getContext().getExecutorService().execute(displayName + ": RouteMetricCollector", routeMetricCollector);
-                            break;
-                        case DURABLE:
-                            DurableMetricCollector durableMetricCollector = new DurableMetricCollector(tibjmsAdmin, includeDurablesPatterns, showSystem, showTemp, metrics, fullMetricPrefix, phaser, collectedMetrics, queueTopicMetricPrefixes);
-                            configuration.getContext().getExecutorService().execute(displayName + ": DurableMetricCollector", durableMetricCollector);
-                            break;
-                    }
+    /**
+     * Settles the collectors of the run. Collectors which missed their deadline are reported as timed out, their
+     * metrics are dropped even if they arrive later. The buffers of the others are kept in the run for publishing.
+     *
+     * @return the status metrics of the collectors
+     */
+    private List<com.appdynamics.extensions.metrics.Metric> finishCollectors(ServerRun serverRun, List<Metrics> runningMetrics) {
+        ServerRunContext runContext = serverRun.runContext;
+        AdminSession adminSession = serverRun.adminSession;
+        String fullMetricPrefix = serverRun.fullMetricPrefix;
+        PublishedValues publishedValues = runContext.getPublishedValues();
+        SnapshotStore snapshotStore = runContext.getSnapshotStore();
+        CardinalityBudget cardinalityBudget = runContext.getCardinalityBudget();
+
+        List<com.appdynamics.extensions.metrics.Metric> collectorStatusMetrics = new ArrayList<>();
+        for (CollectorRun collectorRun : serverRun.collectorRuns) {
+            boolean timedOut = !collectorRun.collector.hasFinishedBy(collectorRun.deadlineNanos);
+            if (timedOut) {
+                logger.warn("{}MetricCollector for Tibco EMS server [ {} ] did not finish in time, dropping its metrics", collectorRun.type, serverRun.displayName);
+                adminSession.invalidate(collectorRun.type + "MetricCollector timed out");
+            }
+            if (collectorRun.collectedMetrics instanceof StreamingMetricBuffer) {
+                //Chunks published before the deadline stay published, whatever is still pending is dropped for late collectors
+                StreamingMetricBuffer streamingBuffer = (StreamingMetricBuffer) collectorRun.collectedMetrics;
+                streamingBuffer.close(!timedOut);
+                if (publishedValues != null && !timedOut && streamingBuffer.getDroppedCount() == 0) {
+                    publishedValues.commit(collectorRun.metrics);
                 }
+            } else if (!timedOut) {
+                serverRun.collectorBuffers.add(collectorRun.collectedMetrics);
+                serverRun.bufferedGroups.add(collectorRun.metrics);
+            }
+            collectorStatusMetrics.add(selfMetric(fullMetricPrefix, "Collectors|" + collectorRun.type + "|TimedOut", timedOut ? 1 : 0));
+
+            TibjmsAdminException adminFailure = collectorRun.collector.getAdminFailure();
+            if (adminFailure != null) {
+                adminSession.invalidate(adminFailure);
+            } else if (!timedOut) {
+                //Destinations the collector did not see anymore have disappeared from the server
+                runContext.getMetricPathCache().evictUnused(collectorRun.metrics);
+                snapshotStore.evictUnused(collectorRun.metrics);
+                if (publishedValues != null) {
+                    publishedValues.evictUnused(collectorRun.metrics);
+                }
+                cardinalityBudget.evictUnused(collectorRun.metrics);
             }
 
-            //Arrive for this task and Wait for all other tasks
-            phaser.arriveAndAwaitAdvance();
-        } catch (Exception e) {
-            logger.error("Unknown Error while collecting metrics from Tibco EMS server [ " + displayName + " ]", e);
-        } finally {
-            if (tibjmsAdmin != null) {
-                try {
-                    logger.debug(String.format("Closing collection to server %s", emsURL));
-                    tibjmsAdmin.close();
-                    logger.debug(String.format("Connection closed to server %s", emsURL));
-                } catch (TibjmsAdminException e) {
-                    logger.error("Error while closing the connection", e);
+            long snapshotInterval = snapshotStore.getIntervalInSeconds(collectorRun.metrics);
+            if (!timedOut && snapshotInterval >= 0) {
+                collectorStatusMetrics.add(selfMetric(fullMetricPrefix, "Collectors|" + collectorRun.type + "|SnapshotIntervalInSeconds", snapshotInterval));
+            }
+
+            if (!timedOut && collectorRun.collector instanceof ServerMetricCollector) {
+                ServerInfo serverInfo = ((ServerMetricCollector) collectorRun.collector).getServerInfo();
+                recordMemberState(adminSession, serverInfo);
+                if (serverInfo != null) {
+                    snapshotStore.verifyServerStartTime(serverInfo.getStartTime());
                 }
             }
         }
 
+        for (Metrics metrics : runningMetrics) {
+            collectorStatusMetrics.add(selfMetric(fullMetricPrefix, "Collectors|" + metrics.getType() + "|TimedOut", 1));
+        }
+
+        if (cardinalityBudget.getOverflowed() > 0) {
+            logger.warn("{} destinations of Tibco EMS server [ {} ] exceeded the metric path budget, they are published as {}",
+                    cardinalityBudget.getOverflowed(), serverRun.displayName, CardinalityBudget.OVERFLOW);
+        }
+        return collectorStatusMetrics;
+    }
+
+    /**
+     * Prints the buffered metrics of the collectors with the status metrics of the server. Values taken as published
+     * are only committed once the metrics of their group were printed.
+     */
+    private void publishMetrics(ServerRun serverRun, List<com.appdynamics.extensions.metrics.Metric> collectorStatusMetrics) {
+        ServerRunContext runContext = serverRun.runContext;
+        AdminSession adminSession = serverRun.adminSession;
+        String fullMetricPrefix = serverRun.fullMetricPrefix;
+        PublishedValues publishedValues = runContext.getPublishedValues();
+
+        List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = mergeCollectedMetrics(serverRun.collectorBuffers);
+
+        collectedMetrics.addAll(collectorStatusMetrics);
+        collectedMetrics.add(selfMetric(fullMetricPrefix, "Connection|Unreachable", 0));
+        collectedMetrics.add(selfMetric(fullMetricPrefix, "Connection|ConnectCount", adminSession.getConnectCount()));
+        collectedMetrics.add(selfMetric(fullMetricPrefix, "Connection|ReconnectCount", adminSession.getReconnectCount()));
+        if (serverRun.connectionPool != null) {
+            collectedMetrics.add(selfMetric(fullMetricPrefix, "Connection|OpenConnections", serverRun.connectionPool.getOpenCount()));
+        }
+        collectedMetrics.add(selfMetric(fullMetricPrefix, "MetricPathCache|HitRatio", runContext.getMetricPathCache().getHitRatio()));
+        collectedMetrics.add(selfMetric(fullMetricPrefix, "MetricPathCache|Size", runContext.getMetricPathCache().getSize()));
+        collectedMetrics.add(selfMetric(fullMetricPrefix, "SnapshotStore|Size", runContext.getSnapshotStore().getSize()));
+        collectedMetrics.add(selfMetric(fullMetricPrefix, "CardinalityBudget|Overflowed", runContext.getCardinalityBudget().getOverflowed()));
+        if (publishedValues != null) {
+            collectedMetrics.add(selfMetric(fullMetricPrefix, "PublishedValues|Suppressed", publishedValues.getSuppressed()));
+            collectedMetrics.add(selfMetric(fullMetricPrefix, "PublishedValues|Size", publishedValues.getSize()));
+        }
+
         try {
             if (collectedMetrics.size() > 0) {
                 logger.debug("Printing {} metrics", collectedMetrics.size());
                 metricWriteHelper.transformAndPrintMetrics(collectedMetrics);
             }
+            if (publishedValues != null) {
+                for (Metrics metrics : serverRun.bufferedGroups) {
+                    publishedValues.commit(metrics);
+                }
+            }
         } catch (Exception e) {
             logger.error("Unexpected error when printing metrics", e);
         }
     }
 
-    private TibjmsAdmin createConnection(String emsURL, String user, String plainPassword, Hashtable sslParams, String displayName) {
-        TibjmsAdmin tibjmsAdmin = null;
+    /**
+     * Asks the server for its start time before deltas are computed against values sampled over an earlier connection,
+     * the server may have restarted or failed over in between.
+     */
+    private void verifyServerStartTime(SnapshotStore snapshotStore, TibjmsAdmin tibjmsAdmin, String displayName) {
         try {
-            logger.debug(String.format("Connecting to %s as %s", emsURL, user));
-            tibjmsAdmin = new TibjmsAdmin(emsURL, user, plainPassword, sslParams);
+            snapshotStore.verifyServerStartTime(tibjmsAdmin.getInfo().getStartTime());
+        } catch (Exception e) {
+            logger.debug("Unable to get the start time of Tibco EMS server [ " + displayName + " ], starting deltas over", e);
+            snapshotStore.clear();
+        }
+    }
+
+    /**
+     * Remembers which member of a fault tolerant pair answered, see {@link AdminSession#recordMemberState}.
+     */
+    private void recordMemberState(AdminSession adminSession, ServerInfo serverInfo) {
+        if (serverInfo != null) {
+            adminSession.recordMemberState(serverInfo.getURL(), serverInfo.getState() == ServerInfo.SERVER_ACTIVE);
+        }
+    }
+
+    private static boolean isDue(List<Metrics> dueMetrics, DestinationType type) {
+        for (Metrics metrics : dueMetrics) {
+            if (type.getType().equalsIgnoreCase(metrics.getType())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the groups whose collector from an earlier run is still queued or running from the due groups.
+     *
+     * @return the removed groups
+     */
+    private List<Metrics> removeRunningMetrics(List<Metrics> dueMetrics, AdminSession adminSession, String displayName) {
+        List<Metrics> runningMetrics = new ArrayList<>();
+        Iterator<Metrics> iterator = dueMetrics.iterator();
+        while (iterator.hasNext()) {
+            Metrics metrics = iterator.next();
+            if (adminSession.isCollectorRunning(metrics.getType())) {
+                logger.warn("{}MetricCollector of an earlier run for Tibco EMS server [ {} ] has not finished yet, it is not started again",
+                        metrics.getType(), displayName);
+                runningMetrics.add(metrics);
+                iterator.remove();
+            }
+        }
+        return runningMetrics;
+    }
 
-        } catch (TibjmsAdminException e) {
-            logger.error("Error while connecting to Tibco EMS server [ " + displayName + " ]", e);
+    private void publishTimedOut(String fullMetricPrefix, List<Metrics> runningMetrics) {
+        List<com.appdynamics.extensions.metrics.Metric> collectorStatusMetrics = new ArrayList<>(runningMetrics.size());
+        for (Metrics metrics : runningMetrics) {
+            collectorStatusMetrics.add(selfMetric(fullMetricPrefix, "Collectors|" + metrics.getType() + "|TimedOut", 1));
+        }
+        try {
+            metricWriteHelper.transformAndPrintMetrics(collectorStatusMetrics);
         } catch (Exception e) {
-            logger.error("Unknown Error while connecting to Tibco EMS server [ " + displayName + " ]", e);
+            logger.error("Unexpected error when printing metrics", e);
         }
-        return tibjmsAdmin;
+    }
+
+    private void publishUnreachable(String fullMetricPrefix, ConnectCircuitBreaker circuitBreaker) {
+        List<com.appdynamics.extensions.metrics.Metric> connectionMetrics = new ArrayList<>(2);
+        connectionMetrics.add(selfMetric(fullMetricPrefix, "Connection|Unreachable", 1));
+        connectionMetrics.add(selfMetric(fullMetricPrefix, "Connection|ConsecutiveFailures", circuitBreaker.getConsecutiveFailures()));
+        try {
+            metricWriteHelper.transformAndPrintMetrics(connectionMetrics);
+        } catch (Exception e) {
+            logger.error("Unexpected error when printing metrics", e);
+        }
+    }
+
+    /**
+     * @return the enabled metrics groups whose interval has elapsed for this server
+     */
+    private List<Metrics> getDueMetrics(Metrics[] allMetrics, String serverKey, long nowNanos) {
+        List<Metrics> dueMetrics = new ArrayList<>();
+        for (Metrics metrics : allMetrics) {
+            if (!metrics.isEnabled()) {
+                continue;
+            }
+            if (collectorSchedule.isDue(serverKey, metrics.getType(), metrics.getIntervalInSeconds(), nowNanos)) {
+                dueMetrics.add(metrics);
+            } else {
+                logger.debug("{}MetricCollector for Tibco EMS server [ {} ] is not due in this run", metrics.getType(), serverKey);
+            }
+        }
+        return dueMetrics;
+    }
+
+    private void awaitCollectors(Phaser phaser, long deadlineNanos, String displayName) {
+        int phase = phaser.arrive();
+        try {
+            phaser.awaitAdvanceInterruptibly(phase, Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("Collection timeout reached for Tibco EMS server [ {} ], publishing the metrics collected so far", displayName);
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while waiting for the collectors of Tibco EMS server [ {} ]", displayName);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Concatenates the collector buffers in the order the collectors were started, sized once up front.
+     */
+    static List<com.appdynamics.extensions.metrics.Metric> mergeCollectedMetrics(List<List<com.appdynamics.extensions.metrics.Metric>> collectorBuffers) {
+        int size = 0;
+        for (List<com.appdynamics.extensions.metrics.Metric> collectorBuffer : collectorBuffers) {
+            size += collectorBuffer.size();
+        }
+
+        List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = new ArrayList<>(size);
+        for (List<com.appdynamics.extensions.metrics.Metric> collectorBuffer : collectorBuffers) {
+            collectedMetrics.addAll(collectorBuffer);
+        }
+        return collectedMetrics;
+    }
+
+    private com.appdynamics.extensions.metrics.Metric selfMetric(String fullMetricPrefix, String name, long value) {
+        String fullMetricPath = fullMetricPrefix + "|" + name;
+        String metricName = name.substring(name.lastIndexOf('|') + 1);
+        return new com.appdynamics.extensions.metrics.Metric(metricName, String.valueOf(value), fullMetricPath);
     }
 
     private Map<String, String> getQueueTopicMetricPrefixes(Metrics[] allMetrics) {
@@ -366,4 +726,51 @@ public class TibcoEMSMetricFetcher implements AMonitorTaskRunnable {
             throw new IllegalArgumentException(msg);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * The state of one run of the server, handed from stage to stage.
+     */
+    private static class ServerRun {
+        private final String serverKey;
+        private final String displayName;
+        private final String fullMetricPrefix;
+        private final long startNanos;
+        private final AdminSession adminSession;
+        private final ServerRunContext runContext;
+        private final TibjmsAdmin tibjmsAdmin;
+        private AdminConnectionPool connectionPool;
+        private Map<DestinationType, DestinationDecisions> destinationDecisions;
+        private long latestDeadlineNanos;
+        private final List<CollectorRun> collectorRuns = new ArrayList<>();
+        //The buffers of the collectors which finished in time, and their groups
+        private final List<List<com.appdynamics.extensions.metrics.Metric>> collectorBuffers = new ArrayList<>();
+        private final List<Metrics> bufferedGroups = new ArrayList<>();
+
+        ServerRun(String serverKey, String displayName, String fullMetricPrefix, long startNanos, AdminSession adminSession, TibjmsAdmin tibjmsAdmin) {
+            this.serverKey = serverKey;
+            this.displayName = displayName;
+            this.fullMetricPrefix = fullMetricPrefix;
+            this.startNanos = startNanos;
+            this.adminSession = adminSession;
+            this.runContext = adminSession.getRunContext();
+            this.tibjmsAdmin = tibjmsAdmin;
+            this.latestDeadlineNanos = startNanos;
+        }
+    }
+
+    private static class CollectorRun {
+        private final String type;
+        private final Metrics metrics;
+        private final AbstractMetricCollector collector;
+        private final List<com.appdynamics.extensions.metrics.Metric> collectedMetrics;
+        private final long deadlineNanos;
+
+        CollectorRun(String type, Metrics metrics, AbstractMetricCollector collector, List<com.appdynamics.extensions.metrics.Metric> collectedMetrics, long deadlineNanos) {
+            this.type = type;
+            this.metrics = metrics;
+            this.collector = collector;
+            this.collectedMetrics = collectedMetrics;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+}
@@ -11,12 +11,30 @@ package com.appdynamics.extensions.tibco;
 import com.appdynamics.extensions.ABaseMonitor;
 import com.appdynamics.extensions.TasksExecutionServiceProvider;
 import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.appdynamics.extensions.tibco.collectors.AttributeExtractors;
+import com.appdynamics.extensions.tibco.collectors.MetricMaterializer;
+import com.appdynamics.extensions.tibco.collectors.MetricPropertyMaps;
+import com.appdynamics.extensions.tibco.connection.AdminSessionRegistry;
+import com.appdynamics.extensions.tibco.execution.CollectorExecutor;
+import com.appdynamics.extensions.tibco.execution.CollectorSchedule;
+import com.appdynamics.extensions.tibco.execution.CollectorThreadPool;
+import com.appdynamics.extensions.tibco.execution.ServerBulkheads;
+import com.appdynamics.extensions.tibco.execution.VirtualThreadTask;
+import com.appdynamics.extensions.tibco.execution.VirtualThreads;
 import com.appdynamics.extensions.tibco.metrics.Metrics;
 import com.appdynamics.extensions.tibco.util.Constants;
 import com.appdynamics.extensions.util.AssertUtils;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
 
 /**
  * @author Satish Muddam
@@ -27,10 +45,51 @@ public class TibcoEMSMonitor extends ABaseMonitor {
 
     private static final org.slf4j.Logger logger = ExtensionsLoggerFactory.getLogger(TibcoEMSMonitor.class);
 
+    //Used when useVirtualThreads is enabled and no maxConcurrentAdminCalls is configured
+    private static final int DEFAULT_VIRTUAL_THREAD_ADMIN_CALLS = 64;
+
+    //The monitors closed by the shutdown hook, weakly held so that the hook keeps no discarded monitor alive
+    private static final Set<TibcoEMSMonitor> liveMonitors = Collections.newSetFromMap(new WeakHashMap<TibcoEMSMonitor, Boolean>());
+    private static boolean shutdownHookRegistered;
+
+    private final AdminSessionRegistry sessionRegistry = new AdminSessionRegistry();
+    private final CollectorSchedule collectorSchedule = new CollectorSchedule();
+    private final CollectorThreadPool collectorThreadPool = new CollectorThreadPool();
+
+    private volatile ExecutorService virtualThreadExecutor;
+    private volatile ForkJoinPool materializationPool;
+    private ServerBulkheads serverBulkheads;
+    private Semaphore adminCallPermits;
+    private int adminCallPermitCount;
+
     public TibcoEMSMonitor() {
         String msg = "Using Monitor Version [" + getImplementationVersion() + "]";
         logger.info(msg);
         System.out.println(msg);
+        //The machine agent keeps a monitor until it exits, the admin connections are closed on the way out
+        registerForShutdown(this);
+    }
+
+    /**
+     * Adds the monitor to those closed when the JVM exits. A single hook is registered for all monitors.
+     */
+    private static synchronized void registerForShutdown(TibcoEMSMonitor monitor) {
+        liveMonitors.add(monitor);
+        if (!shutdownHookRegistered) {
+            Runtime.getRuntime().addShutdownHook(new Thread(TibcoEMSMonitor::shutdownAll, "Tibco-EMS-Monitor-Shutdown"));
+            shutdownHookRegistered = true;
+        }
+    }
+
+    private static void shutdownAll() {
+        List<TibcoEMSMonitor> monitors;
+        synchronized (TibcoEMSMonitor.class) {
+            monitors = new ArrayList<>(liveMonitors);
+            liveMonitors.clear();
+        }
+        for (TibcoEMSMonitor monitor : monitors) {
+            monitor.shutdown();
+        }
     }
 
     protected String getDefaultMetricPrefix() {
@@ -43,19 +102,178 @@ public class TibcoEMSMonitor extends ABaseMonitor {
 
     protected void doRun(TasksExecutionServiceProvider tasksExecutionServiceProvider) {
 
-        List<Map<String, ?>> emsServers = (List<Map<String, ?>>)
-                this.getContextConfiguration().getConfigYml().get(Constants.SERVERS);
+        Map<String, ?> configYml = this.getContextConfiguration().getConfigYml();
+        List<Map<String, ?>> emsServers = (List<Map<String, ?>>) configYml.get(Constants.SERVERS);
 
+        Set<String> serverKeys = new HashSet<>();
         for (Map<String, ?> emsServer : emsServers) {
+            serverKeys.add(TibcoEMSMetricFetcher.getServerKey(emsServer));
+        }
+        //Drop the admin sessions and schedules of servers removed from config.yml
+        sessionRegistry.retainAll(serverKeys);
+        collectorSchedule.retainAll(serverKeys);
+
+        int enabledMetricsGroups = getEnabledMetricsGroupCount();
+        ExecutorService virtualThreads = getVirtualThreadExecutor(configYml);
+        Semaphore permits = getAdminCallPermits(configYml, virtualThreads != null);
 
-            TibcoEMSMetricFetcher task = new TibcoEMSMetricFetcher(tasksExecutionServiceProvider, this.getContextConfiguration(), emsServer);
+        //Collectors never run on the monitor's pool, where fetchers waiting for them could take every thread
+        ExecutorService collectorThreads;
+        int maxCollectorsInFlight;
+        if (virtualThreads != null) {
+            collectorThreads = virtualThreads;
+            maxCollectorsInFlight = Integer.MAX_VALUE;
+        } else {
+            collectorThreads = collectorThreadPool.resize(emsServers.size() * enabledMetricsGroups, adminCallPermitCount);
+            maxCollectorsInFlight = collectorThreadPool.getPoolSize();
+        }
+        checkNumberOfThreads(configYml, emsServers.size());
+
+        //Each server queues its collectors in its own bulkhead, threads are shared out between servers round robin
+        if (serverBulkheads == null) {
+            serverBulkheads = new ServerBulkheads(collectorThreads, maxCollectorsInFlight);
+        } else {
+            serverBulkheads.setExecutor(collectorThreads, maxCollectorsInFlight);
+        }
+        serverBulkheads.retainAll(serverKeys);
+        for (Map<String, ?> emsServer : emsServers) {
+            //By default a server runs at most one run's worth of collectors, those of a hung broker can not take every thread
+            int maxConcurrentCollectors = getInt(emsServer, "maxConcurrentCollectors");
+            serverBulkheads.configure(TibcoEMSMetricFetcher.getServerKey(emsServer), maxConcurrentCollectors > 0 ? maxConcurrentCollectors : enabledMetricsGroups,
+                    getInt(emsServer, "maxConcurrentAdminCalls"));
+        }
+
+        CollectorExecutor collectorExecutor = new CollectorExecutor(serverBulkheads, permits, getMetricMaterializer(configYml));
+
+        for (Map<String, ?> emsServer : emsServers) {
+
+            TibcoEMSMetricFetcher task = new TibcoEMSMetricFetcher(tasksExecutionServiceProvider, this.getContextConfiguration(), emsServer, sessionRegistry, collectorExecutor, collectorSchedule);
 
             if (emsServers.size() > 1) {
                 AssertUtils.assertNotNull(emsServer.get(Constants.DISPLAY_NAME),
                         "The displayName can not be null");
             }
-            tasksExecutionServiceProvider.submit((String) emsServer.get(Constants.DISPLAY_NAME), task);
+            //The run completes once a task finished for each server, so every server gets its own task in either mode
+            if (virtualThreads != null) {
+                tasksExecutionServiceProvider.submit((String) emsServer.get(Constants.DISPLAY_NAME), new VirtualThreadTask(task, virtualThreads));
+            } else {
+                tasksExecutionServiceProvider.submit((String) emsServer.get(Constants.DISPLAY_NAME), task);
+            }
+        }
+    }
+
+    /**
+     * @return the virtual thread executor if useVirtualThreads is enabled and supported by the runtime, null otherwise
+     */
+    private ExecutorService getVirtualThreadExecutor(Map<String, ?> configYml) {
+        if (!Boolean.TRUE.equals(configYml.get("useVirtualThreads"))) {
+            shutdownVirtualThreadExecutor();
+            return null;
+        }
+        if (!VirtualThreads.isSupported()) {
+            logger.warn("useVirtualThreads is enabled but Java {} has no virtual threads, using numberOfThreads platform threads", System.getProperty("java.version"));
+            return null;
+        }
+        if (virtualThreadExecutor == null) {
+            virtualThreadExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+        }
+        return virtualThreadExecutor;
+    }
+
+    /**
+     * Destination arrays with at least parallelMaterializationThreshold elements are converted to metrics on a
+     * fork-join pool shared by all collectors.
+     */
+    private MetricMaterializer getMetricMaterializer(Map<String, ?> configYml) {
+        Object threshold = configYml.get("parallelMaterializationThreshold");
+        int parallelMaterializationThreshold = threshold != null ? Integer.parseInt(threshold.toString().trim()) : 0;
+        if (parallelMaterializationThreshold <= 0) {
+            shutdownMaterializationPool();
+            return MetricMaterializer.SEQUENTIAL;
+        }
+        if (materializationPool == null) {
+            materializationPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return new MetricMaterializer(materializationPool, parallelMaterializationThreshold);
+    }
+
+    //Collectors still running on the executor finish, it takes no new ones
+    private void shutdownVirtualThreadExecutor() {
+        ExecutorService executor = virtualThreadExecutor;
+        if (executor != null) {
+            virtualThreadExecutor = null;
+            executor.shutdown();
+        }
+    }
+
+    private void shutdownMaterializationPool() {
+        ForkJoinPool pool = materializationPool;
+        if (pool != null) {
+            materializationPool = null;
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Closes the admin connections of all servers and stops the threads owned by the monitor. Connects in progress,
+     * e.g. to an unreachable server, are not waited for.
+     */
+    void shutdown() {
+        logger.info("Closing the admin sessions to the Tibco EMS servers");
+        sessionRegistry.shutdownAll();
+        collectorThreadPool.shutdown();
+        shutdownVirtualThreadExecutor();
+        shutdownMaterializationPool();
+    }
+
+    private static int getInt(Map<String, ?> emsServer, String key) {
+        Object value = emsServer.get(key);
+        return value != null ? Integer.parseInt(value.toString().trim()) : 0;
+    }
+
+    private int getEnabledMetricsGroupCount() {
+        Metrics.EMSMetrics emsMetrics = (Metrics.EMSMetrics) this.getContextConfiguration().getMetricsXml();
+        int enabledGroups = 0;
+        if (emsMetrics != null && emsMetrics.getMetrics() != null) {
+            for (Metrics metrics : emsMetrics.getMetrics()) {
+                if (metrics.isEnabled()) {
+                    enabledGroups++;
+                }
+            }
+        }
+        return enabledGroups;
+    }
+
+    /**
+     * The monitor's pool only runs fetcher tasks. Too few threads do not block the collectors, but delay whole servers.
+     */
+    private void checkNumberOfThreads(Map<String, ?> configYml, int fetcherTasks) {
+        Object numberOfThreads = configYml.get("numberOfThreads");
+        if (numberOfThreads != null && Integer.parseInt(numberOfThreads.toString().trim()) < fetcherTasks) {
+            logger.warn("numberOfThreads is {} but {} server tasks are submitted per run, servers will be collected one after the other. Set numberOfThreads to at least {}",
+                    numberOfThreads, fetcherTasks, fetcherTasks);
+        }
+    }
+
+    private Semaphore getAdminCallPermits(Map<String, ?> configYml, boolean virtualThreads) {
+        Object maxConcurrentAdminCalls = configYml.get("maxConcurrentAdminCalls");
+        int permitCount;
+        if (maxConcurrentAdminCalls != null) {
+            permitCount = Integer.parseInt(maxConcurrentAdminCalls.toString().trim());
+        } else if (virtualThreads) {
+            permitCount = DEFAULT_VIRTUAL_THREAD_ADMIN_CALLS;
+        } else {
+            //Bounded by numberOfThreads
+            permitCount = 0;
+        }
+
+        if (permitCount <= 0) {
+            adminCallPermits = null;
+        } else if (adminCallPermits == null || permitCount != adminCallPermitCount) {
+            adminCallPermits = new Semaphore(permitCount, true);
         }
+        adminCallPermitCount = permitCount;
+        return adminCallPermits;
     }
 
     @Override
@@ -68,5 +286,10 @@ public class TibcoEMSMonitor extends ABaseMonitor {
     @Override
     protected void initializeMoreStuff(Map<String, String> args) {
         getContextConfiguration().setMetricXml(args.get("metric-file"), Metrics.EMSMetrics.class);
+        //Fails the start up on attributes no collector knows, instead of failing a collector on every run
+        Metrics.EMSMetrics emsMetrics = (Metrics.EMSMetrics) getContextConfiguration().getMetricsXml();
+        AttributeExtractors.compile(emsMetrics);
+        //The metric properties never change after loading, collectors share one map per configured metric
+        MetricPropertyMaps.compile(emsMetrics);
     }
 }
\ No newline at end of file
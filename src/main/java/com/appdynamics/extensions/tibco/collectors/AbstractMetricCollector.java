@@ -8,15 +8,25 @@
 
 package com.appdynamics.extensions.tibco.collectors;
 
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
 import com.appdynamics.extensions.tibco.TibcoEMSMetricFetcher;
+import com.appdynamics.extensions.tibco.connection.AdminConnectionPool;
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
 import com.appdynamics.extensions.tibco.metrics.Metrics;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
 import com.tibco.tibjms.admin.TibjmsAdmin;
+import com.tibco.tibjms.admin.TibjmsAdminException;
 import org.slf4j.Logger;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * @author Satish Muddam
@@ -24,55 +34,483 @@ import java.util.regex.Pattern;
 public abstract class AbstractMetricCollector implements Runnable {
 
     TibjmsAdmin conn;
-    List<Pattern> includePatterns;
+    DestinationMatcher destinationMatcher;
     boolean showSystem;
     boolean showTemp;
     Metrics metrics;
     String metricPrefix;
 
-    protected static ObjectMapper objectMapper = new ObjectMapper();
+    private static final Logger collectorLogger = ExtensionsLoggerFactory.getLogger(AbstractMetricCollector.class);
 
+    private static final long NOT_FINISHED = Long.MIN_VALUE;
 
-    public AbstractMetricCollector(TibjmsAdmin conn, List<Pattern> includePatterns, boolean showSystem,
+    //Prefixes the keys of rollups in the per server stores, a character no destination name contains
+    private static final String ROLLUP_KEY_PREFIX = "\u0000";
+
+    private volatile TibjmsAdminException adminFailure;
+    private volatile long finishedAtNanos = NOT_FINISHED;
+    private volatile long startedAtNanos = NOT_FINISHED;
+    private final LongAdder includedDestinations = new LongAdder();
+    private final LongAdder excludedDestinations = new LongAdder();
+    private final LongAdder publishedMetrics = new LongAdder();
+    private Semaphore adminCallPermits;
+    private Semaphore serverAdminCallPermits;
+    private Runnable completionListener;
+    private MetricMaterializer metricMaterializer = MetricMaterializer.SEQUENTIAL;
+    private AdminConnectionPool adminConnectionPool;
+    private MetricPathCache metricPathCache;
+    private DestinationDecisions destinationDecisions;
+    private DestinationTrace destinationTrace;
+    private SnapshotStore snapshotStore;
+    private PublishedValues publishedValues;
+    private CardinalityBudget cardinalityBudget;
+
+
+    public AbstractMetricCollector(TibjmsAdmin conn, DestinationMatcher destinationMatcher, boolean showSystem,
                                    boolean showTemp, Metrics metrics, String metricPrefix) {
         this.conn = conn;
-        this.includePatterns = includePatterns;
+        this.destinationMatcher = destinationMatcher;
         this.showSystem = showSystem;
         this.showTemp = showTemp;
         this.metrics = metrics;
         this.metricPrefix = metricPrefix;
     }
 
-    boolean shouldMonitorDestination(String destName, List<Pattern> patternsToInclude, boolean showSystem, boolean showTemp, TibcoEMSMetricFetcher.DestinationType destinationType, Logger logger) {
+    /**
+     * Caps the number of admin calls in flight across collectors, independent of the number of threads running them.
+     */
+    public void setAdminCallPermits(Semaphore adminCallPermits) {
+        this.adminCallPermits = adminCallPermits;
+    }
+
+    /**
+     * Caps the number of admin calls in flight against this collector's EMS server.
+     */
+    public void setServerAdminCallPermits(Semaphore serverAdminCallPermits) {
+        this.serverAdminCallPermits = serverAdminCallPermits;
+    }
+
+    /**
+     * Called on the collector's thread once it added its last metric, before it is reported as finished.
+     */
+    public void setCompletionListener(Runnable completionListener) {
+        this.completionListener = completionListener;
+    }
+
+    /**
+     * Lets large admin call results be converted to metrics in parallel, see {@link MetricMaterializer}.
+     */
+    public void setMetricMaterializer(MetricMaterializer metricMaterializer) {
+        this.metricMaterializer = metricMaterializer;
+    }
+
+    /**
+     * Runs the admin calls on a connection borrowed from the server's pool instead of the shared <code>conn</code>.
+     */
+    public void setAdminConnectionPool(AdminConnectionPool adminConnectionPool) {
+        this.adminConnectionPool = adminConnectionPool;
+    }
+
+    /**
+     * Reuses the metric paths built in earlier runs instead of building them for every destination on every run.
+     */
+    public void setMetricPathCache(MetricPathCache metricPathCache) {
+        this.metricPathCache = metricPathCache;
+    }
+
+    /**
+     * Reuses the include and exclude decisions of earlier runs, so that a known destination costs one lookup.
+     */
+    public void setDestinationDecisions(DestinationDecisions destinationDecisions) {
+        this.destinationDecisions = destinationDecisions;
+    }
+
+    /**
+     * Logs each destination metrics are published for, rate limited by the trace. Without it only the summary of the
+     * run is logged, see {@link #markFinished()}.
+     */
+    public void setDestinationTrace(DestinationTrace destinationTrace) {
+        this.destinationTrace = destinationTrace;
+    }
+
+    void traceDestination(TibcoEMSMetricFetcher.DestinationType destinationType, String destName, Logger logger) {
+        DestinationTrace trace = this.destinationTrace;
+        if (trace != null) {
+            trace.trace(logger, destinationType.getType(), destName);
+        }
+    }
+
+    /**
+     * Counts metrics added to the collected metrics other than through {@link #materialize}, for the run's summary.
+     */
+    void countPublishedMetrics(int count) {
+        publishedMetrics.add(count);
+    }
+
+    /**
+     * Computes the <code>delta</code> and <code>rate</code> metrics of the group from the values of earlier runs.
+     */
+    public void setSnapshotStore(SnapshotStore snapshotStore) {
+        this.snapshotStore = snapshotStore;
+    }
+
+    /**
+     * @return the last values of the destination, or null if the group publishes every metric as read
+     */
+    SnapshotStore.DestinationSnapshot getSnapshot(String destinationKey) {
+        SnapshotStore store = this.snapshotStore;
+        return store == null ? null : store.get(metrics, destinationKey);
+    }
+
+    /**
+     * Publishes only the values which changed since they were last published, see {@link PublishedValues}.
+     */
+    public void setPublishedValues(PublishedValues publishedValues) {
+        this.publishedValues = publishedValues;
+    }
+
+    /**
+     * @return the last published values of the destination, or null if all values are published
+     */
+    PublishedValues.DestinationValues getPublishedValues(String destinationKey) {
+        PublishedValues store = this.publishedValues;
+        return store == null ? null : store.get(metrics, destinationKey);
+    }
+
+    /**
+     * @return the full path of each metric of the group for the destination, or null if they are not cached yet
+     */
+    String[] getCachedMetricPaths(String destinationKey) {
+        MetricPathCache cache = this.metricPathCache;
+        return cache == null ? null : cache.get(metrics, metricPrefix, destinationKey);
+    }
+
+    /**
+     * Builds the full path of each metric of the group, <code>basePath</code> followed by the metric's attr.
+     */
+    String[] cacheMetricPaths(String destinationKey, String basePath) {
+        MetricPathCache cache = this.metricPathCache;
+        if (cache == null) {
+            return MetricPathCache.buildPaths(metrics.getMetrics(), basePath);
+        }
+        return cache.put(metrics, metricPrefix, destinationKey, basePath);
+    }
+
+    /**
+     * Converts the elements returned by an admin call into metrics and appends them in array order.
+     */
+    <I> void materialize(I[] infos, Function<I, List<com.appdynamics.extensions.metrics.Metric>> toMetrics, List<com.appdynamics.extensions.metrics.Metric> collectedMetrics) {
+        metricMaterializer.materialize(infos, info -> {
+            List<com.appdynamics.extensions.metrics.Metric> infoMetrics = toMetrics.apply(info);
+            publishedMetrics.add(infoMetrics.size());
+            return infoMetrics;
+        }, collectedMetrics);
+    }
+
+    /**
+     * @return true if the group publishes only its top N destinations, see {@link TopDestinations}
+     */
+    boolean isTopN() {
+        return metrics.getTopN() != null;
+    }
+
+    /**
+     * Selects the group's top N monitored destinations by its <code>rankBy</code> attribute.
+     */
+    <I> TopDestinations<I> selectTopDestinations(I[] infos, Predicate<I> monitored) {
+        AttributeExtractor<I>[] extractors = AttributeExtractors.getExtractors(metrics);
+        return TopDestinations.select(infos, monitored, AttributeExtractors.getRankExtractor(metrics), metrics.getTopN(), extractors,
+                MetricSums.getAggregations(metrics.getMetrics()));
+    }
+
+    /**
+     * Caps the number of metric paths the group and the server publish, see {@link CardinalityBudget}.
+     */
+    public void setCardinalityBudget(CardinalityBudget cardinalityBudget) {
+        this.cardinalityBudget = cardinalityBudget;
+    }
+
+    /**
+     * @param pathsPerDestination the number of metric paths the collector publishes per destination
+     * @return the group's budget for this run, or null if all monitored destinations are published
+     */
+    CardinalityBudget.GroupBudget getCardinalityBudget(int pathsPerDestination) {
+        CardinalityBudget budget = this.cardinalityBudget;
+        return budget == null ? null : budget.getGroupBudget(metrics, pathsPerDestination);
+    }
 
-        logger.debug("Checking includes and excludes for " + destinationType.getType() + " with name " + destName);
+    /**
+     * Admits the monitored destinations within the group's budget. The others are combined by aggregationType and
+     * published under <code>overflowBasePath</code>, none of their metrics is built.
+     *
+     * @return the admitted elements, in array order
+     */
+    <I> I[] admitWithinBudget(CardinalityBudget.GroupBudget budget, I[] infos, Predicate<I> monitored, Function<I, String> destinationKey,
+                              String overflowBasePath, List<com.appdynamics.extensions.metrics.Metric> collectedMetrics) {
+        CardinalityBudget.Admission<I> admission = budget.admit(infos, monitored, destinationKey);
+        if (!admission.getOverflow().isEmpty()) {
+            AttributeExtractor<I>[] extractors = AttributeExtractors.getExtractors(metrics);
+            MetricSums overflow = new MetricSums(MetricSums.getAggregations(metrics.getMetrics()));
+            for (I info : admission.getOverflow()) {
+                overflow.add(extractors, info);
+            }
+            publishRollup(overflow, CardinalityBudget.OVERFLOW, overflowBasePath, collectedMetrics);
+        }
+        return admission.getAdmitted();
+    }
+
+    /**
+     * Admits the destinations combined from consumers or producers within the group's budget, the others are
+     * combined once more by aggregationType and published under <code>overflowBasePath</code>.
+     *
+     * @return the admitted destinations, in list order
+     */
+    List<StatisticsAggregator.Destination> admitDestinationsWithinBudget(List<StatisticsAggregator.Destination> destinations,
+                                                                        Function<StatisticsAggregator.Destination, String> destinationKey, String overflowBasePath,
+                                                                        List<com.appdynamics.extensions.metrics.Metric> collectedMetrics) {
+        //Each destination also publishes its number of consumers or producers
+        CardinalityBudget.GroupBudget budget = getCardinalityBudget(metrics.getMetrics().length + 1);
+        if (budget == null) {
+            return destinations;
+        }
+        CardinalityBudget.Admission<StatisticsAggregator.Destination> admission = budget.admit(
+                destinations.toArray(new StatisticsAggregator.Destination[destinations.size()]), destination -> true, destinationKey);
+        if (!admission.getOverflow().isEmpty()) {
+            MetricSums overflow = new MetricSums(MetricSums.getAggregations(metrics.getMetrics()));
+            for (StatisticsAggregator.Destination destination : admission.getOverflow()) {
+                overflow.add(destination);
+            }
+            publishRollup(overflow, CardinalityBudget.OVERFLOW, overflowBasePath, collectedMetrics);
+        }
+        return Arrays.asList(admission.getAdmitted());
+    }
+
+    /**
+     * Publishes the metrics of several destinations, combined by their <code>aggregationType</code>, as the destination
+     * <code>name</code> under <code>basePath</code>, followed by the number of those destinations. Used for the destinations not among the
+     * top N and those beyond the cardinality budget.
+     * <p>
+     * Delta and rate metrics are not published for a rollup: the destinations summed up change from run to run, the
+     * difference between two sums would not be a change of any counter.
+     * <p>
+     * The rollup is kept in the path cache and the published values under a reserved key, so that it never shares
+     * them with a destination of the same name.
+     */
+    void publishRollup(MetricSums sums, String name, String basePath, List<com.appdynamics.extensions.metrics.Metric> collectedMetrics) {
+        if (sums.getCount() == 0) {
+            return;
+        }
+        String rollupKey = ROLLUP_KEY_PREFIX + name;
+        String[] metricPaths = getCachedMetricPaths(rollupKey);
+        if (metricPaths == null) {
+            metricPaths = cacheMetricPaths(rollupKey, basePath);
+        }
+
+        com.appdynamics.extensions.tibco.metrics.Metric[] groupMetrics = metrics.getMetrics();
+        List<Map<String, String>> propertyMaps = MetricPropertyMaps.getPropertyMaps(metrics);
+
+        List<com.appdynamics.extensions.metrics.Metric> rollupMetrics = new ArrayList<>(groupMetrics.length + 1);
+        PublishedValues.DestinationValues publishedValues = getPublishedValues(rollupKey);
+        for (int i = 0; i < groupMetrics.length; i++) {
+            if (!SnapshotStore.isValue(groupMetrics[i])) {
+                continue;
+            }
+            long value = sums.getValue(i);
+            if (value == AttributeExtractor.NO_VALUE) {
+                continue;
+            }
+            if (publishedValues != null && !publishedValues.shouldPublish(i, value)) {
+                continue;
+            }
+            rollupMetrics.add(new com.appdynamics.extensions.metrics.Metric(groupMetrics[i].getAttr(), MetricValues.toString(value), metricPaths[i], propertyMaps.get(i)));
+        }
+        if (publishedValues == null || publishedValues.shouldPublishCount(sums.getCount())) {
+            rollupMetrics.add(new com.appdynamics.extensions.metrics.Metric(TopDestinations.DESTINATION_COUNT, MetricValues.toString(sums.getCount()),
+                    basePath + TopDestinations.DESTINATION_COUNT, MetricSums.COUNT_PROPERTIES));
+        }
+
+        collectedMetrics.addAll(rollupMetrics);
+        countPublishedMetrics(rollupMetrics.size());
+    }
+
+    /**
+     * Runs a call against the EMS server, holding the server's and then the global admin call permit for its
+     * duration if permits are configured. The server permit comes first so that a slow server queues on its own
+     * permits without holding global ones. The connection is borrowed last, once the call is allowed to run.
+     */
+    <T> T adminCall(AdminCall<T> call) throws TibjmsAdminException {
+        Semaphore serverPermits = this.serverAdminCallPermits;
+        if (serverPermits == null) {
+            return globalAdminCall(call);
+        }
+        serverPermits.acquireUninterruptibly();
+        try {
+            return globalAdminCall(call);
+        } finally {
+            serverPermits.release();
+        }
+    }
+
+    private <T> T globalAdminCall(AdminCall<T> call) throws TibjmsAdminException {
+        Semaphore permits = this.adminCallPermits;
+        if (permits == null) {
+            return pooledAdminCall(call);
+        }
+        permits.acquireUninterruptibly();
+        try {
+            return pooledAdminCall(call);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private <T> T pooledAdminCall(AdminCall<T> call) throws TibjmsAdminException {
+        AdminConnectionPool pool = this.adminConnectionPool;
+        if (pool == null) {
+            return call.call(conn);
+        }
+        TibjmsAdmin admin = pool.borrow();
+        boolean failed = true;
+        try {
+            T result = call.call(admin);
+            failed = false;
+            return result;
+        } finally {
+            pool.release(admin, failed);
+        }
+    }
+
+    /**
+     * Records that an admin call failed, so that the fetcher can replace the shared admin session.
+     */
+    void adminCallFailed(TibjmsAdminException e) {
+        this.adminFailure = e;
+    }
+
+    public TibjmsAdminException getAdminFailure() {
+        return adminFailure;
+    }
+
+    /**
+     * Records the start time of the run, reported in its summary.
+     */
+    void markStarted() {
+        this.startedAtNanos = System.nanoTime();
+    }
+
+    /**
+     * Records the completion time and logs the summary of the run. Must be called before arriving at the phaser,
+     * after the last metric was added.
+     */
+    void markFinished() {
+        Runnable listener = this.completionListener;
+        if (listener != null) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                collectorLogger.error("Error in completion listener of " + getClass().getSimpleName(), e);
+            }
+        }
+        long finishedAt = System.nanoTime();
+        this.finishedAtNanos = finishedAt;
+        logSummary(finishedAt);
+    }
+
+    private void logSummary(long finishedAt) {
+        if (!collectorLogger.isInfoEnabled()) {
+            return;
+        }
+        long startedAt = startedAtNanos;
+        long elapsedMillis = startedAt == NOT_FINISHED ? 0 : TimeUnit.NANOSECONDS.toMillis(finishedAt - startedAt);
+        long included = includedDestinations.sum();
+        long excluded = excludedDestinations.sum();
+        if (included + excluded == 0) {
+            collectorLogger.info("{} [ {} ] published {} metrics in {} ms", getClass().getSimpleName(), metricPrefix,
+                    publishedMetrics.sum(), elapsedMillis);
+        } else {
+            collectorLogger.info("{} [ {} ] published {} metrics for {} destinations in {} ms, {} destinations excluded",
+                    getClass().getSimpleName(), metricPrefix, publishedMetrics.sum(), included, elapsedMillis, excluded);
+        }
+    }
+
+    long getIncludedDestinations() {
+        return includedDestinations.sum();
+    }
+
+    long getExcludedDestinations() {
+        return excludedDestinations.sum();
+    }
+
+    long getPublishedMetrics() {
+        return publishedMetrics.sum();
+    }
+
+    /**
+     * @return true once this collector finished, false while it is queued or running
+     */
+    public boolean isFinished() {
+        return finishedAtNanos != NOT_FINISHED;
+    }
+
+    /**
+     * @return true if this collector finished no later than the given {@link System#nanoTime()} deadline
+     */
+    public boolean hasFinishedBy(long deadlineNanos) {
+        long finishedAt = finishedAtNanos;
+        return finishedAt != NOT_FINISHED && finishedAt - deadlineNanos <= 0;
+    }
+
+    boolean shouldMonitorDestination(String destName, DestinationMatcher destinationMatcher, boolean showSystem, boolean showTemp, TibcoEMSMetricFetcher.DestinationType destinationType, Logger logger) {
+        boolean monitored = decide(destName, destinationMatcher, showSystem, showTemp, destinationType, logger);
+        (monitored ? includedDestinations : excludedDestinations).increment();
+        return monitored;
+    }
+
+    private boolean decide(String destName, DestinationMatcher destinationMatcher, boolean showSystem, boolean showTemp, TibcoEMSMetricFetcher.DestinationType destinationType, Logger logger) {
+        DestinationDecisions decisions = this.destinationDecisions;
+        if (decisions == null || !decisions.isFor(destinationMatcher, showSystem, showTemp)) {
+            return isMonitored(destName, destinationMatcher, showSystem, showTemp, destinationType, logger);
+        }
+
+        Boolean decision = decisions.get(destName);
+        if (decision == null) {
+            decision = isMonitored(destName, destinationMatcher, showSystem, showTemp, destinationType, logger);
+            decisions.put(destName, decision);
+        }
+        return decision;
+    }
+
+    private boolean isMonitored(String destName, DestinationMatcher destinationMatcher, boolean showSystem, boolean showTemp, TibcoEMSMetricFetcher.DestinationType destinationType, Logger logger) {
 
         try {
             if (destName.startsWith("$TMP$.") && !showTemp) {
-                logger.debug("Skipping temporary " + destinationType.getType() + " '" + destName + "'");
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Skipping temporary " + destinationType.getType() + " '" + destName + "'");
+                }
                 return false;
             }
 
             if (destName.startsWith("$sys.") && !showSystem) {
-                logger.debug("Skipping system " + destinationType.getType() + " '" + destName + "'");
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Skipping system " + destinationType.getType() + " '" + destName + "'");
+                }
                 return false;
             }
 
-            if (patternsToInclude != null && patternsToInclude.size() > 0) {
-                logger.debug("Using patterns to include [" + patternsToInclude + "] to filter");
-                for (Pattern patternToInclude : patternsToInclude) {
-                    Matcher matcher = patternToInclude.matcher(destName);
-                    if (matcher.matches()) {
-                        logger.debug(String.format("Including '%s' '%s' due to include pattern '%s'",
-                                destinationType.getType(), destName, patternToInclude.pattern()));
-                        return true;
-                    }
-                }
+            //Exclude entries win over include entries, see DestinationMatcher
+            boolean monitored = destinationMatcher != null && destinationMatcher.matches(destName);
+            if (logger.isDebugEnabled()) {
+                logger.debug(String.format("%s '%s' %s by %s", destinationType.getType(), destName,
+                        monitored ? "included" : "not included", destinationMatcher));
             }
-            return false;
+            return monitored;
         } catch (Exception e) {
             logger.debug("Error in checking includes and excludes for  " + destinationType.getType() + " with name " + destName);
             return false;
         }
     }
-}
\ No newline at end of file
+
+    interface AdminCall<T> {
+        T call(TibjmsAdmin admin) throws TibjmsAdminException;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.TibcoEMSMetricFetcher;
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.appdynamics.extensions.tibco.metrics.Metrics;
+
+/**
+ * Resolves the attr of each metric in metrics.xml to the {@link AttributeExtractor} reading it, once per metrics
+ * group. Collectors then read their attributes through a plain array instead of matching attribute names.
+ */
+public final class AttributeExtractors {
+
+    private AttributeExtractors() {
+    }
+
+    /**
+     * Resolves the attributes of every enabled metrics group.
+     *
+     * @throws IllegalArgumentException if metrics.xml configures an attribute the group's collector does not know
+     */
+    public static void compile(Metrics.EMSMetrics emsMetrics) {
+        if (emsMetrics == null || emsMetrics.getMetrics() == null) {
+            return;
+        }
+        for (Metrics metrics : emsMetrics.getMetrics()) {
+            if (metrics.isEnabled()) {
+                getExtractors(metrics);
+                if (metrics.getTopN() != null) {
+                    getRankExtractor(metrics);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the extractors of the group in the order of {@link Metrics#getMetrics()}, resolved on first use
+     */
+    @SuppressWarnings("unchecked")
+    static <I> AttributeExtractor<I>[] getExtractors(Metrics metrics) {
+        AttributeExtractor<?>[] extractors = metrics.getExtractors();
+        if (extractors == null) {
+            extractors = resolve(metrics);
+            metrics.setExtractors(extractors);
+        }
+        return (AttributeExtractor<I>[]) extractors;
+    }
+
+    /**
+     * @return the extractor of the group's <code>rankBy</code> attribute, resolved on first use
+     * @throws IllegalArgumentException if <code>rankBy</code> is missing or the group's collector does not know it
+     */
+    @SuppressWarnings("unchecked")
+    static <I> AttributeExtractor<I> getRankExtractor(Metrics metrics) {
+        AttributeExtractor<?> extractor = metrics.getRankExtractor();
+        if (extractor == null) {
+            TibcoEMSMetricFetcher.DestinationType type = TibcoEMSMetricFetcher.DestinationType.byType(metrics.getType());
+            String rankBy = metrics.getRankBy();
+            if (!TopDestinations.supports(type)) {
+                throw new IllegalArgumentException("topN is not supported for " + type.getType() + " metrics in metrics.xml");
+            }
+            extractor = rankBy == null ? null : resolve(type, rankBy);
+            if (extractor == null) {
+                throw new IllegalArgumentException("Invalid rankBy [ " + rankBy + " ] configured with topN for " + type.getType() + " metrics in metrics.xml");
+            }
+            metrics.setRankExtractor(extractor);
+        }
+        return (AttributeExtractor<I>) extractor;
+    }
+
+    private static AttributeExtractor<?>[] resolve(Metrics metrics) {
+        TibcoEMSMetricFetcher.DestinationType type = TibcoEMSMetricFetcher.DestinationType.byType(metrics.getType());
+        Metric[] groupMetrics = metrics.getMetrics();
+        if (groupMetrics == null) {
+            return new AttributeExtractor<?>[0];
+        }
+
+        AttributeExtractor<?>[] extractors = new AttributeExtractor<?>[groupMetrics.length];
+        for (int i = 0; i < groupMetrics.length; i++) {
+            String attr = groupMetrics[i].getAttr();
+            extractors[i] = resolve(type, attr);
+            if (extractors[i] == null) {
+                throw new IllegalArgumentException("Invalid metric attr [ " + attr + " ] configured for " + type.getType() + " metrics in metrics.xml");
+            }
+        }
+        return extractors;
+    }
+
+    static AttributeExtractor<?> resolve(TibcoEMSMetricFetcher.DestinationType type, String attr) {
+        switch (type) {
+            case SERVER:
+                return ServerAttribute.byAttr(attr);
+            case QUEUE:
+            case TOPIC:
+                return DestinationAttribute.byAttr(type, attr);
+            case PRODUCER:
+            case CONSUMER:
+                return StatisticsAttribute.byAttr(attr);
+            case ROUTE:
+                return RouteAttribute.byAttr(attr);
+            case DURABLE:
+                return DurableAttribute.byAttr(attr);
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.appdynamics.extensions.tibco.metrics.Metrics;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Caps the number of distinct metric paths one EMS server publishes, in total ( <code>maxMetricPathsPerServer</code>
+ * in config.yml ) and per metrics group ( <code>maxMetricPaths</code> in metrics.xml ). Destinations are admitted
+ * before any of their metrics is built; destinations reported by earlier runs are admitted first and keep their
+ * share of the server's budget, new destinations get what is left. The destinations not admitted are combined by
+ * aggregationType, see {@link MetricSums}, and published as <code>Budget Overflow</code>, a path segment no destination can have as EMS destination names cannot
+ * contain spaces.
+ * <p>
+ * The paths of a group's rollups, <code>Budget Overflow</code> and with <code>topN</code> also <code>All Others</code>,
+ * each with their <code>DestinationCount</code>, are set aside in both budgets before any destination is admitted.
+ */
+public class CardinalityBudget {
+
+    public static final String OVERFLOW = "Budget Overflow";
+
+    private final Map<String, Group> groups = new ConcurrentHashMap<>();
+    private final AtomicInteger newPathsLeft = new AtomicInteger();
+    private final AtomicLong overflowed = new AtomicLong();
+    private volatile int maxServerPaths;
+    private volatile long run;
+
+    /**
+     * Starts a new run of the server's collectors. The paths of the groups' rollups and of the destinations reported
+     * by earlier runs are reserved, the rest of the server's budget is left to new destinations. If the budget was
+     * lowered and the reported destinations no longer fit, those beyond it compete with new destinations again.
+     *
+     * @param maxServerPaths the server's budget, 0 for none
+     */
+    public synchronized void beginRun(int maxServerPaths) {
+        run++;
+        this.maxServerPaths = maxServerPaths;
+        overflowed.set(0);
+        int reservedPaths = 0;
+        for (Group group : groups.values()) {
+            reservedPaths += group.rollupPaths + group.reported.size() * group.pathsPerDestination;
+        }
+        if (maxServerPaths > 0) {
+            for (Group group : groups.values()) {
+                Iterator<String> iterator = group.reported.keySet().iterator();
+                while (reservedPaths > maxServerPaths && iterator.hasNext()) {
+                    iterator.next();
+                    iterator.remove();
+                    reservedPaths -= group.pathsPerDestination;
+                }
+            }
+        }
+        newPathsLeft.set(Math.max(0, maxServerPaths - reservedPaths));
+    }
+
+    /**
+     * @param pathsPerDestination the number of metric paths the collector publishes per destination
+     * @return the group's budget for the current run, or null if neither the server nor the group has one
+     */
+    GroupBudget getGroupBudget(Metrics metrics, int pathsPerDestination) {
+        Integer maxGroupPaths = metrics.getMaxMetricPaths();
+        int maxServerPaths = this.maxServerPaths;
+        if (maxServerPaths <= 0 && (maxGroupPaths == null || maxGroupPaths <= 0)) {
+            groups.remove(metrics.getType());
+            return null;
+        }
+        Group group = getGroup(metrics, pathsPerDestination);
+        int maxDestinations = maxGroupPaths == null || maxGroupPaths <= 0 ? Integer.MAX_VALUE
+                : Math.max(0, maxGroupPaths - group.rollupPaths) / group.pathsPerDestination;
+        return new GroupBudget(group, maxDestinations, maxServerPaths > 0);
+    }
+
+    /**
+     * Forgets the destinations of the group which were not reported during the current run, their paths are left to
+     * other destinations by the next run.
+     */
+    public void evictUnused(Metrics metrics) {
+        Group group = groups.get(metrics.getType());
+        if (group == null) {
+            return;
+        }
+        long currentRun = run;
+        Iterator<Long> iterator = group.reported.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() != currentRun) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the number of destinations folded into Overflow during the current run
+     */
+    public long getOverflowed() {
+        return overflowed.get();
+    }
+
+    //The reported destinations of a group are dropped when metrics.xml changed, their number of paths may have changed
+    private Group getGroup(Metrics metrics, int pathsPerDestination) {
+        Group group = groups.get(metrics.getType());
+        if (group != null && group.groupMetrics == metrics.getMetrics() && group.pathsPerDestination == pathsPerDestination) {
+            return group;
+        }
+        Group newGroup = new Group(metrics, pathsPerDestination);
+        boolean replaced = group == null ? groups.putIfAbsent(metrics.getType(), newGroup) == null
+                : groups.replace(metrics.getType(), group, newGroup);
+        if (!replaced) {
+            //Another collector thread replaced it first
+            return groups.get(metrics.getType());
+        }
+        //A group new to this run reserves its rollup paths from what is left to new destinations
+        newPathsLeft.updateAndGet(pathsLeft -> Math.max(0, pathsLeft - newGroup.rollupPaths));
+        return newGroup;
+    }
+
+    private static class Group {
+        private final Metric[] groupMetrics;
+        private final int pathsPerDestination;
+        private final int rollupPaths;
+        private final Map<String, Long> reported = new ConcurrentHashMap<>();
+
+        Group(Metrics metrics, int pathsPerDestination) {
+            this.groupMetrics = metrics.getMetrics();
+            this.pathsPerDestination = Math.max(1, pathsPerDestination);
+            //Each rollup publishes the metrics of the group and its DestinationCount
+            int rollups = metrics.getTopN() != null ? 2 : 1;
+            this.rollupPaths = rollups * (groupMetrics.length + 1);
+        }
+    }
+
+    /**
+     * The budget of one collector run. Used by the collector's thread only.
+     */
+    class GroupBudget {
+        private final Group group;
+        private final boolean serverLimited;
+        private int destinationsLeft;
+
+        GroupBudget(Group group, int maxDestinations, boolean serverLimited) {
+            this.group = group;
+            this.destinationsLeft = maxDestinations;
+            this.serverLimited = serverLimited;
+        }
+
+        /**
+         * Admits the monitored elements of an admin call result, destinations reported by earlier runs first.
+         *
+         * @param monitored      decides whether an element is monitored at all, called once per element
+         * @param destinationKey the key of an element's destination, as used by {@link MetricPathCache}
+         */
+        @SuppressWarnings("unchecked")
+        <I> Admission<I> admit(I[] infos, Predicate<I> monitored, Function<I, String> destinationKey) {
+            boolean[] admitted = new boolean[infos.length];
+            int admittedCount = 0;
+            List<I> overflow = new ArrayList<>();
+            List<Integer> newDestinations = new ArrayList<>();
+
+            for (int i = 0; i < infos.length; i++) {
+                I info = infos[i];
+                if (!monitored.test(info)) {
+                    continue;
+                }
+                String key = destinationKey.apply(info);
+                if (!group.reported.containsKey(key)) {
+                    newDestinations.add(i);
+                } else if (admitReported(key)) {
+                    admitted[i] = true;
+                    admittedCount++;
+                } else {
+                    overflow.add(info);
+                }
+            }
+            for (int i : newDestinations) {
+                if (admitNew(destinationKey.apply(infos[i]))) {
+                    admitted[i] = true;
+                    admittedCount++;
+                } else {
+                    overflow.add(infos[i]);
+                }
+            }
+
+            I[] admittedInfos = (I[]) Array.newInstance(infos.getClass().getComponentType(), admittedCount);
+            for (int i = 0, j = 0; i < infos.length; i++) {
+                if (admitted[i]) {
+                    admittedInfos[j++] = infos[i];
+                }
+            }
+            overflowed.addAndGet(overflow.size());
+            return new Admission<>(admittedInfos, overflow);
+        }
+
+        //The paths of destinations reported before are reserved in the server's budget, see beginRun
+        private boolean admitReported(String key) {
+            if (destinationsLeft <= 0) {
+                return false;
+            }
+            destinationsLeft--;
+            group.reported.put(key, run);
+            return true;
+        }
+
+        private boolean admitNew(String key) {
+            if (destinationsLeft <= 0) {
+                return false;
+            }
+            if (serverLimited && newPathsLeft.addAndGet(-group.pathsPerDestination) < 0) {
+                newPathsLeft.addAndGet(group.pathsPerDestination);
+                return false;
+            }
+            destinationsLeft--;
+            group.reported.put(key, run);
+            return true;
+        }
+    }
+
+    static class Admission<I> {
+        private final I[] admitted;
+        private final List<I> overflow;
+
+        Admission(I[] admitted, List<I> overflow) {
+            this.admitted = admitted;
+            this.overflow = overflow;
+        }
+
+        /**
+         * @return the admitted elements, in array order
+         */
+        I[] getAdmitted() {
+            return admitted;
+        }
+
+        /**
+         * @return the monitored elements which did not fit the budget
+         */
+        List<I> getOverflow() {
+            return overflow;
+        }
+    }
+}
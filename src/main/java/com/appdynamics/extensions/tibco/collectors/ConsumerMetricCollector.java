@@ -10,8 +10,10 @@ package com.appdynamics.extensions.tibco.collectors;
 
 import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
 import com.appdynamics.extensions.tibco.TibcoEMSMetricFetcher;
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
 import com.appdynamics.extensions.tibco.metrics.Metric;
 import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
 import com.google.common.base.Strings;
 import com.tibco.tibjms.admin.ConsumerInfo;
 import com.tibco.tibjms.admin.StatData;
@@ -19,27 +21,32 @@ import com.tibco.tibjms.admin.TibjmsAdmin;
 import com.tibco.tibjms.admin.TibjmsAdminException;
 import org.slf4j.Logger;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Phaser;
-import java.util.regex.Pattern;
 
 /**
  * @author Satish Muddam
  */
 public class ConsumerMetricCollector extends AbstractMetricCollector {
     private static final Logger logger = ExtensionsLoggerFactory.getLogger(ConsumerMetricCollector.class);
+
+    /**
+     * The number of consumers of a destination, published with its summed up statistics.
+     */
+    static final String CONSUMER_COUNT = "ConsumerCount";
+
     private final Phaser phaser;
     private List<com.appdynamics.extensions.metrics.Metric> collectedMetrics;
     private Map<String, String> queueTopicMetricPrefixes;
     private Boolean displayDynamicIdsInMetricPath;
 
 
-    public ConsumerMetricCollector(TibjmsAdmin conn, List<Pattern> includePatterns, boolean showSystem,
+    public ConsumerMetricCollector(TibjmsAdmin conn, DestinationMatcher destinationMatcher, boolean showSystem,
                                    boolean showTemp, Metrics metrics, String metricPrefix, Phaser phaser, List<com.appdynamics.extensions.metrics.Metric> collectedMetrics, Map<String, String> queueTopicMetricPrefixes, Boolean displayDynamicIdsInMetricPath) {
-        super(conn, includePatterns, showSystem, showTemp, metrics, metricPrefix);
+        super(conn, destinationMatcher, showSystem, showTemp, metrics, metricPrefix);
         this.phaser = phaser;
         this.phaser.register();
         this.collectedMetrics = collectedMetrics;
@@ -52,30 +59,38 @@ public class ConsumerMetricCollector extends AbstractMetricCollector {
         if (logger.isDebugEnabled()) {
             logger.debug("Collecting consumer info");
         }
+        markStarted();
         try {
-            ConsumerInfo[] consumers = conn.getConsumersStatistics();
+            ConsumerInfo[] consumers = adminCall(admin -> admin.getConsumersStatistics());
 
             if (consumers == null || consumers.length <= 0) {
                 logger.info("No consumers found to get the consumers metrics");
                 return;
             }
 
-            for (ConsumerInfo consumerInfo : consumers) {
-
-                String thisPrefix = metrics.getMetricPrefix();
+            String thisPrefix = metrics.getMetricPrefix();
 
+            if (Boolean.TRUE.equals(displayDynamicIdsInMetricPath)) {
+                materialize(consumers, consumerInfo -> {
+                    String destinationName = consumerInfo.getDestinationName();
 
-                String destinationName = consumerInfo.getDestinationName();
-
-                if (shouldMonitorDestination(destinationName, includePatterns, showSystem, showTemp, TibcoEMSMetricFetcher.DestinationType.CONSUMER, logger)) {
-                    logger.info("Publishing metrics for consumer " + destinationName);
-                    List<com.appdynamics.extensions.metrics.Metric> consumerInfoMetrics = getConsumerInfo(consumerInfo, thisPrefix);
-                    collectedMetrics.addAll(consumerInfoMetrics);
-                }
+                    if (shouldMonitorDestination(destinationName, destinationMatcher, showSystem, showTemp, TibcoEMSMetricFetcher.DestinationType.CONSUMER, logger)) {
+                        traceDestination(TibcoEMSMetricFetcher.DestinationType.CONSUMER, destinationName, logger);
+                        return getConsumerInfo(consumerInfo, thisPrefix);
+                    }
+                    return Collections.emptyList();
+                }, collectedMetrics);
+            } else {
+                //Without ids the consumers of a destination share their paths, they are summed up and published once
+                List<com.appdynamics.extensions.metrics.Metric> destinationMetrics = getAggregatedConsumerInfo(consumers, thisPrefix);
+                collectedMetrics.addAll(destinationMetrics);
+                countPublishedMetrics(destinationMetrics.size());
             }
         } catch (TibjmsAdminException e) {
             logger.error("Error while collecting consumer metrics", e);
+            adminCallFailed(e);
         } finally {
+            markFinished();
             logger.debug("ConsumerMetricCollector Phaser arrived");
             phaser.arriveAndDeregister();
         }
@@ -86,22 +101,118 @@ public class ConsumerMetricCollector extends AbstractMetricCollector {
         List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = new ArrayList<>();
 
 
-        String prefix;
-        if (Strings.isNullOrEmpty(thisPrefix)) {
-            prefix = "Consumers|";
-        } else {
-            prefix = thisPrefix + "|";
+        String prefix = getConsumerPrefix(thisPrefix) + consumerInfo.getID() + "|";
+
+        String destinationPrefix = getDestinationPrefix(consumerInfo.getDestinationType(), consumerInfo.getDestinationName(), prefix);
+
+        Metric[] consumerMetrics = metrics.getMetrics();
+
+        StatData statistics = consumerInfo.getStatistics();
+
+        AttributeExtractor<StatData>[] extractors = AttributeExtractors.getExtractors(metrics);
+        List<Map<String, String>> propertyMaps = MetricPropertyMaps.getPropertyMaps(metrics);
+
+        //The destination prefix, which contains the consumer id, identifies the paths
+        String[] metricPaths = getCachedMetricPaths(destinationPrefix);
+        if (metricPaths == null) {
+            metricPaths = cacheMetricPaths(destinationPrefix, getBasePath(destinationPrefix));
+        }
+
+        SnapshotStore.DestinationSnapshot snapshot = getSnapshot(destinationPrefix);
+        PublishedValues.DestinationValues publishedValues = getPublishedValues(destinationPrefix);
+        for (int i = 0; i < consumerMetrics.length; i++) {
+            Metric metric = consumerMetrics[i];
+
+            String name = metric.getAttr();
+            long value = extractors[i].extract(statistics);
+            if (snapshot != null) {
+                value = snapshot.update(i, value);
+            }
+            if (value == AttributeExtractor.NO_VALUE) {
+                continue;
+            }
+            if (publishedValues != null && !publishedValues.shouldPublish(i, value)) {
+                continue;
+            }
+
+            Map<String, String> propertiesMap = propertyMaps.get(i);
+
+
+            String fullMetricPath = metricPaths[i];
+
+            com.appdynamics.extensions.metrics.Metric thisMetrix = new com.appdynamics.extensions.metrics.Metric(name, MetricValues.toString(value), fullMetricPath, propertiesMap);
+            collectedMetrics.add(thisMetrix);
+        }
+        return collectedMetrics;
+    }
+
+    private List<com.appdynamics.extensions.metrics.Metric> getAggregatedConsumerInfo(ConsumerInfo[] consumers, String thisPrefix) {
+
+        AttributeExtractor<StatData>[] extractors = AttributeExtractors.getExtractors(metrics);
+        StatisticsAggregator aggregator = new StatisticsAggregator(extractors, metrics.getMetrics());
+
+        for (ConsumerInfo consumerInfo : consumers) {
+            String destinationName = consumerInfo.getDestinationName();
+
+            if (shouldMonitorDestination(destinationName, destinationMatcher, showSystem, showTemp, TibcoEMSMetricFetcher.DestinationType.CONSUMER, logger)) {
+                traceDestination(TibcoEMSMetricFetcher.DestinationType.CONSUMER, destinationName, logger);
+                aggregator.add(consumerInfo.getDestinationType(), destinationName, consumerInfo.getStatistics());
+            }
         }
 
-        if (displayDynamicIdsInMetricPath) {
-            prefix += consumerInfo.getID() + "|";
+        String prefix = getConsumerPrefix(thisPrefix);
+        Metric[] consumerMetrics = metrics.getMetrics();
+        List<Map<String, String>> propertyMaps = MetricPropertyMaps.getPropertyMaps(metrics);
+
+        //The destinations beyond the budget are summed up before any of their metrics is built
+        List<StatisticsAggregator.Destination> destinations = admitDestinationsWithinBudget(aggregator.getDestinations(),
+                destination -> getDestinationPrefix(destination.getDestinationType(), destination.getDestinationName(), prefix),
+                getBasePath(prefix + CardinalityBudget.OVERFLOW), this.collectedMetrics);
+        List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = new ArrayList<>(destinations.size() * (consumerMetrics.length + 1));
+
+        for (StatisticsAggregator.Destination destination : destinations) {
+            String destinationPrefix = getDestinationPrefix(destination.getDestinationType(), destination.getDestinationName(), prefix);
+            String basePath = getBasePath(destinationPrefix);
+
+            String[] metricPaths = getCachedMetricPaths(destinationPrefix);
+            if (metricPaths == null) {
+                metricPaths = cacheMetricPaths(destinationPrefix, basePath);
+            }
+
+            SnapshotStore.DestinationSnapshot snapshot = getSnapshot(destinationPrefix);
+            PublishedValues.DestinationValues publishedValues = getPublishedValues(destinationPrefix);
+            for (int i = 0; i < consumerMetrics.length; i++) {
+                long value = destination.getValue(i);
+                if (snapshot != null) {
+                    value = snapshot.update(i, value);
+                }
+                if (value == AttributeExtractor.NO_VALUE) {
+                    continue;
+                }
+                if (publishedValues != null && !publishedValues.shouldPublish(i, value)) {
+                    continue;
+                }
+                collectedMetrics.add(new com.appdynamics.extensions.metrics.Metric(consumerMetrics[i].getAttr(), MetricValues.toString(value), metricPaths[i], propertyMaps.get(i)));
+            }
+
+            if (publishedValues == null || publishedValues.shouldPublishCount(destination.getCount())) {
+                collectedMetrics.add(new com.appdynamics.extensions.metrics.Metric(CONSUMER_COUNT, MetricValues.toString(destination.getCount()),
+                        basePath + CONSUMER_COUNT, MetricSums.COUNT_PROPERTIES));
+            }
         }
+        return collectedMetrics;
+    }
 
-        int destinationType = consumerInfo.getDestinationType();
-        String destinationName = consumerInfo.getDestinationName();
+    private String getConsumerPrefix(String thisPrefix) {
+        if (Strings.isNullOrEmpty(thisPrefix)) {
+            return "Consumers|";
+        }
+        return thisPrefix + "|";
+    }
 
+    private String getDestinationPrefix(int destinationType, String destinationName, String prefix) {
         String destinationPrefix;
-        if (destinationType == 2) {
+        if (destinationType == StatisticsAggregator.TOPIC) {
             String topicPrefix = queueTopicMetricPrefixes.get(TibcoEMSMetricFetcher.DestinationType.TOPIC.getType());
 
             if (Strings.isNullOrEmpty(topicPrefix)) {
@@ -119,46 +230,18 @@ public class ConsumerMetricCollector extends AbstractMetricCollector {
                 destinationPrefix = queuePrefix + "|";
             }
         }
-        destinationPrefix += destinationName + "|" + prefix;
-
-        Metric[] consumerMetrics = metrics.getMetrics();
-
-        StatData statistics = consumerInfo.getStatistics();
-
-        for (Metric metric : consumerMetrics) {
-
-            String name = metric.getAttr();
-            BigDecimal value = null;
-
-            if ("TotalMessages".equalsIgnoreCase(name) && statistics != null) {
-                long totalMessages = statistics.getTotalMessages();
-                value = BigDecimal.valueOf(totalMessages);
-            } else if ("TotalBytes".equalsIgnoreCase(name) && statistics != null) {
-                long totalBytes = statistics.getTotalBytes();
-                value = BigDecimal.valueOf(totalBytes);
-            } else if ("MessageRate".equalsIgnoreCase(name) && statistics != null) {
-                long messageRate = statistics.getMessageRate();
-                value = BigDecimal.valueOf(messageRate);
-            }
-
-            Map<String, String> propertiesMap = objectMapper.convertValue(metric, Map.class);
-
+        return destinationPrefix + destinationName + "|" + prefix;
+    }
 
-            StringBuilder sb = new StringBuilder(metricPrefix);
+    private String getBasePath(String destinationPrefix) {
+        StringBuilder sb = new StringBuilder(metricPrefix);
+        sb.append("|");
+        if (!Strings.isNullOrEmpty(destinationPrefix)) {
+            sb.append(destinationPrefix);
+        }
+        if (!sb.toString().endsWith("|")) {
             sb.append("|");
-            if (!Strings.isNullOrEmpty(destinationPrefix)) {
-                sb.append(destinationPrefix);
-            }
-            if(!sb.toString().endsWith("|")) {
-                sb.append("|");
-            }
-            sb.append(name);
-
-            String fullMetricPath = sb.toString();
-
-            com.appdynamics.extensions.metrics.Metric thisMetrix = new com.appdynamics.extensions.metrics.Metric(name, value.toString(), fullMetricPath, propertiesMap);
-            collectedMetrics.add(thisMetrix);
         }
-        return collectedMetrics;
+        return sb.toString();
     }
 }
\ No newline at end of file
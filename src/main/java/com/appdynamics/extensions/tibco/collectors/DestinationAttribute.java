@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.TibcoEMSMetricFetcher;
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
+import com.tibco.tibjms.admin.DestinationInfo;
+import com.tibco.tibjms.admin.QueueInfo;
+import com.tibco.tibjms.admin.StatData;
+import com.tibco.tibjms.admin.TopicInfo;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Queue and topic metric attributes of metrics.xml and the {@link DestinationInfo} getter each one reads. Attributes
+ * which only exist on {@link QueueInfo} or {@link TopicInfo} are only accepted for that type.
+ */
+public enum DestinationAttribute implements AttributeExtractor<DestinationInfo> {
+
+    CONSUMER_COUNT("ConsumerCount", DestinationInfo::getConsumerCount),
+    PENDING_MESSAGE_COUNT("PendingMessageCount", DestinationInfo::getPendingMessageCount),
+    PENDING_MESSAGE_SIZE("PendingMessageSize", DestinationInfo::getPendingMessageSize),
+    FLOW_CONTROL_MAX_BYTES("FlowControlMaxBytes", DestinationInfo::getFlowControlMaxBytes),
+    MAX_MSGS("MaxMsgs", DestinationInfo::getMaxMsgs),
+    MAX_BYTES("MaxBytes", DestinationInfo::getMaxBytes),
+    INBOUND_BYTE_RATE("InboundByteRate", DestinationInfo::getInboundStatistics, StatData::getByteRate),
+    INBOUND_MESSAGE_RATE("InboundMessageRate", DestinationInfo::getInboundStatistics, StatData::getMessageRate),
+    INBOUND_BYTE_COUNT("InboundByteCount", DestinationInfo::getInboundStatistics, StatData::getTotalBytes),
+    INBOUND_MESSAGE_COUNT("InboundMessageCount", DestinationInfo::getInboundStatistics, StatData::getTotalMessages),
+    OUTBOUND_BYTE_RATE("OutboundByteRate", DestinationInfo::getOutboundStatistics, StatData::getByteRate),
+    OUTBOUND_MESSAGE_RATE("OutboundMessageRate", DestinationInfo::getOutboundStatistics, StatData::getMessageRate),
+    OUTBOUND_BYTE_COUNT("OutboundByteCount", DestinationInfo::getOutboundStatistics, StatData::getTotalBytes),
+    OUTBOUND_MESSAGE_COUNT("OutboundMessageCount", DestinationInfo::getOutboundStatistics, StatData::getTotalMessages),
+
+    IN_TRANSIT_COUNT("InTransitCount", TibcoEMSMetricFetcher.DestinationType.QUEUE, info -> ((QueueInfo) info).getInTransitMessageCount()),
+    RECEIVER_COUNT("ReceiverCount", TibcoEMSMetricFetcher.DestinationType.QUEUE, info -> ((QueueInfo) info).getReceiverCount()),
+    MAX_REDELIVERY("MaxRedelivery", TibcoEMSMetricFetcher.DestinationType.QUEUE, info -> ((QueueInfo) info).getMaxRedelivery()),
+    DELIVERED_MESSAGE_COUNT("DeliveredMessageCount", TibcoEMSMetricFetcher.DestinationType.QUEUE, info -> ((QueueInfo) info).getDeliveredMessageCount()),
+
+    SUBSCRIBER_COUNT("SubscriberCount", TibcoEMSMetricFetcher.DestinationType.TOPIC, info -> ((TopicInfo) info).getSubscriberCount()),
+    ACTIVE_DURABLE_COUNT("ActiveDurableCount", TibcoEMSMetricFetcher.DestinationType.TOPIC, info -> ((TopicInfo) info).getActiveDurableCount()),
+    DURABLE_COUNT("DurableCount", TibcoEMSMetricFetcher.DestinationType.TOPIC, info -> ((TopicInfo) info).getDurableCount());
+
+    private static final Map<String, DestinationAttribute> BY_ATTR = new HashMap<>();
+
+    static {
+        for (DestinationAttribute attribute : values()) {
+            BY_ATTR.put(attribute.attr.toLowerCase(Locale.ROOT), attribute);
+        }
+    }
+
+    private final String attr;
+    //Null if the attribute exists on queues and topics
+    private final TibcoEMSMetricFetcher.DestinationType onlyType;
+    private final Function<DestinationInfo, StatData> statistics;
+    private final ToLongFunction<DestinationInfo> getter;
+    private final ToLongFunction<StatData> statisticsGetter;
+
+    DestinationAttribute(String attr, ToLongFunction<DestinationInfo> getter) {
+        this(attr, null, getter);
+    }
+
+    DestinationAttribute(String attr, TibcoEMSMetricFetcher.DestinationType onlyType, ToLongFunction<DestinationInfo> getter) {
+        this.attr = attr;
+        this.onlyType = onlyType;
+        this.statistics = null;
+        this.getter = getter;
+        this.statisticsGetter = null;
+    }
+
+    DestinationAttribute(String attr, Function<DestinationInfo, StatData> statistics, ToLongFunction<StatData> statisticsGetter) {
+        this.attr = attr;
+        this.onlyType = null;
+        this.statistics = statistics;
+        this.getter = null;
+        this.statisticsGetter = statisticsGetter;
+    }
+
+    public String getAttr() {
+        return attr;
+    }
+
+    public long extract(DestinationInfo destinationInfo) {
+        if (statistics == null) {
+            return getter.applyAsLong(destinationInfo);
+        }
+        StatData statData = statistics.apply(destinationInfo);
+        return statData == null ? NO_VALUE : statisticsGetter.applyAsLong(statData);
+    }
+
+    /**
+     * @return the attribute with the given metrics.xml name, ignoring case, or null if the destination type has none
+     */
+    public static DestinationAttribute byAttr(TibcoEMSMetricFetcher.DestinationType type, String attr) {
+        DestinationAttribute attribute = attr == null ? null : BY_ATTR.get(attr.toLowerCase(Locale.ROOT));
+        if (attribute == null || (attribute.onlyType != null && attribute.onlyType != type)) {
+            return null;
+        }
+        return attribute;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Whether each destination name of one type is monitored, remembered from run to run so that a name is matched against
+ * the include and exclude entries only the first time it is seen. Bound to one {@link DestinationMatcher} and one
+ * showSystem / showTemp setting, see {@link DestinationFilterCache}.
+ * <p>
+ * Once <code>maxDecisions</code> names are remembered the decisions are forgotten and collected again, so that names
+ * which come and go ( e.g. temporary queues ) cannot grow it without bound.
+ */
+public class DestinationDecisions {
+
+    private final DestinationMatcher destinationMatcher;
+    private final boolean showSystem;
+    private final boolean showTemp;
+    private final int maxDecisions;
+    private final Map<String, Boolean> decisions = new ConcurrentHashMap<>();
+
+    DestinationDecisions(DestinationMatcher destinationMatcher, boolean showSystem, boolean showTemp, int maxDecisions) {
+        this.destinationMatcher = destinationMatcher;
+        this.showSystem = showSystem;
+        this.showTemp = showTemp;
+        this.maxDecisions = maxDecisions;
+    }
+
+    public DestinationMatcher getDestinationMatcher() {
+        return destinationMatcher;
+    }
+
+    /**
+     * @return the remembered decision for the name, or null if it has to be made and {@link #put}
+     */
+    Boolean get(String name) {
+        return decisions.get(name);
+    }
+
+    void put(String name, boolean monitored) {
+        if (decisions.size() >= maxDecisions) {
+            decisions.clear();
+        }
+        decisions.put(name, monitored);
+    }
+
+    public int size() {
+        return decisions.size();
+    }
+
+    /**
+     * @return true if the decisions were made for the same settings, so they still hold
+     */
+    boolean isFor(DestinationMatcher destinationMatcher, boolean showSystem, boolean showTemp) {
+        return this.destinationMatcher == destinationMatcher && this.showSystem == showSystem && this.showTemp == showTemp;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.TibcoEMSMetricFetcher;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The destination filters of one EMS server, kept from run to run. The include and exclude entries of a destination type
+ * are compiled into a {@link DestinationMatcher} once, and its {@link DestinationDecisions} are kept, until the entries,
+ * showSystem or showTemp change.
+ */
+public class DestinationFilterCache {
+
+    public static final int DEFAULT_MAX_DECISIONS = 100000;
+
+    private final Map<TibcoEMSMetricFetcher.DestinationType, Filter> filters = new EnumMap<>(TibcoEMSMetricFetcher.DestinationType.class);
+
+    /**
+     * @return the decisions of earlier runs if the configuration of the type did not change, new decisions otherwise
+     */
+    public synchronized DestinationDecisions getDecisions(TibcoEMSMetricFetcher.DestinationType destinationType, List<String> includes,
+                                                          List<String> excludes, boolean emsWildcards, boolean showSystem,
+                                                          boolean showTemp, int maxDecisions) {
+        Filter filter = filters.get(destinationType);
+        if (filter == null || !filter.isFor(includes, excludes, emsWildcards, maxDecisions)) {
+            filter = new Filter(includes, excludes, emsWildcards, maxDecisions);
+            filters.put(destinationType, filter);
+        }
+        if (filter.decisions == null || !filter.decisions.isFor(filter.destinationMatcher, showSystem, showTemp)) {
+            filter.decisions = new DestinationDecisions(filter.destinationMatcher, showSystem, showTemp, maxDecisions);
+        }
+        return filter.decisions;
+    }
+
+    private static class Filter {
+        private final List<String> includes;
+        private final List<String> excludes;
+        private final boolean emsWildcards;
+        private final int maxDecisions;
+        private final DestinationMatcher destinationMatcher;
+        private DestinationDecisions decisions;
+
+        Filter(List<String> includes, List<String> excludes, boolean emsWildcards, int maxDecisions) {
+            this.includes = copy(includes);
+            this.excludes = copy(excludes);
+            this.emsWildcards = emsWildcards;
+            this.maxDecisions = maxDecisions;
+            this.destinationMatcher = DestinationMatcher.compile(includes, excludes, emsWildcards);
+        }
+
+        boolean isFor(List<String> includes, List<String> excludes, boolean emsWildcards, int maxDecisions) {
+            return Objects.equals(this.includes, includes) && Objects.equals(this.excludes, excludes)
+                    && this.emsWildcards == emsWildcards && this.maxDecisions == maxDecisions;
+        }
+
+        //config.yml lists may be changed in place when the configuration is reloaded
+        private static List<String> copy(List<String> entries) {
+            return entries == null ? null : Collections.unmodifiableList(new ArrayList<>(entries));
+        }
+    }
+}
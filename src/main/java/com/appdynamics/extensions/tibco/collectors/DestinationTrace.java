@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import org.slf4j.Logger;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs each destination a collector publishes metrics for, at most <code>maxLinesPerMinute</code> lines per minute.
+ * Lines over the limit are counted and reported once the minute is over. Only set on collectors when
+ * <code>traceDestinations</code> is enabled, otherwise the collectors log one summary line per run.
+ */
+public class DestinationTrace {
+
+    public static final int DEFAULT_MAX_LINES_PER_MINUTE = 100;
+
+    private static final long WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private int maxLinesPerMinute = DEFAULT_MAX_LINES_PER_MINUTE;
+    private long windowStartNanos = System.nanoTime();
+    private int lines;
+    private long suppressedLines;
+
+    public synchronized void setMaxLinesPerMinute(int maxLinesPerMinute) {
+        this.maxLinesPerMinute = maxLinesPerMinute;
+    }
+
+    void trace(Logger logger, String destinationType, String name) {
+        long suppressed;
+        synchronized (this) {
+            long now = System.nanoTime();
+            suppressed = 0;
+            if (now - windowStartNanos >= WINDOW_NANOS) {
+                suppressed = suppressedLines;
+                suppressedLines = 0;
+                lines = 0;
+                windowStartNanos = now;
+            }
+            if (lines >= maxLinesPerMinute) {
+                suppressedLines++;
+                return;
+            }
+            lines++;
+        }
+        if (suppressed > 0) {
+            logger.info("{} destination trace lines were suppressed in the last minute, see traceDestinationsPerMinute", suppressed);
+        }
+        logger.info("Publishing metrics for {} {}", destinationType.toLowerCase(Locale.ROOT), name);
+    }
+
+    synchronized long getSuppressedLines() {
+        return suppressedLines;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
+import com.tibco.tibjms.admin.DurableInfo;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Durable metric attributes of metrics.xml and the {@link DurableInfo} getter each one reads.
+ */
+public enum DurableAttribute implements AttributeExtractor<DurableInfo> {
+
+    PENDING_MESSAGE_COUNT("PendingMessageCount", DurableInfo::getPendingMessageCount),
+    PENDING_MESSAGE_SIZE("PendingMessageSize", DurableInfo::getPendingMessageSize);
+
+    private static final Map<String, DurableAttribute> BY_ATTR = new HashMap<>();
+
+    static {
+        for (DurableAttribute attribute : values()) {
+            BY_ATTR.put(attribute.attr.toLowerCase(Locale.ROOT), attribute);
+        }
+    }
+
+    private final String attr;
+    private final ToLongFunction<DurableInfo> getter;
+
+    DurableAttribute(String attr, ToLongFunction<DurableInfo> getter) {
+        this.attr = attr;
+        this.getter = getter;
+    }
+
+    public String getAttr() {
+        return attr;
+    }
+
+    public long extract(DurableInfo durableInfo) {
+        return getter.applyAsLong(durableInfo);
+    }
+
+    /**
+     * @return the attribute with the given metrics.xml name, ignoring case, or null if there is none
+     */
+    public static DurableAttribute byAttr(String attr) {
+        return attr == null ? null : BY_ATTR.get(attr.toLowerCase(Locale.ROOT));
+    }
+}
@@ -10,20 +10,22 @@ package com.appdynamics.extensions.tibco.collectors;
 
 import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
 import com.appdynamics.extensions.tibco.TibcoEMSMetricFetcher;
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
 import com.appdynamics.extensions.tibco.metrics.Metric;
 import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
 import com.google.common.base.Strings;
 import com.tibco.tibjms.admin.DurableInfo;
 import com.tibco.tibjms.admin.TibjmsAdmin;
 import com.tibco.tibjms.admin.TibjmsAdminException;
 import org.slf4j.Logger;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Phaser;
-import java.util.regex.Pattern;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * @author Satish Muddam
@@ -36,9 +38,9 @@ public class DurableMetricCollector extends AbstractMetricCollector {
     private Map<String, String> queueTopicMetricPrefixes;
 
 
-    public DurableMetricCollector(TibjmsAdmin conn, List<Pattern> includePatterns, boolean showSystem,
+    public DurableMetricCollector(TibjmsAdmin conn, DestinationMatcher destinationMatcher, boolean showSystem,
                                   boolean showTemp, Metrics metrics, String metricPrefix, Phaser phaser, List<com.appdynamics.extensions.metrics.Metric> collectedMetrics, Map<String, String> queueTopicMetricPrefixes) {
-        super(conn, includePatterns, showSystem, showTemp, metrics, metricPrefix);
+        super(conn, destinationMatcher, showSystem, showTemp, metrics, metricPrefix);
         this.phaser = phaser;
         this.phaser.register();
         this.collectedMetrics = collectedMetrics;
@@ -51,28 +53,60 @@ public class DurableMetricCollector extends AbstractMetricCollector {
             logger.debug("Collecting durables info");
         }
 
+        markStarted();
         try {
-            DurableInfo[] durables = conn.getDurables();
+            DurableInfo[] durables = adminCall(admin -> admin.getDurables());
 
             if (durables == null) {
                 logger.warn("Unable to get durable metrics");
             } else {
-                for (DurableInfo durableInfo : durables) {
-                    if (shouldMonitorDestination(durableInfo.getDurableName(), includePatterns, showSystem, showTemp, TibcoEMSMetricFetcher.DestinationType.DURABLE, logger)) {
-                        logger.info("Publishing metrics for durable " + durableInfo.getDurableName());
-                        List<com.appdynamics.extensions.metrics.Metric> durableInfoMetrics = getDurableInfo(durableInfo, metrics);
-                        collectedMetrics.addAll(durableInfoMetrics);
+                Predicate<DurableInfo> monitored = durableInfo ->
+                        shouldMonitorDestination(durableInfo.getDurableName(), destinationMatcher, showSystem, showTemp, TibcoEMSMetricFetcher.DestinationType.DURABLE, logger);
+                //Durable names are unique per topic only
+                Function<DurableInfo, String> durableKey = durableInfo -> durableInfo.getTopicName() + "|" + durableInfo.getDurableName();
+                CardinalityBudget.GroupBudget budget = getCardinalityBudget(metrics.getMetrics().length);
+
+                if (isTopN()) {
+                    //Only the top N durables get their own metrics, the others are summed up
+                    TopDestinations<DurableInfo> topDurables = selectTopDestinations(durables, monitored);
+                    DurableInfo[] selectedDurables = topDurables.getSelected();
+                    if (budget != null) {
+                        selectedDurables = admitWithinBudget(budget, selectedDurables, durableInfo -> true, durableKey, getRollupBasePath(CardinalityBudget.OVERFLOW), collectedMetrics);
+                    }
+                    for (DurableInfo durableInfo : selectedDurables) {
+                        publishDurable(durableInfo);
+                    }
+                    publishRollup(topDurables.getOthers(), TopDestinations.OTHERS, getRollupBasePath(TopDestinations.OTHERS), collectedMetrics);
+                } else if (budget != null) {
+                    //The durables beyond the budget are summed up before any of their metrics is built
+                    for (DurableInfo durableInfo : admitWithinBudget(budget, durables, monitored, durableKey, getRollupBasePath(CardinalityBudget.OVERFLOW), collectedMetrics)) {
+                        publishDurable(durableInfo);
+                    }
+                } else {
+                    for (DurableInfo durableInfo : durables) {
+                        if (monitored.test(durableInfo)) {
+                            publishDurable(durableInfo);
+                        }
                     }
                 }
             }
         } catch (TibjmsAdminException e) {
             logger.error("Error while collecting durable metrics", e);
+            adminCallFailed(e);
         } finally {
+            markFinished();
             logger.debug("DurableMetricCollector Phaser arrived");
             phaser.arriveAndDeregister();
         }
     }
 
+    private void publishDurable(DurableInfo durableInfo) {
+        traceDestination(TibcoEMSMetricFetcher.DestinationType.DURABLE, durableInfo.getDurableName(), logger);
+        List<com.appdynamics.extensions.metrics.Metric> durableInfoMetrics = getDurableInfo(durableInfo, metrics);
+        collectedMetrics.addAll(durableInfoMetrics);
+        countPublishedMetrics(durableInfoMetrics.size());
+    }
+
     private List<com.appdynamics.extensions.metrics.Metric> getDurableInfo(DurableInfo durableInfo, Metrics metrics) {
 
         List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = new ArrayList<>();
@@ -101,33 +135,50 @@ public class DurableMetricCollector extends AbstractMetricCollector {
 
         Metric[] durableMetrics = metrics.getMetrics();
 
-        for (Metric metric : durableMetrics) {
-            String name = metric.getAttr();
-
-            BigDecimal value = null;
-
-            if ("PendingMessageCount".equalsIgnoreCase(name)) {
-                long pendingMessageCount = durableInfo.getPendingMessageCount();
-                value = BigDecimal.valueOf(pendingMessageCount);
-            } else if ("PendingMessageSize".equalsIgnoreCase(name)) {
-                long pendingMessageSize = durableInfo.getPendingMessageSize();
-                value = BigDecimal.valueOf(pendingMessageSize);
-            }
-
-            Map<String, String> propertiesMap = objectMapper.convertValue(metric, Map.class);
+        AttributeExtractor<DurableInfo>[] extractors = AttributeExtractors.getExtractors(metrics);
+        List<Map<String, String>> propertyMaps = MetricPropertyMaps.getPropertyMaps(metrics);
 
+        String[] metricPaths = getCachedMetricPaths(destinationPrefix);
+        if (metricPaths == null) {
             StringBuilder sb = new StringBuilder(metricPrefix);
             sb.append("|");
             if (!Strings.isNullOrEmpty(destinationPrefix)) {
                 sb.append(destinationPrefix).append("|");
             }
-            sb.append(name);
+            metricPaths = cacheMetricPaths(destinationPrefix, sb.toString());
+        }
 
-            String fullMetricPath = sb.toString();
+        SnapshotStore.DestinationSnapshot snapshot = getSnapshot(destinationPrefix);
+        PublishedValues.DestinationValues publishedValues = getPublishedValues(destinationPrefix);
+        for (int i = 0; i < durableMetrics.length; i++) {
+            Metric metric = durableMetrics[i];
+            String name = metric.getAttr();
+
+            long value = extractors[i].extract(durableInfo);
+            if (snapshot != null) {
+                value = snapshot.update(i, value);
+            }
+            if (value == AttributeExtractor.NO_VALUE) {
+                continue;
+            }
+            if (publishedValues != null && !publishedValues.shouldPublish(i, value)) {
+                continue;
+            }
 
-            com.appdynamics.extensions.metrics.Metric thisMetric = new com.appdynamics.extensions.metrics.Metric(name, value.toString(), fullMetricPath, propertiesMap);
+            Map<String, String> propertiesMap = propertyMaps.get(i);
+
+            String fullMetricPath = metricPaths[i];
+
+            com.appdynamics.extensions.metrics.Metric thisMetric = new com.appdynamics.extensions.metrics.Metric(name, MetricValues.toString(value), fullMetricPath, propertiesMap);
             collectedMetrics.add(thisMetric);
         }
         return collectedMetrics;
     }
+
+    //Durables summed up belong to different topics, they are rolled up outside of the topics
+    private String getRollupBasePath(String name) {
+        String thisPrefix = metrics.getMetricPrefix();
+        String prefix = Strings.isNullOrEmpty(thisPrefix) ? "Durables" : thisPrefix;
+        return metricPrefix + "|" + prefix + "|" + name + "|";
+    }
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.metrics.Metric;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+/**
+ * Turns the info objects returned by an admin call ( QueueInfo, TopicInfo, ConsumerInfo, ProducerInfo ) into metrics.
+ * <p>
+ * Arrays of at least <code>threshold</code> elements are split into segments which are converted on a fork-join
+ * pool. The segment results are appended in array order, so the output is the same as the sequential loop.
+ */
+public class MetricMaterializer {
+
+    public static final MetricMaterializer SEQUENTIAL = new MetricMaterializer(null, 0);
+
+    //Below this a segment is not worth a fork-join task
+    static final int MIN_SEGMENT_SIZE = 256;
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    /**
+     * @param pool      pool converting the segments, or null to always convert sequentially
+     * @param threshold smallest array converted in parallel, 0 to always convert sequentially
+     */
+    public MetricMaterializer(ForkJoinPool pool, int threshold) {
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Appends the metrics of every element to <code>collectedMetrics</code>, in array order.
+     *
+     * @param toMetrics converts one element, returning an empty list for elements which are not monitored. Called
+     *                  concurrently in parallel mode, so any shared state it modifies must be thread safe.
+     */
+    public <I> void materialize(I[] infos, Function<I, List<Metric>> toMetrics, List<Metric> collectedMetrics) {
+        if (!isParallel(infos.length)) {
+            for (I info : infos) {
+                collectedMetrics.addAll(toMetrics.apply(info));
+            }
+            return;
+        }
+
+        int segmentSize = Math.max(MIN_SEGMENT_SIZE, infos.length / (pool.getParallelism() * 4));
+        int segmentCount = (infos.length + segmentSize - 1) / segmentSize;
+        List<List<Metric>> segments = new ArrayList<>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            segments.add(null);
+        }
+
+        pool.invoke(new SegmentTask<>(infos, toMetrics, segments, segmentSize, 0, segmentCount));
+
+        for (List<Metric> segment : segments) {
+            collectedMetrics.addAll(segment);
+        }
+    }
+
+    boolean isParallel(int size) {
+        return pool != null && threshold > 0 && size >= threshold;
+    }
+
+    private static class SegmentTask<I> extends RecursiveAction {
+
+        private final I[] infos;
+        private final Function<I, List<Metric>> toMetrics;
+        private final List<List<Metric>> segments;
+        private final int segmentSize;
+        private final int fromSegment;
+        private final int toSegment;
+
+        SegmentTask(I[] infos, Function<I, List<Metric>> toMetrics, List<List<Metric>> segments, int segmentSize, int fromSegment, int toSegment) {
+            this.infos = infos;
+            this.toMetrics = toMetrics;
+            this.segments = segments;
+            this.segmentSize = segmentSize;
+            this.fromSegment = fromSegment;
+            this.toSegment = toSegment;
+        }
+
+        @Override
+        protected void compute() {
+            if (toSegment - fromSegment > 1) {
+                int middle = (fromSegment + toSegment) >>> 1;
+                invokeAll(new SegmentTask<>(infos, toMetrics, segments, segmentSize, fromSegment, middle),
+                        new SegmentTask<>(infos, toMetrics, segments, segmentSize, middle, toSegment));
+                return;
+            }
+
+            int from = fromSegment * segmentSize;
+            int to = Math.min(infos.length, from + segmentSize);
+            List<Metric> segment = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                segment.addAll(toMetrics.apply(infos[i]));
+            }
+            //Each task writes its own index, the join in invoke() publishes the writes to the calling thread
+            segments.set(fromSegment, segment);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.appdynamics.extensions.tibco.metrics.Metrics;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The full metric paths of one EMS server, kept from run to run so that a destination's paths are built once instead
+ * of on every run. Paths are cached per metrics group and destination, one path per configured metric, and the same
+ * instances are returned until the destination disappears or the group's configuration changes.
+ * <p>
+ * At most <code>maxDestinations</code> destinations are cached, paths of further destinations are built on every run.
+ * A destination not seen by a run of its collector which completed is evicted, see {@link #evictUnused}.
+ */
+public class MetricPathCache {
+
+    public static final int DEFAULT_MAX_DESTINATIONS = 100000;
+
+    private final Map<String, GroupPaths> groups = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile int maxDestinations = DEFAULT_MAX_DESTINATIONS;
+    private volatile long run;
+
+    public void setMaxDestinations(int maxDestinations) {
+        this.maxDestinations = maxDestinations;
+    }
+
+    /**
+     * Starts counting hits and misses for a new run of the server's collectors.
+     */
+    public void beginRun() {
+        run++;
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * @return the cached paths of the destination, or null if they have to be built and {@link #put}
+     */
+    public String[] get(Metrics metrics, String metricPrefix, String destinationKey) {
+        GroupPaths groupPaths = getGroupPaths(metrics, metricPrefix);
+        Entry entry = groupPaths.entries.get(destinationKey);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.lastUsedRun = run;
+        hits.incrementAndGet();
+        return entry.paths;
+    }
+
+    /**
+     * Builds the paths of the destination, <code>basePath</code> followed by each metric's attr, and caches them
+     * unless the cache is full.
+     */
+    public String[] put(Metrics metrics, String metricPrefix, String destinationKey, String basePath) {
+        String[] paths = buildPaths(metrics.getMetrics(), basePath);
+        if (getSize() >= maxDestinations) {
+            return paths;
+        }
+        GroupPaths groupPaths = getGroupPaths(metrics, metricPrefix);
+        if (groupPaths.entries.putIfAbsent(destinationKey, new Entry(paths, run)) == null) {
+            groupPaths.size.incrementAndGet();
+        }
+        return paths;
+    }
+
+    /**
+     * Forgets the destinations of the group which were not seen during the current run. Only called once the
+     * group's collector completed, a collector which failed or timed out has not seen all destinations.
+     */
+    public void evictUnused(Metrics metrics) {
+        GroupPaths groupPaths = groups.get(metrics.getType());
+        if (groupPaths == null) {
+            return;
+        }
+        long currentRun = run;
+        Iterator<Entry> iterator = groupPaths.entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().lastUsedRun != currentRun) {
+                iterator.remove();
+                groupPaths.size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return the number of destinations whose paths are cached
+     */
+    public int getSize() {
+        int size = 0;
+        for (GroupPaths groupPaths : groups.values()) {
+            size += groupPaths.size.get();
+        }
+        return size;
+    }
+
+    /**
+     * @return the percentage of destinations whose paths were found in the cache during the current run
+     */
+    public long getHitRatio() {
+        long hits = this.hits.get();
+        long lookups = hits + misses.get();
+        return lookups == 0 ? 0 : hits * 100 / lookups;
+    }
+
+    static String[] buildPaths(Metric[] groupMetrics, String basePath) {
+        String[] paths = new String[groupMetrics.length];
+        for (int i = 0; i < groupMetrics.length; i++) {
+            paths[i] = basePath + groupMetrics[i].getAttr();
+        }
+        return paths;
+    }
+
+    //The cached paths of a group are dropped when metrics.xml or the server's metric prefix changed
+    private GroupPaths getGroupPaths(Metrics metrics, String metricPrefix) {
+        GroupPaths groupPaths = groups.get(metrics.getType());
+        if (groupPaths != null && groupPaths.matches(metrics, metricPrefix)) {
+            return groupPaths;
+        }
+        GroupPaths newGroupPaths = new GroupPaths(metrics.getMetrics(), metrics.getMetricPrefix(), metricPrefix);
+        boolean replaced = groupPaths == null ? groups.putIfAbsent(metrics.getType(), newGroupPaths) == null
+                : groups.replace(metrics.getType(), groupPaths, newGroupPaths);
+        //Otherwise another collector thread replaced it first
+        return replaced ? newGroupPaths : groups.get(metrics.getType());
+    }
+
+    private static class GroupPaths {
+        private final Metric[] groupMetrics;
+        private final String groupPrefix;
+        private final String metricPrefix;
+        private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        GroupPaths(Metric[] groupMetrics, String groupPrefix, String metricPrefix) {
+            this.groupMetrics = groupMetrics;
+            this.groupPrefix = groupPrefix;
+            this.metricPrefix = metricPrefix;
+        }
+
+        boolean matches(Metrics metrics, String metricPrefix) {
+            return groupMetrics == metrics.getMetrics() && Objects.equals(groupPrefix, metrics.getMetricPrefix())
+                    && this.metricPrefix.equals(metricPrefix);
+        }
+    }
+
+    private static class Entry {
+        private final String[] paths;
+        private volatile long lastUsedRun;
+
+        Entry(String[] paths, long lastUsedRun) {
+            this.paths = paths;
+            this.lastUsedRun = lastUsedRun;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The properties ( alias, multiplier, aggregation and roll up types, convert, ... ) handed to every published metric,
+ * converted from each configured {@link Metric} once per metrics group instead of once per destination. The maps are
+ * shared by all metrics of the attribute and cannot be modified.
+ */
+public final class MetricPropertyMaps {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private MetricPropertyMaps() {
+    }
+
+    /**
+     * Converts the properties of every enabled metrics group.
+     */
+    public static void compile(Metrics.EMSMetrics emsMetrics) {
+        if (emsMetrics == null || emsMetrics.getMetrics() == null) {
+            return;
+        }
+        for (Metrics metrics : emsMetrics.getMetrics()) {
+            if (metrics.isEnabled()) {
+                getPropertyMaps(metrics);
+            }
+        }
+    }
+
+    /**
+     * @return the properties of each metric of the group in the order of {@link Metrics#getMetrics()}, converted on first use
+     */
+    static List<Map<String, String>> getPropertyMaps(Metrics metrics) {
+        List<Map<String, String>> propertyMaps = metrics.getPropertyMaps();
+        if (propertyMaps == null) {
+            propertyMaps = convert(metrics.getMetrics());
+            metrics.setPropertyMaps(propertyMaps);
+        }
+        return propertyMaps;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, String>> convert(Metric[] groupMetrics) {
+        if (groupMetrics == null) {
+            return Collections.emptyList();
+        }
+        List<Map<String, String>> propertyMaps = new ArrayList<>(groupMetrics.length);
+        for (Metric metric : groupMetrics) {
+            Map<String, String> properties = objectMapper.convertValue(metric, Map.class);
+            //Deltas and rates are computed by the server's SnapshotStore, the metric writer must not compute them again
+            properties.remove("delta");
+            properties.remove("rate");
+            propertyMaps.add(Collections.unmodifiableMap(properties));
+        }
+        return Collections.unmodifiableList(propertyMaps);
+    }
+}
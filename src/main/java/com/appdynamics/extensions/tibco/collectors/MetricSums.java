@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+/**
+ * Each metric of a group combined over several admin call elements, kept in primitive arrays, and the number of
+ * elements combined. A metric is combined the way the controller aggregates values reported on one path by its
+ * <code>aggregationType</code>: SUM adds them up, AVERAGE averages them and OBSERVATION keeps the last one. A metric
+ * without aggregationType is averaged, as by the controller.
+ */
+class MetricSums {
+
+    //The number of elements summed up is observed, not summed over the minute
+    static final Map<String, String> COUNT_PROPERTIES = ImmutableMap.of("aggregationType", "OBSERVATION",
+            "timeRollUpType", "CURRENT", "clusterRollUpType", "COLLECTIVE");
+
+    enum Aggregation {
+        SUM, AVERAGE, OBSERVATION;
+
+        static Aggregation of(Metric metric) {
+            String aggregationType = metric.getAggregationType();
+            if (aggregationType == null) {
+                return AVERAGE;
+            }
+            switch (aggregationType.trim().toUpperCase()) {
+                case "SUM":
+                    return SUM;
+                case "OBSERVATION":
+                    return OBSERVATION;
+                default:
+                    return AVERAGE;
+            }
+        }
+    }
+
+    private final Aggregation[] aggregations;
+    private final long[] sums;
+    private final int[] valueCounts;
+    private final long[] lastValues;
+    private int count;
+
+    /**
+     * @param aggregations how each metric of the group is combined, see {@link #getAggregations(Metric[])}
+     */
+    MetricSums(Aggregation[] aggregations) {
+        this.aggregations = aggregations;
+        this.sums = new long[aggregations.length];
+        this.valueCounts = new int[aggregations.length];
+        this.lastValues = new long[aggregations.length];
+    }
+
+    /**
+     * @return the aggregation of each metric of the group, in the same order
+     */
+    static Aggregation[] getAggregations(Metric[] groupMetrics) {
+        Aggregation[] aggregations = new Aggregation[groupMetrics.length];
+        for (int i = 0; i < groupMetrics.length; i++) {
+            aggregations[i] = Aggregation.of(groupMetrics[i]);
+        }
+        return aggregations;
+    }
+
+    <I> void add(AttributeExtractor<I>[] extractors, I info) {
+        count++;
+        for (int i = 0; i < extractors.length; i++) {
+            long value = extractors[i].extract(info);
+            if (value != AttributeExtractor.NO_VALUE) {
+                add(i, value);
+            }
+        }
+    }
+
+    /**
+     * Adds the combined values of another element, which counts as one element.
+     */
+    void add(MetricSums element) {
+        count++;
+        for (int i = 0; i < sums.length; i++) {
+            long value = element.getValue(i);
+            if (value != AttributeExtractor.NO_VALUE) {
+                add(i, value);
+            }
+        }
+    }
+
+    private void add(int i, long value) {
+        sums[i] += value;
+        valueCounts[i]++;
+        lastValues[i] = value;
+    }
+
+    /**
+     * @return the i-th metric combined by its aggregationType, or {@link AttributeExtractor#NO_VALUE} if none of the
+     * elements had it
+     */
+    long getValue(int i) {
+        if (valueCounts[i] == 0) {
+            return AttributeExtractor.NO_VALUE;
+        }
+        switch (aggregations[i]) {
+            case SUM:
+                return sums[i];
+            case OBSERVATION:
+                return lastValues[i];
+            default:
+                return Math.round((double) sums[i] / valueCounts[i]);
+        }
+    }
+
+    /**
+     * @return the number of elements combined
+     */
+    int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+/**
+ * Formats metric values for {@link com.appdynamics.extensions.metrics.Metric}, which takes them as strings.
+ * <p>
+ * Values stay primitive longs from the info getter up to here. Multipliers and converters configured in metrics.xml are
+ * applied by the MetricWriteHelper from the metric's properties, so no BigDecimal is needed on the way. Small values,
+ * most of all the zeros of idle destinations, share one string instance instead of being formatted for every sample.
+ */
+public final class MetricValues {
+
+    static final int CACHED_VALUES = 1024;
+
+    private static final String[] SMALL_VALUES = new String[CACHED_VALUES];
+
+    static {
+        for (int i = 0; i < CACHED_VALUES; i++) {
+            SMALL_VALUES[i] = String.valueOf(i);
+        }
+    }
+
+    private MetricValues() {
+    }
+
+    public static String toString(long value) {
+        if (value >= 0 && value < CACHED_VALUES) {
+            return SMALL_VALUES[(int) value];
+        }
+        return Long.toString(value);
+    }
+}
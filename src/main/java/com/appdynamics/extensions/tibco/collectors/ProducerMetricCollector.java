@@ -10,8 +10,10 @@ package com.appdynamics.extensions.tibco.collectors;
 
 import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
 import com.appdynamics.extensions.tibco.TibcoEMSMetricFetcher;
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
 import com.appdynamics.extensions.tibco.metrics.Metric;
 import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
 import com.google.common.base.Strings;
 import com.tibco.tibjms.admin.ProducerInfo;
 import com.tibco.tibjms.admin.StatData;
@@ -19,27 +21,32 @@ import com.tibco.tibjms.admin.TibjmsAdmin;
 import com.tibco.tibjms.admin.TibjmsAdminException;
 import org.slf4j.Logger;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Phaser;
-import java.util.regex.Pattern;
 
 /**
  * @author Satish Muddam
  */
 public class ProducerMetricCollector extends AbstractMetricCollector {
     private static final Logger logger = ExtensionsLoggerFactory.getLogger(ProducerMetricCollector.class);
+
+    /**
+     * The number of producers of a destination, published with its summed up statistics.
+     */
+    static final String PRODUCER_COUNT = "ProducerCount";
+
     private final Phaser phaser;
     private List<com.appdynamics.extensions.metrics.Metric> collectedMetrics;
     private Map<String, String> queueTopicMetricPrefixes;
     private Boolean displayDynamicIdsInMetricPath;
 
 
-    public ProducerMetricCollector(TibjmsAdmin conn, List<Pattern> includePatterns, boolean showSystem,
+    public ProducerMetricCollector(TibjmsAdmin conn, DestinationMatcher destinationMatcher, boolean showSystem,
                                    boolean showTemp, Metrics metrics, String metricPrefix, Phaser phaser, List<com.appdynamics.extensions.metrics.Metric> collectedMetrics, Map<String, String> queueTopicMetricPrefixes, Boolean displayDynamicIdsInMetricPath) {
-        super(conn, includePatterns, showSystem, showTemp, metrics, metricPrefix);
+        super(conn, destinationMatcher, showSystem, showTemp, metrics, metricPrefix);
         this.phaser = phaser;
         this.phaser.register();
         this.collectedMetrics = collectedMetrics;
@@ -52,30 +59,38 @@ public class ProducerMetricCollector extends AbstractMetricCollector {
         if (logger.isDebugEnabled()) {
             logger.debug("Collecting producers info");
         }
+        markStarted();
         try {
-            ProducerInfo[] producersStatistics = conn.getProducersStatistics();
+            ProducerInfo[] producersStatistics = adminCall(admin -> admin.getProducersStatistics());
 
             if (producersStatistics == null || producersStatistics.length <= 0) {
                 logger.info("No producers found to get the producers metrics");
                 return;
             }
 
-            for (ProducerInfo producerInfo : producersStatistics) {
-
-                String thisPrefix = metrics.getMetricPrefix();
+            String thisPrefix = metrics.getMetricPrefix();
 
+            if (Boolean.TRUE.equals(displayDynamicIdsInMetricPath)) {
+                materialize(producersStatistics, producerInfo -> {
+                    String destinationName = producerInfo.getDestinationName();
 
-                String destinationName = producerInfo.getDestinationName();
-
-                if (shouldMonitorDestination(destinationName, includePatterns, showSystem, showTemp, TibcoEMSMetricFetcher.DestinationType.PRODUCER, logger)) {
-                    logger.info("Publishing metrics for producer " + destinationName);
-                    List<com.appdynamics.extensions.metrics.Metric> producerInfoMetrics = getProducerInfo(producerInfo, thisPrefix);
-                    collectedMetrics.addAll(producerInfoMetrics);
-                }
+                    if (shouldMonitorDestination(destinationName, destinationMatcher, showSystem, showTemp, TibcoEMSMetricFetcher.DestinationType.PRODUCER, logger)) {
+                        traceDestination(TibcoEMSMetricFetcher.DestinationType.PRODUCER, destinationName, logger);
+                        return getProducerInfo(producerInfo, thisPrefix);
+                    }
+                    return Collections.emptyList();
+                }, collectedMetrics);
+            } else {
+                //Without ids the producers of a destination share their paths, they are summed up and published once
+                List<com.appdynamics.extensions.metrics.Metric> destinationMetrics = getAggregatedProducerInfo(producersStatistics, thisPrefix);
+                collectedMetrics.addAll(destinationMetrics);
+                countPublishedMetrics(destinationMetrics.size());
             }
         } catch (TibjmsAdminException e) {
             logger.error("Error while collecting producer metrics", e);
+            adminCallFailed(e);
         } finally {
+            markFinished();
             logger.debug("ProducerMetricCollector Phaser arrived");
             phaser.arriveAndDeregister();
         }
@@ -86,22 +101,117 @@ public class ProducerMetricCollector extends AbstractMetricCollector {
         List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = new ArrayList<>();
 
 
-        String prefix;
-        if (Strings.isNullOrEmpty(thisPrefix)) {
-            prefix = "Producers|";
-        } else {
-            prefix = thisPrefix + "|";
+        String prefix = getProducerPrefix(thisPrefix) + producerInfo.getID() + "|";
+
+        String destinationPrefix = getDestinationPrefix(producerInfo.getDestinationType(), producerInfo.getDestinationName(), prefix);
+
+        Metric[] producerMetrics = metrics.getMetrics();
+
+        StatData statistics = producerInfo.getStatistics();
+
+        AttributeExtractor<StatData>[] extractors = AttributeExtractors.getExtractors(metrics);
+        List<Map<String, String>> propertyMaps = MetricPropertyMaps.getPropertyMaps(metrics);
+
+        //The destination prefix, which contains the producer id, identifies the paths
+        String[] metricPaths = getCachedMetricPaths(destinationPrefix);
+        if (metricPaths == null) {
+            metricPaths = cacheMetricPaths(destinationPrefix, getBasePath(destinationPrefix));
         }
 
-        if (displayDynamicIdsInMetricPath) {
-            prefix += producerInfo.getID() + "|";
+        SnapshotStore.DestinationSnapshot snapshot = getSnapshot(destinationPrefix);
+        PublishedValues.DestinationValues publishedValues = getPublishedValues(destinationPrefix);
+        for (int i = 0; i < producerMetrics.length; i++) {
+            Metric metric = producerMetrics[i];
+
+            String name = metric.getAttr();
+            long value = extractors[i].extract(statistics);
+            if (snapshot != null) {
+                value = snapshot.update(i, value);
+            }
+            if (value == AttributeExtractor.NO_VALUE) {
+                continue;
+            }
+            if (publishedValues != null && !publishedValues.shouldPublish(i, value)) {
+                continue;
+            }
+
+            Map<String, String> propertiesMap = propertyMaps.get(i);
+
+            String fullMetricPath = metricPaths[i];
+
+            com.appdynamics.extensions.metrics.Metric thisMetric = new com.appdynamics.extensions.metrics.Metric(name, MetricValues.toString(value), fullMetricPath, propertiesMap);
+            collectedMetrics.add(thisMetric);
         }
+        return collectedMetrics;
+    }
+
+    private List<com.appdynamics.extensions.metrics.Metric> getAggregatedProducerInfo(ProducerInfo[] producersStatistics, String thisPrefix) {
+
+        AttributeExtractor<StatData>[] extractors = AttributeExtractors.getExtractors(metrics);
+        StatisticsAggregator aggregator = new StatisticsAggregator(extractors, metrics.getMetrics());
+
+        for (ProducerInfo producerInfo : producersStatistics) {
+            String destinationName = producerInfo.getDestinationName();
+
+            if (shouldMonitorDestination(destinationName, destinationMatcher, showSystem, showTemp, TibcoEMSMetricFetcher.DestinationType.PRODUCER, logger)) {
+                traceDestination(TibcoEMSMetricFetcher.DestinationType.PRODUCER, destinationName, logger);
+                aggregator.add(producerInfo.getDestinationType(), destinationName, producerInfo.getStatistics());
+            }
+        }
+
+        String prefix = getProducerPrefix(thisPrefix);
+        Metric[] producerMetrics = metrics.getMetrics();
+        List<Map<String, String>> propertyMaps = MetricPropertyMaps.getPropertyMaps(metrics);
+
+        //The destinations beyond the budget are summed up before any of their metrics is built
+        List<StatisticsAggregator.Destination> destinations = admitDestinationsWithinBudget(aggregator.getDestinations(),
+                destination -> getDestinationPrefix(destination.getDestinationType(), destination.getDestinationName(), prefix),
+                getBasePath(prefix + CardinalityBudget.OVERFLOW), this.collectedMetrics);
+        List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = new ArrayList<>(destinations.size() * (producerMetrics.length + 1));
 
-        int destinationType = producerInfo.getDestinationType();
-        String destinationName = producerInfo.getDestinationName();
+        for (StatisticsAggregator.Destination destination : destinations) {
+            String destinationPrefix = getDestinationPrefix(destination.getDestinationType(), destination.getDestinationName(), prefix);
+            String basePath = getBasePath(destinationPrefix);
 
+            String[] metricPaths = getCachedMetricPaths(destinationPrefix);
+            if (metricPaths == null) {
+                metricPaths = cacheMetricPaths(destinationPrefix, basePath);
+            }
+
+            SnapshotStore.DestinationSnapshot snapshot = getSnapshot(destinationPrefix);
+            PublishedValues.DestinationValues publishedValues = getPublishedValues(destinationPrefix);
+            for (int i = 0; i < producerMetrics.length; i++) {
+                long value = destination.getValue(i);
+                if (snapshot != null) {
+                    value = snapshot.update(i, value);
+                }
+                if (value == AttributeExtractor.NO_VALUE) {
+                    continue;
+                }
+                if (publishedValues != null && !publishedValues.shouldPublish(i, value)) {
+                    continue;
+                }
+                collectedMetrics.add(new com.appdynamics.extensions.metrics.Metric(producerMetrics[i].getAttr(), MetricValues.toString(value), metricPaths[i], propertyMaps.get(i)));
+            }
+
+            if (publishedValues == null || publishedValues.shouldPublishCount(destination.getCount())) {
+                collectedMetrics.add(new com.appdynamics.extensions.metrics.Metric(PRODUCER_COUNT, MetricValues.toString(destination.getCount()),
+                        basePath + PRODUCER_COUNT, MetricSums.COUNT_PROPERTIES));
+            }
+        }
+        return collectedMetrics;
+    }
+
+    private String getProducerPrefix(String thisPrefix) {
+        if (Strings.isNullOrEmpty(thisPrefix)) {
+            return "Producers|";
+        }
+        return thisPrefix + "|";
+    }
+
+    private String getDestinationPrefix(int destinationType, String destinationName, String prefix) {
         String destinationPrefix;
-        if (destinationType == 2) {
+        if (destinationType == StatisticsAggregator.TOPIC) {
             String topicPrefix = queueTopicMetricPrefixes.get(TibcoEMSMetricFetcher.DestinationType.TOPIC.getType());
 
             if (Strings.isNullOrEmpty(topicPrefix)) {
@@ -119,46 +229,18 @@ public class ProducerMetricCollector extends AbstractMetricCollector {
                 destinationPrefix = queuePrefix + "|";
             }
         }
-        destinationPrefix += destinationName + "|" + prefix;
-
-
-        Metric[] producerMetrics = metrics.getMetrics();
-
-        StatData statistics = producerInfo.getStatistics();
-
-        for (Metric metric : producerMetrics) {
-
-            String name = metric.getAttr();
-            BigDecimal value = null;
-
-            if ("TotalMessages".equalsIgnoreCase(name) && statistics != null) {
-                long totalMessages = statistics.getTotalMessages();
-                value = BigDecimal.valueOf(totalMessages);
-            } else if ("TotalBytes".equalsIgnoreCase(name) && statistics != null) {
-                long totalBytes = statistics.getTotalBytes();
-                value = BigDecimal.valueOf(totalBytes);
-            } else if ("MessageRate".equalsIgnoreCase(name) && statistics != null) {
-                long messageRate = statistics.getMessageRate();
-                value = BigDecimal.valueOf(messageRate);
-            }
-
-            Map<String, String> propertiesMap = objectMapper.convertValue(metric, Map.class);
+        return destinationPrefix + destinationName + "|" + prefix;
+    }
 
-            StringBuilder sb = new StringBuilder(metricPrefix);
+    private String getBasePath(String destinationPrefix) {
+        StringBuilder sb = new StringBuilder(metricPrefix);
+        sb.append("|");
+        if (!Strings.isNullOrEmpty(destinationPrefix)) {
+            sb.append(destinationPrefix);
+        }
+        if (!sb.toString().endsWith("|")) {
             sb.append("|");
-            if (!Strings.isNullOrEmpty(destinationPrefix)) {
-                sb.append(destinationPrefix);
-            }
-            if (!sb.toString().endsWith("|")) {
-                sb.append("|");
-            }
-            sb.append(name);
-
-            String fullMetricPath = sb.toString();
-
-            com.appdynamics.extensions.metrics.Metric thisMetric = new com.appdynamics.extensions.metrics.Metric(name, value.toString(), fullMetricPath, propertiesMap);
-            collectedMetrics.add(thisMetric);
         }
-        return collectedMetrics;
+        return sb.toString();
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.appdynamics.extensions.tibco.metrics.Metrics;
+import org.slf4j.Logger;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The last value published for each metric of one EMS server, used to publish only the values which changed since
+ * the previous run. A destination's values are kept in a <code>long[]</code>. Every destination is published in full
+ * once every <code>fullRefreshCycles</code> runs of its group so that the controller does not consider its metrics
+ * stale; the refreshes of different destinations are spread over the cycles. Runs are counted per group, a group
+ * with an <code>intervalInSeconds</code> does not run in every monitor cycle.
+ * <p>
+ * The values a run decides to publish are staged until {@link #commit(Metrics)} confirms that they were printed. The
+ * values of a run whose metrics were dropped, because its collector timed out or printing failed, are compared
+ * against the last printed ones again by the next run.
+ * <p>
+ * At most <code>publishedValuesSize</code> destinations are kept per server. A group which would exceed it starts
+ * over and publishes its destinations in full on the next run.
+ */
+public class PublishedValues {
+
+    private static final Logger logger = ExtensionsLoggerFactory.getLogger(PublishedValues.class);
+
+    public static final int DEFAULT_FULL_REFRESH_CYCLES = 10;
+
+    public static final int DEFAULT_MAX_DESTINATIONS = 100000;
+
+    private final Map<String, Group> groups = new ConcurrentHashMap<>();
+    private final LongAdder suppressed = new LongAdder();
+    private volatile int fullRefreshCycles = DEFAULT_FULL_REFRESH_CYCLES;
+    private volatile int maxDestinations = DEFAULT_MAX_DESTINATIONS;
+
+    public void setFullRefreshCycles(int fullRefreshCycles) {
+        this.fullRefreshCycles = Math.max(1, fullRefreshCycles);
+    }
+
+    public void setMaxDestinations(int maxDestinations) {
+        this.maxDestinations = maxDestinations;
+    }
+
+    /**
+     * Starts counting the suppressed values of a new run of the server's collectors.
+     */
+    public void beginRun() {
+        suppressed.reset();
+    }
+
+    /**
+     * Starts a new run of the group's collector, called only when the group is due.
+     */
+    public void beginGroupRun(Metrics metrics) {
+        getGroup(metrics).run.incrementAndGet();
+    }
+
+    /**
+     * @return the last published values of the destination
+     */
+    public DestinationValues get(Metrics metrics, String destinationKey) {
+        Group group = getGroup(metrics);
+        DestinationValues values = group.destinations.get(destinationKey);
+        if (values == null) {
+            if (getSize() >= maxDestinations) {
+                logger.info("{} destinations reached publishedValuesSize {}, the {} destinations of group {} are published in full again",
+                        getSize(), maxDestinations, group.destinations.size(), metrics.getType());
+                group.destinations.clear();
+            }
+            values = new DestinationValues(this, group.groupMetrics == null ? 0 : group.groupMetrics.length,
+                    destinationKey.hashCode());
+            DestinationValues existing = group.destinations.putIfAbsent(destinationKey, values);
+            if (existing != null) {
+                values = existing;
+            }
+        }
+        values.begin(group.run.get(), fullRefreshCycles);
+        return values;
+    }
+
+    /**
+     * Forgets the destinations of the group which were not seen during its current run.
+     */
+    public void evictUnused(Metrics metrics) {
+        Group group = groups.get(metrics.getType());
+        if (group == null) {
+            return;
+        }
+        long currentRun = group.run.get();
+        Iterator<DestinationValues> iterator = group.destinations.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().lastRun != currentRun) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Takes the values staged by the group's current run as published, called once its metrics were printed.
+     */
+    public void commit(Metrics metrics) {
+        Group group = groups.get(metrics.getType());
+        if (group == null || group.groupMetrics != metrics.getMetrics()) {
+            return;
+        }
+        long currentRun = group.run.get();
+        for (DestinationValues values : group.destinations.values()) {
+            if (values.lastRun == currentRun) {
+                values.commit();
+            }
+        }
+    }
+
+    public void clear() {
+        groups.clear();
+    }
+
+    /**
+     * @return the number of destinations whose values are kept
+     */
+    public int getSize() {
+        int size = 0;
+        for (Group group : groups.values()) {
+            size += group.destinations.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of values not published during the current run because they did not change
+     */
+    public long getSuppressed() {
+        return suppressed.sum();
+    }
+
+    //The values of a group are dropped when metrics.xml changed, the metrics may be others or in another order
+    private Group getGroup(Metrics metrics) {
+        Group group = groups.get(metrics.getType());
+        if (group != null && group.groupMetrics == metrics.getMetrics()) {
+            return group;
+        }
+        Group newGroup = new Group(metrics.getMetrics());
+        boolean replaced = group == null ? groups.putIfAbsent(metrics.getType(), newGroup) == null
+                : groups.replace(metrics.getType(), group, newGroup);
+        //Otherwise another collector thread replaced it first
+        return replaced ? newGroup : groups.get(metrics.getType());
+    }
+
+    private static class Group {
+        private final Metric[] groupMetrics;
+        private final Map<String, DestinationValues> destinations = new ConcurrentHashMap<>();
+        private final AtomicLong run = new AtomicLong();
+
+        Group(Metric[] groupMetrics) {
+            this.groupMetrics = groupMetrics;
+        }
+    }
+
+    /**
+     * The last published values of one destination, one slot per metric of the group and one for the destination's
+     * count metric, e.g. ConsumerCount or the DestinationCount of a rollup. Used by one collector thread at a time.
+     */
+    public static class DestinationValues {
+        private final PublishedValues store;
+        //The values last printed, and those the current run publishes until they are committed
+        private final long[] values;
+        private final long[] staged;
+        private final int refreshOffset;
+        private boolean fullRefresh;
+        private volatile long lastRun;
+
+        DestinationValues(PublishedValues store, int metricCount, int refreshOffset) {
+            this.store = store;
+            this.values = new long[metricCount + 1];
+            this.staged = new long[metricCount + 1];
+            this.refreshOffset = refreshOffset;
+            Arrays.fill(values, AttributeExtractor.NO_VALUE);
+            Arrays.fill(staged, AttributeExtractor.NO_VALUE);
+        }
+
+        void begin(long run, int fullRefreshCycles) {
+            if (lastRun == run) {
+                return;
+            }
+            System.arraycopy(values, 0, staged, 0, values.length);
+            fullRefresh = Math.floorMod(run + refreshOffset, (long) fullRefreshCycles) == 0;
+            lastRun = run;
+        }
+
+        void commit() {
+            System.arraycopy(staged, 0, values, 0, values.length);
+        }
+
+        /**
+         * @return true if the value of the i-th metric of the group has to be published, false if it was published
+         * before and the destination's full refresh is not due
+         */
+        public boolean shouldPublish(int i, long value) {
+            if (fullRefresh || values[i] != value) {
+                staged[i] = value;
+                return true;
+            }
+            store.suppressed.increment();
+            return false;
+        }
+
+        /**
+         * @return true if the destination's count metric has to be published, see {@link #shouldPublish(int, long)}
+         */
+        public boolean shouldPublishCount(long count) {
+            return shouldPublish(values.length - 1, count);
+        }
+    }
+}
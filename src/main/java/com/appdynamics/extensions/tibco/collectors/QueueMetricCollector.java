@@ -10,20 +10,25 @@ package com.appdynamics.extensions.tibco.collectors;
 
 import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
 import com.appdynamics.extensions.tibco.TibcoEMSMetricFetcher;
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
 import com.appdynamics.extensions.tibco.metrics.Metric;
 import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
 import com.google.common.base.Strings;
+import com.tibco.tibjms.admin.DestinationInfo;
 import com.tibco.tibjms.admin.QueueInfo;
 import com.tibco.tibjms.admin.TibjmsAdmin;
 import com.tibco.tibjms.admin.TibjmsAdminException;
 import org.slf4j.Logger;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Phaser;
-import java.util.regex.Pattern;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * @author Satish Muddam
@@ -33,14 +38,16 @@ public class QueueMetricCollector extends AbstractMetricCollector {
     private static final Logger logger = ExtensionsLoggerFactory.getLogger(QueueMetricCollector.class);
     private final Phaser phaser;
     private List<com.appdynamics.extensions.metrics.Metric> collectedMetrics;
+    private List<String> serverSidePatterns;
 
 
-    public QueueMetricCollector(TibjmsAdmin conn, List<Pattern> includePatterns, boolean showSystem,
-                                boolean showTemp, Metrics metrics, String metricPrefix, Phaser phaser, List<com.appdynamics.extensions.metrics.Metric> collectedMetrics) {
-        super(conn, includePatterns, showSystem, showTemp, metrics, metricPrefix);
+    public QueueMetricCollector(TibjmsAdmin conn, DestinationMatcher destinationMatcher, boolean showSystem,
+                                boolean showTemp, Metrics metrics, String metricPrefix, Phaser phaser, List<com.appdynamics.extensions.metrics.Metric> collectedMetrics, List<String> serverSidePatterns) {
+        super(conn, destinationMatcher, showSystem, showTemp, metrics, metricPrefix);
         this.phaser = phaser;
         this.phaser.register();
         this.collectedMetrics = collectedMetrics;
+        this.serverSidePatterns = serverSidePatterns;
     }
 
     public void run() {
@@ -49,120 +56,122 @@ public class QueueMetricCollector extends AbstractMetricCollector {
             logger.debug("Collecting queues info");
         }
 
+        markStarted();
         try {
-            QueueInfo[] queueInfos = conn.getQueuesStatistics();
+            QueueInfo[] queueInfos = getQueuesStatistics();
 
             if (queueInfos == null) {
                 logger.warn("Unable to get queue statistics");
             } else {
-                for (QueueInfo queueInfo : queueInfos) {
-                    if (shouldMonitorDestination(queueInfo.getName(), includePatterns, showSystem, showTemp, TibcoEMSMetricFetcher.DestinationType.QUEUE, logger)) {
-                        logger.info("Publishing metrics for queue " + queueInfo.getName());
-                        List<com.appdynamics.extensions.metrics.Metric> queueInfoMetrics = getQueueInfo(queueInfo, metrics);
-                        collectedMetrics.addAll(queueInfoMetrics);
+                Predicate<QueueInfo> monitored = queueInfo ->
+                        shouldMonitorDestination(queueInfo.getName(), destinationMatcher, showSystem, showTemp, TibcoEMSMetricFetcher.DestinationType.QUEUE, logger);
+                Function<QueueInfo, List<com.appdynamics.extensions.metrics.Metric>> toMetrics = queueInfo -> {
+                    traceDestination(TibcoEMSMetricFetcher.DestinationType.QUEUE, queueInfo.getName(), logger);
+                    return getQueueInfo(queueInfo, metrics);
+                };
+                CardinalityBudget.GroupBudget budget = getCardinalityBudget(metrics.getMetrics().length);
+
+                if (isTopN()) {
+                    //Only the top N queues get their own metrics, the others are summed up
+                    TopDestinations<QueueInfo> topQueues = selectTopDestinations(queueInfos, monitored);
+                    QueueInfo[] selectedQueues = topQueues.getSelected();
+                    if (budget != null) {
+                        selectedQueues = admitWithinBudget(budget, selectedQueues, queueInfo -> true, QueueInfo::getName, getBasePath(CardinalityBudget.OVERFLOW), collectedMetrics);
                     }
+                    materialize(selectedQueues, toMetrics, collectedMetrics);
+                    publishRollup(topQueues.getOthers(), TopDestinations.OTHERS, getBasePath(TopDestinations.OTHERS), collectedMetrics);
+                } else if (budget != null) {
+                    //The queues beyond the budget are summed up before any of their metrics is built
+                    QueueInfo[] admittedQueues = admitWithinBudget(budget, queueInfos, monitored, QueueInfo::getName, getBasePath(CardinalityBudget.OVERFLOW), collectedMetrics);
+                    materialize(admittedQueues, toMetrics, collectedMetrics);
+                } else {
+                    materialize(queueInfos, queueInfo -> monitored.test(queueInfo) ? toMetrics.apply(queueInfo) : Collections.emptyList(), collectedMetrics);
                 }
             }
         } catch (TibjmsAdminException e) {
             logger.error("Error while collecting queue metrics", e);
+            adminCallFailed(e);
         } finally {
+            markFinished();
             logger.debug("QueueMetricCollector Phaser arrived");
             phaser.arriveAndDeregister();
         }
     }
 
+    /**
+     * Fetches all queues when the include list contains regular expressions, otherwise lets the EMS server
+     * evaluate each include wildcard so that only the matching queues are sent back.
+     */
+    private QueueInfo[] getQueuesStatistics() throws TibjmsAdminException {
+        if (serverSidePatterns == null) {
+            return adminCall(admin -> admin.getQueuesStatistics());
+        }
+
+        Map<String, QueueInfo> queueInfosByName = new LinkedHashMap<>();
+        for (String serverSidePattern : serverSidePatterns) {
+            QueueInfo[] matchingQueues = adminCall(admin -> admin.getQueuesStatistics(serverSidePattern));
+            if (matchingQueues != null) {
+                for (QueueInfo queueInfo : matchingQueues) {
+                    queueInfosByName.put(queueInfo.getName(), queueInfo);
+                }
+            }
+        }
+        return queueInfosByName.values().toArray(new QueueInfo[queueInfosByName.size()]);
+    }
+
     private List<com.appdynamics.extensions.metrics.Metric> getQueueInfo(QueueInfo queueInfo, Metrics metrics) {
 
         List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = new ArrayList<>();
 
 
-        String thisPrefix = metrics.getMetricPrefix();
-
-        String prefix;
-        if (Strings.isNullOrEmpty(thisPrefix)) {
-            prefix = "Queues|" + queueInfo.getName();
-        } else {
-            prefix = thisPrefix + "|" + queueInfo.getName();
+        //Paths only change with the destination, they are built on its first run and reused afterwards
+        String[] metricPaths = getCachedMetricPaths(queueInfo.getName());
+        if (metricPaths == null) {
+            metricPaths = cacheMetricPaths(queueInfo.getName(), getBasePath(queueInfo.getName()));
         }
 
         Metric[] queueMetrics = metrics.getMetrics();
 
-        for (Metric metric : queueMetrics) {
+        AttributeExtractor<DestinationInfo>[] extractors = AttributeExtractors.getExtractors(metrics);
+        List<Map<String, String>> propertyMaps = MetricPropertyMaps.getPropertyMaps(metrics);
+
+        SnapshotStore.DestinationSnapshot snapshot = getSnapshot(queueInfo.getName());
+        PublishedValues.DestinationValues publishedValues = getPublishedValues(queueInfo.getName());
+        for (int i = 0; i < queueMetrics.length; i++) {
+            Metric metric = queueMetrics[i];
 
             String name = metric.getAttr();
 
-            BigDecimal value = null;
-
-            if ("ConsumerCount".equalsIgnoreCase(name)) {
-                int consumerCount = queueInfo.getConsumerCount();
-                value = BigDecimal.valueOf(consumerCount);
-            } else if ("PendingMessageCount".equalsIgnoreCase(name)) {
-                long pendingMessageCount = queueInfo.getPendingMessageCount();
-                value = BigDecimal.valueOf(pendingMessageCount);
-            } else if ("PendingMessageSize".equalsIgnoreCase(name)) {
-                long pendingMessageSize = queueInfo.getPendingMessageSize();
-                value = BigDecimal.valueOf(pendingMessageSize);
-            } else if ("FlowControlMaxBytes".equalsIgnoreCase(name)) {
-                long flowControlMaxBytes = queueInfo.getFlowControlMaxBytes();
-                value = BigDecimal.valueOf(flowControlMaxBytes);
-            } else if ("MaxMsgs".equalsIgnoreCase(name)) {
-                long maxMsgs = queueInfo.getMaxMsgs();
-                value = BigDecimal.valueOf(maxMsgs);
-            } else if ("MaxBytes".equalsIgnoreCase(name)) {
-                long maxBytes = queueInfo.getMaxBytes();
-                value = BigDecimal.valueOf(maxBytes);
-            } else if ("InboundByteRate".equalsIgnoreCase(name)) {
-                long byteRate = queueInfo.getInboundStatistics().getByteRate();
-                value = BigDecimal.valueOf(byteRate);
-            } else if ("InboundMessageRate".equalsIgnoreCase(name)) {
-                long messageRate = queueInfo.getInboundStatistics().getMessageRate();
-                value = BigDecimal.valueOf(messageRate);
-            } else if ("InboundByteCount".equalsIgnoreCase(name)) {
-                long totalBytes = queueInfo.getInboundStatistics().getTotalBytes();
-                value = BigDecimal.valueOf(totalBytes);
-            } else if ("InboundMessageCount".equalsIgnoreCase(name)) {
-                long totalMessages = queueInfo.getInboundStatistics().getTotalMessages();
-                value = BigDecimal.valueOf(totalMessages);
-            } else if ("OutboundByteRate".equalsIgnoreCase(name)) {
-                long byteRate = queueInfo.getOutboundStatistics().getByteRate();
-                value = BigDecimal.valueOf(byteRate);
-            } else if ("OutboundMessageRate".equalsIgnoreCase(name)) {
-                long messageRate = queueInfo.getOutboundStatistics().getMessageRate();
-                value = BigDecimal.valueOf(messageRate);
-            } else if ("OutboundByteCount".equalsIgnoreCase(name)) {
-                long totalBytes = queueInfo.getOutboundStatistics().getTotalBytes();
-                value = BigDecimal.valueOf(totalBytes);
-            } else if ("OutboundMessageCount".equalsIgnoreCase(name)) {
-                long totalMessages = queueInfo.getOutboundStatistics().getTotalMessages();
-                value = BigDecimal.valueOf(totalMessages);
-            } else if ("InTransitCount".equalsIgnoreCase(name)) {
-                long inTransitMessageCount = queueInfo.getInTransitMessageCount();
-                value = BigDecimal.valueOf(inTransitMessageCount);
-            } else if ("ReceiverCount".equalsIgnoreCase(name)) {
-                int receiverCount = queueInfo.getReceiverCount();
-                value = BigDecimal.valueOf(receiverCount);
-            } else if ("MaxRedelivery".equalsIgnoreCase(name)) {
-                int maxRedelivery = queueInfo.getMaxRedelivery();
-                value = BigDecimal.valueOf(maxRedelivery);
-            } else if ("DeliveredMessageCount".equalsIgnoreCase(name)) {
-                long deliveredMessageCount = queueInfo.getDeliveredMessageCount();
-                value = BigDecimal.valueOf(deliveredMessageCount);
+            long value = extractors[i].extract(queueInfo);
+            if (snapshot != null) {
+                value = snapshot.update(i, value);
             }
-
-            Map<String, String> propertiesMap = objectMapper.convertValue(metric, Map.class);
-
-            StringBuilder sb = new StringBuilder(metricPrefix);
-            sb.append("|");
-            if (!Strings.isNullOrEmpty(prefix)) {
-                sb.append(prefix).append("|");
+            if (value == AttributeExtractor.NO_VALUE) {
+                continue;
+            }
+            if (publishedValues != null && !publishedValues.shouldPublish(i, value)) {
+                continue;
             }
-            sb.append(name);
 
-            String fullMetricPath = sb.toString();
+            Map<String, String> propertiesMap = propertyMaps.get(i);
 
-            com.appdynamics.extensions.metrics.Metric thisMetric = new com.appdynamics.extensions.metrics.Metric(name, value.toString(), fullMetricPath, propertiesMap);
+            String fullMetricPath = metricPaths[i];
+
+            com.appdynamics.extensions.metrics.Metric thisMetric = new com.appdynamics.extensions.metrics.Metric(name, MetricValues.toString(value), fullMetricPath, propertiesMap);
             collectedMetrics.add(thisMetric);
         }
         return collectedMetrics;
     }
+
+    private String getBasePath(String name) {
+        String thisPrefix = metrics.getMetricPrefix();
+
+        String prefix;
+        if (Strings.isNullOrEmpty(thisPrefix)) {
+            prefix = "Queues|" + name;
+        } else {
+            prefix = thisPrefix + "|" + name;
+        }
+        return metricPrefix + "|" + prefix + "|";
+    }
 }
\ No newline at end of file
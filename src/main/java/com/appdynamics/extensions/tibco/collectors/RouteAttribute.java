@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
+import com.tibco.tibjms.admin.RouteInfo;
+import com.tibco.tibjms.admin.StatData;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Route metric attributes of metrics.xml and the {@link RouteInfo} getter each one reads.
+ */
+public enum RouteAttribute implements AttributeExtractor<RouteInfo> {
+
+    INBOUND_MESSAGE_RATE("InboundMessageRate", RouteInfo::getInboundStatistics, StatData::getMessageRate),
+    INBOUND_TOTAL_MESSAGES("InboundTotalMessages", RouteInfo::getInboundStatistics, StatData::getTotalMessages),
+    INBOUND_BYTE_RATE("InboundByteRate", RouteInfo::getInboundStatistics, StatData::getByteRate),
+    OUTBOUND_MESSAGE_RATE("OutboundMessageRate", RouteInfo::getOutboundStatistics, StatData::getMessageRate),
+    OUTBOUND_TOTAL_MESSAGES("OutboundTotalMessages", RouteInfo::getOutboundStatistics, StatData::getTotalMessages),
+    OUTBOUND_BYTE_RATE("OutboundByteRate", RouteInfo::getOutboundStatistics, StatData::getByteRate),
+    BACKLOG_COUNT("BacklogCount", RouteInfo::getBacklogCount),
+    BACKLOG_SIZE("BacklogSize", RouteInfo::getBacklogSize),
+    IS_CONNECTED("IsConnected", routeInfo -> routeInfo.isConnected() ? 1 : 0);
+
+    private static final Map<String, RouteAttribute> BY_ATTR = new HashMap<>();
+
+    static {
+        for (RouteAttribute attribute : values()) {
+            BY_ATTR.put(attribute.attr.toLowerCase(Locale.ROOT), attribute);
+        }
+    }
+
+    private final String attr;
+    private final Function<RouteInfo, StatData> statistics;
+    private final ToLongFunction<RouteInfo> getter;
+    private final ToLongFunction<StatData> statisticsGetter;
+
+    RouteAttribute(String attr, ToLongFunction<RouteInfo> getter) {
+        this.attr = attr;
+        this.statistics = null;
+        this.getter = getter;
+        this.statisticsGetter = null;
+    }
+
+    RouteAttribute(String attr, Function<RouteInfo, StatData> statistics, ToLongFunction<StatData> statisticsGetter) {
+        this.attr = attr;
+        this.statistics = statistics;
+        this.getter = null;
+        this.statisticsGetter = statisticsGetter;
+    }
+
+    public String getAttr() {
+        return attr;
+    }
+
+    public long extract(RouteInfo routeInfo) {
+        if (statistics == null) {
+            return getter.applyAsLong(routeInfo);
+        }
+        StatData statData = statistics.apply(routeInfo);
+        return statData == null ? NO_VALUE : statisticsGetter.applyAsLong(statData);
+    }
+
+    /**
+     * @return the attribute with the given metrics.xml name, ignoring case, or null if there is none
+     */
+    public static RouteAttribute byAttr(String attr) {
+        return attr == null ? null : BY_ATTR.get(attr.toLowerCase(Locale.ROOT));
+    }
+}
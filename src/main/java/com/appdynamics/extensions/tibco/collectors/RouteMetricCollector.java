@@ -10,21 +10,21 @@ package com.appdynamics.extensions.tibco.collectors;
 
 import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
 import com.appdynamics.extensions.tibco.TibcoEMSMetricFetcher;
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
 import com.appdynamics.extensions.tibco.metrics.Metric;
 import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
 import com.google.common.base.Strings;
 import com.tibco.tibjms.admin.RouteInfo;
-import com.tibco.tibjms.admin.StatData;
 import com.tibco.tibjms.admin.TibjmsAdmin;
 import com.tibco.tibjms.admin.TibjmsAdminException;
 import org.slf4j.Logger;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Phaser;
-import java.util.regex.Pattern;
+import java.util.function.Predicate;
 
 /**
  * @author Satish Muddam
@@ -35,9 +35,9 @@ public class RouteMetricCollector extends AbstractMetricCollector {
     private List<com.appdynamics.extensions.metrics.Metric> collectedMetrics;
 
 
-    public RouteMetricCollector(TibjmsAdmin conn, List<Pattern> includePatterns, boolean showSystem,
+    public RouteMetricCollector(TibjmsAdmin conn, DestinationMatcher destinationMatcher, boolean showSystem,
                                 boolean showTemp, Metrics metrics, String metricPrefix, Phaser phaser, List<com.appdynamics.extensions.metrics.Metric> collectedMetrics) {
-        super(conn, includePatterns, showSystem, showTemp, metrics, metricPrefix);
+        super(conn, destinationMatcher, showSystem, showTemp, metrics, metricPrefix);
         this.phaser = phaser;
         this.phaser.register();
         this.collectedMetrics = collectedMetrics;
@@ -49,97 +49,112 @@ public class RouteMetricCollector extends AbstractMetricCollector {
             logger.debug("Collecting routes info");
         }
 
+        markStarted();
         try {
-            RouteInfo[] routes = conn.getRoutes();
+            RouteInfo[] routes = adminCall(admin -> admin.getRoutes());
 
             if (routes == null) {
                 logger.warn("Unable to get route metrics");
             } else {
-                for (RouteInfo routeInfo : routes) {
-                    if (shouldMonitorDestination(routeInfo.getName(), includePatterns, showSystem, showTemp, TibcoEMSMetricFetcher.DestinationType.ROUTE, logger)) {
-                        logger.info("Publishing metrics for route " + routeInfo.getName());
-                        List<com.appdynamics.extensions.metrics.Metric> routeInfoMetrics = getRouteInfo(routeInfo, metrics);
-                        collectedMetrics.addAll(routeInfoMetrics);
+                Predicate<RouteInfo> monitored = routeInfo ->
+                        shouldMonitorDestination(routeInfo.getName(), destinationMatcher, showSystem, showTemp, TibcoEMSMetricFetcher.DestinationType.ROUTE, logger);
+                CardinalityBudget.GroupBudget budget = getCardinalityBudget(metrics.getMetrics().length);
+
+                if (isTopN()) {
+                    //Only the top N routes get their own metrics, the others are summed up
+                    TopDestinations<RouteInfo> topRoutes = selectTopDestinations(routes, monitored);
+                    RouteInfo[] selectedRoutes = topRoutes.getSelected();
+                    if (budget != null) {
+                        selectedRoutes = admitWithinBudget(budget, selectedRoutes, routeInfo -> true, RouteInfo::getName, getBasePath(CardinalityBudget.OVERFLOW), collectedMetrics);
+                    }
+                    for (RouteInfo routeInfo : selectedRoutes) {
+                        publishRoute(routeInfo);
+                    }
+                    publishRollup(topRoutes.getOthers(), TopDestinations.OTHERS, getBasePath(TopDestinations.OTHERS), collectedMetrics);
+                } else if (budget != null) {
+                    //The routes beyond the budget are summed up before any of their metrics is built
+                    for (RouteInfo routeInfo : admitWithinBudget(budget, routes, monitored, RouteInfo::getName, getBasePath(CardinalityBudget.OVERFLOW), collectedMetrics)) {
+                        publishRoute(routeInfo);
+                    }
+                } else {
+                    for (RouteInfo routeInfo : routes) {
+                        if (monitored.test(routeInfo)) {
+                            publishRoute(routeInfo);
+                        }
                     }
                 }
             }
         } catch (TibjmsAdminException e) {
             logger.error("Error while collecting queue metrics", e);
+            adminCallFailed(e);
         } finally {
+            markFinished();
             logger.debug("RouteMetricCollector Phaser arrived");
             phaser.arriveAndDeregister();
         }
     }
 
+    private void publishRoute(RouteInfo routeInfo) {
+        traceDestination(TibcoEMSMetricFetcher.DestinationType.ROUTE, routeInfo.getName(), logger);
+        List<com.appdynamics.extensions.metrics.Metric> routeInfoMetrics = getRouteInfo(routeInfo, metrics);
+        collectedMetrics.addAll(routeInfoMetrics);
+        countPublishedMetrics(routeInfoMetrics.size());
+    }
+
     private List<com.appdynamics.extensions.metrics.Metric> getRouteInfo(RouteInfo routeInfo, Metrics metrics) {
 
 
         List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = new ArrayList<>();
 
 
-        String thisPrefix = metrics.getMetricPrefix();
-
-        String prefix;
-        if (Strings.isNullOrEmpty(thisPrefix)) {
-            prefix = "Routes|" + routeInfo.getName();
-        } else {
-            prefix = thisPrefix + "|" + routeInfo.getName();
+        //Paths only change with the destination, they are built on its first run and reused afterwards
+        String[] metricPaths = getCachedMetricPaths(routeInfo.getName());
+        if (metricPaths == null) {
+            metricPaths = cacheMetricPaths(routeInfo.getName(), getBasePath(routeInfo.getName()));
         }
 
         Metric[] routeMetrics = metrics.getMetrics();
 
-        StatData inboundStatistics = routeInfo.getInboundStatistics();
-        StatData outboundStatistics = routeInfo.getOutboundStatistics();
+        AttributeExtractor<RouteInfo>[] extractors = AttributeExtractors.getExtractors(metrics);
+        List<Map<String, String>> propertyMaps = MetricPropertyMaps.getPropertyMaps(metrics);
 
-        for (Metric metric : routeMetrics) {
+        SnapshotStore.DestinationSnapshot snapshot = getSnapshot(routeInfo.getName());
+        PublishedValues.DestinationValues publishedValues = getPublishedValues(routeInfo.getName());
+        for (int i = 0; i < routeMetrics.length; i++) {
+            Metric metric = routeMetrics[i];
 
             String name = metric.getAttr();
 
-            BigDecimal value = null;
-
-            if ("InboundMessageRate".equalsIgnoreCase(name) && inboundStatistics != null) {
-                long messageRate = inboundStatistics.getMessageRate();
-                value = BigDecimal.valueOf(messageRate);
-            } else if ("InboundTotalMessages".equalsIgnoreCase(name) && inboundStatistics != null) {
-                long totalMessages = inboundStatistics.getTotalMessages();
-                value = BigDecimal.valueOf(totalMessages);
-            } else if ("InboundByteRate".equalsIgnoreCase(name) && inboundStatistics != null) {
-                long byteRate = inboundStatistics.getByteRate();
-                value = BigDecimal.valueOf(byteRate);
-            } else if ("OutboundMessageRate".equalsIgnoreCase(name) && outboundStatistics != null) {
-                long messageRate = outboundStatistics.getMessageRate();
-                value = BigDecimal.valueOf(messageRate);
-            } else if ("OutboundTotalMessages".equalsIgnoreCase(name) && outboundStatistics != null) {
-                long totalMessages = outboundStatistics.getTotalMessages();
-                value = BigDecimal.valueOf(totalMessages);
-            } else if ("OutboundByteRate".equalsIgnoreCase(name) && outboundStatistics != null) {
-                long byteRate = outboundStatistics.getByteRate();
-                value = BigDecimal.valueOf(byteRate);
-            } else if ("BacklogCount".equalsIgnoreCase(name)) {
-                long backlogCount = routeInfo.getBacklogCount();
-                value = BigDecimal.valueOf(backlogCount);
-            } else if ("BacklogSize".equalsIgnoreCase(name)) {
-                long backlogSize = routeInfo.getBacklogSize();
-                value = BigDecimal.valueOf(backlogSize);
-            } else if ("IsConnected".equalsIgnoreCase(name)) {
-                int connected = routeInfo.isConnected() ? 1 : 0;
-                value = BigDecimal.valueOf(connected);
+            long value = extractors[i].extract(routeInfo);
+            if (snapshot != null) {
+                value = snapshot.update(i, value);
             }
-
-            Map<String, String> propertiesMap = objectMapper.convertValue(metric, Map.class);
-
-            StringBuilder sb = new StringBuilder(metricPrefix);
-            sb.append("|");
-            if (!Strings.isNullOrEmpty(prefix)) {
-                sb.append(prefix).append("|");
+            if (value == AttributeExtractor.NO_VALUE) {
+                continue;
+            }
+            if (publishedValues != null && !publishedValues.shouldPublish(i, value)) {
+                continue;
             }
-            sb.append(name);
 
-            String fullMetricPath = sb.toString();
+            Map<String, String> propertiesMap = propertyMaps.get(i);
+
+            String fullMetricPath = metricPaths[i];
 
-            com.appdynamics.extensions.metrics.Metric thisMetric = new com.appdynamics.extensions.metrics.Metric(name, value.toString(), fullMetricPath, propertiesMap);
+            com.appdynamics.extensions.metrics.Metric thisMetric = new com.appdynamics.extensions.metrics.Metric(name, MetricValues.toString(value), fullMetricPath, propertiesMap);
             collectedMetrics.add(thisMetric);
         }
         return collectedMetrics;
     }
+
+    private String getBasePath(String name) {
+        String thisPrefix = metrics.getMetricPrefix();
+
+        String prefix;
+        if (Strings.isNullOrEmpty(thisPrefix)) {
+            prefix = "Routes|" + name;
+        } else {
+            prefix = thisPrefix + "|" + name;
+        }
+        return metricPrefix + "|" + prefix + "|";
+    }
 }
\ No newline at end of file
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
+import com.tibco.tibjms.admin.ServerInfo;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Server metric attributes of metrics.xml and the {@link ServerInfo} getter each one reads.
+ */
+public enum ServerAttribute implements AttributeExtractor<ServerInfo> {
+
+    DISK_READ_RATE("DiskReadRate", ServerInfo::getDiskReadRate),
+    DISK_WRITE_RATE("DiskWriteRate", ServerInfo::getDiskWriteRate),
+    STATE("State", ServerInfo::getState),
+    MSG_MEMORY("MsgMemory", ServerInfo::getMsgMem),
+    MAX_MSG_MEMORY("MaxMsgMemory", ServerInfo::getMaxMsgMemory),
+    MEMORY_POOLED("MemoryPooled", ServerInfo::getMsgMemPooled),
+    SYNC_DB_SIZE("SyncDBSize", ServerInfo::getSyncDBSize),
+    ASYNC_DB_SIZE("AsyncDBSize", ServerInfo::getAsyncDBSize),
+    QUEUE_COUNT("QueueCount", ServerInfo::getQueueCount),
+    TOPIC_COUNT("TopicCount", ServerInfo::getTopicCount),
+    DURABLE_COUNT("DurableCount", ServerInfo::getDurableCount),
+    INBOUND_BYTES_RATE("InboundBytesRate", ServerInfo::getInboundBytesRate),
+    INBOUND_MESSAGE_RATE("InboundMessageRate", ServerInfo::getInboundMessageRate),
+    OUTBOUND_BYTES_RATE("OutboundBytesRate", ServerInfo::getOutboundBytesRate),
+    OUTBOUND_MESSAGE_RATE("OutboundMessageRate", ServerInfo::getOutboundMessageRate),
+    CONNECTION_COUNT("ConnectionCount", ServerInfo::getConnectionCount),
+    MAX_CONNECTIONS("MaxConnections", ServerInfo::getMaxConnections),
+    PRODUCER_COUNT("ProducerCount", ServerInfo::getProducerCount),
+    CONSUMER_COUNT("ConsumerCount", ServerInfo::getConsumerCount),
+    SESSION_COUNT("SessionCount", ServerInfo::getSessionCount),
+    START_TIME("StartTime", ServerInfo::getStartTime),
+    UP_TIME("UpTime", ServerInfo::getUpTime),
+    PENDING_MESSAGE_COUNT("PendingMessageCount", ServerInfo::getPendingMessageCount),
+    PENDING_MESSAGE_SIZE("PendingMessageSize", ServerInfo::getPendingMessageSize),
+    INBOUND_MESSAGE_COUNT("InboundMessageCount", ServerInfo::getInboundMessageCount),
+    OUTBOUND_MESSAGE_COUNT("OutboundMessageCount", ServerInfo::getOutboundMessageCount),
+    LOG_FILE_SIZE("LogFileSize", ServerInfo::getLogFileSize),
+    SERVER_HEARTBEAT_CLIENT_INTERVAL("ServerHeartbeatClientInterval", ServerInfo::getServerHeartbeatClientInterval),
+    SERVER_TIMEOUT_CLIENT_CONNECTION("ServerTimeoutClientConnection", ServerInfo::getServerTimeoutClientConnection),
+    FAULT_TOLERANT_ACTIVATION("FaultTolerantActivation", ServerInfo::getFaultTolerantActivation),
+    FAULT_TOLERANT_HEARTBEAT("FaultTolerantHeartbeat", ServerInfo::getFaultTolerantHeartbeat),
+    FAULT_TOLERANT_RECONNECT_TIMEOUT("FaultTolerantReconnectTimeout", ServerInfo::getFaultTolerantReconnectTimeout),
+    LOG_FILE_MAX_SIZE("LogFileMaxSize", ServerInfo::getLogFileMaxSize),
+    MAX_STATISTICS_MEMORY("MaxStatisticsMemory", ServerInfo::getMaxStatisticsMemory),
+    RESERVE_MEMORY("ReserveMemory", ServerInfo::getReserveMemory),
+    ROUTE_RECOVER_COUNT("RouteRecoverCount", ServerInfo::getRouteRecoverCount),
+    ROUTE_RECOVER_INTERVAL("RouteRecoverInterval", ServerInfo::getRouteRecoverInterval),
+    SERVER_HEARTBEAT_SERVER_INTERVAL("ServerHeartbeatServerInterval", ServerInfo::getServerHeartbeatServerInterval),
+    CLIENT_HEARTBEAT_SERVER_INTERVAL("ClientHeartbeatServerInterval", ServerInfo::getClientHeartbeatServerInterval),
+    CLIENT_TIMEOUT_SERVER_CONNECTION("ClientTimeoutServerConnection", ServerInfo::getClientTimeoutServerConnection),
+    SERVER_TIMEOUT_SERVER_CONNECTION("ServerTimeoutServerConnection", ServerInfo::getServerTimeoutServerConnection),
+    STATISTICS_CLEANUP_INTERVAL("StatisticsCleanupInterval", ServerInfo::getStatisticsCleanupInterval),
+    IS_ACTIVE_SERVER("IsActiveServer", serverInfo -> serverInfo.getState() == ServerInfo.SERVER_ACTIVE ? 1 : 0),
+    IS_FAULT_TOLERANT_STANDBY_SERVER("IsFaultTolerantStandbyServer", serverInfo -> serverInfo.getState() == ServerInfo.SERVER_FT_STANDBY ? 1 : 0);
+
+    private static final Map<String, ServerAttribute> BY_ATTR = new HashMap<>();
+
+    static {
+        for (ServerAttribute attribute : values()) {
+            BY_ATTR.put(attribute.attr.toLowerCase(Locale.ROOT), attribute);
+        }
+    }
+
+    private final String attr;
+    private final ToLongFunction<ServerInfo> getter;
+
+    ServerAttribute(String attr, ToLongFunction<ServerInfo> getter) {
+        this.attr = attr;
+        this.getter = getter;
+    }
+
+    public String getAttr() {
+        return attr;
+    }
+
+    public long extract(ServerInfo serverInfo) {
+        return getter.applyAsLong(serverInfo);
+    }
+
+    /**
+     * @return the attribute with the given metrics.xml name, ignoring case, or null if there is none
+     */
+    public static ServerAttribute byAttr(String attr) {
+        return attr == null ? null : BY_ATTR.get(attr.toLowerCase(Locale.ROOT));
+    }
+}
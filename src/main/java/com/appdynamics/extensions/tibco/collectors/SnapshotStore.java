@@ -0,0 +1,245 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.appdynamics.extensions.tibco.metrics.Metrics;
+import org.slf4j.Logger;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The last value of each <code>delta</code> and <code>rate</code> metric of one EMS server, kept from run to run so
+ * that deltas and per second rates of cumulative counters are computed by the extension. A destination's values are
+ * kept in a <code>long[]</code> with the time they were sampled, rates are computed over the time actually elapsed
+ * since then.
+ * <p>
+ * The counters of an EMS server start over when it restarts and differ between the members of a fault tolerant pair.
+ * All values are dropped when the server's start time changes, see {@link #verifyServerStartTime}, and a value lower
+ * than the last one is taken as a new starting point. No delta or rate is published for a starting point.
+ */
+public class SnapshotStore {
+
+    private static final Logger logger = ExtensionsLoggerFactory.getLogger(SnapshotStore.class);
+
+    public static final int DEFAULT_MAX_DESTINATIONS = 100000;
+
+    static final byte VALUE = 0;
+    static final byte DELTA = 1;
+    static final byte RATE = 2;
+
+    private final Map<String, Group> groups = new ConcurrentHashMap<>();
+    private volatile int maxDestinations = DEFAULT_MAX_DESTINATIONS;
+    private volatile long run;
+    private long serverStartTime;
+    private long checkedConnectCount;
+
+    public void setMaxDestinations(int maxDestinations) {
+        this.maxDestinations = maxDestinations;
+    }
+
+    public void beginRun() {
+        run++;
+    }
+
+    /**
+     * @return true if values are kept and the connection changed since the server's start time was last checked, a
+     * new connection may lead to a restarted server or to the other member of a fault tolerant pair
+     */
+    public synchronized boolean needsStartTimeCheck(long connectCount) {
+        boolean changed = connectCount != checkedConnectCount;
+        checkedConnectCount = connectCount;
+        return changed && getSize() > 0;
+    }
+
+    /**
+     * Drops all values if the server started since they were sampled.
+     *
+     * @param startTime the start time reported by the server's ServerInfo
+     */
+    public synchronized void verifyServerStartTime(long startTime) {
+        if (serverStartTime != 0 && serverStartTime != startTime) {
+            logger.info("EMS server started at {}, its counters start over", startTime);
+            clear();
+        }
+        serverStartTime = startTime;
+    }
+
+    public void clear() {
+        groups.clear();
+    }
+
+    /**
+     * @return the values of the destination, or null if no metric of the group is a delta or rate
+     */
+    public DestinationSnapshot get(Metrics metrics, String destinationKey) {
+        Group group = getGroup(metrics);
+        if (group == null) {
+            return null;
+        }
+        long nowNanos = System.nanoTime();
+        DestinationSnapshot snapshot = group.snapshots.get(destinationKey);
+        if (snapshot == null) {
+            if (getSize() >= maxDestinations) {
+                //Starting over costs one run without deltas, but keeps the values of vanished destinations from piling up
+                group.snapshots.clear();
+            }
+            snapshot = new DestinationSnapshot(group.modes);
+            DestinationSnapshot existing = group.snapshots.putIfAbsent(destinationKey, snapshot);
+            if (existing != null) {
+                snapshot = existing;
+            }
+        }
+        snapshot.begin(nowNanos, run);
+        group.lastIntervalNanos = snapshot.intervalNanos;
+        return snapshot;
+    }
+
+    /**
+     * Forgets the destinations of the group which were not seen during the current run, see
+     * {@link MetricPathCache#evictUnused}.
+     */
+    public void evictUnused(Metrics metrics) {
+        Group group = groups.get(metrics.getType());
+        if (group == null) {
+            return;
+        }
+        long currentRun = run;
+        Iterator<DestinationSnapshot> iterator = group.snapshots.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().lastRun != currentRun) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the number of destinations whose values are kept
+     */
+    public int getSize() {
+        int size = 0;
+        for (Group group : groups.values()) {
+            size += group.snapshots.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the seconds elapsed between the last two samples of a destination of the group, or -1 if there are none
+     */
+    public long getIntervalInSeconds(Metrics metrics) {
+        Group group = groups.get(metrics.getType());
+        if (group == null || group.lastIntervalNanos < 0) {
+            return -1;
+        }
+        return Math.round(group.lastIntervalNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    //The values of a group are dropped when metrics.xml changed, the metrics may be others or in another order
+    private Group getGroup(Metrics metrics) {
+        Group group = groups.get(metrics.getType());
+        if (group != null && group.groupMetrics == metrics.getMetrics()) {
+            return group.modes == null ? null : group;
+        }
+        Group newGroup = new Group(metrics.getMetrics());
+        boolean replaced = group == null ? groups.putIfAbsent(metrics.getType(), newGroup) == null
+                : groups.replace(metrics.getType(), group, newGroup);
+        //Otherwise another collector thread replaced it first
+        Group current = replaced ? newGroup : groups.get(metrics.getType());
+        return current.modes == null ? null : current;
+    }
+
+    /**
+     * @return true if the metric is published as read, neither as a delta nor as a rate
+     */
+    static boolean isValue(Metric metric) {
+        return !Boolean.parseBoolean(metric.getRate()) && !Boolean.parseBoolean(metric.getDelta());
+    }
+
+    static byte[] getModes(Metric[] groupMetrics) {
+        if (groupMetrics == null) {
+            return null;
+        }
+        byte[] modes = new byte[groupMetrics.length];
+        boolean any = false;
+        for (int i = 0; i < groupMetrics.length; i++) {
+            if (Boolean.parseBoolean(groupMetrics[i].getRate())) {
+                modes[i] = RATE;
+            } else if (Boolean.parseBoolean(groupMetrics[i].getDelta())) {
+                modes[i] = DELTA;
+            }
+            any |= modes[i] != VALUE;
+        }
+        return any ? modes : null;
+    }
+
+    private static class Group {
+        private final Metric[] groupMetrics;
+        private final byte[] modes;
+        private final Map<String, DestinationSnapshot> snapshots = new ConcurrentHashMap<>();
+        private volatile long lastIntervalNanos = -1;
+
+        Group(Metric[] groupMetrics) {
+            this.groupMetrics = groupMetrics;
+            this.modes = getModes(groupMetrics);
+        }
+    }
+
+    /**
+     * The last values of one destination. Used by one collector thread at a time.
+     */
+    public static class DestinationSnapshot {
+        private final byte[] modes;
+        private final long[] values;
+        private boolean sampled;
+        private long sampledAtNanos;
+        private long intervalNanos = -1;
+        private volatile long lastRun;
+
+        DestinationSnapshot(byte[] modes) {
+            this.modes = modes;
+            this.values = new long[modes.length];
+            Arrays.fill(values, AttributeExtractor.NO_VALUE);
+        }
+
+        void begin(long nowNanos, long run) {
+            intervalNanos = sampled ? nowNanos - sampledAtNanos : -1;
+            sampled = true;
+            sampledAtNanos = nowNanos;
+            lastRun = run;
+        }
+
+        /**
+         * @return the value to publish for the i-th metric of the group, {@link AttributeExtractor#NO_VALUE} if the
+         * metric is a delta or rate without a previous value to compare to
+         */
+        public long update(int i, long value) {
+            byte mode = modes[i];
+            if (mode == VALUE || value == AttributeExtractor.NO_VALUE) {
+                return value;
+            }
+            long previous = values[i];
+            values[i] = value;
+            if (previous == AttributeExtractor.NO_VALUE || value < previous || intervalNanos <= 0) {
+                return AttributeExtractor.NO_VALUE;
+            }
+            long delta = value - previous;
+            if (mode == DELTA) {
+                return delta;
+            }
+            return Math.round(delta * (double) TimeUnit.SECONDS.toNanos(1) / intervalNanos);
+        }
+    }
+}
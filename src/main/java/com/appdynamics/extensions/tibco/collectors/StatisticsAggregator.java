@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.tibco.tibjms.admin.StatData;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Combines the statistics of the consumers or producers of each destination by their <code>aggregationType</code>, see
+ * {@link MetricSums}, so that a destination's metrics are published once instead of once per consumer or producer
+ * sharing the same paths.
+ */
+class StatisticsAggregator {
+
+    static final int TOPIC = 2;
+
+    private final AttributeExtractor<StatData>[] extractors;
+    private final MetricSums.Aggregation[] aggregations;
+    private final Map<String, Destination> queues = new HashMap<>();
+    private final Map<String, Destination> topics = new HashMap<>();
+    private final List<Destination> destinations = new ArrayList<>();
+
+    /**
+     * @param extractors   the extractors of the group's metrics
+     * @param groupMetrics the group's metrics, in the same order
+     */
+    StatisticsAggregator(AttributeExtractor<StatData>[] extractors, Metric[] groupMetrics) {
+        this.extractors = extractors;
+        this.aggregations = MetricSums.getAggregations(groupMetrics);
+    }
+
+    void add(int destinationType, String destinationName, StatData statistics) {
+        Map<String, Destination> byName = destinationType == TOPIC ? topics : queues;
+        Destination destination = byName.get(destinationName);
+        if (destination == null) {
+            destination = new Destination(destinationType, destinationName, aggregations);
+            byName.put(destinationName, destination);
+            destinations.add(destination);
+        }
+        destination.add(extractors, statistics);
+    }
+
+    /**
+     * @return the destinations in the order their first consumer or producer was added
+     */
+    List<Destination> getDestinations() {
+        return destinations;
+    }
+
+    static class Destination extends MetricSums {
+        private final int destinationType;
+        private final String destinationName;
+
+        Destination(int destinationType, String destinationName, MetricSums.Aggregation[] aggregations) {
+            super(aggregations);
+            this.destinationType = destinationType;
+            this.destinationName = destinationName;
+        }
+
+        int getDestinationType() {
+            return destinationType;
+        }
+
+        String getDestinationName() {
+            return destinationName;
+        }
+    }
+}
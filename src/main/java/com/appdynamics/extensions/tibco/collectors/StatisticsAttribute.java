@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
+import com.tibco.tibjms.admin.StatData;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Producer and consumer metric attributes of metrics.xml and the {@link StatData} getter each one reads from the
+ * producer's or consumer's statistics.
+ */
+public enum StatisticsAttribute implements AttributeExtractor<StatData> {
+
+    TOTAL_MESSAGES("TotalMessages", StatData::getTotalMessages),
+    TOTAL_BYTES("TotalBytes", StatData::getTotalBytes),
+    MESSAGE_RATE("MessageRate", StatData::getMessageRate);
+
+    private static final Map<String, StatisticsAttribute> BY_ATTR = new HashMap<>();
+
+    static {
+        for (StatisticsAttribute attribute : values()) {
+            BY_ATTR.put(attribute.attr.toLowerCase(Locale.ROOT), attribute);
+        }
+    }
+
+    private final String attr;
+    private final ToLongFunction<StatData> getter;
+
+    StatisticsAttribute(String attr, ToLongFunction<StatData> getter) {
+        this.attr = attr;
+        this.getter = getter;
+    }
+
+    public String getAttr() {
+        return attr;
+    }
+
+    /**
+     * @return the value, or {@link #NO_VALUE} if statistics are not available for the producer or consumer
+     */
+    public long extract(StatData statistics) {
+        return statistics == null ? NO_VALUE : getter.applyAsLong(statistics);
+    }
+
+    /**
+     * @return the attribute with the given metrics.xml name, ignoring case, or null if there is none
+     */
+    public static StatisticsAttribute byAttr(String attr) {
+        return attr == null ? null : BY_ATTR.get(attr.toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.MetricWriteHelper;
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.appdynamics.extensions.metrics.Metric;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collector output buffer which hands every full chunk to {@link MetricWriteHelper} right away, so that at most one
+ * chunk per collector is held in memory.
+ * <p>
+ * Collectors only append to their buffer; {@link #get(int)} and {@link #size()} reflect the chunk which has not been
+ * published yet. Chunks completed after the collector's deadline, or after {@link #close(boolean)}, are dropped in
+ * the same way the buffered mode drops the output of a late collector.
+ */
+public class StreamingMetricBuffer extends AbstractList<Metric> {
+
+    private static final org.slf4j.Logger logger = ExtensionsLoggerFactory.getLogger(StreamingMetricBuffer.class);
+
+    private final MetricWriteHelper metricWriteHelper;
+    private final int chunkSize;
+    private final long deadlineNanos;
+
+    private List<Metric> chunk;
+    private boolean closed;
+    private long publishedCount;
+    private long droppedCount;
+
+    public StreamingMetricBuffer(MetricWriteHelper metricWriteHelper, int chunkSize, long deadlineNanos) {
+        this.metricWriteHelper = metricWriteHelper;
+        this.chunkSize = chunkSize;
+        this.deadlineNanos = deadlineNanos;
+        this.chunk = new ArrayList<>(chunkSize);
+    }
+
+    @Override
+    public synchronized boolean add(Metric metric) {
+        if (closed) {
+            droppedCount++;
+            return false;
+        }
+        chunk.add(metric);
+        if (chunk.size() >= chunkSize) {
+            flush();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized Metric get(int index) {
+        return chunk.get(index);
+    }
+
+    @Override
+    public synchronized int size() {
+        return chunk.size();
+    }
+
+    /**
+     * Publishes the pending chunk, unless the deadline has passed or the buffer was closed.
+     */
+    public synchronized void flush() {
+        publish(true);
+    }
+
+    /**
+     * Stops publishing. The pending chunk is published first if the collector finished in time, dropped otherwise.
+     */
+    public synchronized void close(boolean finishedInTime) {
+        if (finishedInTime) {
+            publish(false);
+        }
+        closed = true;
+        droppedCount += chunk.size();
+        chunk.clear();
+    }
+
+    private void publish(boolean checkDeadline) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        if (closed || (checkDeadline && System.nanoTime() - deadlineNanos > 0)) {
+            droppedCount += chunk.size();
+            chunk.clear();
+            return;
+        }
+        List<Metric> publishing = chunk;
+        chunk = new ArrayList<>(chunkSize);
+        try {
+            metricWriteHelper.transformAndPrintMetrics(publishing);
+            publishedCount += publishing.size();
+        } catch (Exception e) {
+            logger.error("Unexpected error when printing metrics", e);
+            droppedCount += publishing.size();
+        }
+    }
+
+    public synchronized long getPublishedCount() {
+        return publishedCount;
+    }
+
+    /**
+     * @return the number of metrics dropped after the deadline or because printing them failed
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+}
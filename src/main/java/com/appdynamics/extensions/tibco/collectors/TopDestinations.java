@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.TibcoEMSMetricFetcher;
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/**
+ * Selects the <code>topN</code> monitored destinations with the highest <code>rankBy</code> value with a heap bounded
+ * to N elements, so that selecting from n destinations costs O(n log N) and metrics are only built for the selected
+ * ones. The metrics of all other monitored destinations are combined by their <code>aggregationType</code> and
+ * published as <code>All Others</code>, together with the number of destinations rolled into it. EMS destination names cannot contain spaces, so the
+ * rollup's path segment cannot be the one of a destination.
+ */
+final class TopDestinations<I> {
+
+    static final String OTHERS = "All Others";
+
+    static final String DESTINATION_COUNT = "DestinationCount";
+
+    private static final Comparator<Ranked<?>> BY_RANK = (a, b) -> Long.compare(a.rank, b.rank);
+
+    private final I[] selected;
+    private final MetricSums others;
+
+    private TopDestinations(I[] selected, MetricSums others) {
+        this.selected = selected;
+        this.others = others;
+    }
+
+    static boolean supports(TibcoEMSMetricFetcher.DestinationType type) {
+        switch (type) {
+            case QUEUE:
+            case TOPIC:
+            case DURABLE:
+            case ROUTE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param infos       the elements returned by the admin call
+     * @param monitored   decides whether a destination is monitored at all, called once per element
+     * @param rankBy      the value destinations are ranked by, destinations without it rank last
+     * @param topN        the number of destinations to select
+     * @param extractors  the extractors of the group's metrics, combined for the destinations not selected
+     * @param aggregations how each of the group's metrics is combined
+     */
+    @SuppressWarnings("unchecked")
+    static <I> TopDestinations<I> select(I[] infos, Predicate<I> monitored, AttributeExtractor<I> rankBy, int topN,
+                                         AttributeExtractor<I>[] extractors, MetricSums.Aggregation[] aggregations) {
+        PriorityQueue<Ranked<I>> heap = new PriorityQueue<>(Math.max(1, Math.min(topN, infos.length)), (Comparator) BY_RANK);
+        MetricSums others = new MetricSums(aggregations);
+
+        for (I info : infos) {
+            if (!monitored.test(info)) {
+                continue;
+            }
+            long rank = rankBy.extract(info);
+            if (heap.size() < topN) {
+                heap.add(new Ranked<>(info, rank));
+            } else if (topN > 0 && rank > heap.peek().rank) {
+                //The lowest ranked destination so far makes room, its entry is reused for the new one
+                Ranked<I> lowest = heap.poll();
+                others.add(extractors, lowest.info);
+                lowest.info = info;
+                lowest.rank = rank;
+                heap.add(lowest);
+            } else {
+                others.add(extractors, info);
+            }
+        }
+
+        Ranked<I>[] ranked = heap.toArray(new Ranked[heap.size()]);
+        Arrays.sort(ranked, (Comparator) BY_RANK.reversed());
+        I[] selected = (I[]) Array.newInstance(infos.getClass().getComponentType(), ranked.length);
+        for (int i = 0; i < ranked.length; i++) {
+            selected[i] = ranked[i].info;
+        }
+        return new TopDestinations<>(selected, others);
+    }
+
+    /**
+     * @return the selected destinations, highest rank first
+     */
+    I[] getSelected() {
+        return selected;
+    }
+
+    /**
+     * @return the combined metrics of the monitored destinations which were not selected
+     */
+    MetricSums getOthers() {
+        return others;
+    }
+
+    private static class Ranked<I> {
+        private I info;
+        private long rank;
+
+        Ranked(I info, long rank) {
+            this.info = info;
+            this.rank = rank;
+        }
+    }
+}
@@ -10,20 +10,25 @@ package com.appdynamics.extensions.tibco.collectors;
 
 import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
 import com.appdynamics.extensions.tibco.TibcoEMSMetricFetcher;
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
 import com.appdynamics.extensions.tibco.metrics.Metric;
 import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
 import com.google.common.base.Strings;
+import com.tibco.tibjms.admin.DestinationInfo;
 import com.tibco.tibjms.admin.TibjmsAdmin;
 import com.tibco.tibjms.admin.TibjmsAdminException;
 import com.tibco.tibjms.admin.TopicInfo;
 import org.slf4j.Logger;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Phaser;
-import java.util.regex.Pattern;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * @author Satish Muddam
@@ -32,13 +37,15 @@ public class TopicMetricCollector extends AbstractMetricCollector {
     private static final Logger logger = ExtensionsLoggerFactory.getLogger(TopicMetricCollector.class);
     private final Phaser phaser;
     private List<com.appdynamics.extensions.metrics.Metric> collectedMetrics;
+    private List<String> serverSidePatterns;
 
 
-    public TopicMetricCollector(TibjmsAdmin conn, List<Pattern> includePatterns, boolean showSystem, boolean showTemp, Metrics metrics, String metricPrefix, Phaser phaser, List<com.appdynamics.extensions.metrics.Metric> collectedMetrics) {
-        super(conn, includePatterns, showSystem, showTemp, metrics, metricPrefix);
+    public TopicMetricCollector(TibjmsAdmin conn, DestinationMatcher destinationMatcher, boolean showSystem, boolean showTemp, Metrics metrics, String metricPrefix, Phaser phaser, List<com.appdynamics.extensions.metrics.Metric> collectedMetrics, List<String> serverSidePatterns) {
+        super(conn, destinationMatcher, showSystem, showTemp, metrics, metricPrefix);
         this.phaser = phaser;
         this.phaser.register();
         this.collectedMetrics = collectedMetrics;
+        this.serverSidePatterns = serverSidePatterns;
     }
 
     public void run() {
@@ -47,116 +54,121 @@ public class TopicMetricCollector extends AbstractMetricCollector {
             logger.debug("Collecting topics info");
         }
 
+        markStarted();
         try {
-            TopicInfo[] topicInfos = conn.getTopicsStatistics();
+            TopicInfo[] topicInfos = getTopicsStatistics();
 
             if (topicInfos == null) {
                 logger.warn("Unable to get topic statistics");
             } else {
-                for (TopicInfo topicInfo : topicInfos) {
-                    if (shouldMonitorDestination(topicInfo.getName(), includePatterns, showSystem, showTemp, TibcoEMSMetricFetcher.DestinationType.TOPIC, logger)) {
-                        logger.info("Publishing metrics for topic " + topicInfo.getName());
-                        List<com.appdynamics.extensions.metrics.Metric> topicInfoMetrics = getTopicInfo(topicInfo, metrics);
-                        collectedMetrics.addAll(topicInfoMetrics);
+                Predicate<TopicInfo> monitored = topicInfo ->
+                        shouldMonitorDestination(topicInfo.getName(), destinationMatcher, showSystem, showTemp, TibcoEMSMetricFetcher.DestinationType.TOPIC, logger);
+                Function<TopicInfo, List<com.appdynamics.extensions.metrics.Metric>> toMetrics = topicInfo -> {
+                    traceDestination(TibcoEMSMetricFetcher.DestinationType.TOPIC, topicInfo.getName(), logger);
+                    return getTopicInfo(topicInfo, metrics);
+                };
+                CardinalityBudget.GroupBudget budget = getCardinalityBudget(metrics.getMetrics().length);
+
+                if (isTopN()) {
+                    //Only the top N topics get their own metrics, the others are summed up
+                    TopDestinations<TopicInfo> topTopics = selectTopDestinations(topicInfos, monitored);
+                    TopicInfo[] selectedTopics = topTopics.getSelected();
+                    if (budget != null) {
+                        selectedTopics = admitWithinBudget(budget, selectedTopics, topicInfo -> true, TopicInfo::getName, getBasePath(CardinalityBudget.OVERFLOW), collectedMetrics);
                     }
+                    materialize(selectedTopics, toMetrics, collectedMetrics);
+                    publishRollup(topTopics.getOthers(), TopDestinations.OTHERS, getBasePath(TopDestinations.OTHERS), collectedMetrics);
+                } else if (budget != null) {
+                    //The topics beyond the budget are summed up before any of their metrics is built
+                    TopicInfo[] admittedTopics = admitWithinBudget(budget, topicInfos, monitored, TopicInfo::getName, getBasePath(CardinalityBudget.OVERFLOW), collectedMetrics);
+                    materialize(admittedTopics, toMetrics, collectedMetrics);
+                } else {
+                    materialize(topicInfos, topicInfo -> monitored.test(topicInfo) ? toMetrics.apply(topicInfo) : Collections.emptyList(), collectedMetrics);
                 }
             }
         } catch (TibjmsAdminException e) {
             logger.error("Error while collecting topic metrics", e);
+            adminCallFailed(e);
         } finally {
+            markFinished();
             logger.debug("TopicMetricCollector Phaser arrived");
             phaser.arriveAndDeregister();
         }
     }
 
+    /**
+     * Fetches all topics when the include list contains regular expressions, otherwise lets the EMS server
+     * evaluate each include wildcard so that only the matching topics are sent back.
+     */
+    private TopicInfo[] getTopicsStatistics() throws TibjmsAdminException {
+        if (serverSidePatterns == null) {
+            return adminCall(admin -> admin.getTopicsStatistics());
+        }
+
+        Map<String, TopicInfo> topicInfosByName = new LinkedHashMap<>();
+        for (String serverSidePattern : serverSidePatterns) {
+            TopicInfo[] matchingTopics = adminCall(admin -> admin.getTopicsStatistics(serverSidePattern));
+            if (matchingTopics != null) {
+                for (TopicInfo topicInfo : matchingTopics) {
+                    topicInfosByName.put(topicInfo.getName(), topicInfo);
+                }
+            }
+        }
+        return topicInfosByName.values().toArray(new TopicInfo[topicInfosByName.size()]);
+    }
+
     private List<com.appdynamics.extensions.metrics.Metric> getTopicInfo(TopicInfo topicInfo, Metrics metrics) {
 
         List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = new ArrayList<>();
 
 
-        String thisPrefix = metrics.getMetricPrefix();
-
-        String prefix;
-        if (Strings.isNullOrEmpty(thisPrefix)) {
-            prefix = "Topics|" + topicInfo.getName();
-        } else {
-            prefix = thisPrefix + "|" + topicInfo.getName();
+        //Paths only change with the destination, they are built on its first run and reused afterwards
+        String[] metricPaths = getCachedMetricPaths(topicInfo.getName());
+        if (metricPaths == null) {
+            metricPaths = cacheMetricPaths(topicInfo.getName(), getBasePath(topicInfo.getName()));
         }
 
         Metric[] queueMetrics = metrics.getMetrics();
 
-        for (Metric metric : queueMetrics) {
+        AttributeExtractor<DestinationInfo>[] extractors = AttributeExtractors.getExtractors(metrics);
+        List<Map<String, String>> propertyMaps = MetricPropertyMaps.getPropertyMaps(metrics);
+
+        SnapshotStore.DestinationSnapshot snapshot = getSnapshot(topicInfo.getName());
+        PublishedValues.DestinationValues publishedValues = getPublishedValues(topicInfo.getName());
+        for (int i = 0; i < queueMetrics.length; i++) {
+            Metric metric = queueMetrics[i];
 
             String name = metric.getAttr();
-            BigDecimal value = null;
-
-            if ("ConsumerCount".equalsIgnoreCase(name)) {
-                int consumerCount = topicInfo.getConsumerCount();
-                value = BigDecimal.valueOf(consumerCount);
-            } else if ("PendingMessageCount".equalsIgnoreCase(name)) {
-                long pendingMessageCount = topicInfo.getPendingMessageCount();
-                value = BigDecimal.valueOf(pendingMessageCount);
-            } else if ("PendingMessageSize".equalsIgnoreCase(name)) {
-                long pendingMessageSize = topicInfo.getPendingMessageSize();
-                value = BigDecimal.valueOf(pendingMessageSize);
-            } else if ("FlowControlMaxBytes".equalsIgnoreCase(name)) {
-                long flowControlMaxBytes = topicInfo.getFlowControlMaxBytes();
-                value = BigDecimal.valueOf(flowControlMaxBytes);
-            } else if ("MaxMsgs".equalsIgnoreCase(name)) {
-                long maxMsgs = topicInfo.getMaxMsgs();
-                value = BigDecimal.valueOf(maxMsgs);
-            } else if ("MaxBytes".equalsIgnoreCase(name)) {
-                long maxBytes = topicInfo.getMaxBytes();
-                value = BigDecimal.valueOf(maxBytes);
-            } else if ("InboundByteRate".equalsIgnoreCase(name)) {
-                long byteRate = topicInfo.getInboundStatistics().getByteRate();
-                value = BigDecimal.valueOf(byteRate);
-            } else if ("InboundMessageRate".equalsIgnoreCase(name)) {
-                long messageRate = topicInfo.getInboundStatistics().getMessageRate();
-                value = BigDecimal.valueOf(messageRate);
-            } else if ("InboundByteCount".equalsIgnoreCase(name)) {
-                long totalBytes = topicInfo.getInboundStatistics().getTotalBytes();
-                value = BigDecimal.valueOf(totalBytes);
-            } else if ("InboundMessageCount".equalsIgnoreCase(name)) {
-                long totalMessages = topicInfo.getInboundStatistics().getTotalMessages();
-                value = BigDecimal.valueOf(totalMessages);
-            } else if ("OutboundByteRate".equalsIgnoreCase(name)) {
-                long byteRate = topicInfo.getOutboundStatistics().getByteRate();
-                value = BigDecimal.valueOf(byteRate);
-            } else if ("OutboundMessageRate".equalsIgnoreCase(name)) {
-                long messageRate = topicInfo.getOutboundStatistics().getMessageRate();
-                value = BigDecimal.valueOf(messageRate);
-            } else if ("OutboundByteCount".equalsIgnoreCase(name)) {
-                long totalBytes = topicInfo.getOutboundStatistics().getTotalBytes();
-                value = BigDecimal.valueOf(totalBytes);
-            } else if ("OutboundMessageCount".equalsIgnoreCase(name)) {
-                long totalMessages = topicInfo.getOutboundStatistics().getTotalMessages();
-                value = BigDecimal.valueOf(totalMessages);
-            } else if ("SubscriberCount".equalsIgnoreCase(name)) {
-                long inTransitMessageCount = topicInfo.getSubscriberCount();
-                value = BigDecimal.valueOf(inTransitMessageCount);
-            } else if ("ActiveDurableCount".equalsIgnoreCase(name)) {
-                int receiverCount = topicInfo.getActiveDurableCount();
-                value = BigDecimal.valueOf(receiverCount);
-            } else if ("DurableCount".equalsIgnoreCase(name)) {
-                int maxRedelivery = topicInfo.getDurableCount();
-                value = BigDecimal.valueOf(maxRedelivery);
+            long value = extractors[i].extract(topicInfo);
+            if (snapshot != null) {
+                value = snapshot.update(i, value);
             }
-
-            Map<String, String> propertiesMap = objectMapper.convertValue(metric, Map.class);
-
-            StringBuilder sb = new StringBuilder(metricPrefix);
-            sb.append("|");
-            if (!Strings.isNullOrEmpty(prefix)) {
-                sb.append(prefix).append("|");
+            if (value == AttributeExtractor.NO_VALUE) {
+                continue;
+            }
+            if (publishedValues != null && !publishedValues.shouldPublish(i, value)) {
+                continue;
             }
-            sb.append(name);
 
-            String fullMetricPath = sb.toString();
+            Map<String, String> propertiesMap = propertyMaps.get(i);
 
-            com.appdynamics.extensions.metrics.Metric thisMetric = new com.appdynamics.extensions.metrics.Metric(name, value.toString(), fullMetricPath, propertiesMap);
+            String fullMetricPath = metricPaths[i];
+
+            com.appdynamics.extensions.metrics.Metric thisMetric = new com.appdynamics.extensions.metrics.Metric(name, MetricValues.toString(value), fullMetricPath, propertiesMap);
             collectedMetrics.add(thisMetric);
         }
         return collectedMetrics;
     }
+
+    private String getBasePath(String name) {
+        String thisPrefix = metrics.getMetricPrefix();
+
+        String prefix;
+        if (Strings.isNullOrEmpty(thisPrefix)) {
+            prefix = "Topics|" + name;
+        } else {
+            prefix = thisPrefix + "|" + name;
+        }
+        return metricPrefix + "|" + prefix + "|";
+    }
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.connection;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.tibco.tibjms.admin.TibjmsAdmin;
+import com.tibco.tibjms.admin.TibjmsAdminException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Up to <code>size</code> admin connections to one EMS server, so that collectors of the same server can run their
+ * admin calls on separate connections instead of queuing on a single one.
+ * <p>
+ * The first connection is the session's own, the others are opened on demand when all connections are in use.
+ * Once <code>size</code> connections are open a collector waits until one is released.
+ */
+public class AdminConnectionPool {
+
+    private static final org.slf4j.Logger logger = ExtensionsLoggerFactory.getLogger(AdminConnectionPool.class);
+
+    private final String name;
+    private final TibjmsAdmin primary;
+    private final int size;
+    private final ConnectionFactory connectionFactory;
+
+    private final Deque<TibjmsAdmin> idle = new ArrayDeque<>();
+    //Open connections plus connections being opened
+    private int openCount;
+    private boolean closed;
+
+    public AdminConnectionPool(String name, TibjmsAdmin primary, int size, ConnectionFactory connectionFactory) {
+        this.name = name;
+        this.primary = primary;
+        this.size = size;
+        this.connectionFactory = connectionFactory;
+        this.openCount = 1;
+        idle.add(primary);
+    }
+
+    /**
+     * @return a connection nobody else uses until it is {@link #release released}
+     */
+    public TibjmsAdmin borrow() throws TibjmsAdminException {
+        boolean interrupted = false;
+        try {
+            synchronized (this) {
+                while (true) {
+                    TibjmsAdmin admin = idle.poll();
+                    if (admin != null) {
+                        return admin;
+                    }
+                    if (closed) {
+                        //The session was reconnected meanwhile, late collectors of the old run share its connection
+                        return primary;
+                    }
+                    if (openCount < size) {
+                        openCount++;
+                        break;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        try {
+            TibjmsAdmin admin = connectionFactory.connect();
+            logger.debug("Opened an additional admin connection to Tibco EMS server [ {} ]", name);
+            return admin;
+        } catch (TibjmsAdminException | RuntimeException e) {
+            synchronized (this) {
+                openCount--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Hands the connection back. A connection which failed is closed and replaced on demand, unless it is the
+     * session's own connection, which is replaced by the session on the next run.
+     */
+    public void release(TibjmsAdmin admin, boolean failed) {
+        synchronized (this) {
+            boolean discard = admin != primary && (failed || closed);
+            if (!discard) {
+                if (!closed || admin != primary) {
+                    idle.add(admin);
+                }
+                notifyAll();
+                return;
+            }
+            openCount--;
+            notifyAll();
+        }
+        closeQuietly(admin);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public synchronized int getOpenCount() {
+        return openCount;
+    }
+
+    public TibjmsAdmin getPrimary() {
+        return primary;
+    }
+
+    /**
+     * Closes the idle connections opened by the pool. Borrowed ones are closed when they are released.
+     */
+    void close() {
+        List<TibjmsAdmin> toClose = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (TibjmsAdmin admin : idle) {
+                if (admin != primary) {
+                    toClose.add(admin);
+                    openCount--;
+                }
+            }
+            idle.clear();
+            notifyAll();
+        }
+        for (TibjmsAdmin admin : toClose) {
+            closeQuietly(admin);
+        }
+    }
+
+    private void closeQuietly(TibjmsAdmin admin) {
+        try {
+            admin.close();
+        } catch (Exception e) {
+            logger.debug("Error while closing pooled admin connection to Tibco EMS server [ " + name + " ]", e);
+        }
+    }
+
+    public interface ConnectionFactory {
+        TibjmsAdmin connect() throws TibjmsAdminException;
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.connection;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.appdynamics.extensions.tibco.collectors.AbstractMetricCollector;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.tibco.tibjms.admin.TibjmsAdmin;
+import com.tibco.tibjms.admin.TibjmsAdminException;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long lived {@link TibjmsAdmin} connection to one EMS server, kept open across polling cycles.
+ * <p>
+ * The session is considered broken after a {@link TibjmsAdminException} was reported through
+ * {@link #invalidate(TibjmsAdminException)}. The next {@link #connect} then closes the old admin connection and logs
+ * in again. A run without the Server collector, whose first admin call would find out, can ask {@link #connect} to
+ * check a connection kept from an earlier run with one {@link TibjmsAdmin#getInfo()} call, so that a connection
+ * dropped in between is replaced before the run's collectors fail on it.
+ */
+public class AdminSession {
+
+    private static final org.slf4j.Logger logger = ExtensionsLoggerFactory.getLogger(AdminSession.class);
+
+    private static final Splitter MEMBER_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+    private static final Joiner MEMBER_JOINER = Joiner.on(',');
+
+    private final String name;
+
+    //Volatile so that shutdown() can close the connections while a connect holds the lock
+    private volatile TibjmsAdmin tibjmsAdmin;
+    private String connectionSignature;
+    private volatile AdminConnectionPool connectionPool;
+    private volatile boolean shutdown;
+
+    private String connectURL;
+    private String user;
+    private String plainPassword;
+    private Hashtable sslParams;
+    private volatile boolean invalid;
+
+    private final ConnectCircuitBreaker circuitBreaker = new ConnectCircuitBreaker();
+    private final ServerRunContext runContext = new ServerRunContext(circuitBreaker);
+    //The collector last started for each metrics group, a group is not started again while it is queued or running
+    private final Map<String, AbstractMetricCollector> lastCollectors = new ConcurrentHashMap<>();
+
+    //Members of a fault tolerant pair as reported by their ServerInfo, used to order the URLs of the next connect
+    private volatile String activeMemberURL;
+    private volatile String standbyMemberURL;
+
+    private volatile long connectCount;
+    private volatile long reconnectCount;
+
+    AdminSession(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the open admin connection, connecting (or reconnecting) only if there is none, it was
+     * invalidated, it failed its check, or the connection settings changed since it was opened.
+     *
+     * @param checkReused whether a connection kept from an earlier run is checked before it is returned
+     * @return the admin connection, or null if the server could not be reached or the session was shut down
+     */
+    public synchronized TibjmsAdmin connect(String emsURL, String user, String plainPassword, Hashtable sslParams, boolean checkReused) {
+
+        if (shutdown) {
+            return null;
+        }
+
+        String signature = signature(emsURL, user, plainPassword, sslParams);
+
+        if (tibjmsAdmin != null && !invalid && signature.equals(connectionSignature)) {
+            if (!checkReused) {
+                return tibjmsAdmin;
+            }
+            try {
+                tibjmsAdmin.getInfo();
+                return tibjmsAdmin;
+            } catch (Exception e) {
+                logger.info("Admin session to Tibco EMS server [ " + name + " ] is broken, reconnecting", e);
+            }
+        }
+
+        boolean reconnect = tibjmsAdmin != null;
+        closeQuietly();
+
+        //The member last seen active is tried first, so a failed over pair does not start with the standby
+        String connectURL = orderMembers(emsURL, activeMemberURL, standbyMemberURL);
+
+        try {
+            logger.debug(String.format("Connecting to %s as %s", connectURL, user));
+            tibjmsAdmin = new TibjmsAdmin(connectURL, user, plainPassword, sslParams);
+            connectionSignature = signature;
+            this.connectURL = connectURL;
+            this.user = user;
+            this.plainPassword = plainPassword;
+            this.sslParams = sslParams;
+            invalid = false;
+            connectCount++;
+            if (reconnect) {
+                reconnectCount++;
+                logger.info("Reconnected to Tibco EMS server [ " + name + " ]");
+            }
+            circuitBreaker.recordSuccess();
+            if (shutdown) {
+                //Shut down while the login was in progress, the new connection is not kept
+                closeQuietly();
+            }
+        } catch (TibjmsAdminException e) {
+            logger.error("Error while connecting to Tibco EMS server [ " + name + " ]", e);
+            connectFailed();
+        } catch (Exception e) {
+            logger.error("Unknown Error while connecting to Tibco EMS server [ " + name + " ]", e);
+            connectFailed();
+        }
+        return tibjmsAdmin;
+    }
+
+    private void connectFailed() {
+        long nowNanos = System.nanoTime();
+        if (circuitBreaker.recordFailure(nowNanos)) {
+            logger.warn(String.format("Tibco EMS server [ %s ] unreachable after %d attempts, next attempt in %d seconds", name,
+                    circuitBreaker.getConsecutiveFailures(), TimeUnit.NANOSECONDS.toSeconds(circuitBreaker.getRetryAtNanos() - nowNanos)));
+        }
+    }
+
+    /**
+     * Connect attempts are skipped while this breaker is open, see {@link ConnectCircuitBreaker}.
+     */
+    public ConnectCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * The stores and settings the runs of this server share, kept for as long as the server is configured.
+     */
+    public ServerRunContext getRunContext() {
+        return runContext;
+    }
+
+    /**
+     * @return true if the collector started for the group by an earlier run has not finished yet
+     */
+    public boolean isCollectorRunning(String type) {
+        AbstractMetricCollector collector = lastCollectors.get(type);
+        return collector != null && !collector.isFinished();
+    }
+
+    public void collectorStarted(String type, AbstractMetricCollector collector) {
+        lastCollectors.put(type, collector);
+    }
+
+    /**
+     * Returns a pool of up to <code>size</code> connections built around the open admin connection. The pool lives as
+     * long as that connection, a reconnect replaces it.
+     *
+     * @return the pool, or null if the server is not connected
+     */
+    public synchronized AdminConnectionPool getConnectionPool(int size) {
+        if (tibjmsAdmin == null) {
+            return null;
+        }
+        if (connectionPool != null && connectionPool.getPrimary() == tibjmsAdmin && connectionPool.getSize() == size) {
+            return connectionPool;
+        }
+        closePool();
+
+        final String url = connectURL;
+        final String poolUser = user;
+        final String password = plainPassword;
+        final Hashtable params = sslParams;
+        connectionPool = new AdminConnectionPool(name, tibjmsAdmin, size, () -> new TibjmsAdmin(url, poolUser, password, params));
+        return connectionPool;
+    }
+
+    /**
+     * Records the state the connected member reported as IsActiveServer. An active member is tried first on the next
+     * connect. A standby member is tried last, and the session is reconnected if the pair has other members.
+     *
+     * @param memberURL the URL from the member's ServerInfo
+     */
+    public void recordMemberState(String memberURL, boolean active) {
+        if (Strings.isNullOrEmpty(memberURL)) {
+            return;
+        }
+        if (active) {
+            if (!memberURL.equals(activeMemberURL)) {
+                logger.info("Active member of Tibco EMS server [ " + name + " ] is " + memberURL);
+            }
+            activeMemberURL = memberURL;
+            if (memberURL.equals(standbyMemberURL)) {
+                standbyMemberURL = null;
+            }
+            return;
+        }
+
+        standbyMemberURL = memberURL;
+        if (memberURL.equals(activeMemberURL)) {
+            activeMemberURL = null;
+        }
+        String url = connectURL;
+        if (url != null && url.indexOf(',') >= 0) {
+            invalidate("connected member " + memberURL + " is not active");
+        }
+    }
+
+    /**
+     * Moves the member matching the active URL to the front of a fault tolerant URL and the one matching the
+     * standby URL to the back, keeping the configured order otherwise.
+     */
+    static String orderMembers(String emsURL, String activeMemberURL, String standbyMemberURL) {
+        if (emsURL.indexOf(',') < 0 || (activeMemberURL == null && standbyMemberURL == null)) {
+            return emsURL;
+        }
+        List<String> active = new ArrayList<>();
+        List<String> others = new ArrayList<>();
+        List<String> standby = new ArrayList<>();
+        for (String member : MEMBER_SPLITTER.split(emsURL)) {
+            if (matches(member, activeMemberURL)) {
+                active.add(member);
+            } else if (matches(member, standbyMemberURL)) {
+                standby.add(member);
+            } else {
+                others.add(member);
+            }
+        }
+        active.addAll(others);
+        active.addAll(standby);
+        return MEMBER_JOINER.join(active);
+    }
+
+    //A member may listen on several URLs, ServerInfo then reports them comma separated
+    private static boolean matches(String member, String reportedURLs) {
+        if (reportedURLs == null) {
+            return false;
+        }
+        for (String reportedURL : MEMBER_SPLITTER.split(reportedURLs)) {
+            if (member.equalsIgnoreCase(reportedURL)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks the current admin connection as broken so that it is replaced on the next cycle.
+     */
+    public void invalidate(TibjmsAdminException cause) {
+        if (!invalid) {
+            logger.info("Admin session to Tibco EMS server [ " + name + " ] will be reconnected on the next run", cause);
+        }
+        invalid = true;
+    }
+
+    /**
+     * Marks the current admin connection as unusable, e.g. because an admin call on it never returned.
+     */
+    public void invalidate(String reason) {
+        if (!invalid) {
+            logger.info("Admin session to Tibco EMS server [ " + name + " ] will be reconnected on the next run: " + reason);
+        }
+        invalid = true;
+    }
+
+    public boolean isInvalid() {
+        return invalid;
+    }
+
+    public long getConnectCount() {
+        return connectCount;
+    }
+
+    public long getReconnectCount() {
+        return reconnectCount;
+    }
+
+    public synchronized void close() {
+        closeQuietly();
+        connectionSignature = null;
+        connectURL = null;
+        user = null;
+        plainPassword = null;
+        sslParams = null;
+    }
+
+    /**
+     * Closes the admin connections on the way out of the JVM. Unlike {@link #close()} it does not wait for a
+     * {@link #connect} in progress, e.g. one stuck on an unreachable server, a connection that one opens afterwards
+     * is closed by it.
+     */
+    public void shutdown() {
+        shutdown = true;
+        AdminConnectionPool pool = connectionPool;
+        if (pool != null) {
+            pool.close();
+        }
+        TibjmsAdmin admin = tibjmsAdmin;
+        if (admin != null) {
+            closeQuietly(admin);
+        }
+    }
+
+    private void closePool() {
+        if (connectionPool != null) {
+            connectionPool.close();
+            connectionPool = null;
+        }
+    }
+
+    private void closeQuietly() {
+        closePool();
+        if (tibjmsAdmin != null) {
+            closeQuietly(tibjmsAdmin);
+            tibjmsAdmin = null;
+        }
+    }
+
+    private void closeQuietly(TibjmsAdmin admin) {
+        try {
+            logger.debug(String.format("Closing connection to server %s", name));
+            admin.close();
+            logger.debug(String.format("Connection closed to server %s", name));
+        } catch (TibjmsAdminException e) {
+            logger.error("Error while closing the connection", e);
+        } catch (Exception e) {
+            logger.error("Unknown Error while closing the connection", e);
+        }
+    }
+
+    private static String signature(String emsURL, String user, String plainPassword, Hashtable sslParams) {
+        return emsURL + "|" + user + "|" + Objects.hashCode(plainPassword) + "|" + Objects.hashCode(sslParams);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.connection;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps one {@link AdminSession} per configured EMS server for the lifetime of the monitor.
+ */
+public class AdminSessionRegistry {
+
+    private final Map<String, AdminSession> sessions = new ConcurrentHashMap<>();
+
+    public AdminSession getSession(String serverKey) {
+        return sessions.computeIfAbsent(serverKey, AdminSession::new);
+    }
+
+    /**
+     * Closes and forgets the sessions of servers which are no longer configured.
+     */
+    public void retainAll(Collection<String> serverKeys) {
+        Iterator<Map.Entry<String, AdminSession>> iterator = sessions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, AdminSession> entry = iterator.next();
+            if (!serverKeys.contains(entry.getKey())) {
+                entry.getValue().close();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Closes the sessions of all servers without waiting for connects in progress, see {@link AdminSession#shutdown()}.
+     */
+    public void shutdownAll() {
+        for (AdminSession session : sessions.values()) {
+            session.shutdown();
+        }
+    }
+}
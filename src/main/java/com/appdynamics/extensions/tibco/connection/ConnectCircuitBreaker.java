@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.connection;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops connect attempts to an EMS server which keeps failing to connect.
+ * <p>
+ * After <code>failureThreshold</code> consecutive failed connects the circuit opens and no attempt is made until the
+ * backoff has elapsed. The backoff starts at <code>initialBackoff</code> and doubles with each further failure up to
+ * <code>maxBackoff</code>. Half of it is randomized, so that servers which went down together are not retried in
+ * lock step. The first successful connect closes the circuit again.
+ */
+public class ConnectCircuitBreaker {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    public static final long DEFAULT_INITIAL_BACKOFF_IN_SECONDS = 30;
+    public static final long DEFAULT_MAX_BACKOFF_IN_SECONDS = 600;
+
+    private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private long initialBackoffNanos = TimeUnit.SECONDS.toNanos(DEFAULT_INITIAL_BACKOFF_IN_SECONDS);
+    private long maxBackoffNanos = TimeUnit.SECONDS.toNanos(DEFAULT_MAX_BACKOFF_IN_SECONDS);
+
+    private int consecutiveFailures;
+    private boolean open;
+    private long retryAtNanos;
+
+    /**
+     * @param failureThreshold consecutive failed connects which open the circuit, 0 or less never opens it
+     */
+    public synchronized void configure(int failureThreshold, long initialBackoffInSeconds, long maxBackoffInSeconds) {
+        this.failureThreshold = failureThreshold;
+        this.initialBackoffNanos = TimeUnit.SECONDS.toNanos(Math.max(1, initialBackoffInSeconds));
+        this.maxBackoffNanos = Math.max(initialBackoffNanos, TimeUnit.SECONDS.toNanos(maxBackoffInSeconds));
+    }
+
+    /**
+     * @return false while the circuit is open and the backoff has not elapsed at the given {@link System#nanoTime()}
+     */
+    public synchronized boolean allowAttempt(long nowNanos) {
+        return !open || nowNanos - retryAtNanos >= 0;
+    }
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        open = false;
+    }
+
+    /**
+     * Counts a failed connect, opening the circuit or extending its backoff once the threshold is reached.
+     *
+     * @return true if no attempt is allowed until the backoff elapsed
+     */
+    public synchronized boolean recordFailure(long nowNanos) {
+        consecutiveFailures++;
+        if (failureThreshold <= 0 || consecutiveFailures < failureThreshold) {
+            return false;
+        }
+        long backoffNanos = getBackoffNanos(consecutiveFailures - failureThreshold);
+        long halfBackoffNanos = backoffNanos / 2;
+        retryAtNanos = nowNanos + halfBackoffNanos + ThreadLocalRandom.current().nextLong(halfBackoffNanos + 1);
+        open = true;
+        return true;
+    }
+
+    /**
+     * @return the backoff before randomization after the given number of failures beyond the threshold
+     */
+    synchronized long getBackoffNanos(int failuresBeyondThreshold) {
+        long backoffNanos = initialBackoffNanos;
+        for (int i = 0; i < failuresBeyondThreshold && backoffNanos < maxBackoffNanos; i++) {
+            backoffNanos *= 2;
+        }
+        return Math.min(backoffNanos, maxBackoffNanos);
+    }
+
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} from which the next attempt is allowed, only meaningful while open
+     */
+    public synchronized long getRetryAtNanos() {
+        return retryAtNanos;
+    }
+}
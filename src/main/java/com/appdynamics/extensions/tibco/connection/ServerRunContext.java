@@ -0,0 +1,225 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.connection;
+
+import com.appdynamics.extensions.tibco.collectors.CardinalityBudget;
+import com.appdynamics.extensions.tibco.collectors.DestinationFilterCache;
+import com.appdynamics.extensions.tibco.collectors.DestinationTrace;
+import com.appdynamics.extensions.tibco.collectors.MetricPathCache;
+import com.appdynamics.extensions.tibco.collectors.PublishedValues;
+import com.appdynamics.extensions.tibco.collectors.SnapshotStore;
+import com.appdynamics.extensions.tibco.util.EMSWildcards;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the runs of one EMS server keep besides its admin connection: the stores its collectors share from run to run
+ * and the config.yml settings they are used with. The settings are read by {@link #configure} once per load of
+ * config.yml instead of on every run.
+ */
+public class ServerRunContext {
+
+    //Leaves room to publish partial results before execution-timeout-in-secs in monitor.xml (60 seconds) kills the task
+    static final long DEFAULT_COLLECTION_TIMEOUT_IN_SECONDS = 50;
+
+    static final int DEFAULT_PUBLISH_CHUNK_SIZE = 1000;
+
+    private final ConnectCircuitBreaker circuitBreaker;
+    private final MetricPathCache metricPathCache = new MetricPathCache();
+    private final DestinationFilterCache destinationFilterCache = new DestinationFilterCache();
+    private final DestinationTrace destinationTrace = new DestinationTrace();
+    private final SnapshotStore snapshotStore = new SnapshotStore();
+    private final PublishedValues publishedValues = new PublishedValues();
+    private final CardinalityBudget cardinalityBudget = new CardinalityBudget();
+
+    //The config.yml and server entry the settings were last read from
+    private Map<String, ?> configuredYml;
+    private Map<String, ?> configuredServer;
+
+    private volatile boolean publishChangesOnly;
+    private volatile boolean traceDestinations;
+    private volatile int maxMetricPathsPerServer;
+    private volatile int maxDestinationDecisions = DestinationFilterCache.DEFAULT_MAX_DECISIONS;
+    private volatile long collectionTimeoutInSeconds = DEFAULT_COLLECTION_TIMEOUT_IN_SECONDS;
+    private volatile int adminConnections = 1;
+    private volatile int publishChunkSize;
+    private volatile Boolean displayDynamicIdsInMetricPath;
+    private volatile boolean serverSideDestinationFilter;
+    private volatile List<String> queueServerSidePatterns;
+    private volatile List<String> topicServerSidePatterns;
+
+    ServerRunContext(ConnectCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Applies the settings of config.yml and of the server's entry in it, unless they were applied from the same
+     * config.yml before. Called at the start of every run, a reloaded config.yml takes effect with the next run.
+     */
+    public synchronized void configure(Map<String, ?> configYml, Map<String, ?> emsServer) {
+        if (configYml == configuredYml && emsServer == configuredServer) {
+            return;
+        }
+
+        circuitBreaker.configure(
+                getInt(configYml.get("connectFailureThreshold"), ConnectCircuitBreaker.DEFAULT_FAILURE_THRESHOLD),
+                getInt(configYml.get("connectRetryBackoffInSeconds"), (int) ConnectCircuitBreaker.DEFAULT_INITIAL_BACKOFF_IN_SECONDS),
+                getInt(configYml.get("maxConnectRetryBackoffInSeconds"), (int) ConnectCircuitBreaker.DEFAULT_MAX_BACKOFF_IN_SECONDS));
+
+        metricPathCache.setMaxDestinations(getInt(configYml.get("metricPathCacheSize"), MetricPathCache.DEFAULT_MAX_DESTINATIONS));
+        snapshotStore.setMaxDestinations(getInt(configYml.get("snapshotStoreSize"), SnapshotStore.DEFAULT_MAX_DESTINATIONS));
+        maxMetricPathsPerServer = getInt(configYml.get("maxMetricPathsPerServer"), 0);
+        maxDestinationDecisions = getInt(configYml.get("destinationDecisionCacheSize"), DestinationFilterCache.DEFAULT_MAX_DECISIONS);
+
+        publishChangesOnly = Boolean.TRUE.equals(configYml.get("publishChangesOnly"));
+        if (publishChangesOnly) {
+            publishedValues.setFullRefreshCycles(getInt(configYml.get("fullRefreshCycles"), PublishedValues.DEFAULT_FULL_REFRESH_CYCLES));
+            publishedValues.setMaxDestinations(getInt(configYml.get("publishedValuesSize"), PublishedValues.DEFAULT_MAX_DESTINATIONS));
+        } else {
+            publishedValues.clear();
+        }
+
+        traceDestinations = Boolean.TRUE.equals(configYml.get("traceDestinations"));
+        if (traceDestinations) {
+            destinationTrace.setMaxLinesPerMinute(getInt(configYml.get("traceDestinationsPerMinute"), DestinationTrace.DEFAULT_MAX_LINES_PER_MINUTE));
+        }
+
+        //The collection timeout of a server is taken from its entry in config.yml, then from the top level of config.yml
+        Object timeout = emsServer.get("collectionTimeoutInSeconds");
+        if (timeout == null) {
+            timeout = configYml.get("collectionTimeoutInSeconds");
+        }
+        collectionTimeoutInSeconds = timeout != null ? Long.parseLong(timeout.toString().trim()) : DEFAULT_COLLECTION_TIMEOUT_IN_SECONDS;
+
+        adminConnections = Math.max(1, getInt(emsServer.get("adminConnections"), 1));
+
+        if (Boolean.TRUE.equals(configYml.get("streamMetrics"))) {
+            publishChunkSize = Math.max(1, getInt(configYml.get("publishChunkSize"), DEFAULT_PUBLISH_CHUNK_SIZE));
+        } else {
+            publishChunkSize = 0;
+        }
+
+        displayDynamicIdsInMetricPath = (Boolean) configYml.get("displayDynamicIdsInMetricPath");
+
+        //When enabled, includeQueues and includeTopics entries which are EMS wildcards are evaluated by the EMS server
+        serverSideDestinationFilter = Boolean.TRUE.equals(emsServer.get("serverSideDestinationFilter"));
+        queueServerSidePatterns = serverSideDestinationFilter ? EMSWildcards.getServerSidePatterns((List) emsServer.get("includeQueues")) : null;
+        topicServerSidePatterns = serverSideDestinationFilter ? EMSWildcards.getServerSidePatterns((List) emsServer.get("includeTopics")) : null;
+
+        configuredYml = configYml;
+        configuredServer = emsServer;
+    }
+
+    /**
+     * Starts a new run of the server's collectors. Paths and values of the destinations seen by earlier runs are
+     * reused, destinations they reported keep their metric paths while new ones only get the paths left in the budget.
+     */
+    public void beginRun() {
+        metricPathCache.beginRun();
+        snapshotStore.beginRun();
+        if (publishChangesOnly) {
+            publishedValues.beginRun();
+        }
+        cardinalityBudget.beginRun(maxMetricPathsPerServer);
+    }
+
+    /**
+     * The metric paths of this server, kept for as long as the server is configured.
+     */
+    public MetricPathCache getMetricPathCache() {
+        return metricPathCache;
+    }
+
+    /**
+     * The compiled include and exclude entries of this server and the decisions made with them.
+     */
+    public DestinationFilterCache getDestinationFilterCache() {
+        return destinationFilterCache;
+    }
+
+    /**
+     * @return the rate limit of the per destination log lines of this server, or null unless <code>traceDestinations</code> is on
+     */
+    public DestinationTrace getDestinationTrace() {
+        return traceDestinations ? destinationTrace : null;
+    }
+
+    /**
+     * The last values of the delta and rate metrics of this server, kept for as long as the server is configured.
+     */
+    public SnapshotStore getSnapshotStore() {
+        return snapshotStore;
+    }
+
+    /**
+     * @return the last published values of this server, or null unless <code>publishChangesOnly</code> is on
+     */
+    public PublishedValues getPublishedValues() {
+        return publishChangesOnly ? publishedValues : null;
+    }
+
+    /**
+     * The destinations of this server reported within its metric path budget, see <code>maxMetricPathsPerServer</code>.
+     */
+    public CardinalityBudget getCardinalityBudget() {
+        return cardinalityBudget;
+    }
+
+    public int getMaxDestinationDecisions() {
+        return maxDestinationDecisions;
+    }
+
+    public long getCollectionTimeoutInSeconds() {
+        return collectionTimeoutInSeconds;
+    }
+
+    /**
+     * @return the admin connections the collectors of this server may use at once, 1 to share the session's connection
+     */
+    public int getAdminConnections() {
+        return adminConnections;
+    }
+
+    /**
+     * @return the chunk size collectors publish their metrics in, or 0 to publish all metrics of the server at once
+     */
+    public int getPublishChunkSize() {
+        return publishChunkSize;
+    }
+
+    public Boolean getDisplayDynamicIdsInMetricPath() {
+        return displayDynamicIdsInMetricPath;
+    }
+
+    public boolean isServerSideDestinationFilter() {
+        return serverSideDestinationFilter;
+    }
+
+    /**
+     * @return the includeQueues entries evaluated by the EMS server, or null without <code>serverSideDestinationFilter</code>
+     */
+    public List<String> getQueueServerSidePatterns() {
+        return queueServerSidePatterns;
+    }
+
+    /**
+     * @return the includeTopics entries evaluated by the EMS server, or null without <code>serverSideDestinationFilter</code>
+     */
+    public List<String> getTopicServerSidePatterns() {
+        return topicServerSidePatterns;
+    }
+
+    private static int getInt(Object value, int defaultValue) {
+        if (value == null || value.toString().trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value.toString().trim());
+    }
+}
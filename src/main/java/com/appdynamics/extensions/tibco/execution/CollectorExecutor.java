@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.execution;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+import com.appdynamics.extensions.tibco.collectors.AbstractMetricCollector;
+import com.appdynamics.extensions.tibco.collectors.MetricMaterializer;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Starts the metric collectors of a server on the collector threads, which are never the threads running the
+ * server fetchers: either a {@link CollectorThreadPool} or virtual threads. Collectors go through the
+ * {@link ServerBulkheads} so that each server is limited to its own share of threads and admin calls.
+ */
+public class CollectorExecutor {
+
+    private static final org.slf4j.Logger logger = ExtensionsLoggerFactory.getLogger(CollectorExecutor.class);
+
+    private final ServerBulkheads serverBulkheads;
+    private final Semaphore adminCallPermits;
+    private final MetricMaterializer metricMaterializer;
+
+    /**
+     * @param serverBulkheads    queues the collectors per server in front of the collector threads
+     * @param adminCallPermits   caps the admin calls in flight across all servers, or null for no cap
+     * @param metricMaterializer converts large admin call results in parallel
+     */
+    public CollectorExecutor(ServerBulkheads serverBulkheads, Semaphore adminCallPermits, MetricMaterializer metricMaterializer) {
+        this.serverBulkheads = serverBulkheads;
+        this.adminCallPermits = adminCallPermits;
+        this.metricMaterializer = metricMaterializer;
+    }
+
+    public void execute(String serverKey, String name, AbstractMetricCollector collector) {
+        collector.setAdminCallPermits(adminCallPermits);
+        collector.setServerAdminCallPermits(serverBulkheads.getAdminCallPermits(serverKey));
+        collector.setMetricMaterializer(metricMaterializer);
+        logger.debug("Queueing {}", name);
+        serverBulkheads.submit(serverKey, collector);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.execution;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers, per EMS server and metrics type, when a collector was last started so that metrics groups with an
+ * <code>intervalInSeconds</code> only run on the monitor cycles where they are due.
+ * <p>
+ * Kept by the monitor for its whole lifetime, as the fetchers are created again on every cycle.
+ */
+public class CollectorSchedule {
+
+    //Monitor cycles do not start exactly one minute apart, without this a 300 second interval could slip to 360 seconds
+    static final long SCHEDULING_TOLERANCE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final Map<String, Map<String, Long>> lastStarts = new ConcurrentHashMap<>();
+
+    /**
+     * @param intervalInSeconds the interval of the metrics group, null or 0 to run on every cycle
+     * @return true if the collector never ran or its interval has elapsed
+     */
+    public boolean isDue(String serverKey, String type, Integer intervalInSeconds, long nowNanos) {
+        if (intervalInSeconds == null || intervalInSeconds <= 0) {
+            return true;
+        }
+        Map<String, Long> serverStarts = lastStarts.get(serverKey);
+        Long lastStart = serverStarts != null ? serverStarts.get(type) : null;
+        if (lastStart == null) {
+            return true;
+        }
+        return nowNanos - lastStart >= TimeUnit.SECONDS.toNanos(intervalInSeconds) - SCHEDULING_TOLERANCE_NANOS;
+    }
+
+    /**
+     * Records that the collector of the given type was started on this cycle.
+     */
+    public void started(String serverKey, String type, long nowNanos) {
+        lastStarts.computeIfAbsent(serverKey, key -> new ConcurrentHashMap<>()).put(type, nowNanos);
+    }
+
+    /**
+     * Forgets the schedule of servers which are no longer configured.
+     */
+    public void retainAll(Collection<String> serverKeys) {
+        lastStarts.keySet().retainAll(serverKeys);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.execution;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Platform threads running the metric collectors, separate from the monitor's pool running the server fetchers.
+ * <p>
+ * A fetcher blocks until its collectors are done. With both on one pool, fetchers could hold every thread while
+ * their collectors wait in the queue; with separate pools collectors always make progress. The pool is sized from
+ * the configured servers and metrics groups, so numberOfThreads only has to cover the fetchers.
+ */
+public class CollectorThreadPool {
+
+    private static final org.slf4j.Logger logger = ExtensionsLoggerFactory.getLogger(CollectorThreadPool.class);
+
+    //Longer than a monitor cycle, so that threads are reused from one run to the next
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private final ThreadPoolExecutor executor;
+
+    public CollectorThreadPool() {
+        executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), new CollectorThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param requiredThreads number of collectors which can be due in one run
+     * @param maxThreads      upper bound, e.g. maxConcurrentAdminCalls as more threads would only wait for a permit, or 0 for none
+     * @return the executor, resized if the configuration changed
+     */
+    public ExecutorService resize(int requiredThreads, int maxThreads) {
+        int poolSize = Math.max(1, maxThreads > 0 ? Math.min(requiredThreads, maxThreads) : requiredThreads);
+        if (poolSize != executor.getMaximumPoolSize()) {
+            logger.info("Using {} threads for {} metric collectors", poolSize, requiredThreads);
+            if (poolSize > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(poolSize);
+                executor.setCorePoolSize(poolSize);
+            } else {
+                executor.setCorePoolSize(poolSize);
+                executor.setMaximumPoolSize(poolSize);
+            }
+        }
+        return executor;
+    }
+
+    public int getPoolSize() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static class CollectorThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Tibco-EMS-Collector-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
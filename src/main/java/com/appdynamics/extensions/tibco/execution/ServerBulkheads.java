@@ -0,0 +1,206 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.execution;
+
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Per EMS server bulkheads on the collector threads.
+ * <p>
+ * Each server has its own queue of collector tasks, a cap on how many of them run at once
+ * (<code>maxConcurrentCollectors</code>) and a cap on its admin calls in flight (<code>maxConcurrentAdminCalls</code>).
+ * Free threads are handed to the servers round robin, so a broker whose admin calls hang only delays its own
+ * collectors: its queue fills up while the other servers keep getting threads.
+ */
+public class ServerBulkheads {
+
+    private static final org.slf4j.Logger logger = ExtensionsLoggerFactory.getLogger(ServerBulkheads.class);
+
+    private final Map<String, ServerQueue> serverQueues = new HashMap<>();
+    private final Deque<ServerQueue> rotation = new ArrayDeque<>();
+
+    private ExecutorService executor;
+    private int maxInFlight;
+    private int inFlight;
+
+    /**
+     * @param executor    the collector threads
+     * @param maxInFlight collector tasks handed to the executor at once, usually its thread count
+     */
+    public ServerBulkheads(ExecutorService executor, int maxInFlight) {
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public void setExecutor(ExecutorService executor, int maxInFlight) {
+        synchronized (this) {
+            this.executor = executor;
+            this.maxInFlight = maxInFlight;
+        }
+        dispatch();
+    }
+
+    /**
+     * Sets the limits of a server, a value of 0 or less means no limit.
+     */
+    public synchronized void configure(String serverKey, int maxConcurrentCollectors, int maxConcurrentAdminCalls) {
+        ServerQueue serverQueue = getServerQueue(serverKey);
+        serverQueue.maxConcurrentCollectors = maxConcurrentCollectors > 0 ? maxConcurrentCollectors : Integer.MAX_VALUE;
+        if (maxConcurrentAdminCalls <= 0) {
+            serverQueue.adminCallPermits = null;
+        } else if (serverQueue.adminCallPermits == null || serverQueue.adminCallPermitCount != maxConcurrentAdminCalls) {
+            serverQueue.adminCallPermits = new Semaphore(maxConcurrentAdminCalls, true);
+        }
+        serverQueue.adminCallPermitCount = maxConcurrentAdminCalls;
+    }
+
+    /**
+     * @return the admin call permits of the server, or null if its admin calls are not limited
+     */
+    public synchronized Semaphore getAdminCallPermits(String serverKey) {
+        return getServerQueue(serverKey).adminCallPermits;
+    }
+
+    /**
+     * Queues a collector of the given server, it is started as soon as the server and the executor have room.
+     */
+    public void submit(String serverKey, Runnable collector) {
+        synchronized (this) {
+            getServerQueue(serverKey).pending.add(collector);
+        }
+        dispatch();
+    }
+
+    /**
+     * Forgets the servers which are no longer configured and have nothing queued or running.
+     */
+    public synchronized void retainAll(Collection<String> serverKeys) {
+        Iterator<ServerQueue> iterator = serverQueues.values().iterator();
+        while (iterator.hasNext()) {
+            ServerQueue serverQueue = iterator.next();
+            if (!serverKeys.contains(serverQueue.serverKey) && serverQueue.running == 0 && serverQueue.pending.isEmpty()) {
+                iterator.remove();
+                rotation.remove(serverQueue);
+            }
+        }
+    }
+
+    synchronized int getRunning(String serverKey) {
+        return getServerQueue(serverKey).running;
+    }
+
+    synchronized int getPending(String serverKey) {
+        return getServerQueue(serverKey).pending.size();
+    }
+
+    private ServerQueue getServerQueue(String serverKey) {
+        ServerQueue serverQueue = serverQueues.get(serverKey);
+        if (serverQueue == null) {
+            serverQueue = new ServerQueue(serverKey);
+            serverQueues.put(serverKey, serverQueue);
+            rotation.add(serverQueue);
+        }
+        return serverQueue;
+    }
+
+    private void dispatch() {
+        List<CollectorTask> startable = new ArrayList<>();
+        ExecutorService target;
+        synchronized (this) {
+            target = executor;
+            while (inFlight < maxInFlight) {
+                ServerQueue next = nextReadyServer();
+                if (next == null) {
+                    break;
+                }
+                Runnable collector = next.pending.poll();
+                next.running++;
+                inFlight++;
+                startable.add(new CollectorTask(next, collector));
+            }
+        }
+
+        for (CollectorTask task : startable) {
+            try {
+                target.execute(task);
+            } catch (RejectedExecutionException e) {
+                logger.error("Collector threads rejected a collector of Tibco EMS server [ " + task.serverQueue.serverKey + " ]", e);
+                synchronized (this) {
+                    task.serverQueue.running--;
+                    inFlight--;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the next server in round robin order with a queued collector and room to run it
+     */
+    private ServerQueue nextReadyServer() {
+        for (int i = 0; i < rotation.size(); i++) {
+            ServerQueue candidate = rotation.poll();
+            rotation.add(candidate);
+            if (!candidate.pending.isEmpty() && candidate.running < candidate.maxConcurrentCollectors) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private void completed(ServerQueue serverQueue) {
+        synchronized (this) {
+            serverQueue.running--;
+            inFlight--;
+        }
+        dispatch();
+    }
+
+    private class CollectorTask implements Runnable {
+        private final ServerQueue serverQueue;
+        private final Runnable collector;
+
+        CollectorTask(ServerQueue serverQueue, Runnable collector) {
+            this.serverQueue = serverQueue;
+            this.collector = collector;
+        }
+
+        public void run() {
+            try {
+                collector.run();
+            } finally {
+                completed(serverQueue);
+            }
+        }
+    }
+
+    private static class ServerQueue {
+        private final String serverKey;
+        private final Deque<Runnable> pending = new ArrayDeque<>();
+        private int running;
+        private int maxConcurrentCollectors = Integer.MAX_VALUE;
+        private Semaphore adminCallPermits;
+        private int adminCallPermitCount;
+
+        ServerQueue(String serverKey) {
+            this.serverKey = serverKey;
+        }
+    }
+}
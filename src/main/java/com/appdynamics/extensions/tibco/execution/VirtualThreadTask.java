@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.execution;
+
+import com.appdynamics.extensions.AMonitorTaskRunnable;
+import com.appdynamics.extensions.logging.ExtensionsLoggerFactory;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the fetcher of one server on a virtual thread. One task is submitted to the monitor's pool per server, as the
+ * monitor completes a run once a task finished for each configured server. The task only waits for its fetcher, the
+ * fetcher and its collectors run on virtual threads.
+ */
+public class VirtualThreadTask implements AMonitorTaskRunnable {
+
+    private static final org.slf4j.Logger logger = ExtensionsLoggerFactory.getLogger(VirtualThreadTask.class);
+
+    private final AMonitorTaskRunnable fetcher;
+    private final ExecutorService virtualThreadExecutor;
+
+    public VirtualThreadTask(AMonitorTaskRunnable fetcher, ExecutorService virtualThreadExecutor) {
+        this.fetcher = fetcher;
+        this.virtualThreadExecutor = virtualThreadExecutor;
+    }
+
+    public void run() {
+        Future<?> future = virtualThreadExecutor.submit(fetcher);
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            logger.error("Unexpected error while collecting metrics on a virtual thread", e.getCause());
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while waiting for the server fetcher");
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void onTaskComplete() {
+        fetcher.onTaskComplete();
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.metrics;
+
+/**
+ * Reads one metric attribute of metrics.xml from the info object returned by an admin call.
+ */
+public interface AttributeExtractor<I> {
+
+    /**
+     * Returned by {@link #extract} when the info does not carry the attribute ( e.g. statistics are disabled on the server ).
+     */
+    long NO_VALUE = Long.MIN_VALUE;
+
+    /**
+     * @return the attribute value, or {@link #NO_VALUE}
+     */
+    long extract(I info);
+}
@@ -14,7 +14,9 @@ import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlTransient;
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -30,6 +32,8 @@ public class Metric implements Cloneable {
     @XmlAttribute
     private String delta;
     @XmlAttribute
+    private String rate;
+    @XmlAttribute
     private String aggregationType;
     @XmlAttribute
     private String timeRollUpType;
@@ -41,6 +45,8 @@ public class Metric implements Cloneable {
     private String isBoolean = "false";
     @XmlElement(name = "convert")
     private MetricConverter[] convert;
+    @XmlTransient
+    private volatile Map<String, String> converterMap;
 
     public String getAttr() {
         return attr;
@@ -82,6 +88,17 @@ public class Metric implements Cloneable {
         this.delta = delta;
     }
 
+    /**
+     * @return "true" to publish the per second rate of a cumulative counter instead of its value
+     */
+    public String getRate() {
+        return rate;
+    }
+
+    public void setRate(String rate) {
+        this.rate = rate;
+    }
+
     public String getAggregationType() {
         return aggregationType;
     }
@@ -106,22 +123,29 @@ public class Metric implements Cloneable {
         this.clusterRollUpType = clusterRollUpType;
     }
 
+    /**
+     * @return the labels configured for the metric's values, built once and shared, so it cannot be modified
+     */
     public Map<String, String> getConvert() {
-        Map<String, String> converterMap = Maps.newHashMap();
-        if (convert != null && convert.length > 0) {
-            return generateConverterMap(converterMap);
+        Map<String, String> converterMap = this.converterMap;
+        if (converterMap == null) {
+            converterMap = Collections.unmodifiableMap(generateConverterMap(Maps.<String, String>newHashMap()));
+            this.converterMap = converterMap;
         }
         return converterMap;
     }
 
     private Map<String, String> generateConverterMap(Map<String, String> converterMap) {
-        for (MetricConverter converter : convert) {
-            converterMap.put(converter.getLabel(), converter.getValue());
+        if (convert != null) {
+            for (MetricConverter converter : convert) {
+                converterMap.put(converter.getLabel(), converter.getValue());
+            }
         }
         return converterMap;
     }
 
     public void setConvert(MetricConverter[] convert) {
         this.convert = convert;
+        this.converterMap = null;
     }
 }
\ No newline at end of file
@@ -13,6 +13,9 @@ import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author Satish Muddam
@@ -26,8 +29,27 @@ public class Metrics {
     private String metricPrefix;
     @XmlAttribute
     private String enabled;
+    @XmlAttribute
+    private String timeoutInSeconds;
+    @XmlAttribute
+    private String intervalInSeconds;
+    @XmlAttribute
+    private String topN;
+    @XmlAttribute
+    private String rankBy;
+    @XmlAttribute
+    private String maxMetricPaths;
     @XmlElement(name = "metric")
     private Metric[] metrics;
+    //Resolved from the attr of each metric on first use, see AttributeExtractors
+    @XmlTransient
+    private volatile AttributeExtractor<?>[] extractors;
+    //Converted from each metric on first use, see MetricPropertyMaps
+    @XmlTransient
+    private volatile List<Map<String, String>> propertyMaps;
+
+    @XmlTransient
+    private volatile AttributeExtractor<?> rankExtractor;
 
     public String getType() {
         return type;
@@ -53,12 +75,116 @@ public class Metrics {
         this.enabled = enabled;
     }
 
+    /**
+     * @return the time this group's collector may take per run, or null to use the server's collection timeout
+     */
+    public Integer getTimeoutInSeconds() {
+        if (timeoutInSeconds == null || timeoutInSeconds.trim().isEmpty()) {
+            return null;
+        }
+        return Integer.valueOf(timeoutInSeconds.trim());
+    }
+
+    public void setTimeoutInSeconds(String timeoutInSeconds) {
+        this.timeoutInSeconds = timeoutInSeconds;
+    }
+
+    /**
+     * @return how often this group's collector runs, or null to run it on every monitor cycle
+     */
+    public Integer getIntervalInSeconds() {
+        if (intervalInSeconds == null || intervalInSeconds.trim().isEmpty()) {
+            return null;
+        }
+        return Integer.valueOf(intervalInSeconds.trim());
+    }
+
+    public void setIntervalInSeconds(String intervalInSeconds) {
+        this.intervalInSeconds = intervalInSeconds;
+    }
+
+    /**
+     * @return the number of destinations with the highest <code>rankBy</code> value to publish metrics for, or null to
+     * publish all monitored destinations
+     */
+    public Integer getTopN() {
+        if (topN == null || topN.trim().isEmpty()) {
+            return null;
+        }
+        return Integer.valueOf(topN.trim());
+    }
+
+    public void setTopN(String topN) {
+        this.topN = topN;
+    }
+
+    /**
+     * @return the attribute destinations are ranked by when {@link #getTopN()} is set
+     */
+    public String getRankBy() {
+        return rankBy;
+    }
+
+    public void setRankBy(String rankBy) {
+        this.rankBy = rankBy;
+        this.rankExtractor = null;
+    }
+
+    /**
+     * @return the number of distinct metric paths the group may publish per server, or null for no limit
+     */
+    public Integer getMaxMetricPaths() {
+        if (maxMetricPaths == null || maxMetricPaths.trim().isEmpty()) {
+            return null;
+        }
+        return Integer.valueOf(maxMetricPaths.trim());
+    }
+
+    public void setMaxMetricPaths(String maxMetricPaths) {
+        this.maxMetricPaths = maxMetricPaths;
+    }
+
     public Metric[] getMetrics() {
         return metrics;
     }
 
     public void setMetrics(Metric[] metrics) {
         this.metrics = metrics;
+        this.extractors = null;
+        this.propertyMaps = null;
+    }
+
+    /**
+     * @return the extractor of each metric in the order of {@link #getMetrics()}, or null if not resolved yet
+     */
+    public AttributeExtractor<?>[] getExtractors() {
+        return extractors;
+    }
+
+    public void setExtractors(AttributeExtractor<?>[] extractors) {
+        this.extractors = extractors;
+    }
+
+    /**
+     * @return the properties of each metric in the order of {@link #getMetrics()}, or null if not converted yet
+     */
+    public List<Map<String, String>> getPropertyMaps() {
+        return propertyMaps;
+    }
+
+    public void setPropertyMaps(List<Map<String, String>> propertyMaps) {
+        this.propertyMaps = propertyMaps;
+    }
+
+    /**
+     * @return the extractor of {@link #getRankBy()}, or null if not resolved yet
+     */
+    public AttributeExtractor<?> getRankExtractor() {
+        return rankExtractor;
+    }
+
+    public void setRankExtractor(AttributeExtractor<?> rankExtractor) {
+        this.rankExtractor = rankExtractor;
     }
 
     @XmlRootElement
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Decides in one pass whether a destination is monitored, given the include and exclude entries of config.yml.
+ * Exclude entries take precedence over include entries.
+ * <p>
+ * Each list is compiled once: entries which are plain names are looked up in a hash set, entries which are a plain
+ * name followed by <code>.*</code> or <code>.+</code> ( or an EMS wildcard ending in <code>&gt;</code> ) are looked up
+ * in a prefix trie, and only the remaining regular expressions are combined into a single alternation. A name is
+ * therefore matched in time proportional to its length plus one regex evaluation, however many entries are configured.
+ */
+public class DestinationMatcher {
+
+    private static final String REGEX_META_CHARACTERS = ".^$|?*+()[]{}\\";
+
+    private final EntrySet includes;
+    private final EntrySet excludes;
+
+    private DestinationMatcher(EntrySet includes, EntrySet excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+    /**
+     * @param includes    regular expressions, a destination has to fully match one of them to be monitored
+     * @param excludes    regular expressions, a destination fully matching one of them is not monitored, may be null
+     * @param emsWildcards when true, entries which are EMS wildcards ( see {@link EMSWildcards#isWildcard} ) are read as
+     *                    wildcards instead of regular expressions
+     */
+    public static DestinationMatcher compile(List<String> includes, List<String> excludes, boolean emsWildcards) {
+        return new DestinationMatcher(new EntrySet(includes, emsWildcards), new EntrySet(excludes, emsWildcards));
+    }
+
+    public boolean matches(String name) {
+        return !excludes.matches(name) && includes.matches(name);
+    }
+
+    /**
+     * @return true if the matcher has no include entries, so that no destination is monitored
+     */
+    public boolean isEmpty() {
+        return includes.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "includes " + includes + ", excludes " + excludes;
+    }
+
+    /**
+     * Appends the leading plain characters of the regex, unescaping escaped punctuation, to <code>literal</code>.
+     *
+     * @return the index of the first character which is not part of the plain name
+     */
+    private static int literalEnd(String regex, StringBuilder literal) {
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                //Only escaped punctuation stands for itself, \d, \Q and the like are regex constructs
+                if (i + 1 < regex.length() && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    literal.append(regex.charAt(i + 1));
+                    i += 2;
+                    continue;
+                }
+                return i;
+            }
+            if (REGEX_META_CHARACTERS.indexOf(c) >= 0) {
+                return i;
+            }
+            literal.append(c);
+            i++;
+        }
+        return i;
+    }
+
+    private static class EntrySet {
+        private final List<String> entries = new ArrayList<>();
+        private final Set<String> names = new HashSet<>();
+        private final PrefixNode prefixes = new PrefixNode();
+        private final List<Pattern> patterns = new ArrayList<>();
+
+        EntrySet(List<String> entries, boolean emsWildcards) {
+            if (entries == null) {
+                return;
+            }
+            List<String> regexes = new ArrayList<>();
+            for (String entry : entries) {
+                if (entry == null) {
+                    continue;
+                }
+                this.entries.add(entry);
+                if (emsWildcards && EMSWildcards.isWildcard(entry)) {
+                    addWildcard(entry, regexes);
+                } else {
+                    addRegex(entry, regexes);
+                }
+            }
+            compilePatterns(regexes);
+        }
+
+        private void addWildcard(String wildcard, List<String> regexes) {
+            if (wildcard.indexOf('*') >= 0) {
+                regexes.add(EMSWildcards.toPattern(wildcard).pattern());
+            } else if (wildcard.endsWith(">")) {
+                prefixes.add(wildcard.substring(0, wildcard.length() - 1), false);
+            } else {
+                names.add(wildcard);
+            }
+        }
+
+        private void addRegex(String regex, List<String> regexes) {
+            //Validate like before, an invalid entry fails the run instead of being matched as text
+            Pattern.compile(regex);
+
+            StringBuilder literal = new StringBuilder(regex.length());
+            int end = literalEnd(regex, literal);
+            String rest = regex.substring(end);
+            if (rest.isEmpty()) {
+                names.add(literal.toString());
+            } else if (".*".equals(rest)) {
+                prefixes.add(literal.toString(), true);
+            } else if (".+".equals(rest)) {
+                prefixes.add(literal.toString(), false);
+            } else {
+                regexes.add(regex);
+            }
+        }
+
+        /**
+         * Combines the regexes into one alternation. Regexes with back references keep their own pattern, their group
+         * numbers would shift in the alternation, and so do all of them if the alternation does not compile.
+         */
+        private void compilePatterns(List<String> regexes) {
+            if (regexes.isEmpty()) {
+                return;
+            }
+            StringBuilder alternation = new StringBuilder();
+            for (String regex : regexes) {
+                if (hasBackReference(regex)) {
+                    patterns.add(Pattern.compile(regex));
+                    continue;
+                }
+                if (alternation.length() > 0) {
+                    alternation.append('|');
+                }
+                alternation.append("(?:").append(regex).append(')');
+            }
+            if (alternation.length() == 0) {
+                return;
+            }
+            try {
+                patterns.add(Pattern.compile(alternation.toString()));
+            } catch (PatternSyntaxException e) {
+                //e.g. the same named group in two entries
+                patterns.clear();
+                for (String regex : regexes) {
+                    patterns.add(Pattern.compile(regex));
+                }
+            }
+        }
+
+        private static boolean hasBackReference(String regex) {
+            for (int i = 0; i + 1 < regex.length(); i++) {
+                if (regex.charAt(i) == '\\') {
+                    char next = regex.charAt(i + 1);
+                    if (Character.isDigit(next) || next == 'k') {
+                        return true;
+                    }
+                    i++;
+                }
+            }
+            return false;
+        }
+
+        boolean matches(String name) {
+            if (names.contains(name) || prefixes.matches(name)) {
+                return true;
+            }
+            for (Pattern pattern : patterns) {
+                if (pattern.matcher(name).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean isEmpty() {
+            return entries.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return entries.toString();
+        }
+    }
+
+    private static class PrefixNode {
+        private final Map<Character, PrefixNode> children = new HashMap<>();
+        //A prefix ends here and matches any remainder, including none ( .* )
+        private boolean anyRemainder;
+        //A prefix ends here and matches a remainder of at least one character ( .+ or the EMS wildcard > )
+        private boolean nonEmptyRemainder;
+        private boolean hasPrefixes;
+
+        void add(String prefix, boolean emptyRemainder) {
+            hasPrefixes = true;
+            PrefixNode node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.children.computeIfAbsent(prefix.charAt(i), c -> new PrefixNode());
+            }
+            if (emptyRemainder) {
+                node.anyRemainder = true;
+            } else {
+                node.nonEmptyRemainder = true;
+            }
+        }
+
+        boolean matches(String name) {
+            if (!hasPrefixes) {
+                return false;
+            }
+            PrefixNode node = this;
+            for (int i = 0; ; i++) {
+                if (node.anyRemainder || (node.nonEmptyRemainder && i < name.length())) {
+                    return true;
+                }
+                if (i == name.length()) {
+                    return false;
+                }
+                node = node.children.get(name.charAt(i));
+                if (node == null) {
+                    return false;
+                }
+            }
+        }
+    }
+}
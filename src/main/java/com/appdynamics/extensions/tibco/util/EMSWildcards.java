@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Helpers for EMS destination wildcards ( <code>orders.&gt;</code>, <code>app.*.in</code> ), which the EMS server
+ * can evaluate itself when passed as the pattern argument of the admin statistics calls.
+ */
+public class EMSWildcards {
+
+    private static final Pattern LITERAL_ELEMENT = Pattern.compile("[A-Za-z0-9_$#@:\\-]+");
+
+    /**
+     * @return true if every element of the given include entry is a plain name, <code>*</code> or a trailing
+     * <code>&gt;</code>, i.e. the entry can be evaluated by the EMS server.
+     */
+    public static boolean isWildcard(String include) {
+        if (include == null || include.isEmpty()) {
+            return false;
+        }
+        String[] elements = include.split("\\.", -1);
+        for (int i = 0; i < elements.length; i++) {
+            String element = elements[i];
+            if ("*".equals(element)) {
+                continue;
+            }
+            if (">".equals(element) && i == elements.length - 1) {
+                continue;
+            }
+            if (!LITERAL_ELEMENT.matcher(element).matches()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the include entries to pass to the EMS server, or null when at least one entry is a regex and
+     * all destinations have to be fetched and filtered on the client side.
+     */
+    public static List<String> getServerSidePatterns(List<String> includes) {
+        List<String> patterns = new ArrayList<>();
+        if (includes != null) {
+            for (String include : includes) {
+                if (!isWildcard(include)) {
+                    return null;
+                }
+                patterns.add(include);
+            }
+        }
+        return patterns;
+    }
+
+    /**
+     * Translates an EMS wildcard to the equivalent regex, used to filter results on the client side.
+     */
+    public static Pattern toPattern(String wildcard) {
+        String[] elements = wildcard.split("\\.", -1);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < elements.length; i++) {
+            if (i > 0) {
+                sb.append("\\.");
+            }
+            String element = elements[i];
+            if ("*".equals(element)) {
+                sb.append("[^.]+");
+            } else if (">".equals(element)) {
+                sb.append(".+");
+            } else {
+                sb.append(Pattern.quote(element));
+            }
+        }
+        return Pattern.compile(sb.toString());
+    }
+}
@@ -9,21 +9,33 @@
 package com.appdynamics.extensions.tibco;
 
 import com.appdynamics.extensions.executorservice.MonitorExecutorService;
+import com.appdynamics.extensions.MetricWriteHelper;
 import com.appdynamics.extensions.TasksExecutionServiceProvider;
 import com.appdynamics.extensions.conf.MonitorContext;
 import com.appdynamics.extensions.conf.MonitorContextConfiguration;
 import com.appdynamics.extensions.tibco.collectors.ConsumerMetricCollector;
 import com.appdynamics.extensions.tibco.collectors.DurableMetricCollector;
+import com.appdynamics.extensions.tibco.collectors.MetricMaterializer;
 import com.appdynamics.extensions.tibco.collectors.ProducerMetricCollector;
 import com.appdynamics.extensions.tibco.collectors.QueueMetricCollector;
 import com.appdynamics.extensions.tibco.collectors.RouteMetricCollector;
 import com.appdynamics.extensions.tibco.collectors.ServerMetricCollector;
 import com.appdynamics.extensions.tibco.collectors.TopicMetricCollector;
+import com.appdynamics.extensions.tibco.connection.AdminSession;
+import com.appdynamics.extensions.tibco.connection.AdminSessionRegistry;
+import com.appdynamics.extensions.tibco.execution.CollectorExecutor;
+import com.appdynamics.extensions.tibco.execution.CollectorSchedule;
+import com.appdynamics.extensions.tibco.execution.ServerBulkheads;
 import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.tibco.tibjms.admin.ServerInfo;
 import com.tibco.tibjms.admin.TibjmsAdmin;
+import com.tibco.tibjms.admin.TibjmsAdminException;
+import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
@@ -32,12 +44,18 @@ import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -47,7 +65,7 @@ import static org.mockito.Mockito.when;
  */
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({TibcoEMSMetricFetcher.class})
+@PrepareForTest({TibcoEMSMetricFetcher.class, AdminSession.class})
 public class TibcoEMSMetricFetcherTest {
 
     @Mock
@@ -87,6 +105,9 @@ public class TibcoEMSMetricFetcherTest {
     private DurableMetricCollector durableMetricCollector;
 
 
+    @Mock
+    private MetricWriteHelper metricWriteHelper;
+
     @Mock
     private TibjmsAdmin tibjmsAdmin;
 
@@ -136,7 +157,7 @@ public class TibcoEMSMetricFetcherTest {
 
         //when(serverMetricCollector.run()).then()
 
-        TibcoEMSMetricFetcher tibcoEMSMetricFetcher = new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer);
+        TibcoEMSMetricFetcher tibcoEMSMetricFetcher = new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, new AdminSessionRegistry(), directCollectorExecutor(), new CollectorSchedule());
         tibcoEMSMetricFetcher.run();
 
         verify(serverMetricCollector, times(1)).run();
@@ -191,7 +212,7 @@ public class TibcoEMSMetricFetcherTest {
 
         //when(serverMetricCollector.run()).then()
 
-        TibcoEMSMetricFetcher tibcoEMSMetricFetcher = new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer);
+        TibcoEMSMetricFetcher tibcoEMSMetricFetcher = new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, new AdminSessionRegistry(), directCollectorExecutor(), new CollectorSchedule());
         tibcoEMSMetricFetcher.run();
 
         verify(serverMetricCollector, times(1)).run();
@@ -203,6 +224,400 @@ public class TibcoEMSMetricFetcherTest {
         verify(durableMetricCollector, times(0)).run();
     }
 
+    @Test
+    public void testShouldReuseAdminSessionAcrossRuns() throws Exception {
+
+        Map<String, Object> emsServer = setupEMSServer();
+        setupRun(setupMetrics("true", "true", "false", "false", "false", "false", "false", "false"));
+
+        AdminSessionRegistry sessionRegistry = new AdminSessionRegistry();
+
+        new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, sessionRegistry, directCollectorExecutor(), new CollectorSchedule()).run();
+        new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, sessionRegistry, directCollectorExecutor(), new CollectorSchedule()).run();
+
+        PowerMockito.verifyNew(TibjmsAdmin.class, times(1)).withArguments(anyString(), anyString(), anyString(), any(Hashtable.class));
+        verify(tibjmsAdmin, times(0)).close();
+        Assert.assertEquals(1, sessionRegistry.getSession("TestEMSServer").getConnectCount());
+        Assert.assertEquals(0, sessionRegistry.getSession("TestEMSServer").getReconnectCount());
+    }
+
+    @Test
+    public void testShouldReconnectAfterAdminFailure() throws Exception {
+
+        Map<String, Object> emsServer = setupEMSServer();
+        setupRun(setupMetrics("true", "true", "false", "false", "false", "false", "false", "false"));
+
+        when(queueMetricCollector.getAdminFailure()).thenReturn(new TibjmsAdminException("Connection lost"));
+
+        AdminSessionRegistry sessionRegistry = new AdminSessionRegistry();
+
+        new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, sessionRegistry, directCollectorExecutor(), new CollectorSchedule()).run();
+        new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, sessionRegistry, directCollectorExecutor(), new CollectorSchedule()).run();
+
+        PowerMockito.verifyNew(TibjmsAdmin.class, times(2)).withArguments(anyString(), anyString(), anyString(), any(Hashtable.class));
+        verify(tibjmsAdmin, times(1)).close();
+        Assert.assertEquals(2, sessionRegistry.getSession("TestEMSServer").getConnectCount());
+        Assert.assertEquals(1, sessionRegistry.getSession("TestEMSServer").getReconnectCount());
+    }
+
+    @Test
+    public void testShouldReconnectWhenReusedSessionFailsItsCheck() throws Exception {
+
+        Map<String, Object> emsServer = setupEMSServer();
+        setupRun(setupMetrics("false", "true", "false", "false", "false", "false", "false", "false"));
+
+        //The connection was dropped between the two runs
+        when(tibjmsAdmin.getInfo()).thenThrow(new TibjmsAdminException("Connection lost"));
+
+        AdminSessionRegistry sessionRegistry = new AdminSessionRegistry();
+
+        new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, sessionRegistry, directCollectorExecutor(), new CollectorSchedule()).run();
+        new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, sessionRegistry, directCollectorExecutor(), new CollectorSchedule()).run();
+
+        PowerMockito.verifyNew(TibjmsAdmin.class, times(2)).withArguments(anyString(), anyString(), anyString(), any(Hashtable.class));
+        verify(tibjmsAdmin, times(1)).close();
+        Assert.assertEquals(1, sessionRegistry.getSession("TestEMSServer").getReconnectCount());
+        Assert.assertFalse(sessionRegistry.getSession("TestEMSServer").isInvalid());
+    }
+
+    @Test
+    public void testShouldNotCheckReusedSessionWhenServerCollectorRuns() throws Exception {
+
+        Map<String, Object> emsServer = setupEMSServer();
+        setupRun(setupMetrics("true", "true", "false", "false", "false", "false", "false", "false"));
+
+        AdminSessionRegistry sessionRegistry = new AdminSessionRegistry();
+
+        new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, sessionRegistry, directCollectorExecutor(), new CollectorSchedule()).run();
+        new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, sessionRegistry, directCollectorExecutor(), new CollectorSchedule()).run();
+
+        verify(tibjmsAdmin, never()).getInfo();
+    }
+
+    @Test
+    public void testShutdownDoesNotWaitForConnectInProgress() throws Exception {
+
+        Map<String, Object> emsServer = setupEMSServer();
+        setupRun(setupMetrics("true", "false", "false", "false", "false", "false", "false", "false"));
+
+        AdminSessionRegistry sessionRegistry = new AdminSessionRegistry();
+        new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, sessionRegistry, directCollectorExecutor(), new CollectorSchedule()).run();
+        final AdminSession session = sessionRegistry.getSession("TestEMSServer");
+
+        //Holds the connect lock like a connect stuck on an unreachable server
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread connecting = new Thread(() -> {
+            synchronized (session) {
+                locked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        connecting.start();
+        try {
+            locked.await();
+            sessionRegistry.shutdownAll();
+            verify(tibjmsAdmin, times(1)).close();
+        } finally {
+            release.countDown();
+            connecting.join();
+        }
+
+        //The session is not connected again after it was shut down
+        Assert.assertNull(session.connect("tcp://localhost:7222", "admin", "", new Hashtable(), false));
+        PowerMockito.verifyNew(TibjmsAdmin.class, times(1)).withArguments(anyString(), anyString(), anyString(), any(Hashtable.class));
+    }
+
+    @Test
+    public void testShouldPublishFinishedCollectorsWhenOthersTimeOut() throws Exception {
+
+        Map<String, Object> emsServer = setupEMSServer();
+        setupRun(setupMetrics("true", "true", "false", "false", "false", "false", "false", "false"));
+
+        PowerMockito.whenNew(ServerMetricCollector.class).withAnyArguments().thenAnswer(invocationOnMock -> {
+            List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = (List) invocationOnMock.getArguments()[6];
+            collectedMetrics.add(new com.appdynamics.extensions.metrics.Metric("ConnectionCount", "10", "Custom Metrics|Tibco EMS|TestEMSServer|ConnectionCount"));
+            return serverMetricCollector;
+        });
+        PowerMockito.whenNew(QueueMetricCollector.class).withAnyArguments().thenAnswer(invocationOnMock -> {
+            List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = (List) invocationOnMock.getArguments()[7];
+            collectedMetrics.add(new com.appdynamics.extensions.metrics.Metric("PendingMessageCount", "5", "Custom Metrics|Tibco EMS|TestEMSServer|Queues|Queue1|PendingMessageCount"));
+            return queueMetricCollector;
+        });
+        when(queueMetricCollector.hasFinishedBy(anyLong())).thenReturn(false);
+
+        new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, new AdminSessionRegistry(), directCollectorExecutor(), new CollectorSchedule()).run();
+
+        ArgumentCaptor<List> printedMetrics = ArgumentCaptor.forClass(List.class);
+        verify(metricWriteHelper).transformAndPrintMetrics(printedMetrics.capture());
+
+        Map<String, String> valuesByPath = new HashMap<>();
+        for (Object metric : printedMetrics.getValue()) {
+            com.appdynamics.extensions.metrics.Metric printedMetric = (com.appdynamics.extensions.metrics.Metric) metric;
+            valuesByPath.put(printedMetric.getMetricPath(), printedMetric.getMetricValue());
+        }
+
+        Assert.assertEquals("10", valuesByPath.get("Custom Metrics|Tibco EMS|TestEMSServer|ConnectionCount"));
+        Assert.assertFalse(valuesByPath.containsKey("Custom Metrics|Tibco EMS|TestEMSServer|Queues|Queue1|PendingMessageCount"));
+        Assert.assertEquals("0", valuesByPath.get("Custom Metrics|Tibco EMS|TestEMSServer|Collectors|Server|TimedOut"));
+        Assert.assertEquals("1", valuesByPath.get("Custom Metrics|Tibco EMS|TestEMSServer|Collectors|Queue|TimedOut"));
+    }
+
+    @Test
+    public void testShouldNotQueueCollectorsOfAHungServerAgain() throws Exception {
+
+        Map<String, Object> emsServer = setupEMSServer();
+        setupRun(setupMetrics("true", "true", "false", "false", "false", "false", "false", "false"));
+
+        //The admin calls of the queue collector hang, it neither finishes in time nor later
+        when(queueMetricCollector.hasFinishedBy(anyLong())).thenReturn(false);
+        when(queueMetricCollector.isFinished()).thenReturn(false);
+
+        AdminSessionRegistry sessionRegistry = new AdminSessionRegistry();
+        CollectorExecutor collectorExecutor = directCollectorExecutor();
+        CollectorSchedule collectorSchedule = new CollectorSchedule();
+        for (int i = 0; i < 3; i++) {
+            new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, sessionRegistry, collectorExecutor, collectorSchedule).run();
+        }
+
+        //The hung collector holds one thread only, the server collector keeps running every run
+        PowerMockito.verifyNew(QueueMetricCollector.class, times(1)).withArguments(any(), any(), anyBoolean(), anyBoolean(), any(), any(), any(), any(), any());
+        verify(serverMetricCollector, times(3)).run();
+
+        ArgumentCaptor<List> printedMetrics = ArgumentCaptor.forClass(List.class);
+        verify(metricWriteHelper, times(3)).transformAndPrintMetrics(printedMetrics.capture());
+        for (List runMetrics : printedMetrics.getAllValues()) {
+            Map<String, String> valuesByPath = new HashMap<>();
+            for (Object metric : runMetrics) {
+                com.appdynamics.extensions.metrics.Metric printedMetric = (com.appdynamics.extensions.metrics.Metric) metric;
+                valuesByPath.put(printedMetric.getMetricPath(), printedMetric.getMetricValue());
+            }
+            Assert.assertEquals("1", valuesByPath.get("Custom Metrics|Tibco EMS|TestEMSServer|Collectors|Queue|TimedOut"));
+        }
+    }
+
+    @Test
+    public void testShouldSkipCollectorsWhichAreNotDue() throws Exception {
+
+        Map<String, Object> emsServer = setupEMSServer();
+        Metrics[] allMetrics = setupMetrics("true", "false", "false", "false", "true", "false", "false", "false");
+        allMetrics[4].setIntervalInSeconds("300");
+        setupRun(allMetrics);
+
+        CollectorSchedule collectorSchedule = new CollectorSchedule();
+        CollectorExecutor collectorExecutor = directCollectorExecutor();
+        AdminSessionRegistry sessionRegistry = new AdminSessionRegistry();
+
+        new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, sessionRegistry, collectorExecutor, collectorSchedule).run();
+        new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, sessionRegistry, collectorExecutor, collectorSchedule).run();
+
+        verify(serverMetricCollector, times(2)).run();
+        verify(consumerMetricCollector, times(1)).run();
+    }
+
+    @Test
+    public void testShouldNotConnectWhenNoCollectorIsDue() throws Exception {
+
+        Map<String, Object> emsServer = setupEMSServer();
+        Metrics[] allMetrics = setupMetrics("true", "false", "false", "false", "false", "false", "false", "false");
+        allMetrics[0].setIntervalInSeconds("300");
+        setupRun(allMetrics);
+
+        CollectorSchedule collectorSchedule = new CollectorSchedule();
+        collectorSchedule.started("TestEMSServer", "Server", System.nanoTime());
+
+        new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, new AdminSessionRegistry(), directCollectorExecutor(), collectorSchedule).run();
+
+        PowerMockito.verifyNew(TibjmsAdmin.class, times(0)).withArguments(anyString(), anyString(), anyString(), any(Hashtable.class));
+        verify(serverMetricCollector, times(0)).run();
+        verify(metricWriteHelper, times(0)).transformAndPrintMetrics(any(List.class));
+    }
+
+    @Test
+    public void testShouldReconnectToActiveMemberFirst() throws Exception {
+
+        Map<String, Object> emsServer = setupEMSServer();
+        emsServer.put("faultTolerantServers", Lists.newArrayList("tcp://standby:7222"));
+        setupRun(setupMetrics("true", "true", "false", "false", "false", "false", "false", "false"));
+
+        //The pair failed over, the member configured second answers as active
+        when(serverMetricCollector.getServerInfo()).thenReturn(serverInfo);
+        when(serverInfo.getURL()).thenReturn("tcp://standby:7222");
+        when(serverInfo.getState()).thenReturn(ServerInfo.SERVER_ACTIVE);
+        when(queueMetricCollector.getAdminFailure()).thenReturn(new TibjmsAdminException("Connection lost"));
+
+        AdminSessionRegistry sessionRegistry = new AdminSessionRegistry();
+
+        new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, sessionRegistry, directCollectorExecutor(), new CollectorSchedule()).run();
+        new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, sessionRegistry, directCollectorExecutor(), new CollectorSchedule()).run();
+
+        PowerMockito.verifyNew(TibjmsAdmin.class).withArguments(eq("tcp://localhost:6222,tcp://standby:7222"), anyString(), anyString(), any(Hashtable.class));
+        PowerMockito.verifyNew(TibjmsAdmin.class).withArguments(eq("tcp://standby:7222,tcp://localhost:6222"), anyString(), anyString(), any(Hashtable.class));
+    }
+
+    @Test
+    public void testShouldStopConnectingOnceCircuitIsOpen() throws Exception {
+
+        Map<String, Object> emsServer = setupEMSServer();
+        setupRun(setupMetrics("true", "true", "false", "false", "false", "false", "false", "false"));
+
+        Map<String, Object> configYml = new HashMap<>();
+        configYml.put("connectFailureThreshold", 2);
+        when(configuration.getConfigYml()).thenReturn((Map) configYml);
+
+        PowerMockito.whenNew(TibjmsAdmin.class).withAnyArguments().thenThrow(new TibjmsAdminException("Connection refused"));
+
+        AdminSessionRegistry sessionRegistry = new AdminSessionRegistry();
+        for (int i = 0; i < 3; i++) {
+            new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, sessionRegistry, directCollectorExecutor(), new CollectorSchedule()).run();
+        }
+
+        //The third run is inside the backoff and does not try to connect
+        PowerMockito.verifyNew(TibjmsAdmin.class, times(2)).withArguments(anyString(), anyString(), anyString(), any(Hashtable.class));
+        Assert.assertTrue(sessionRegistry.getSession("TestEMSServer").getCircuitBreaker().isOpen());
+
+        ArgumentCaptor<List> printedMetrics = ArgumentCaptor.forClass(List.class);
+        verify(metricWriteHelper, times(3)).transformAndPrintMetrics(printedMetrics.capture());
+
+        Map<String, String> valuesByPath = new HashMap<>();
+        for (Object metric : printedMetrics.getAllValues().get(2)) {
+            com.appdynamics.extensions.metrics.Metric printedMetric = (com.appdynamics.extensions.metrics.Metric) metric;
+            valuesByPath.put(printedMetric.getMetricPath(), printedMetric.getMetricValue());
+        }
+        Assert.assertEquals("1", valuesByPath.get("Custom Metrics|Tibco EMS|TestEMSServer|Connection|Unreachable"));
+        Assert.assertEquals("2", valuesByPath.get("Custom Metrics|Tibco EMS|TestEMSServer|Connection|ConsecutiveFailures"));
+        verify(serverMetricCollector, times(0)).run();
+    }
+
+    @Test
+    public void testShouldStreamChunksAndDropPendingMetricsOfLateCollectors() throws Exception {
+
+        Map<String, Object> emsServer = setupEMSServer();
+        setupRun(setupMetrics("true", "true", "false", "false", "false", "false", "false", "false"));
+
+        Map<String, Object> configYml = new HashMap<>();
+        configYml.put("streamMetrics", true);
+        configYml.put("publishChunkSize", 2);
+        when(configuration.getConfigYml()).thenReturn((Map) configYml);
+
+        PowerMockito.whenNew(ServerMetricCollector.class).withAnyArguments().thenAnswer(invocationOnMock -> {
+            List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = (List) invocationOnMock.getArguments()[6];
+            collectedMetrics.addAll(buildMetrics("Server", 3));
+            return serverMetricCollector;
+        });
+        PowerMockito.whenNew(QueueMetricCollector.class).withAnyArguments().thenAnswer(invocationOnMock -> {
+            List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = (List) invocationOnMock.getArguments()[7];
+            collectedMetrics.addAll(buildMetrics("Queue", 3));
+            return queueMetricCollector;
+        });
+        when(queueMetricCollector.hasFinishedBy(anyLong())).thenReturn(false);
+
+        new TibcoEMSMetricFetcher(serviceProvider, configuration, emsServer, new AdminSessionRegistry(), directCollectorExecutor(), new CollectorSchedule()).run();
+
+        ArgumentCaptor<List> printedMetrics = ArgumentCaptor.forClass(List.class);
+        verify(metricWriteHelper, times(4)).transformAndPrintMetrics(printedMetrics.capture());
+
+        List<String> printedPaths = new ArrayList<>();
+        for (List chunk : printedMetrics.getAllValues()) {
+            boolean selfMetrics = false;
+            for (Object metric : chunk) {
+                String metricPath = ((com.appdynamics.extensions.metrics.Metric) metric).getMetricPath();
+                selfMetrics |= metricPath.startsWith("Custom Metrics|");
+                printedPaths.add(metricPath);
+            }
+            //Collector chunks are bounded, the status metrics of the server follow in one final list
+            Assert.assertTrue(selfMetrics || chunk.size() <= 2);
+        }
+
+        //Full chunks of both collectors are published as they fill up, the rest of the late Queue collector is dropped
+        Assert.assertTrue(printedPaths.contains("Server|2"));
+        Assert.assertTrue(printedPaths.contains("Queue|1"));
+        Assert.assertFalse(printedPaths.contains("Queue|2"));
+        Assert.assertTrue(printedPaths.contains("Custom Metrics|Tibco EMS|TestEMSServer|Collectors|Queue|TimedOut"));
+    }
+
+    @Test
+    public void testShouldMergeCollectorBuffersInCollectorOrder() {
+
+        List<List<com.appdynamics.extensions.metrics.Metric>> collectorBuffers = new ArrayList<>();
+        collectorBuffers.add(buildMetrics("Server", 3));
+        collectorBuffers.add(new ArrayList<>());
+        collectorBuffers.add(buildMetrics("Queue", 1000));
+        collectorBuffers.add(buildMetrics("Topic", 5));
+
+        List<com.appdynamics.extensions.metrics.Metric> mergedMetrics = TibcoEMSMetricFetcher.mergeCollectedMetrics(collectorBuffers);
+
+        Assert.assertEquals(1008, mergedMetrics.size());
+        Assert.assertEquals("Server|0", mergedMetrics.get(0).getMetricPath());
+        Assert.assertEquals("Server|2", mergedMetrics.get(2).getMetricPath());
+        Assert.assertEquals("Queue|0", mergedMetrics.get(3).getMetricPath());
+        Assert.assertEquals("Queue|999", mergedMetrics.get(1002).getMetricPath());
+        Assert.assertEquals("Topic|0", mergedMetrics.get(1003).getMetricPath());
+        Assert.assertEquals("Topic|4", mergedMetrics.get(1007).getMetricPath());
+    }
+
+    //Runs the collectors on the calling thread, without a per-server limit
+    private CollectorExecutor directCollectorExecutor() {
+        return new CollectorExecutor(new ServerBulkheads(MoreExecutors.newDirectExecutorService(), Integer.MAX_VALUE), null, MetricMaterializer.SEQUENTIAL);
+    }
+
+    private List<com.appdynamics.extensions.metrics.Metric> buildMetrics(String collector, int count) {
+        List<com.appdynamics.extensions.metrics.Metric> metrics = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            metrics.add(new com.appdynamics.extensions.metrics.Metric(String.valueOf(i), String.valueOf(i), collector + "|" + i));
+        }
+        return metrics;
+    }
+
+    private void setupRun(Metrics[] allMetrics) throws Exception {
+        when(configuration.getMetricsXml()).thenReturn(emsMetrics);
+
+        when(emsMetrics.isShowSystem()).thenReturn(false);
+        when(emsMetrics.isShowTemp()).thenReturn(false);
+        when(emsMetrics.getMetrics()).thenReturn(allMetrics);
+
+        PowerMockito.whenNew(TibjmsAdmin.class).withAnyArguments().thenReturn(tibjmsAdmin);
+
+        when(serviceProvider.getMetricWriteHelper()).thenReturn(metricWriteHelper);
+        when(configuration.getMetricPrefix()).thenReturn("Custom Metrics|Tibco EMS");
+        when(configuration.getContext()).thenReturn(monitorContext);
+        when(monitorContext.getExecutorService()).thenReturn(executorService);
+
+        doAnswer((Answer<Object>) invocationOnMock -> {
+            Runnable runnable = invocationOnMock.getArgumentAt(1, Runnable.class);
+            runnable.run();
+            return null;
+        }).when(executorService).execute(anyString(), any(Runnable.class));
+
+        PowerMockito.whenNew(ServerMetricCollector.class).withAnyArguments().thenReturn(serverMetricCollector);
+        PowerMockito.whenNew(QueueMetricCollector.class).withAnyArguments().thenReturn(queueMetricCollector);
+        PowerMockito.whenNew(TopicMetricCollector.class).withAnyArguments().thenReturn(topicMetricCollector);
+        PowerMockito.whenNew(ProducerMetricCollector.class).withAnyArguments().thenReturn(producerMetricCollector);
+        PowerMockito.whenNew(ConsumerMetricCollector.class).withAnyArguments().thenReturn(consumerMetricCollector);
+        PowerMockito.whenNew(RouteMetricCollector.class).withAnyArguments().thenReturn(routeMetricCollector);
+        PowerMockito.whenNew(DurableMetricCollector.class).withAnyArguments().thenReturn(durableMetricCollector);
+
+        when(serverMetricCollector.hasFinishedBy(anyLong())).thenReturn(true);
+        when(queueMetricCollector.hasFinishedBy(anyLong())).thenReturn(true);
+        when(topicMetricCollector.hasFinishedBy(anyLong())).thenReturn(true);
+        when(producerMetricCollector.hasFinishedBy(anyLong())).thenReturn(true);
+        when(consumerMetricCollector.hasFinishedBy(anyLong())).thenReturn(true);
+        when(routeMetricCollector.hasFinishedBy(anyLong())).thenReturn(true);
+        when(durableMetricCollector.hasFinishedBy(anyLong())).thenReturn(true);
+
+        when(serverMetricCollector.isFinished()).thenReturn(true);
+        when(queueMetricCollector.isFinished()).thenReturn(true);
+        when(topicMetricCollector.isFinished()).thenReturn(true);
+        when(producerMetricCollector.isFinished()).thenReturn(true);
+        when(consumerMetricCollector.isFinished()).thenReturn(true);
+        when(routeMetricCollector.isFinished()).thenReturn(true);
+        when(durableMetricCollector.isFinished()).thenReturn(true);
+    }
+
     private Metrics[] setupMetrics(String enableServer, String enableQueue, String enableTopic, String enableProducer,
                                    String enableConsumer, String enableRoute, String enableDurable, String enableConnection) {
         List<Metrics> allMetricsList = new ArrayList<>();
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco;
+
+import com.appdynamics.extensions.AMonitorTaskRunnable;
+import com.appdynamics.extensions.TasksExecutionServiceProvider;
+import com.appdynamics.extensions.conf.MonitorContextConfiguration;
+import com.appdynamics.extensions.tibco.execution.VirtualThreadTask;
+import com.appdynamics.extensions.tibco.execution.VirtualThreads;
+import com.appdynamics.extensions.tibco.metrics.Metrics;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(VirtualThreads.class)
+public class TibcoEMSMonitorTest {
+
+    @Mock
+    private TasksExecutionServiceProvider serviceProvider;
+
+    @Mock
+    private MonitorContextConfiguration configuration;
+
+    @Mock
+    private Metrics.EMSMetrics emsMetrics;
+
+    @Test
+    public void testSubmitsOneTaskPerServerWithVirtualThreads() {
+        PowerMockito.mockStatic(VirtualThreads.class);
+        when(VirtualThreads.isSupported()).thenReturn(true);
+        when(VirtualThreads.newVirtualThreadPerTaskExecutor()).thenReturn(Executors.newCachedThreadPool());
+
+        Map<String, Object> configYml = new HashMap<>();
+        configYml.put("servers", servers("EMS1", "EMS2", "EMS3"));
+        configYml.put("useVirtualThreads", true);
+        when(configuration.getConfigYml()).thenReturn((Map) configYml);
+        when(configuration.getMetricsXml()).thenReturn(emsMetrics);
+        when(emsMetrics.getMetrics()).thenReturn(new Metrics[0]);
+
+        TibcoEMSMonitor monitor = new TibcoEMSMonitor() {
+            @Override
+            protected MonitorContextConfiguration getContextConfiguration() {
+                return configuration;
+            }
+        };
+        try {
+            monitor.doRun(serviceProvider);
+        } finally {
+            monitor.shutdown();
+        }
+
+        //The run completes once as many tasks finished as getServers() returns
+        ArgumentCaptor<AMonitorTaskRunnable> tasks = ArgumentCaptor.forClass(AMonitorTaskRunnable.class);
+        verify(serviceProvider, times(monitor.getServers().size())).submit(anyString(), tasks.capture());
+        for (AMonitorTaskRunnable task : tasks.getAllValues()) {
+            Assert.assertTrue(task instanceof VirtualThreadTask);
+        }
+    }
+
+    private static List<Map<String, ?>> servers(String... displayNames) {
+        List<Map<String, ?>> servers = new ArrayList<>();
+        for (String displayName : displayNames) {
+            Map<String, Object> server = new HashMap<>();
+            server.put("displayName", displayName);
+            servers.add(server);
+        }
+        return servers;
+    }
+}
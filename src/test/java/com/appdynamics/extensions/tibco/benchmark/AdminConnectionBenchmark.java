@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.benchmark;
+
+import com.appdynamics.extensions.tibco.collectors.QueueMetricCollector;
+import com.appdynamics.extensions.tibco.connection.AdminConnectionPool;
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
+import com.google.common.collect.Lists;
+import com.tibco.tibjms.admin.QueueInfo;
+import com.tibco.tibjms.admin.TibjmsAdmin;
+import com.tibco.tibjms.admin.TibjmsAdminException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Compares the wall-clock time of one server's collectors sharing the session's admin connection with the same
+ * collectors borrowing from pools of growing size. Each fake connection answers one request at a time, as an EMS
+ * admin connection does, with a fixed latency.
+ * <p>
+ * Run with: java -cp &lt;test classpath&gt; com.appdynamics.extensions.tibco.benchmark.AdminConnectionBenchmark [adminLatencyMs] [rounds]
+ */
+public class AdminConnectionBenchmark {
+
+    private static final int[] POOL_SIZES = {1, 2, 4, 7};
+    private static final int COLLECTORS_PER_SERVER = 7;
+    private static final int QUEUES = 50;
+
+    public static void main(String[] args) throws Exception {
+        long adminLatencyMs = args.length > 0 ? Long.parseLong(args[0]) : 100;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        QueueInfo[] queueInfos = queueInfos();
+        Metrics metrics = queueMetrics();
+        ExecutorService collectorThreads = Executors.newFixedThreadPool(COLLECTORS_PER_SERVER);
+
+        System.out.println(String.format("Admin call latency %d ms, %d collectors, best of %d rounds", adminLatencyMs, COLLECTORS_PER_SERVER, rounds));
+        System.out.println(String.format("%-18s %12s %10s", "admin connections", "wall (ms)", "speedup"));
+
+        long sharedMs = 0;
+        for (int poolSize : POOL_SIZES) {
+            long bestMs = Long.MAX_VALUE;
+            for (int round = 0; round < rounds; round++) {
+                TibjmsAdmin primary = fakeConnection(queueInfos, adminLatencyMs);
+                AdminConnectionPool pool = poolSize > 1
+                        ? new AdminConnectionPool("Benchmark", primary, poolSize, () -> fakeConnection(queueInfos, adminLatencyMs))
+                        : null;
+                bestMs = Math.min(bestMs, runCycle(collectorThreads, primary, pool, metrics));
+            }
+            if (poolSize == 1) {
+                sharedMs = bestMs;
+            }
+            System.out.println(String.format("%-18s %12d %9.1fx", poolSize == 1 ? "1 (shared conn)" : String.valueOf(poolSize),
+                    bestMs, (double) sharedMs / bestMs));
+        }
+
+        collectorThreads.shutdown();
+        collectorThreads.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private static long runCycle(ExecutorService collectorThreads, TibjmsAdmin primary, AdminConnectionPool pool, Metrics metrics) {
+        long start = System.nanoTime();
+        Phaser phaser = new Phaser(1);
+        for (int i = 0; i < COLLECTORS_PER_SERVER; i++) {
+            QueueMetricCollector collector = new QueueMetricCollector(primary, DestinationMatcher.compile(Lists.newArrayList(".*"), null, false),
+                    false, false, metrics, "Custom Metrics|Tibco EMS", phaser, new ArrayList<>(), null);
+            collector.setAdminConnectionPool(pool);
+            collectorThreads.execute(collector);
+        }
+        phaser.arriveAndAwaitAdvance();
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * A connection which, like a real admin connection, handles one request at a time.
+     */
+    private static TibjmsAdmin fakeConnection(QueueInfo[] queueInfos, long adminLatencyMs) throws TibjmsAdminException {
+        Object connectionLock = new Object();
+        TibjmsAdmin fakeAdmin = mock(TibjmsAdmin.class, withSettings().stubOnly());
+        when(fakeAdmin.getQueuesStatistics()).thenAnswer(invocationOnMock -> {
+            synchronized (connectionLock) {
+                Thread.sleep(adminLatencyMs);
+            }
+            return queueInfos;
+        });
+        return fakeAdmin;
+    }
+
+    private static QueueInfo[] queueInfos() {
+        QueueInfo[] queueInfos = new QueueInfo[QUEUES];
+        for (int i = 0; i < queueInfos.length; i++) {
+            QueueInfo queueInfo = mock(QueueInfo.class, withSettings().stubOnly());
+            when(queueInfo.getName()).thenReturn("Queue" + i);
+            when(queueInfo.getPendingMessageCount()).thenReturn((long) i);
+            queueInfos[i] = queueInfo;
+        }
+        return queueInfos;
+    }
+
+    private static Metrics queueMetrics() {
+        Metric metric = new Metric();
+        metric.setAttr("PendingMessageCount");
+        metric.setAggregationType("AVERAGE");
+        metric.setTimeRollUpType("AVERAGE");
+        metric.setClusterRollUpType("COLLECTIVE");
+
+        Metrics metrics = new Metrics();
+        metrics.setEnabled("true");
+        metrics.setType("Queue");
+        metrics.setMetricPrefix("Queues");
+        metrics.setMetrics(new Metric[]{metric});
+        return metrics;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.benchmark;
+
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Compares filtering queue names by trying each include pattern in turn with the compiled {@link DestinationMatcher}.
+ * The include list mixes plain names, prefixes ( <code>name.*</code> ) and a few real regular expressions, as seen on
+ * brokers with long include lists.
+ * <p>
+ * Run with: java -cp &lt;test classpath&gt; com.appdynamics.extensions.tibco.benchmark.DestinationFilterBenchmark [includes] [queues] [rounds]
+ */
+public class DestinationFilterBenchmark {
+
+    public static void main(String[] args) {
+        int includeCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int queueCount = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        List<String> includes = includes(includeCount);
+        String[] names = queueNames(queueCount, includeCount);
+
+        List<Pattern> patterns = new ArrayList<>();
+        for (String include : includes) {
+            patterns.add(Pattern.compile(include));
+        }
+        DestinationMatcher destinationMatcher = DestinationMatcher.compile(includes, null, false);
+
+        long patternNanos = Long.MAX_VALUE;
+        long matcherNanos = Long.MAX_VALUE;
+        int patternMatches = 0;
+        int matcherMatches = 0;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            patternMatches = 0;
+            for (String name : names) {
+                if (matchesAny(patterns, name)) {
+                    patternMatches++;
+                }
+            }
+            patternNanos = Math.min(patternNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            matcherMatches = 0;
+            for (String name : names) {
+                if (destinationMatcher.matches(name)) {
+                    matcherMatches++;
+                }
+            }
+            matcherNanos = Math.min(matcherNanos, System.nanoTime() - start);
+        }
+
+        if (patternMatches != matcherMatches) {
+            throw new IllegalStateException("Matcher included " + matcherMatches + " queues, the patterns " + patternMatches);
+        }
+
+        System.out.println(String.format("%d include entries, %d queues, %d included, best of %d rounds", includeCount, queueCount, matcherMatches, rounds));
+        System.out.println(String.format("%-24s %10d ms", "pattern per entry", TimeUnit.NANOSECONDS.toMillis(patternNanos)));
+        System.out.println(String.format("%-24s %10d ms", "compiled matcher", TimeUnit.NANOSECONDS.toMillis(matcherNanos)));
+    }
+
+    //The filter loop collectors ran before the include list was compiled
+    private static boolean matchesAny(List<Pattern> patterns, String name) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> includes(int includeCount) {
+        List<String> includes = new ArrayList<>(includeCount);
+        for (int i = 0; i < includeCount; i++) {
+            switch (i % 10) {
+                case 0:
+                    includes.add("app" + i + "\\.[a-z]+\\.(in|out)");
+                    break;
+                case 1:
+                case 2:
+                case 3:
+                    includes.add("orders\\.region" + i + "\\..*");
+                    break;
+                default:
+                    includes.add("billing\\.account" + i);
+            }
+        }
+        return includes;
+    }
+
+    private static String[] queueNames(int queueCount, int includeCount) {
+        String[] names = new String[queueCount];
+        for (int i = 0; i < queueCount; i++) {
+            int entry = i % (includeCount * 2);
+            switch (i % 4) {
+                case 0:
+                    names[i] = "app" + entry + ".eu.in";
+                    break;
+                case 1:
+                    names[i] = "orders.region" + entry + ".q" + i;
+                    break;
+                case 2:
+                    names[i] = "billing.account" + entry;
+                    break;
+                default:
+                    names[i] = "unrelated.queue" + i;
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.benchmark;
+
+import com.appdynamics.extensions.tibco.collectors.QueueMetricCollector;
+import com.appdynamics.extensions.tibco.execution.VirtualThreads;
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
+import com.google.common.collect.Lists;
+import com.tibco.tibjms.admin.QueueInfo;
+import com.tibco.tibjms.admin.TibjmsAdmin;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Compares one collection run on platform threads (a shared pool of 9 threads per server, as documented in
+ * config.yml) with virtual threads and an admin call semaphore, against a fake EMS admin whose calls block
+ * for a fixed latency.
+ * <p>
+ * Run with: java -cp &lt;test classpath&gt; com.appdynamics.extensions.tibco.benchmark.ExecutionModeBenchmark [adminLatencyMs] [maxConcurrentAdminCalls]
+ * <br>The virtual thread rows need Java 21 or later.
+ */
+public class ExecutionModeBenchmark {
+
+    private static final int[] SERVER_COUNTS = {10, 100, 500};
+    private static final int COLLECTORS_PER_SERVER = 7;
+    private static final int THREADS_PER_SERVER = 9;
+    private static final int QUEUES_PER_SERVER = 50;
+
+    public static void main(String[] args) throws Exception {
+        long adminLatencyMs = args.length > 0 ? Long.parseLong(args[0]) : 50;
+        int maxConcurrentAdminCalls = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        TibjmsAdmin fakeAdmin = fakeAdmin(adminLatencyMs);
+        Metrics metrics = queueMetrics();
+
+        System.out.println(String.format("Admin call latency %d ms, %d collectors per server, maxConcurrentAdminCalls %d",
+                adminLatencyMs, COLLECTORS_PER_SERVER, maxConcurrentAdminCalls));
+        System.out.println(String.format("%-10s %8s %12s %14s %10s", "mode", "servers", "wall (ms)", "peak threads", "metrics"));
+
+        for (int servers : SERVER_COUNTS) {
+            ExecutorService platformPool = Executors.newFixedThreadPool(servers * THREADS_PER_SERVER);
+            report("platform", servers, runCycle(platformPool, null, fakeAdmin, metrics, servers));
+            platformPool.shutdown();
+            platformPool.awaitTermination(1, TimeUnit.MINUTES);
+
+            if (VirtualThreads.isSupported()) {
+                ExecutorService virtualThreads = VirtualThreads.newVirtualThreadPerTaskExecutor();
+                report("virtual", servers, runCycle(virtualThreads, new Semaphore(maxConcurrentAdminCalls, true), fakeAdmin, metrics, servers));
+                virtualThreads.shutdown();
+            } else {
+                System.out.println(String.format("%-10s %8d %12s", "virtual", servers, "unsupported on Java " + System.getProperty("java.version")));
+            }
+        }
+    }
+
+    private static long[] runCycle(ExecutorService executor, Semaphore adminCallPermits, TibjmsAdmin fakeAdmin, Metrics metrics, int servers) throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        threadMXBean.resetPeakThreadCount();
+
+        long start = System.nanoTime();
+        List<Future<Integer>> fetchers = new ArrayList<>();
+        for (int server = 0; server < servers; server++) {
+            fetchers.add(executor.submit(() -> {
+                Phaser phaser = new Phaser(1);
+                List<List<com.appdynamics.extensions.metrics.Metric>> buffers = new ArrayList<>();
+                for (int i = 0; i < COLLECTORS_PER_SERVER; i++) {
+                    List<com.appdynamics.extensions.metrics.Metric> buffer = new ArrayList<>();
+                    buffers.add(buffer);
+                    QueueMetricCollector collector = new QueueMetricCollector(fakeAdmin, DestinationMatcher.compile(Lists.newArrayList(".*"), null, false),
+                            false, false, metrics, "Custom Metrics|Tibco EMS", phaser, buffer, null);
+                    collector.setAdminCallPermits(adminCallPermits);
+                    executor.execute(collector);
+                }
+                phaser.arriveAndAwaitAdvance();
+
+                int collected = 0;
+                for (List<com.appdynamics.extensions.metrics.Metric> buffer : buffers) {
+                    collected += buffer.size();
+                }
+                return collected;
+            }));
+        }
+
+        long collected = 0;
+        for (Future<Integer> fetcher : fetchers) {
+            collected += fetcher.get();
+        }
+        long wallMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return new long[]{wallMs, threadMXBean.getPeakThreadCount(), collected};
+    }
+
+    private static void report(String mode, int servers, long[] result) {
+        System.out.println(String.format("%-10s %8d %12d %14d %10d", mode, servers, result[0], result[1], result[2]));
+    }
+
+    private static TibjmsAdmin fakeAdmin(long adminLatencyMs) throws Exception {
+        QueueInfo[] queueInfos = new QueueInfo[QUEUES_PER_SERVER];
+        for (int i = 0; i < queueInfos.length; i++) {
+            QueueInfo queueInfo = mock(QueueInfo.class, withSettings().stubOnly());
+            when(queueInfo.getName()).thenReturn("Queue" + i);
+            when(queueInfo.getPendingMessageCount()).thenReturn((long) i);
+            queueInfos[i] = queueInfo;
+        }
+
+        TibjmsAdmin fakeAdmin = mock(TibjmsAdmin.class, withSettings().stubOnly());
+        when(fakeAdmin.getQueuesStatistics()).thenAnswer(invocationOnMock -> {
+            Thread.sleep(adminLatencyMs);
+            return queueInfos;
+        });
+        return fakeAdmin;
+    }
+
+    private static Metrics queueMetrics() {
+        Metric metric = new Metric();
+        metric.setAttr("PendingMessageCount");
+        metric.setAggregationType("AVERAGE");
+        metric.setTimeRollUpType("AVERAGE");
+        metric.setClusterRollUpType("COLLECTIVE");
+
+        Metrics metrics = new Metrics();
+        metrics.setEnabled("true");
+        metrics.setType("Queue");
+        metrics.setMetricPrefix("Queues");
+        metrics.setMetrics(new Metric[]{metric});
+        return metrics;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.benchmark;
+
+import com.appdynamics.extensions.tibco.collectors.MetricMaterializer;
+import com.appdynamics.extensions.tibco.collectors.QueueMetricCollector;
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
+import com.google.common.collect.Lists;
+import com.tibco.tibjms.admin.QueueInfo;
+import com.tibco.tibjms.admin.TibjmsAdmin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Measures one QueueMetricCollector run over a queue array of the given size, converting the QueueInfos
+ * sequentially or on a fork-join pool, to find the array size above which parallelMaterializationThreshold pays off.
+ * <p>
+ * Run with: java -cp &lt;test classpath&gt; org.openjdk.jmh.Main MaterializationBenchmark
+ * <br>The crossover point is the smallest <code>queues</code> value for which the parallel row is faster than the
+ * sequential one; set <code>parallelMaterializationThreshold</code> to it. It depends on the number of cores of the
+ * host the benchmark runs on, on a single core the parallel mode never pays off.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class MaterializationBenchmark {
+
+    @Param({"500", "1000", "2000", "5000", "10000", "20000", "60000"})
+    public int queues;
+
+    @Param({"sequential", "parallel"})
+    public String mode;
+
+    private TibjmsAdmin fakeAdmin;
+    private Metrics metrics;
+    private ForkJoinPool pool;
+    private MetricMaterializer materializer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        QueueInfo[] queueInfos = new QueueInfo[queues];
+        for (int i = 0; i < queues; i++) {
+            queueInfos[i] = new QueueInfo("orders.queue." + i);
+        }
+        fakeAdmin = mock(TibjmsAdmin.class, withSettings().stubOnly());
+        when(fakeAdmin.getQueuesStatistics()).thenReturn(queueInfos);
+
+        metrics = queueMetrics();
+
+        if ("parallel".equals(mode)) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+            materializer = new MetricMaterializer(pool, 1);
+        } else {
+            materializer = MetricMaterializer.SEQUENTIAL;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public List<com.appdynamics.extensions.metrics.Metric> collectQueues() {
+        List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = new ArrayList<>();
+        QueueMetricCollector collector = new QueueMetricCollector(fakeAdmin, DestinationMatcher.compile(Lists.newArrayList("orders\\..*"), null, false), false, false,
+                metrics, "Custom Metrics|Tibco EMS|EMS1", new Phaser(), collectedMetrics, null);
+        collector.setMetricMaterializer(materializer);
+        collector.run();
+        return collectedMetrics;
+    }
+
+    private static Metrics queueMetrics() {
+        List<Metric> queueMetrics = new ArrayList<>();
+        for (String attr : new String[]{"PendingMessageCount", "PendingMessageSize", "ConsumerCount", "ReceiverCount", "DeliveredMessageCount"}) {
+            Metric metric = new Metric();
+            metric.setAttr(attr);
+            metric.setAggregationType("OBSERVATION");
+            metric.setTimeRollUpType("CURRENT");
+            metric.setClusterRollUpType("COLLECTIVE");
+            queueMetrics.add(metric);
+        }
+
+        Metrics metrics = new Metrics();
+        metrics.setEnabled("true");
+        metrics.setType("Queue");
+        metrics.setMetricPrefix("Queues");
+        metrics.setMetrics(queueMetrics.toArray(new Metric[0]));
+        return metrics;
+    }
+}
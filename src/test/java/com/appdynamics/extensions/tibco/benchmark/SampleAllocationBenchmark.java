@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.benchmark;
+
+import com.appdynamics.extensions.tibco.collectors.MetricPathCache;
+import com.appdynamics.extensions.tibco.collectors.QueueMetricCollector;
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
+import com.google.common.collect.Lists;
+import com.tibco.tibjms.admin.QueueInfo;
+import com.tibco.tibjms.admin.TibjmsAdmin;
+import com.tibco.tibjms.admin.TibjmsAdminException;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Phaser;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Measures the bytes allocated per published sample by the queue collector, from the admin call result to the list of
+ * metrics handed to the MetricWriteHelper. The allocations of the admin call itself are not counted.
+ * <p>
+ * The measurement needs a HotSpot JVM, which reports the bytes allocated by a thread.
+ * <p>
+ * Run with: java -cp &lt;test classpath&gt; com.appdynamics.extensions.tibco.benchmark.SampleAllocationBenchmark [queues] [rounds]
+ */
+public class SampleAllocationBenchmark {
+
+    private static final String[] QUEUE_ATTRIBUTES = {"PendingMessageCount", "PendingMessageSize", "ConsumerCount",
+            "DeliveredMessageCount", "InTransitCount", "ReceiverCount"};
+
+    public static void main(String[] args) throws Exception {
+        int queues = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        TibjmsAdmin fakeAdmin = fakeAdmin(queueInfos(queues));
+        Metrics metrics = queueMetrics();
+        MetricPathCache metricPathCache = new MetricPathCache();
+
+        long bestBytes = Long.MAX_VALUE;
+        int samples = 0;
+        for (int round = 0; round < rounds; round++) {
+            List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = new ArrayList<>(queues * QUEUE_ATTRIBUTES.length);
+            QueueMetricCollector collector = new QueueMetricCollector(fakeAdmin, DestinationMatcher.compile(Lists.newArrayList(".*"), null, false),
+                    false, false, metrics, "Custom Metrics|Tibco EMS", new Phaser(1), collectedMetrics, null);
+            collector.setMetricPathCache(metricPathCache);
+            metricPathCache.beginRun();
+
+            long before = threadMXBean.getThreadAllocatedBytes(threadId);
+            collector.run();
+            long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+            bestBytes = Math.min(bestBytes, allocated);
+            samples = collectedMetrics.size();
+        }
+
+        System.out.println(String.format("%d queues, %d samples per run, best of %d runs", queues, samples, rounds));
+        System.out.println(String.format("%-24s %12d", "bytes per run", bestBytes));
+        System.out.println(String.format("%-24s %12.1f", "bytes per sample", (double) bestBytes / samples));
+    }
+
+    private static TibjmsAdmin fakeAdmin(QueueInfo[] queueInfos) throws TibjmsAdminException {
+        TibjmsAdmin fakeAdmin = mock(TibjmsAdmin.class, withSettings().stubOnly());
+        when(fakeAdmin.getQueuesStatistics()).thenReturn(queueInfos);
+        return fakeAdmin;
+    }
+
+    /**
+     * Plain info objects rather than mocks, whose invocations would allocate more than the collector. Every other
+     * queue is idle, the others report values well beyond small integers.
+     */
+    private static QueueInfo[] queueInfos(int queues) {
+        QueueInfo[] queueInfos = new QueueInfo[queues];
+        for (int i = 0; i < queues; i++) {
+            long pending = i % 2 == 0 ? 0 : 100000L + i;
+            queueInfos[i] = new QueueInfo("Queue" + i) {
+                @Override
+                public long getPendingMessageCount() {
+                    return pending;
+                }
+
+                @Override
+                public long getPendingMessageSize() {
+                    return pending * 512;
+                }
+
+                @Override
+                public long getDeliveredMessageCount() {
+                    return pending * 3;
+                }
+            };
+        }
+        return queueInfos;
+    }
+
+    private static Metrics queueMetrics() {
+        Metric[] queueMetrics = new Metric[QUEUE_ATTRIBUTES.length];
+        for (int i = 0; i < QUEUE_ATTRIBUTES.length; i++) {
+            queueMetrics[i] = new Metric();
+            queueMetrics[i].setAttr(QUEUE_ATTRIBUTES[i]);
+        }
+
+        Metrics metrics = new Metrics();
+        metrics.setEnabled("true");
+        metrics.setType("Queue");
+        metrics.setMetricPrefix("Queues");
+        metrics.setMetrics(queueMetrics);
+        return metrics;
+    }
+}
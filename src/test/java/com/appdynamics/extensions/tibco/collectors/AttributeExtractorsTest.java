@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.TibcoEMSMetricFetcher;
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.tibco.tibjms.admin.QueueInfo;
+import com.tibco.tibjms.admin.ServerInfo;
+import com.tibco.tibjms.admin.StatData;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.xml.bind.JAXBContext;
+import java.io.File;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AttributeExtractorsTest {
+
+    @Test
+    public void testShippedMetricsXmlResolves() throws Exception {
+        Metrics.EMSMetrics emsMetrics = (Metrics.EMSMetrics) JAXBContext.newInstance(Metrics.EMSMetrics.class)
+                .createUnmarshaller().unmarshal(new File("src/main/resources/conf/metrics.xml"));
+
+        AttributeExtractors.compile(emsMetrics);
+
+        for (Metrics metrics : emsMetrics.getMetrics()) {
+            if (metrics.isEnabled()) {
+                Assert.assertEquals(metrics.getMetrics().length, metrics.getExtractors().length);
+            }
+        }
+    }
+
+    @Test
+    public void testResolvesAttributesIgnoringCase() {
+        Metrics metrics = metrics("Queue", "pendingmessagecount", "InboundMessageRate");
+
+        AttributeExtractor<QueueInfo>[] extractors = AttributeExtractors.getExtractors(metrics);
+
+        Assert.assertSame(DestinationAttribute.PENDING_MESSAGE_COUNT, extractors[0]);
+        Assert.assertSame(DestinationAttribute.INBOUND_MESSAGE_RATE, extractors[1]);
+        Assert.assertSame(extractors, AttributeExtractors.getExtractors(metrics));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsUnknownAttribute() {
+        Metrics.EMSMetrics emsMetrics = new Metrics.EMSMetrics();
+        emsMetrics.setMetrics(new Metrics[]{metrics("Server", "ConnectionCount", "ConnectionCnt")});
+
+        AttributeExtractors.compile(emsMetrics);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsUnknownRankBy() {
+        Metrics metrics = metrics("Queue", "PendingMessageCount");
+        metrics.setTopN("10");
+        metrics.setRankBy("PendingMessages");
+        Metrics.EMSMetrics emsMetrics = new Metrics.EMSMetrics();
+        emsMetrics.setMetrics(new Metrics[]{metrics});
+
+        AttributeExtractors.compile(emsMetrics);
+    }
+
+    @Test
+    public void testRankByNeedNotBeAPublishedMetric() {
+        Metrics metrics = metrics("Durable", "PendingMessageCount");
+        metrics.setTopN("10");
+        metrics.setRankBy("pendingMessageSize");
+
+        Assert.assertSame(DurableAttribute.PENDING_MESSAGE_SIZE, AttributeExtractors.getRankExtractor(metrics));
+    }
+
+    @Test
+    public void testQueueOnlyAttributesAreRejectedForTopics() {
+        Assert.assertSame(DestinationAttribute.RECEIVER_COUNT, AttributeExtractors.resolve(TibcoEMSMetricFetcher.DestinationType.QUEUE, "ReceiverCount"));
+        Assert.assertNull(AttributeExtractors.resolve(TibcoEMSMetricFetcher.DestinationType.TOPIC, "ReceiverCount"));
+        Assert.assertNull(AttributeExtractors.resolve(TibcoEMSMetricFetcher.DestinationType.QUEUE, "SubscriberCount"));
+    }
+
+    @Test
+    public void testDisabledGroupsAreNotResolvedAtStartUp() {
+        Metrics disabled = metrics("Route", "NoSuchAttribute");
+        disabled.setEnabled("false");
+        Metrics.EMSMetrics emsMetrics = new Metrics.EMSMetrics();
+        emsMetrics.setMetrics(new Metrics[]{disabled});
+
+        AttributeExtractors.compile(emsMetrics);
+
+        Assert.assertNull(disabled.getExtractors());
+    }
+
+    @Test
+    public void testChangedMetricsAreResolvedAgain() {
+        Metrics metrics = metrics("Durable", "PendingMessageCount");
+        AttributeExtractors.getExtractors(metrics);
+
+        metrics.setMetrics(metrics("Durable", "PendingMessageSize").getMetrics());
+
+        Assert.assertSame(DurableAttribute.PENDING_MESSAGE_SIZE, AttributeExtractors.getExtractors(metrics)[0]);
+    }
+
+    @Test
+    public void testExtractorsReadTheirGetter() {
+        ServerInfo serverInfo = mock(ServerInfo.class);
+        when(serverInfo.getState()).thenReturn(ServerInfo.SERVER_ACTIVE);
+        when(serverInfo.getMsgMem()).thenReturn(2048L);
+
+        Assert.assertEquals(1, ServerAttribute.IS_ACTIVE_SERVER.extract(serverInfo));
+        Assert.assertEquals(0, ServerAttribute.IS_FAULT_TOLERANT_STANDBY_SERVER.extract(serverInfo));
+        Assert.assertEquals(2048, ServerAttribute.MSG_MEMORY.extract(serverInfo));
+    }
+
+    @Test
+    public void testMissingStatisticsHaveNoValue() {
+        QueueInfo queueInfo = mock(QueueInfo.class);
+        when(queueInfo.getInboundStatistics()).thenReturn(null);
+
+        Assert.assertEquals(AttributeExtractor.NO_VALUE, DestinationAttribute.INBOUND_BYTE_RATE.extract(queueInfo));
+        Assert.assertEquals(AttributeExtractor.NO_VALUE, StatisticsAttribute.MESSAGE_RATE.extract(null));
+
+        StatData statData = mock(StatData.class);
+        when(statData.getMessageRate()).thenReturn(7L);
+        Assert.assertEquals(7, StatisticsAttribute.MESSAGE_RATE.extract(statData));
+    }
+
+    private Metrics metrics(String type, String... attrs) {
+        Metric[] groupMetrics = new Metric[attrs.length];
+        for (int i = 0; i < attrs.length; i++) {
+            groupMetrics[i] = new Metric();
+            groupMetrics[i].setAttr(attrs[i]);
+        }
+
+        Metrics metrics = new Metrics();
+        metrics.setEnabled("true");
+        metrics.setType(type);
+        metrics.setMetrics(groupMetrics);
+        return metrics;
+    }
+}
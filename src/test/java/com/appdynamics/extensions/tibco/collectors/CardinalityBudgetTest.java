@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.appdynamics.extensions.tibco.metrics.Metrics;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class CardinalityBudgetTest {
+
+    private final CardinalityBudget cardinalityBudget = new CardinalityBudget();
+
+    @Test
+    public void testNoBudgetWithoutLimits() {
+        cardinalityBudget.beginRun(0);
+        Assert.assertNull(cardinalityBudget.getGroupBudget(metrics("Queue", null, "PendingMessageCount"), 1));
+    }
+
+    @Test
+    public void testGroupBudgetFoldsDestinationsBeyondIt() {
+        //Room for two queues and Budget Overflow
+        Metrics metrics = metrics("Queue", "7", "PendingMessageCount", "ConsumerCount");
+
+        cardinalityBudget.beginRun(0);
+        CardinalityBudget.Admission<String> admission = admit(metrics, "Queue1", "Excluded", "Queue2", "Queue3");
+
+        Assert.assertArrayEquals(new String[]{"Queue1", "Queue2"}, admission.getAdmitted());
+        Assert.assertEquals(Collections.singletonList("Queue3"), admission.getOverflow());
+        Assert.assertEquals(1, cardinalityBudget.getOverflowed());
+    }
+
+    @Test
+    public void testReportedDestinationsAreAdmittedFirst() {
+        Metrics metrics = metrics("Queue", "4", "PendingMessageCount");
+
+        cardinalityBudget.beginRun(0);
+        admit(metrics, "Queue2", "Queue3");
+        cardinalityBudget.evictUnused(metrics);
+
+        cardinalityBudget.beginRun(0);
+        CardinalityBudget.Admission<String> admission = admit(metrics, "Queue1", "Queue2", "Queue3");
+
+        Assert.assertArrayEquals(new String[]{"Queue2", "Queue3"}, admission.getAdmitted());
+        Assert.assertEquals(Collections.singletonList("Queue1"), admission.getOverflow());
+    }
+
+    @Test
+    public void testServerBudgetIsSharedByGroups() {
+        Metrics queueMetrics = metrics("Queue", null, "PendingMessageCount", "ConsumerCount");
+        Metrics topicMetrics = metrics("Topic", null, "PendingMessageCount");
+
+        //Two queues, a topic and the Budget Overflow of both groups
+        cardinalityBudget.beginRun(9);
+        Assert.assertEquals(2, admit(queueMetrics, "Queue1", "Queue2").getAdmitted().length);
+        Assert.assertEquals(0, admit(topicMetrics, "Topic1").getAdmitted().length);
+        cardinalityBudget.evictUnused(queueMetrics);
+        cardinalityBudget.evictUnused(topicMetrics);
+
+        //Queue2 disappeared, its paths are left to new destinations from the next run on
+        cardinalityBudget.beginRun(9);
+        Assert.assertEquals(1, admit(queueMetrics, "Queue1").getAdmitted().length);
+        Assert.assertEquals(0, admit(topicMetrics, "Topic1").getAdmitted().length);
+        cardinalityBudget.evictUnused(queueMetrics);
+
+        cardinalityBudget.beginRun(9);
+        Assert.assertEquals(1, admit(queueMetrics, "Queue1").getAdmitted().length);
+        Assert.assertEquals(1, admit(topicMetrics, "Topic1").getAdmitted().length);
+        Assert.assertEquals(0, cardinalityBudget.getOverflowed());
+    }
+
+    @Test
+    public void testRollupPathsAreCountedInTheServerBudget() {
+        Metrics metrics = metrics("Queue", null, "PendingMessageCount");
+        metrics.setTopN("1");
+
+        //Budget Overflow and All Others take two paths each
+        cardinalityBudget.beginRun(5);
+        Assert.assertEquals(1, admit(metrics, "Queue1", "Queue2").getAdmitted().length);
+        Assert.assertEquals(1, cardinalityBudget.getOverflowed());
+    }
+
+    @Test
+    public void testLoweredServerBudgetCapsReportedDestinations() {
+        Metrics metrics = metrics("Queue", null, "PendingMessageCount");
+        String[] queues = {"Queue1", "Queue2", "Queue3", "Queue4", "Queue5", "Queue6", "Queue7", "Queue8"};
+
+        cardinalityBudget.beginRun(10);
+        Assert.assertEquals(8, admit(metrics, queues).getAdmitted().length);
+        cardinalityBudget.evictUnused(metrics);
+
+        cardinalityBudget.beginRun(5);
+        Assert.assertEquals(3, admit(metrics, queues).getAdmitted().length);
+        Assert.assertEquals(5, cardinalityBudget.getOverflowed());
+    }
+
+    private CardinalityBudget.Admission<String> admit(Metrics metrics, String... destinations) {
+        CardinalityBudget.GroupBudget budget = cardinalityBudget.getGroupBudget(metrics, metrics.getMetrics().length);
+        return budget.admit(destinations, destination -> !"Excluded".equals(destination), destination -> destination);
+    }
+
+    private Metrics metrics(String type, String maxMetricPaths, String... attrs) {
+        Metric[] groupMetrics = new Metric[attrs.length];
+        for (int i = 0; i < attrs.length; i++) {
+            groupMetrics[i] = new Metric();
+            groupMetrics[i].setAttr(attrs[i]);
+        }
+        Metrics metrics = new Metrics();
+        metrics.setType(type);
+        metrics.setEnabled("true");
+        metrics.setMaxMetricPaths(maxMetricPaths);
+        metrics.setMetrics(groupMetrics);
+        return metrics;
+    }
+}
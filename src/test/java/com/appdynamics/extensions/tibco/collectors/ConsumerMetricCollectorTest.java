@@ -12,6 +12,7 @@ import static org.mockito.Mockito.when;
 
 import com.appdynamics.extensions.metrics.Metric;
 import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.tibco.tibjms.admin.ConsumerInfo;
@@ -27,7 +28,6 @@ import org.mockito.runners.MockitoJUnitRunner;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Phaser;
-import java.util.regex.Pattern;
 
 /**
  * @author Satish Muddam
@@ -52,10 +52,10 @@ public class ConsumerMetricCollectorTest {
     private Phaser phaser;
 
     private String includeAllPatternString = ".*";
-    private Pattern includeAllPattern = Pattern.compile(includeAllPatternString);
+    private DestinationMatcher includeAllMatcher = DestinationMatcher.compile(Lists.newArrayList(includeAllPatternString), null, false);
 
     private String includeOnlyQueue1PatternString = "Queue1";
-    private Pattern includeOnlyQueue1Pattern = Pattern.compile(includeOnlyQueue1PatternString);
+    private DestinationMatcher includeOnlyQueue1Matcher = DestinationMatcher.compile(Lists.newArrayList(includeOnlyQueue1PatternString), null, false);
 
 
     @Test
@@ -94,14 +94,14 @@ public class ConsumerMetricCollectorTest {
         when(statData2.getTotalMessages()).thenReturn(200l);
         when(statData2.getTotalBytes()).thenReturn(2000l);
 
-        ConsumerMetricCollector consumerMetricCollector = new ConsumerMetricCollector(tibjmsAdmin, Lists.newArrayList(includeAllPattern), false, false, metrics, metricPrefix,
+        ConsumerMetricCollector consumerMetricCollector = new ConsumerMetricCollector(tibjmsAdmin, includeAllMatcher, false, false, metrics, metricPrefix,
                 phaser, collectedMetrics, queueTopicMetricPrefixes, displayDynamicIdsInMetricPath);
         consumerMetricCollector.run();
 
-        Assert.assertEquals(6, collectedMetrics.size());
+        Assert.assertEquals(8, collectedMetrics.size());
 
-        List<String> allMetrics = Lists.newArrayList("Custom Metrics|EMS|Queues|Queue1|Consumers|TotalMessages", "Custom Metrics|EMS|Queues|Queue1|Consumers|TotalBytes", "Custom Metrics|EMS|Queues|Queue1|Consumers|MessageRate",
-                "Custom Metrics|EMS|Queues|Queue2|Consumers|TotalMessages", "Custom Metrics|EMS|Queues|Queue2|Consumers|TotalBytes", "Custom Metrics|EMS|Queues|Queue2|Consumers|MessageRate");
+        List<String> allMetrics = Lists.newArrayList("Custom Metrics|EMS|Queues|Queue1|Consumers|TotalMessages", "Custom Metrics|EMS|Queues|Queue1|Consumers|TotalBytes", "Custom Metrics|EMS|Queues|Queue1|Consumers|MessageRate", "Custom Metrics|EMS|Queues|Queue1|Consumers|ConsumerCount",
+                "Custom Metrics|EMS|Queues|Queue2|Consumers|TotalMessages", "Custom Metrics|EMS|Queues|Queue2|Consumers|TotalBytes", "Custom Metrics|EMS|Queues|Queue2|Consumers|MessageRate", "Custom Metrics|EMS|Queues|Queue2|Consumers|ConsumerCount");
         for (com.appdynamics.extensions.metrics.Metric metric : collectedMetrics) {
             String metricPath = metric.getMetricPath();
             String metricValue = metric.getMetricValue();
@@ -159,13 +159,13 @@ public class ConsumerMetricCollectorTest {
         when(statData2.getTotalMessages()).thenReturn(200l);
         when(statData2.getTotalBytes()).thenReturn(2000l);
 
-        ConsumerMetricCollector consumerMetricCollector = new ConsumerMetricCollector(tibjmsAdmin, Lists.newArrayList(includeOnlyQueue1Pattern), false, false, metrics, metricPrefix,
+        ConsumerMetricCollector consumerMetricCollector = new ConsumerMetricCollector(tibjmsAdmin, includeOnlyQueue1Matcher, false, false, metrics, metricPrefix,
                 phaser, collectedMetrics, queueTopicMetricPrefixes, displayDynamicIdsInMetricPath);
         consumerMetricCollector.run();
 
-        Assert.assertEquals(3, collectedMetrics.size());
+        Assert.assertEquals(4, collectedMetrics.size());
 
-        List<String> allMetrics = Lists.newArrayList("Custom Metrics|EMS|Queues|Queue1|Consumers|TotalMessages", "Custom Metrics|EMS|Queues|Queue1|Consumers|TotalBytes", "Custom Metrics|EMS|Queues|Queue1|Consumers|MessageRate");
+        List<String> allMetrics = Lists.newArrayList("Custom Metrics|EMS|Queues|Queue1|Consumers|TotalMessages", "Custom Metrics|EMS|Queues|Queue1|Consumers|TotalBytes", "Custom Metrics|EMS|Queues|Queue1|Consumers|MessageRate", "Custom Metrics|EMS|Queues|Queue1|Consumers|ConsumerCount");
         for (com.appdynamics.extensions.metrics.Metric metric : collectedMetrics) {
             String metricPath = metric.getMetricPath();
             String metricValue = metric.getMetricValue();
@@ -181,6 +181,91 @@ public class ConsumerMetricCollectorTest {
         }
     }
 
+    @Test
+    public void collectTestSumsConsumersOfADestination() throws TibjmsAdminException {
+
+        Metrics metrics = setupProducerMetrics();
+        List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = Lists.newArrayList();
+        Map<String, String> queueTopicMetricPrefixes = Maps.newHashMap();
+
+        when(tibjmsAdmin.getConsumersStatistics()).thenReturn(new ConsumerInfo[]{consumerInfo1, consumerInfo2});
+
+        when(consumerInfo1.getDestinationName()).thenReturn("Topic1");
+        when(consumerInfo2.getDestinationName()).thenReturn("Topic1");
+
+        when(consumerInfo1.getDestinationType()).thenReturn(2);
+        when(consumerInfo2.getDestinationType()).thenReturn(2);
+
+        when(consumerInfo1.getStatistics()).thenReturn(statData1);
+        when(consumerInfo2.getStatistics()).thenReturn(statData2);
+
+        when(statData1.getMessageRate()).thenReturn(10l);
+        when(statData1.getTotalMessages()).thenReturn(100l);
+        when(statData1.getTotalBytes()).thenReturn(1000l);
+
+        when(statData2.getMessageRate()).thenReturn(20l);
+        when(statData2.getTotalMessages()).thenReturn(200l);
+        when(statData2.getTotalBytes()).thenReturn(2000l);
+
+        ConsumerMetricCollector consumerMetricCollector = new ConsumerMetricCollector(tibjmsAdmin, includeAllMatcher, false, false, metrics, "Custom Metrics|EMS",
+                phaser, collectedMetrics, queueTopicMetricPrefixes, false);
+        consumerMetricCollector.run();
+
+        Map<String, String> values = Maps.newHashMap();
+        for (com.appdynamics.extensions.metrics.Metric metric : collectedMetrics) {
+            values.put(metric.getMetricPath(), metric.getMetricValue());
+        }
+        Assert.assertEquals(4, collectedMetrics.size());
+        Assert.assertEquals("300", values.get("Custom Metrics|EMS|Topics|Topic1|Consumers|TotalMessages"));
+        Assert.assertEquals("3000", values.get("Custom Metrics|EMS|Topics|Topic1|Consumers|TotalBytes"));
+        Assert.assertEquals("30", values.get("Custom Metrics|EMS|Topics|Topic1|Consumers|MessageRate"));
+        Assert.assertEquals("2", values.get("Custom Metrics|EMS|Topics|Topic1|Consumers|ConsumerCount"));
+    }
+
+    @Test
+    public void collectTestSuppressesUnchangedConsumerCount() throws TibjmsAdminException {
+
+        Metrics metrics = setupProducerMetrics();
+        PublishedValues publishedValues = new PublishedValues();
+        publishedValues.setFullRefreshCycles(Integer.MAX_VALUE);
+
+        when(consumerInfo1.getDestinationName()).thenReturn("Topic1");
+        when(consumerInfo2.getDestinationName()).thenReturn("Topic1");
+        when(consumerInfo1.getDestinationType()).thenReturn(2);
+        when(consumerInfo2.getDestinationType()).thenReturn(2);
+        when(consumerInfo1.getStatistics()).thenReturn(statData1);
+        when(consumerInfo2.getStatistics()).thenReturn(statData1);
+        when(statData1.getMessageRate()).thenReturn(10l);
+        when(statData1.getTotalMessages()).thenReturn(100l);
+        when(statData1.getTotalBytes()).thenReturn(1000l);
+
+        when(tibjmsAdmin.getConsumersStatistics()).thenReturn(new ConsumerInfo[]{consumerInfo1, consumerInfo2});
+        Assert.assertEquals(4, collectWithPublishedValues(metrics, publishedValues).size());
+
+        //Nothing changed, the ConsumerCount is suppressed with the other values
+        Assert.assertEquals(0, collectWithPublishedValues(metrics, publishedValues).size());
+
+        //One consumer left, which changes the sums and the ConsumerCount
+        when(tibjmsAdmin.getConsumersStatistics()).thenReturn(new ConsumerInfo[]{consumerInfo1});
+        Map<String, String> values = Maps.newHashMap();
+        for (com.appdynamics.extensions.metrics.Metric metric : collectWithPublishedValues(metrics, publishedValues)) {
+            values.put(metric.getMetricPath(), metric.getMetricValue());
+        }
+        Assert.assertEquals("1", values.get("Custom Metrics|EMS|Topics|Topic1|Consumers|ConsumerCount"));
+    }
+
+    private List<com.appdynamics.extensions.metrics.Metric> collectWithPublishedValues(Metrics metrics, PublishedValues publishedValues) {
+        publishedValues.beginRun();
+        publishedValues.beginGroupRun(metrics);
+        List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = Lists.newArrayList();
+        ConsumerMetricCollector consumerMetricCollector = new ConsumerMetricCollector(tibjmsAdmin, includeAllMatcher, false, false, metrics, "Custom Metrics|EMS",
+                phaser, collectedMetrics, Maps.<String, String>newHashMap(), false);
+        consumerMetricCollector.setPublishedValues(publishedValues);
+        consumerMetricCollector.run();
+        publishedValues.commit(metrics);
+        return collectedMetrics;
+    }
+
     private Metrics setupProducerMetrics() {
 
         Metrics producerMetrics = new Metrics();
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.TibcoEMSMetricFetcher.DestinationType;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class DestinationFilterCacheTest {
+
+    private final DestinationFilterCache destinationFilterCache = new DestinationFilterCache();
+
+    @Test
+    public void testKeepsDecisionsWhileTheConfigurationIsUnchanged() {
+        DestinationDecisions decisions = destinationFilterCache.getDecisions(DestinationType.QUEUE, Lists.newArrayList("orders.*"), null, false, false, false, 10);
+        decisions.put("orders.in", true);
+
+        DestinationDecisions nextRun = destinationFilterCache.getDecisions(DestinationType.QUEUE, Lists.newArrayList("orders.*"), null, false, false, false, 10);
+
+        Assert.assertSame(decisions, nextRun);
+        Assert.assertEquals(Boolean.TRUE, nextRun.get("orders.in"));
+    }
+
+    @Test
+    public void testChangedEntriesAreCompiledAgain() {
+        List<String> includes = Lists.newArrayList("orders.*");
+        DestinationDecisions decisions = destinationFilterCache.getDecisions(DestinationType.TOPIC, includes, null, false, false, false, 10);
+        decisions.put("orders.in", true);
+
+        includes.add("billing.*");
+        DestinationDecisions changedIncludes = destinationFilterCache.getDecisions(DestinationType.TOPIC, includes, null, false, false, false, 10);
+        DestinationDecisions changedExcludes = destinationFilterCache.getDecisions(DestinationType.TOPIC, includes, Lists.newArrayList("orders.in"), false, false, false, 10);
+
+        Assert.assertNotSame(decisions.getDestinationMatcher(), changedIncludes.getDestinationMatcher());
+        Assert.assertNull(changedIncludes.get("orders.in"));
+        Assert.assertFalse(changedExcludes.getDestinationMatcher().matches("orders.in"));
+    }
+
+    @Test
+    public void testChangedShowSystemOrShowTempForgetsTheDecisionsOnly() {
+        DestinationDecisions decisions = destinationFilterCache.getDecisions(DestinationType.CONSUMER, Lists.newArrayList(".*"), null, false, false, false, 10);
+        decisions.put("$TMP$.1", false);
+
+        DestinationDecisions showTemp = destinationFilterCache.getDecisions(DestinationType.CONSUMER, Lists.newArrayList(".*"), null, false, false, true, 10);
+
+        Assert.assertSame(decisions.getDestinationMatcher(), showTemp.getDestinationMatcher());
+        Assert.assertNull(showTemp.get("$TMP$.1"));
+    }
+
+    @Test
+    public void testTypesAreKeptApart() {
+        DestinationDecisions queueDecisions = destinationFilterCache.getDecisions(DestinationType.QUEUE, Lists.newArrayList(".*"), null, false, false, false, 10);
+        DestinationDecisions routeDecisions = destinationFilterCache.getDecisions(DestinationType.ROUTE, Lists.newArrayList(".*"), null, false, false, false, 10);
+
+        Assert.assertNotSame(queueDecisions, routeDecisions);
+    }
+
+    @Test
+    public void testDecisionsAreBounded() {
+        DestinationDecisions decisions = destinationFilterCache.getDecisions(DestinationType.QUEUE, Lists.newArrayList(".*"), null, false, false, false, 2);
+
+        decisions.put("q1", true);
+        decisions.put("q2", true);
+        decisions.put("q3", true);
+
+        Assert.assertEquals(1, decisions.size());
+        Assert.assertEquals(Boolean.TRUE, decisions.get("q3"));
+    }
+}
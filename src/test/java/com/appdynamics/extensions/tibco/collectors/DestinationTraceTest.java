@@ -0,0 +1,38 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+public class DestinationTraceTest {
+
+    @Test
+    public void testLinesOverTheLimitAreSuppressed() {
+        Logger logger = mock(Logger.class);
+        DestinationTrace destinationTrace = new DestinationTrace();
+        destinationTrace.setMaxLinesPerMinute(2);
+
+        destinationTrace.trace(logger, "Queue", "Queue1");
+        destinationTrace.trace(logger, "Queue", "Queue2");
+        destinationTrace.trace(logger, "Queue", "Queue3");
+
+        verify(logger).info("Publishing metrics for {} {}", "queue", "Queue1");
+        verify(logger).info("Publishing metrics for {} {}", "queue", "Queue2");
+        verify(logger, times(2)).info(eq("Publishing metrics for {} {}"), anyString(), anyString());
+        Assert.assertEquals(1, destinationTrace.getSuppressedLines());
+    }
+}
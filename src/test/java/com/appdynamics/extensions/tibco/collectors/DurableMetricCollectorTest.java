@@ -12,6 +12,7 @@ import static org.mockito.Mockito.when;
 
 import com.appdynamics.extensions.tibco.metrics.Metric;
 import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.tibco.tibjms.admin.DurableInfo;
@@ -26,7 +27,6 @@ import org.mockito.runners.MockitoJUnitRunner;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Phaser;
-import java.util.regex.Pattern;
 
 /**
  * @author Satish Muddam
@@ -48,10 +48,10 @@ public class DurableMetricCollectorTest {
 
 
     private String includeAllPatternString = ".*";
-    private Pattern includeAllPattern = Pattern.compile(includeAllPatternString);
+    private DestinationMatcher includeAllMatcher = DestinationMatcher.compile(Lists.newArrayList(includeAllPatternString), null, false);
 
     private String includeOnlyDurable1PatternString = "Durable1";
-    private Pattern includeOnlyDurable1Pattern = Pattern.compile(includeOnlyDurable1PatternString);
+    private DestinationMatcher includeOnlyDurable1Matcher = DestinationMatcher.compile(Lists.newArrayList(includeOnlyDurable1PatternString), null, false);
 
     @Test
     public void testCollect() throws TibjmsAdminException {
@@ -85,7 +85,7 @@ public class DurableMetricCollectorTest {
         when(durableInfo2.getPendingMessageSize()).thenReturn(2000l);
 
 
-        DurableMetricCollector durableMetricCollector = new DurableMetricCollector(tibjmsAdmin, Lists.newArrayList(includeAllPattern), false, false, metrics,
+        DurableMetricCollector durableMetricCollector = new DurableMetricCollector(tibjmsAdmin, includeAllMatcher, false, false, metrics,
                 metricPrefix, phaser, collectedMetrics, queueTopicMetricPrefixes);
         durableMetricCollector.run();
 
@@ -144,7 +144,7 @@ public class DurableMetricCollectorTest {
         when(durableInfo2.getPendingMessageSize()).thenReturn(2000l);
 
 
-        DurableMetricCollector durableMetricCollector = new DurableMetricCollector(tibjmsAdmin, Lists.newArrayList(includeOnlyDurable1Pattern), false, false, metrics,
+        DurableMetricCollector durableMetricCollector = new DurableMetricCollector(tibjmsAdmin, includeOnlyDurable1Matcher, false, false, metrics,
                 metricPrefix, phaser, collectedMetrics, queueTopicMetricPrefixes);
         durableMetricCollector.run();
 
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.metrics.Metric;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+public class MetricMaterializerTest {
+
+    //Every third destination is filtered out, the others produce two metrics each
+    private final Function<Integer, List<Metric>> toMetrics = i -> {
+        if (i % 3 == 0) {
+            return Collections.emptyList();
+        }
+        return Lists.newArrayList(new Metric("PendingMessageCount", String.valueOf(i), "Queues|Queue" + i + "|PendingMessageCount"),
+                new Metric("ConsumerCount", String.valueOf(i), "Queues|Queue" + i + "|ConsumerCount"));
+    };
+
+    @Test
+    public void testParallelOutputMatchesSequentialOutput() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            MetricMaterializer parallel = new MetricMaterializer(pool, 1000);
+            for (int size : new int[]{0, 1, 999, 1000, 1001, 12345}) {
+                Integer[] infos = infos(size);
+
+                List<Metric> expected = new ArrayList<>();
+                MetricMaterializer.SEQUENTIAL.materialize(infos, toMetrics, expected);
+                List<Metric> actual = new ArrayList<>();
+                parallel.materialize(infos, toMetrics, actual);
+
+                Assert.assertEquals(paths(expected), paths(actual));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testThresholdSelectsParallelMode() {
+        MetricMaterializer materializer = new MetricMaterializer(ForkJoinPool.commonPool(), 1000);
+        Assert.assertFalse(materializer.isParallel(999));
+        Assert.assertTrue(materializer.isParallel(1000));
+        Assert.assertFalse(new MetricMaterializer(ForkJoinPool.commonPool(), 0).isParallel(100000));
+        Assert.assertFalse(MetricMaterializer.SEQUENTIAL.isParallel(100000));
+    }
+
+    private Integer[] infos(int size) {
+        Integer[] infos = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            infos[i] = i;
+        }
+        return infos;
+    }
+
+    private List<String> paths(List<Metric> metrics) {
+        List<String> paths = new ArrayList<>(metrics.size());
+        for (Metric metric : metrics) {
+            paths.add(metric.getMetricPath() + "=" + metric.getMetricValue());
+        }
+        return paths;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.appdynamics.extensions.tibco.metrics.Metrics;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricPathCacheTest {
+
+    private static final String METRIC_PREFIX = "Custom Metrics|EMS";
+
+    @Test
+    public void testReturnsTheSamePathsInLaterRuns() {
+        Metrics metrics = metrics("Queue", "PendingMessageCount", "ConsumerCount");
+        MetricPathCache metricPathCache = new MetricPathCache();
+
+        metricPathCache.beginRun();
+        Assert.assertNull(metricPathCache.get(metrics, METRIC_PREFIX, "Queue1"));
+        String[] paths = metricPathCache.put(metrics, METRIC_PREFIX, "Queue1", METRIC_PREFIX + "|Queues|Queue1|");
+        Assert.assertArrayEquals(new String[]{"Custom Metrics|EMS|Queues|Queue1|PendingMessageCount", "Custom Metrics|EMS|Queues|Queue1|ConsumerCount"}, paths);
+        Assert.assertEquals(0, metricPathCache.getHitRatio());
+
+        metricPathCache.beginRun();
+        Assert.assertSame(paths, metricPathCache.get(metrics, METRIC_PREFIX, "Queue1"));
+        Assert.assertEquals(100, metricPathCache.getHitRatio());
+        Assert.assertEquals(1, metricPathCache.getSize());
+    }
+
+    @Test
+    public void testEvictsDestinationsNotSeenInTheRun() {
+        Metrics metrics = metrics("Queue", "PendingMessageCount");
+        MetricPathCache metricPathCache = new MetricPathCache();
+
+        metricPathCache.beginRun();
+        metricPathCache.put(metrics, METRIC_PREFIX, "Queue1", "Queue1|");
+        metricPathCache.put(metrics, METRIC_PREFIX, "Queue2", "Queue2|");
+
+        metricPathCache.beginRun();
+        metricPathCache.get(metrics, METRIC_PREFIX, "Queue1");
+        metricPathCache.evictUnused(metrics);
+
+        Assert.assertEquals(1, metricPathCache.getSize());
+        Assert.assertNotNull(metricPathCache.get(metrics, METRIC_PREFIX, "Queue1"));
+        Assert.assertNull(metricPathCache.get(metrics, METRIC_PREFIX, "Queue2"));
+    }
+
+    @Test
+    public void testStopsCachingOnceFull() {
+        Metrics metrics = metrics("Topic", "SubscriberCount");
+        MetricPathCache metricPathCache = new MetricPathCache();
+        metricPathCache.setMaxDestinations(1);
+
+        metricPathCache.beginRun();
+        metricPathCache.put(metrics, METRIC_PREFIX, "Topic1", "Topic1|");
+        String[] paths = metricPathCache.put(metrics, METRIC_PREFIX, "Topic2", "Topic2|");
+
+        Assert.assertEquals("Topic2|SubscriberCount", paths[0]);
+        Assert.assertEquals(1, metricPathCache.getSize());
+        Assert.assertNull(metricPathCache.get(metrics, METRIC_PREFIX, "Topic2"));
+    }
+
+    @Test
+    public void testChangedConfigurationDropsTheGroupsPaths() {
+        Metrics metrics = metrics("Route", "InboundMessageRate");
+        MetricPathCache metricPathCache = new MetricPathCache();
+
+        metricPathCache.beginRun();
+        metricPathCache.put(metrics, METRIC_PREFIX, "Route1", "Route1|");
+
+        Assert.assertNull(metricPathCache.get(metrics, "Custom Metrics|Renamed", "Route1"));
+        Assert.assertEquals(0, metricPathCache.getSize());
+
+        metricPathCache.put(metrics, METRIC_PREFIX, "Route1", "Route1|");
+        metrics.setMetrics(metrics("Route", "OutboundMessageRate").getMetrics());
+        Assert.assertNull(metricPathCache.get(metrics, METRIC_PREFIX, "Route1"));
+    }
+
+    private Metrics metrics(String type, String... attrs) {
+        Metric[] groupMetrics = new Metric[attrs.length];
+        for (int i = 0; i < attrs.length; i++) {
+            groupMetrics[i] = new Metric();
+            groupMetrics[i].setAttr(attrs[i]);
+        }
+
+        Metrics metrics = new Metrics();
+        metrics.setEnabled("true");
+        metrics.setType(type);
+        metrics.setMetrics(groupMetrics);
+        return metrics;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.appdynamics.extensions.tibco.metrics.MetricConverter;
+import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+public class MetricPropertyMapsTest {
+
+    @Test
+    public void testPropertiesAreConvertedOnceAndShared() {
+        Metrics metrics = metrics(metric("PendingMessageCount", "Pending Messages"), metric("ConsumerCount", null));
+
+        List<Map<String, String>> propertyMaps = MetricPropertyMaps.getPropertyMaps(metrics);
+
+        Assert.assertEquals(2, propertyMaps.size());
+        Assert.assertSame(propertyMaps, MetricPropertyMaps.getPropertyMaps(metrics));
+        Assert.assertSame(propertyMaps.get(0), MetricPropertyMaps.getPropertyMaps(metrics).get(0));
+    }
+
+    @Test
+    public void testPropertiesMatchThePerMetricConversion() {
+        Metric metric = metric("IsActiveServer", "Active");
+        metric.setMultiplier(BigDecimal.TEN);
+        MetricConverter converter = new MetricConverter();
+        converter.setLabel("1");
+        converter.setValue("Yes");
+        metric.setConvert(new MetricConverter[]{converter});
+
+        Map<String, String> propertiesMap = MetricPropertyMaps.getPropertyMaps(metrics(metric)).get(0);
+
+        Map<String, String> expected = new ObjectMapper().convertValue(metric, Map.class);
+        expected.remove("delta");
+        expected.remove("rate");
+        Assert.assertEquals(expected, propertiesMap);
+    }
+
+    @Test
+    public void testDeltasAreNotComputedAgainByTheMetricWriter() {
+        Metric metric = metric("InboundMessageCount", null);
+        metric.setDelta("true");
+
+        Map<String, String> propertiesMap = MetricPropertyMaps.getPropertyMaps(metrics(metric)).get(0);
+
+        Assert.assertFalse(propertiesMap.containsKey("delta"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPropertiesCannotBeModified() {
+        Map<String, String> propertiesMap = MetricPropertyMaps.getPropertyMaps(metrics(metric("ConnectionCount", null))).get(0);
+
+        propertiesMap.put("alias", "Connections");
+    }
+
+    @Test
+    public void testChangedMetricsAreConvertedAgain() {
+        Metrics metrics = metrics(metric("PendingMessageCount", "Pending"));
+        MetricPropertyMaps.getPropertyMaps(metrics);
+
+        metrics.setMetrics(new Metric[]{metric("PendingMessageCount", "Backlog")});
+
+        Assert.assertEquals("Backlog", MetricPropertyMaps.getPropertyMaps(metrics).get(0).get("alias"));
+    }
+
+    @Test
+    public void testConvertMapIsBuiltOnce() {
+        Metric metric = metric("State", null);
+        MetricConverter converter = new MetricConverter();
+        converter.setLabel("0");
+        converter.setValue("Down");
+        metric.setConvert(new MetricConverter[]{converter});
+
+        Map<String, String> convert = metric.getConvert();
+
+        Assert.assertEquals("Down", convert.get("0"));
+        Assert.assertSame(convert, metric.getConvert());
+    }
+
+    private Metric metric(String attr, String alias) {
+        Metric metric = new Metric();
+        metric.setAttr(attr);
+        metric.setAlias(alias);
+        return metric;
+    }
+
+    private Metrics metrics(Metric... groupMetrics) {
+        Metrics metrics = new Metrics();
+        metrics.setEnabled("true");
+        metrics.setType("Queue");
+        metrics.setMetrics(groupMetrics);
+        return metrics;
+    }
+}
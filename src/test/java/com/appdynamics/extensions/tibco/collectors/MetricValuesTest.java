@@ -0,0 +1,31 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+public class MetricValuesTest {
+
+    @Test
+    public void testFormatsLikeBigDecimal() {
+        long[] values = {0, 1, MetricValues.CACHED_VALUES - 1, MetricValues.CACHED_VALUES, -1, 123456789012L, Long.MAX_VALUE, Long.MIN_VALUE + 1};
+        for (long value : values) {
+            Assert.assertEquals(BigDecimal.valueOf(value).toString(), MetricValues.toString(value));
+        }
+    }
+
+    @Test
+    public void testSmallValuesShareOneInstance() {
+        Assert.assertSame(MetricValues.toString(0), MetricValues.toString(0));
+        Assert.assertSame(MetricValues.toString(1023), MetricValues.toString(1023));
+    }
+}
@@ -12,6 +12,7 @@ import static org.mockito.Mockito.when;
 
 import com.appdynamics.extensions.tibco.metrics.Metric;
 import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.tibco.tibjms.admin.ProducerInfo;
@@ -27,7 +28,6 @@ import org.mockito.runners.MockitoJUnitRunner;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Phaser;
-import java.util.regex.Pattern;
 
 /**
  * @author Satish Muddam
@@ -54,10 +54,10 @@ public class ProducerMetricCollectorTest {
     private Phaser phaser;
 
     private String includeAllPatternString = ".*";
-    private Pattern includeAllPattern = Pattern.compile(includeAllPatternString);
+    private DestinationMatcher includeAllMatcher = DestinationMatcher.compile(Lists.newArrayList(includeAllPatternString), null, false);
 
     private String includeOnlyQueue1PatternString = "Queue1";
-    private Pattern includeOnlyQueue1Pattern = Pattern.compile(includeOnlyQueue1PatternString);
+    private DestinationMatcher includeOnlyQueue1Matcher = DestinationMatcher.compile(Lists.newArrayList(includeOnlyQueue1PatternString), null, false);
 
 
     @Test
@@ -96,14 +96,14 @@ public class ProducerMetricCollectorTest {
         when(statData2.getTotalMessages()).thenReturn(200l);
         when(statData2.getTotalBytes()).thenReturn(2000l);
 
-        ProducerMetricCollector producerMetricCollector = new ProducerMetricCollector(tibjmsAdmin, Lists.newArrayList(includeAllPattern), false, false, metrics, metricPrefix,
+        ProducerMetricCollector producerMetricCollector = new ProducerMetricCollector(tibjmsAdmin, includeAllMatcher, false, false, metrics, metricPrefix,
                 phaser, collectedMetrics, queueTopicMetricPrefixes, displayDynamicIdsInMetricPath);
         producerMetricCollector.run();
 
-        Assert.assertEquals(6, collectedMetrics.size());
+        Assert.assertEquals(8, collectedMetrics.size());
 
-        List<String> allMetrics = Lists.newArrayList("Custom Metrics|EMS|Queues|Queue1|Producers|TotalMessages", "Custom Metrics|EMS|Queues|Queue1|Producers|TotalBytes", "Custom Metrics|EMS|Queues|Queue1|Producers|MessageRate",
-                "Custom Metrics|EMS|Queues|Queue2|Producers|TotalMessages", "Custom Metrics|EMS|Queues|Queue2|Producers|TotalBytes", "Custom Metrics|EMS|Queues|Queue2|Producers|MessageRate");
+        List<String> allMetrics = Lists.newArrayList("Custom Metrics|EMS|Queues|Queue1|Producers|TotalMessages", "Custom Metrics|EMS|Queues|Queue1|Producers|TotalBytes", "Custom Metrics|EMS|Queues|Queue1|Producers|MessageRate", "Custom Metrics|EMS|Queues|Queue1|Producers|ProducerCount",
+                "Custom Metrics|EMS|Queues|Queue2|Producers|TotalMessages", "Custom Metrics|EMS|Queues|Queue2|Producers|TotalBytes", "Custom Metrics|EMS|Queues|Queue2|Producers|MessageRate", "Custom Metrics|EMS|Queues|Queue2|Producers|ProducerCount");
         for (com.appdynamics.extensions.metrics.Metric metric : collectedMetrics) {
             String metricPath = metric.getMetricPath();
             String metricValue = metric.getMetricValue();
@@ -161,13 +161,13 @@ public class ProducerMetricCollectorTest {
         when(statData2.getTotalMessages()).thenReturn(200l);
         when(statData2.getTotalBytes()).thenReturn(2000l);
 
-        ProducerMetricCollector producerMetricCollector = new ProducerMetricCollector(tibjmsAdmin, Lists.newArrayList(includeOnlyQueue1Pattern), false, false, metrics, metricPrefix,
+        ProducerMetricCollector producerMetricCollector = new ProducerMetricCollector(tibjmsAdmin, includeOnlyQueue1Matcher, false, false, metrics, metricPrefix,
                 phaser, collectedMetrics, queueTopicMetricPrefixes, displayDynamicIdsInMetricPath);
         producerMetricCollector.run();
 
-        Assert.assertEquals(3, collectedMetrics.size());
+        Assert.assertEquals(4, collectedMetrics.size());
 
-        List<String> allMetrics = Lists.newArrayList("Custom Metrics|EMS|Queues|Queue1|Producers|TotalMessages", "Custom Metrics|EMS|Queues|Queue1|Producers|TotalBytes", "Custom Metrics|EMS|Queues|Queue1|Producers|MessageRate");
+        List<String> allMetrics = Lists.newArrayList("Custom Metrics|EMS|Queues|Queue1|Producers|TotalMessages", "Custom Metrics|EMS|Queues|Queue1|Producers|TotalBytes", "Custom Metrics|EMS|Queues|Queue1|Producers|MessageRate", "Custom Metrics|EMS|Queues|Queue1|Producers|ProducerCount");
         for (com.appdynamics.extensions.metrics.Metric metric : collectedMetrics) {
             String metricPath = metric.getMetricPath();
             String metricValue = metric.getMetricValue();
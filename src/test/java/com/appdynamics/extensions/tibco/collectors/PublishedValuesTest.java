@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.appdynamics.extensions.tibco.metrics.Metrics;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PublishedValuesTest {
+
+    private final PublishedValues publishedValues = new PublishedValues();
+
+    @Test
+    public void testUnchangedValuesAreSuppressed() {
+        Metrics metrics = metrics("PendingMessageCount", "ConsumerCount");
+        publishedValues.setFullRefreshCycles(Integer.MAX_VALUE);
+
+        beginRun(metrics);
+        PublishedValues.DestinationValues values = publishedValues.get(metrics, "Queue1");
+        Assert.assertTrue(values.shouldPublish(0, 0));
+        Assert.assertTrue(values.shouldPublish(1, 2));
+        publishedValues.commit(metrics);
+
+        beginRun(metrics);
+        values = publishedValues.get(metrics, "Queue1");
+        Assert.assertFalse(values.shouldPublish(0, 0));
+        Assert.assertTrue(values.shouldPublish(1, 3));
+        Assert.assertEquals(1, publishedValues.getSuppressed());
+
+        beginRun(metrics);
+        Assert.assertEquals(0, publishedValues.getSuppressed());
+    }
+
+    @Test
+    public void testEveryDestinationIsRefreshedOncePerCycle() {
+        Metrics metrics = metrics("PendingMessageCount");
+        publishedValues.setFullRefreshCycles(3);
+
+        beginRun(metrics);
+        publishedValues.get(metrics, "Queue1").shouldPublish(0, 5);
+        publishedValues.commit(metrics);
+
+        int published = 0;
+        for (int run = 0; run < 3; run++) {
+            beginRun(metrics);
+            if (publishedValues.get(metrics, "Queue1").shouldPublish(0, 5)) {
+                published++;
+            }
+            publishedValues.commit(metrics);
+        }
+        Assert.assertEquals(1, published);
+    }
+
+    @Test
+    public void testValuesOfADroppedRunArePublishedAgain() {
+        Metrics metrics = metrics("PendingMessageCount");
+        publishedValues.setFullRefreshCycles(Integer.MAX_VALUE);
+
+        //The metrics of the first run were never printed, it is not committed
+        beginRun(metrics);
+        publishedValues.get(metrics, "Queue1").shouldPublish(0, 5);
+
+        beginRun(metrics);
+        Assert.assertTrue(publishedValues.get(metrics, "Queue1").shouldPublish(0, 5));
+        publishedValues.commit(metrics);
+
+        beginRun(metrics);
+        Assert.assertFalse(publishedValues.get(metrics, "Queue1").shouldPublish(0, 5));
+    }
+
+    @Test
+    public void testDestinationsOfAnIntervalGroupAreRefreshedOncePerCycle() {
+        //The group runs every 5th monitor cycle, e.g. intervalInSeconds="300" on a 60 second cycle
+        Metrics metrics = metrics("PendingMessageCount");
+        publishedValues.setFullRefreshCycles(10);
+
+        int[] refreshes = new int[100];
+        for (int cycle = 0; cycle <= 50; cycle++) {
+            publishedValues.beginRun();
+            if (cycle % 5 != 0) {
+                continue;
+            }
+            publishedValues.beginGroupRun(metrics);
+            for (int i = 0; i < refreshes.length; i++) {
+                if (publishedValues.get(metrics, "Queue" + i).shouldPublish(0, 5) && cycle > 0) {
+                    refreshes[i]++;
+                }
+            }
+            publishedValues.commit(metrics);
+        }
+
+        for (int refreshCount : refreshes) {
+            Assert.assertEquals(1, refreshCount);
+        }
+    }
+
+    @Test
+    public void testCountHasItsOwnSlot() {
+        Metrics metrics = metrics("PendingMessageCount");
+        publishedValues.setFullRefreshCycles(Integer.MAX_VALUE);
+
+        beginRun(metrics);
+        PublishedValues.DestinationValues values = publishedValues.get(metrics, "Queue1");
+        Assert.assertTrue(values.shouldPublish(0, 2));
+        Assert.assertTrue(values.shouldPublishCount(2));
+        publishedValues.commit(metrics);
+
+        beginRun(metrics);
+        values = publishedValues.get(metrics, "Queue1");
+        Assert.assertFalse(values.shouldPublishCount(2));
+        Assert.assertTrue(values.shouldPublish(0, 3));
+        Assert.assertTrue(values.shouldPublishCount(1));
+    }
+
+    @Test
+    public void testGroupStartsOverBeyondMaxDestinations() {
+        Metrics metrics = metrics("PendingMessageCount");
+        publishedValues.setFullRefreshCycles(Integer.MAX_VALUE);
+        publishedValues.setMaxDestinations(2);
+
+        beginRun(metrics);
+        publishedValues.get(metrics, "Queue1").shouldPublish(0, 5);
+        publishedValues.get(metrics, "Queue2").shouldPublish(0, 5);
+        publishedValues.commit(metrics);
+
+        beginRun(metrics);
+        Assert.assertFalse(publishedValues.get(metrics, "Queue1").shouldPublish(0, 5));
+        //The third destination exceeds the cap, the values kept for the group are dropped
+        Assert.assertTrue(publishedValues.get(metrics, "Queue3").shouldPublish(0, 5));
+        Assert.assertEquals(1, publishedValues.getSize());
+        Assert.assertTrue(publishedValues.get(metrics, "Queue2").shouldPublish(0, 5));
+    }
+
+    private void beginRun(Metrics metrics) {
+        publishedValues.beginRun();
+        publishedValues.beginGroupRun(metrics);
+    }
+
+    private Metrics metrics(String... attrs) {
+        Metric[] groupMetrics = new Metric[attrs.length];
+        for (int i = 0; i < attrs.length; i++) {
+            groupMetrics[i] = new Metric();
+            groupMetrics[i].setAttr(attrs[i]);
+        }
+        Metrics metrics = new Metrics();
+        metrics.setType("Queue");
+        metrics.setEnabled("true");
+        metrics.setMetrics(groupMetrics);
+        return metrics;
+    }
+}
@@ -8,10 +8,14 @@
 
 package com.appdynamics.extensions.tibco.collectors;
 
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.appdynamics.extensions.tibco.TibcoEMSMetricFetcher;
 import com.appdynamics.extensions.tibco.metrics.Metric;
 import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
 import com.google.common.collect.Lists;
 import com.tibco.tibjms.admin.QueueInfo;
 import com.tibco.tibjms.admin.StatData;
@@ -25,7 +29,6 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import java.util.List;
 import java.util.concurrent.Phaser;
-import java.util.regex.Pattern;
 
 /**
  * @author Satish Muddam
@@ -41,6 +44,8 @@ public class QueueMetricCollectorTest {
     private QueueInfo queueInfo1;
     @Mock
     private QueueInfo queueInfo2;
+    @Mock
+    private QueueInfo queueInfo3;
 
     @Mock
     private StatData inboundStatData1;
@@ -56,10 +61,10 @@ public class QueueMetricCollectorTest {
     private Phaser phaser;
 
     private String includeAllPatternString = ".*";
-    private Pattern includeAllPattern = Pattern.compile(includeAllPatternString);
+    private DestinationMatcher includeAllMatcher = DestinationMatcher.compile(Lists.newArrayList(includeAllPatternString), null, false);
 
     private String includeOnlyQueue1PatternString = "Queue1";
-    private Pattern includeOnlyQueue1Pattern = Pattern.compile(includeOnlyQueue1PatternString);
+    private DestinationMatcher includeOnlyQueue1Matcher = DestinationMatcher.compile(Lists.newArrayList(includeOnlyQueue1PatternString), null, false);
 
     @Test
     public void testCollectAll() throws TibjmsAdminException {
@@ -101,8 +106,8 @@ public class QueueMetricCollectorTest {
 
 
         String metricPrefix = "Custom Metrics|EMS";
-        QueueMetricCollector queueMetricCollector = new QueueMetricCollector(tibjmsAdmin, Lists.newArrayList(includeAllPattern), false, false,
-                metrics, metricPrefix, phaser, collectedMetrics);
+        QueueMetricCollector queueMetricCollector = new QueueMetricCollector(tibjmsAdmin, includeAllMatcher, false, false,
+                metrics, metricPrefix, phaser, collectedMetrics, null);
         queueMetricCollector.run();
 
         Assert.assertEquals(10, collectedMetrics.size());
@@ -180,8 +185,8 @@ public class QueueMetricCollectorTest {
 
 
         String metricPrefix = "Custom Metrics|EMS";
-        QueueMetricCollector queueMetricCollector = new QueueMetricCollector(tibjmsAdmin, Lists.newArrayList(includeOnlyQueue1Pattern), false, false,
-                metrics, metricPrefix, phaser, collectedMetrics);
+        QueueMetricCollector queueMetricCollector = new QueueMetricCollector(tibjmsAdmin, includeOnlyQueue1Matcher, false, false,
+                metrics, metricPrefix, phaser, collectedMetrics, null);
         queueMetricCollector.run();
 
         Assert.assertEquals(5, collectedMetrics.size());
@@ -208,6 +213,271 @@ public class QueueMetricCollectorTest {
         }
     }
 
+    @Test
+    public void testCollectWithServerSidePatterns() throws TibjmsAdminException {
+
+        Metrics metrics = setupQueueMetrics();
+
+        List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = Lists.newArrayList();
+
+        when(phaser.register()).thenReturn(1);
+        when(phaser.arriveAndDeregister()).thenReturn(0);
+
+        //Both wildcards return Queue1, which should be reported only once
+        when(tibjmsAdmin.getQueuesStatistics("Queue1")).thenReturn(new QueueInfo[]{queueInfo1});
+        when(tibjmsAdmin.getQueuesStatistics("*")).thenReturn(new QueueInfo[]{queueInfo1});
+
+        when(queueInfo1.getName()).thenReturn("Queue1");
+        when(queueInfo1.getDeliveredMessageCount()).thenReturn(10l);
+        when(queueInfo1.getInboundStatistics()).thenReturn(inboundStatData1);
+        when(queueInfo1.getOutboundStatistics()).thenReturn(outboundStatData1);
+
+        List<String> serverSidePatterns = Lists.newArrayList("Queue1", "*");
+
+        String metricPrefix = "Custom Metrics|EMS";
+        QueueMetricCollector queueMetricCollector = new QueueMetricCollector(tibjmsAdmin,
+                DestinationMatcher.compile(serverSidePatterns, null, true), false, false,
+                metrics, metricPrefix, phaser, collectedMetrics, serverSidePatterns);
+        queueMetricCollector.run();
+
+        verify(tibjmsAdmin, never()).getQueuesStatistics();
+        Assert.assertEquals(5, collectedMetrics.size());
+    }
+
+    @Test
+    public void testReusesCachedMetricPathsAcrossRuns() throws TibjmsAdminException {
+
+        Metrics metrics = setupQueueMetrics();
+        MetricPathCache metricPathCache = new MetricPathCache();
+
+        when(tibjmsAdmin.getQueuesStatistics()).thenReturn(new QueueInfo[]{queueInfo1});
+        when(queueInfo1.getName()).thenReturn("Queue1");
+        when(queueInfo1.getDeliveredMessageCount()).thenReturn(10l);
+
+        List<com.appdynamics.extensions.metrics.Metric> firstRun = Lists.newArrayList();
+        QueueMetricCollector queueMetricCollector = new QueueMetricCollector(tibjmsAdmin, includeAllMatcher, false, false,
+                metrics, "Custom Metrics|EMS", phaser, firstRun, null);
+        queueMetricCollector.setMetricPathCache(metricPathCache);
+        metricPathCache.beginRun();
+        queueMetricCollector.run();
+
+        List<com.appdynamics.extensions.metrics.Metric> secondRun = Lists.newArrayList();
+        queueMetricCollector = new QueueMetricCollector(tibjmsAdmin, includeAllMatcher, false, false,
+                metrics, "Custom Metrics|EMS", phaser, secondRun, null);
+        queueMetricCollector.setMetricPathCache(metricPathCache);
+        metricPathCache.beginRun();
+        queueMetricCollector.run();
+
+        Assert.assertEquals("Custom Metrics|EMS|Queue|Queue1|DeliveredMessageCount", secondRun.get(0).getMetricPath());
+        Assert.assertSame(firstRun.get(0).getMetricPath(), secondRun.get(0).getMetricPath());
+        Assert.assertEquals(100, metricPathCache.getHitRatio());
+    }
+
+    @Test
+    public void testRemembersFilterDecisions() throws TibjmsAdminException {
+
+        Metrics metrics = setupQueueMetrics();
+        DestinationDecisions destinationDecisions = new DestinationFilterCache().getDecisions(TibcoEMSMetricFetcher.DestinationType.QUEUE,
+                Lists.newArrayList(includeOnlyQueue1PatternString), null, false, false, false, 10);
+
+        when(tibjmsAdmin.getQueuesStatistics()).thenReturn(new QueueInfo[]{queueInfo1, queueInfo2});
+        when(queueInfo1.getName()).thenReturn("Queue1");
+        when(queueInfo2.getName()).thenReturn("Queue2");
+
+        List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = Lists.newArrayList();
+        QueueMetricCollector queueMetricCollector = new QueueMetricCollector(tibjmsAdmin, destinationDecisions.getDestinationMatcher(), false, false,
+                metrics, "Custom Metrics|EMS", phaser, collectedMetrics, null);
+        queueMetricCollector.setDestinationDecisions(destinationDecisions);
+        queueMetricCollector.run();
+
+        Assert.assertEquals(Boolean.TRUE, destinationDecisions.get("Queue1"));
+        Assert.assertEquals(Boolean.FALSE, destinationDecisions.get("Queue2"));
+        for (com.appdynamics.extensions.metrics.Metric metric : collectedMetrics) {
+            Assert.assertTrue(metric.getMetricPath().contains("|Queue1|"));
+        }
+    }
+
+    @Test
+    public void testCountsDestinationsAndMetricsForTheSummary() throws TibjmsAdminException {
+
+        Metrics metrics = setupQueueMetrics();
+        DestinationMatcher includeOnlyQueue1Matcher = DestinationMatcher.compile(Lists.newArrayList(includeOnlyQueue1PatternString), null, false);
+
+        when(tibjmsAdmin.getQueuesStatistics()).thenReturn(new QueueInfo[]{queueInfo1, queueInfo2});
+        when(queueInfo1.getName()).thenReturn("Queue1");
+        when(queueInfo2.getName()).thenReturn("Queue2");
+
+        List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = Lists.newArrayList();
+        QueueMetricCollector queueMetricCollector = new QueueMetricCollector(tibjmsAdmin, includeOnlyQueue1Matcher, false, false,
+                metrics, "Custom Metrics|EMS", phaser, collectedMetrics, null);
+        queueMetricCollector.run();
+
+        Assert.assertEquals(1, queueMetricCollector.getIncludedDestinations());
+        Assert.assertEquals(1, queueMetricCollector.getExcludedDestinations());
+        Assert.assertEquals(collectedMetrics.size(), queueMetricCollector.getPublishedMetrics());
+    }
+
+    @Test
+    public void testPublishesTopNQueuesAndRollsUpTheOthers() throws TibjmsAdminException {
+
+        Metrics metrics = setupQueueMetrics();
+        metrics.setTopN("1");
+        metrics.setRankBy("PendingMessageCount");
+
+        when(tibjmsAdmin.getQueuesStatistics()).thenReturn(new QueueInfo[]{queueInfo1, queueInfo2});
+        when(queueInfo1.getName()).thenReturn("Queue1");
+        when(queueInfo2.getName()).thenReturn("Queue2");
+        when(queueInfo1.getPendingMessageCount()).thenReturn(10l);
+        when(queueInfo2.getPendingMessageCount()).thenReturn(20l);
+
+        List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = Lists.newArrayList();
+        QueueMetricCollector queueMetricCollector = new QueueMetricCollector(tibjmsAdmin, includeAllMatcher, false, false,
+                metrics, "Custom Metrics|EMS", phaser, collectedMetrics, null);
+        queueMetricCollector.run();
+
+        boolean othersCounted = false;
+        for (com.appdynamics.extensions.metrics.Metric metric : collectedMetrics) {
+            Assert.assertFalse(metric.getMetricPath().contains("|Queue1|"));
+            if (metric.getMetricPath().equals("Custom Metrics|EMS|Queue|All Others|DestinationCount")) {
+                Assert.assertEquals("1", metric.getMetricValue());
+                othersCounted = true;
+            }
+        }
+        Assert.assertTrue(othersCounted);
+        Assert.assertEquals(2, queueMetricCollector.getIncludedDestinations());
+    }
+
+    @Test
+    public void testRollupsPublishNoDeltas() throws TibjmsAdminException {
+
+        Metrics metrics = setupQueueMetrics();
+        metrics.setTopN("1");
+        metrics.setRankBy("PendingMessageCount");
+        metrics.getMetrics()[0].setDelta("true");
+        SnapshotStore snapshotStore = new SnapshotStore();
+
+        when(tibjmsAdmin.getQueuesStatistics()).thenReturn(new QueueInfo[]{queueInfo1, queueInfo2});
+        when(queueInfo1.getName()).thenReturn("Queue1");
+        when(queueInfo2.getName()).thenReturn("Queue2");
+        when(queueInfo1.getPendingMessageCount()).thenReturn(10l);
+        when(queueInfo2.getPendingMessageCount()).thenReturn(20l);
+
+        List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = Lists.newArrayList();
+        for (int run = 0; run < 2; run++) {
+            snapshotStore.beginRun();
+            collectedMetrics.clear();
+            QueueMetricCollector queueMetricCollector = new QueueMetricCollector(tibjmsAdmin, includeAllMatcher, false, false,
+                    metrics, "Custom Metrics|EMS", phaser, collectedMetrics, null);
+            queueMetricCollector.setSnapshotStore(snapshotStore);
+            queueMetricCollector.run();
+        }
+
+        //The destinations in All Others change from run to run, the difference of their sums is no delta
+        List<String> metricPaths = Lists.newArrayList();
+        for (com.appdynamics.extensions.metrics.Metric metric : collectedMetrics) {
+            metricPaths.add(metric.getMetricPath());
+        }
+        Assert.assertTrue(metricPaths.contains("Custom Metrics|EMS|Queue|Queue2|DeliveredMessageCount"));
+        Assert.assertFalse(metricPaths.contains("Custom Metrics|EMS|Queue|All Others|DeliveredMessageCount"));
+        Assert.assertTrue(metricPaths.contains("Custom Metrics|EMS|Queue|All Others|DestinationCount"));
+    }
+
+    @Test
+    public void testRollupDoesNotShareThePathsOfAQueueNamedOthers() throws TibjmsAdminException {
+
+        Metrics metrics = setupQueueMetrics();
+        metrics.setTopN("1");
+        metrics.setRankBy("PendingMessageCount");
+        MetricPathCache metricPathCache = new MetricPathCache();
+        metricPathCache.beginRun();
+
+        when(tibjmsAdmin.getQueuesStatistics()).thenReturn(new QueueInfo[]{queueInfo1, queueInfo2});
+        when(queueInfo1.getName()).thenReturn("Others");
+        when(queueInfo2.getName()).thenReturn("Queue2");
+        when(queueInfo1.getPendingMessageCount()).thenReturn(20l);
+        when(queueInfo2.getPendingMessageCount()).thenReturn(10l);
+
+        List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = Lists.newArrayList();
+        QueueMetricCollector queueMetricCollector = new QueueMetricCollector(tibjmsAdmin, includeAllMatcher, false, false,
+                metrics, "Custom Metrics|EMS", phaser, collectedMetrics, null);
+        queueMetricCollector.setMetricPathCache(metricPathCache);
+        queueMetricCollector.run();
+
+        List<String> metricPaths = Lists.newArrayList();
+        for (com.appdynamics.extensions.metrics.Metric metric : collectedMetrics) {
+            Assert.assertFalse(metricPaths.contains(metric.getMetricPath()));
+            metricPaths.add(metric.getMetricPath());
+        }
+        Assert.assertTrue(metricPaths.contains("Custom Metrics|EMS|Queue|Others|DeliveredMessageCount"));
+        Assert.assertTrue(metricPaths.contains("Custom Metrics|EMS|Queue|All Others|DeliveredMessageCount"));
+        Assert.assertTrue(metricPaths.contains("Custom Metrics|EMS|Queue|All Others|DestinationCount"));
+    }
+
+    @Test
+    public void testQueuesBeyondTheBudgetAreRolledUpIntoOverflow() throws TibjmsAdminException {
+
+        Metrics metrics = setupQueueMetrics();
+        //Room for the paths of one queue and of Budget Overflow
+        metrics.setMaxMetricPaths(String.valueOf(2 * metrics.getMetrics().length + 1));
+
+        when(tibjmsAdmin.getQueuesStatistics()).thenReturn(new QueueInfo[]{queueInfo1, queueInfo2});
+        when(queueInfo1.getName()).thenReturn("Queue1");
+        when(queueInfo2.getName()).thenReturn("Queue2");
+
+        CardinalityBudget cardinalityBudget = new CardinalityBudget();
+        cardinalityBudget.beginRun(0);
+
+        List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = Lists.newArrayList();
+        QueueMetricCollector queueMetricCollector = new QueueMetricCollector(tibjmsAdmin, includeAllMatcher, false, false,
+                metrics, "Custom Metrics|EMS", phaser, collectedMetrics, null);
+        queueMetricCollector.setCardinalityBudget(cardinalityBudget);
+        queueMetricCollector.run();
+
+        boolean overflowCounted = false;
+        for (com.appdynamics.extensions.metrics.Metric metric : collectedMetrics) {
+            Assert.assertFalse(metric.getMetricPath().contains("|Queue2|"));
+            if (metric.getMetricPath().equals("Custom Metrics|EMS|Queue|Budget Overflow|DestinationCount")) {
+                Assert.assertEquals("1", metric.getMetricValue());
+                overflowCounted = true;
+            }
+        }
+        Assert.assertTrue(overflowCounted);
+        Assert.assertEquals(1, cardinalityBudget.getOverflowed());
+    }
+
+    @Test
+    public void testOverflowIsCombinedByAggregationType() throws TibjmsAdminException {
+
+        Metrics metrics = setupQueueMetrics();
+        //Room for the paths of one queue and of Budget Overflow
+        metrics.setMaxMetricPaths(String.valueOf(2 * metrics.getMetrics().length + 1));
+
+        when(tibjmsAdmin.getQueuesStatistics()).thenReturn(new QueueInfo[]{queueInfo1, queueInfo2, queueInfo3});
+        when(queueInfo1.getName()).thenReturn("Queue1");
+        when(queueInfo2.getName()).thenReturn("Queue2");
+        when(queueInfo3.getName()).thenReturn("Queue3");
+        when(queueInfo2.getDeliveredMessageCount()).thenReturn(20l);
+        when(queueInfo3.getDeliveredMessageCount()).thenReturn(40l);
+
+        CardinalityBudget cardinalityBudget = new CardinalityBudget();
+        cardinalityBudget.beginRun(0);
+
+        List<com.appdynamics.extensions.metrics.Metric> collectedMetrics = Lists.newArrayList();
+        QueueMetricCollector queueMetricCollector = new QueueMetricCollector(tibjmsAdmin, includeAllMatcher, false, false,
+                metrics, "Custom Metrics|EMS", phaser, collectedMetrics, null);
+        queueMetricCollector.setCardinalityBudget(cardinalityBudget);
+        queueMetricCollector.run();
+
+        //DeliveredMessageCount is an AVERAGE metric, the overflow publishes the average of Queue2 and Queue3
+        String overflowValue = null;
+        for (com.appdynamics.extensions.metrics.Metric metric : collectedMetrics) {
+            if (metric.getMetricPath().equals("Custom Metrics|EMS|Queue|Budget Overflow|DeliveredMessageCount")) {
+                overflowValue = metric.getMetricValue();
+            }
+        }
+        Assert.assertEquals("30", overflowValue);
+    }
+
     private Metrics setupQueueMetrics() {
 
         Metrics queueMetrics = new Metrics();
@@ -12,6 +12,7 @@ import static org.mockito.Mockito.when;
 
 import com.appdynamics.extensions.tibco.metrics.Metric;
 import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
 import com.google.common.collect.Lists;
 import com.tibco.tibjms.admin.RouteInfo;
 import com.tibco.tibjms.admin.StatData;
@@ -25,7 +26,6 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import java.util.List;
 import java.util.concurrent.Phaser;
-import java.util.regex.Pattern;
 
 /**
  * @author Satish Muddam
@@ -56,10 +56,10 @@ public class RouteMetricCollectorTest {
     private StatData outboundStatData2;
 
     private String includeAllPatternString = ".*";
-    private Pattern includeAllPattern = Pattern.compile(includeAllPatternString);
+    private DestinationMatcher includeAllMatcher = DestinationMatcher.compile(Lists.newArrayList(includeAllPatternString), null, false);
 
     private String includeOnlyRoute1PatternString = "Route1";
-    private Pattern includeOnlyRoute1Pattern = Pattern.compile(includeOnlyRoute1PatternString);
+    private DestinationMatcher includeOnlyRoute1Matcher = DestinationMatcher.compile(Lists.newArrayList(includeOnlyRoute1PatternString), null, false);
 
     @Test
     public void testCollect() throws TibjmsAdminException {
@@ -96,7 +96,7 @@ public class RouteMetricCollectorTest {
         when(outboundStatData2.getMessageRate()).thenReturn(25l);
         when(outboundStatData2.getTotalMessages()).thenReturn(250l);
 
-        RouteMetricCollector routeMetricCollector = new RouteMetricCollector(tibjmsAdmin, Lists.newArrayList(includeAllPattern), false, false, metrics, metricPrefix,
+        RouteMetricCollector routeMetricCollector = new RouteMetricCollector(tibjmsAdmin, includeAllMatcher, false, false, metrics, metricPrefix,
                 phaser, collectedMetrics);
 
         routeMetricCollector.run();
@@ -171,7 +171,7 @@ public class RouteMetricCollectorTest {
         when(outboundStatData2.getMessageRate()).thenReturn(25l);
         when(outboundStatData2.getTotalMessages()).thenReturn(250l);
 
-        RouteMetricCollector routeMetricCollector = new RouteMetricCollector(tibjmsAdmin, Lists.newArrayList(includeOnlyRoute1Pattern), false, false, metrics, metricPrefix,
+        RouteMetricCollector routeMetricCollector = new RouteMetricCollector(tibjmsAdmin, includeOnlyRoute1Matcher, false, false, metrics, metricPrefix,
                 phaser, collectedMetrics);
 
         routeMetricCollector.run();
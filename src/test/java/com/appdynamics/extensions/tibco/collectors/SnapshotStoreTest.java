@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.appdynamics.extensions.tibco.metrics.Metrics;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SnapshotStoreTest {
+
+    private final SnapshotStore snapshotStore = new SnapshotStore();
+
+    @Test
+    public void testGroupsWithoutDeltasKeepNothing() {
+        Metrics metrics = metrics(metric("PendingMessageCount", null, null));
+
+        Assert.assertNull(snapshotStore.get(metrics, "Queue1"));
+        Assert.assertEquals(0, snapshotStore.getSize());
+    }
+
+    @Test
+    public void testDeltaNeedsAPreviousValue() {
+        Metrics metrics = metrics(metric("PendingMessageCount", null, null), metric("InboundMessageCount", "true", null));
+
+        snapshotStore.beginRun();
+        SnapshotStore.DestinationSnapshot snapshot = snapshotStore.get(metrics, "Queue1");
+        Assert.assertEquals(5, snapshot.update(0, 5));
+        Assert.assertEquals(AttributeExtractor.NO_VALUE, snapshot.update(1, 100));
+
+        snapshotStore.beginRun();
+        snapshot = snapshotStore.get(metrics, "Queue1");
+        Assert.assertEquals(7, snapshot.update(0, 7));
+        Assert.assertEquals(30, snapshot.update(1, 130));
+    }
+
+    @Test
+    public void testRateIsPerSecondOfTheElapsedTime() throws InterruptedException {
+        Metrics metrics = metrics(metric("InboundMessageCount", null, "true"));
+
+        snapshotStore.beginRun();
+        snapshotStore.get(metrics, "Queue1").update(0, 0);
+        Thread.sleep(200);
+
+        snapshotStore.beginRun();
+        long rate = snapshotStore.get(metrics, "Queue1").update(0, 1000);
+
+        //1000 messages in a bit more than 200 ms
+        Assert.assertTrue(String.valueOf(rate), rate > 1000 && rate <= 5000);
+    }
+
+    @Test
+    public void testCounterGoingDownStartsOver() {
+        Metrics metrics = metrics(metric("InboundMessageCount", "true", null));
+
+        snapshotStore.beginRun();
+        snapshotStore.get(metrics, "Queue1").update(0, 500);
+        snapshotStore.beginRun();
+        Assert.assertEquals(AttributeExtractor.NO_VALUE, snapshotStore.get(metrics, "Queue1").update(0, 20));
+        snapshotStore.beginRun();
+        Assert.assertEquals(5, snapshotStore.get(metrics, "Queue1").update(0, 25));
+    }
+
+    @Test
+    public void testServerRestartDropsAllValues() {
+        Metrics metrics = metrics(metric("InboundMessageCount", "true", null));
+        snapshotStore.verifyServerStartTime(1000);
+
+        snapshotStore.beginRun();
+        snapshotStore.get(metrics, "Queue1").update(0, 500);
+        snapshotStore.verifyServerStartTime(1000);
+        Assert.assertEquals(1, snapshotStore.getSize());
+        Assert.assertFalse(snapshotStore.needsStartTimeCheck(0));
+        Assert.assertTrue(snapshotStore.needsStartTimeCheck(1));
+
+        snapshotStore.verifyServerStartTime(2000);
+        Assert.assertEquals(0, snapshotStore.getSize());
+
+        snapshotStore.beginRun();
+        Assert.assertEquals(AttributeExtractor.NO_VALUE, snapshotStore.get(metrics, "Queue1").update(0, 600));
+    }
+
+    @Test
+    public void testVanishedDestinationsAreEvicted() {
+        Metrics metrics = metrics(metric("InboundMessageCount", "true", null));
+
+        snapshotStore.beginRun();
+        snapshotStore.get(metrics, "Queue1");
+        snapshotStore.get(metrics, "Queue2");
+        snapshotStore.beginRun();
+        snapshotStore.get(metrics, "Queue2");
+        snapshotStore.evictUnused(metrics);
+
+        Assert.assertEquals(1, snapshotStore.getSize());
+    }
+
+    private Metric metric(String attr, String delta, String rate) {
+        Metric metric = new Metric();
+        metric.setAttr(attr);
+        metric.setDelta(delta);
+        metric.setRate(rate);
+        return metric;
+    }
+
+    private Metrics metrics(Metric... groupMetrics) {
+        Metrics metrics = new Metrics();
+        metrics.setType("Queue");
+        metrics.setEnabled("true");
+        metrics.setMetrics(groupMetrics);
+        return metrics;
+    }
+}
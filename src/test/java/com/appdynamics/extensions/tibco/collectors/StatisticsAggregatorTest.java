@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
+import com.appdynamics.extensions.tibco.metrics.Metric;
+import com.tibco.tibjms.admin.StatData;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class StatisticsAggregatorTest {
+
+    @SuppressWarnings("unchecked")
+    private final AttributeExtractor<StatData>[] extractors = new AttributeExtractor[]{StatisticsAttribute.TOTAL_MESSAGES, StatisticsAttribute.MESSAGE_RATE,
+            StatisticsAttribute.TOTAL_BYTES};
+
+    private final Metric[] groupMetrics = {metric("TotalMessages", "SUM"), metric("MessageRate", "AVERAGE"), metric("TotalBytes", "OBSERVATION")};
+
+    @Test
+    public void testQueuesAndTopicsOfTheSameNameAreKeptApart() {
+        StatisticsAggregator aggregator = new StatisticsAggregator(extractors, groupMetrics);
+        aggregator.add(1, "orders", null);
+        aggregator.add(StatisticsAggregator.TOPIC, "orders", null);
+        aggregator.add(1, "orders", null);
+
+        List<StatisticsAggregator.Destination> destinations = aggregator.getDestinations();
+        Assert.assertEquals(2, destinations.size());
+        Assert.assertEquals(1, destinations.get(0).getDestinationType());
+        Assert.assertEquals(2, destinations.get(0).getCount());
+        Assert.assertEquals(StatisticsAggregator.TOPIC, destinations.get(1).getDestinationType());
+        Assert.assertEquals(1, destinations.get(1).getCount());
+    }
+
+    @Test
+    public void testMissingStatisticsHaveNoValue() {
+        StatisticsAggregator aggregator = new StatisticsAggregator(extractors, groupMetrics);
+        aggregator.add(1, "orders", null);
+
+        StatisticsAggregator.Destination destination = aggregator.getDestinations().get(0);
+        Assert.assertEquals(AttributeExtractor.NO_VALUE, destination.getValue(0));
+        Assert.assertEquals(AttributeExtractor.NO_VALUE, destination.getValue(1));
+        Assert.assertEquals(AttributeExtractor.NO_VALUE, destination.getValue(2));
+    }
+
+    @Test
+    public void testMetricsAreCombinedByTheirAggregationType() {
+        StatisticsAggregator aggregator = new StatisticsAggregator(extractors, groupMetrics);
+        aggregator.add(1, "orders", statistics(10, 4, 100));
+        aggregator.add(1, "orders", statistics(20, 8, 300));
+
+        StatisticsAggregator.Destination destination = aggregator.getDestinations().get(0);
+        Assert.assertEquals(30, destination.getValue(0));
+        Assert.assertEquals(6, destination.getValue(1));
+        Assert.assertEquals(300, destination.getValue(2));
+    }
+
+    @Test
+    public void testMetricsWithoutAggregationTypeAreAveraged() {
+        StatisticsAggregator aggregator = new StatisticsAggregator(extractors, new Metric[]{metric("TotalMessages", null),
+                metric("MessageRate", null), metric("TotalBytes", null)});
+        aggregator.add(1, "orders", statistics(10, 4, 100));
+        aggregator.add(1, "orders", statistics(20, 8, 300));
+
+        Assert.assertEquals(15, aggregator.getDestinations().get(0).getValue(0));
+    }
+
+    private static StatData statistics(long totalMessages, long messageRate, long totalBytes) {
+        StatData statData = mock(StatData.class);
+        when(statData.getTotalMessages()).thenReturn(totalMessages);
+        when(statData.getMessageRate()).thenReturn(messageRate);
+        when(statData.getTotalBytes()).thenReturn(totalBytes);
+        return statData;
+    }
+
+    private static Metric metric(String attr, String aggregationType) {
+        Metric metric = new Metric();
+        metric.setAttr(attr);
+        metric.setAggregationType(aggregationType);
+        return metric;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import com.appdynamics.extensions.MetricWriteHelper;
+import com.appdynamics.extensions.metrics.Metric;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StreamingMetricBufferTest {
+
+    @Mock
+    private MetricWriteHelper metricWriteHelper;
+
+    @Test
+    public void testPublishesFullChunksAndRemainderOnClose() {
+        StreamingMetricBuffer buffer = new StreamingMetricBuffer(metricWriteHelper, 2, System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+
+        buffer.add(metric(0));
+        verify(metricWriteHelper, never()).transformAndPrintMetrics(any(List.class));
+        buffer.add(metric(1));
+        buffer.add(metric(2));
+        Assert.assertEquals(1, buffer.size());
+
+        buffer.close(true);
+
+        ArgumentCaptor<List> chunks = ArgumentCaptor.forClass(List.class);
+        verify(metricWriteHelper, times(2)).transformAndPrintMetrics(chunks.capture());
+        Assert.assertEquals(2, chunks.getAllValues().get(0).size());
+        Assert.assertEquals(1, chunks.getAllValues().get(1).size());
+        Assert.assertEquals(3, buffer.getPublishedCount());
+        Assert.assertEquals(0, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void testDropsChunksAfterDeadlineAndClose() {
+        StreamingMetricBuffer buffer = new StreamingMetricBuffer(metricWriteHelper, 2, System.nanoTime() - 1);
+
+        buffer.add(metric(0));
+        buffer.add(metric(1));
+        buffer.add(metric(2));
+        buffer.close(false);
+        buffer.add(metric(3));
+
+        verify(metricWriteHelper, never()).transformAndPrintMetrics(any(List.class));
+        Assert.assertEquals(0, buffer.getPublishedCount());
+        Assert.assertEquals(4, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void testCountsChunksWhichFailedToPrintAsDropped() {
+        StreamingMetricBuffer buffer = new StreamingMetricBuffer(metricWriteHelper, 2, System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+        doThrow(new RuntimeException("Unable to print")).when(metricWriteHelper).transformAndPrintMetrics(any(List.class));
+
+        buffer.add(metric(0));
+        buffer.add(metric(1));
+        buffer.close(true);
+
+        Assert.assertEquals(0, buffer.getPublishedCount());
+        Assert.assertEquals(2, buffer.getDroppedCount());
+    }
+
+    private Metric metric(int i) {
+        return new Metric("Metric" + i, String.valueOf(i), "Custom Metrics|Tibco EMS|Metric" + i);
+    }
+}
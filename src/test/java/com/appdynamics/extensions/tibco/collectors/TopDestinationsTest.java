@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.collectors;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.appdynamics.extensions.tibco.metrics.AttributeExtractor;
+import com.tibco.tibjms.admin.DurableInfo;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TopDestinationsTest {
+
+    @SuppressWarnings("unchecked")
+    private final AttributeExtractor<DurableInfo>[] extractors = new AttributeExtractor[]{DurableAttribute.PENDING_MESSAGE_COUNT, DurableAttribute.PENDING_MESSAGE_SIZE};
+
+    private final MetricSums.Aggregation[] sumAll = {MetricSums.Aggregation.SUM, MetricSums.Aggregation.SUM};
+
+    @Test
+    public void testSelectsTheHighestRankedDestinations() {
+        DurableInfo[] durables = {durable("d1", 5, 50), durable("d2", 30, 300), durable("d3", 1, 10), durable("d4", 20, 200), durable("d5", 7, 70)};
+
+        TopDestinations<DurableInfo> top = TopDestinations.select(durables, durableInfo -> true, DurableAttribute.PENDING_MESSAGE_COUNT, 2, extractors, sumAll);
+
+        Assert.assertEquals(2, top.getSelected().length);
+        Assert.assertEquals("d2", top.getSelected()[0].getDurableName());
+        Assert.assertEquals("d4", top.getSelected()[1].getDurableName());
+        Assert.assertEquals(3, top.getOthers().getCount());
+        Assert.assertEquals(13, top.getOthers().getValue(0));
+        Assert.assertEquals(130, top.getOthers().getValue(1));
+    }
+
+    @Test
+    public void testDestinationsNotMonitoredAreNeitherSelectedNorRolledUp() {
+        DurableInfo[] durables = {durable("d1", 5, 50), durable("$sys.d2", 30, 300), durable("d3", 1, 10)};
+
+        TopDestinations<DurableInfo> top = TopDestinations.select(durables, durableInfo -> !durableInfo.getDurableName().startsWith("$sys."),
+                DurableAttribute.PENDING_MESSAGE_COUNT, 1, extractors, sumAll);
+
+        Assert.assertEquals(1, top.getSelected().length);
+        Assert.assertEquals("d1", top.getSelected()[0].getDurableName());
+        Assert.assertEquals(1, top.getOthers().getCount());
+        Assert.assertEquals(1, top.getOthers().getValue(0));
+    }
+
+    @Test
+    public void testFewerDestinationsThanTopNAreAllSelected() {
+        DurableInfo[] durables = {durable("d1", 5, 50), durable("d2", 30, 300)};
+
+        TopDestinations<DurableInfo> top = TopDestinations.select(durables, durableInfo -> true, DurableAttribute.PENDING_MESSAGE_SIZE, 10, extractors, sumAll);
+
+        Assert.assertEquals(2, top.getSelected().length);
+        Assert.assertEquals(0, top.getOthers().getCount());
+        Assert.assertEquals(AttributeExtractor.NO_VALUE, top.getOthers().getValue(0));
+    }
+
+    @Test
+    public void testOthersAreCombinedByAggregationType() {
+        DurableInfo[] durables = {durable("d1", 5, 50), durable("d2", 30, 300), durable("d3", 1, 10), durable("d4", 20, 200)};
+        MetricSums.Aggregation[] aggregations = {MetricSums.Aggregation.AVERAGE, MetricSums.Aggregation.OBSERVATION};
+
+        TopDestinations<DurableInfo> top = TopDestinations.select(durables, durableInfo -> true, DurableAttribute.PENDING_MESSAGE_COUNT, 1, extractors, aggregations);
+
+        Assert.assertEquals(3, top.getOthers().getCount());
+        Assert.assertEquals(9, top.getOthers().getValue(0));
+        //The last destination rolled up
+        Assert.assertEquals(200, top.getOthers().getValue(1));
+    }
+
+    private DurableInfo durable(String name, long pendingMessageCount, long pendingMessageSize) {
+        DurableInfo durableInfo = mock(DurableInfo.class);
+        when(durableInfo.getDurableName()).thenReturn(name);
+        when(durableInfo.getPendingMessageCount()).thenReturn(pendingMessageCount);
+        when(durableInfo.getPendingMessageSize()).thenReturn(pendingMessageSize);
+        return durableInfo;
+    }
+}
@@ -12,6 +12,7 @@ import static org.mockito.Mockito.when;
 
 import com.appdynamics.extensions.metrics.Metric;
 import com.appdynamics.extensions.tibco.metrics.Metrics;
+import com.appdynamics.extensions.tibco.util.DestinationMatcher;
 import com.google.common.collect.Lists;
 import com.tibco.tibjms.admin.StatData;
 import com.tibco.tibjms.admin.TibjmsAdmin;
@@ -25,7 +26,6 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import java.util.List;
 import java.util.concurrent.Phaser;
-import java.util.regex.Pattern;
 
 /**
  * @author Satish Muddam
@@ -56,10 +56,10 @@ public class TopicMetricCollectorTest {
     private Phaser phaser;
 
     private String includeAllPatternString = ".*";
-    private Pattern includeAllPattern = Pattern.compile(includeAllPatternString);
+    private DestinationMatcher includeAllMatcher = DestinationMatcher.compile(Lists.newArrayList(includeAllPatternString), null, false);
 
     private String includeOnlyTopic2PatternString = "Topic2";
-    private Pattern includeOnlyTopic2Pattern = Pattern.compile(includeOnlyTopic2PatternString);
+    private DestinationMatcher includeOnlyTopic2Matcher = DestinationMatcher.compile(Lists.newArrayList(includeOnlyTopic2PatternString), null, false);
 
     @Test
     public void testCollectAll() throws TibjmsAdminException {
@@ -101,8 +101,8 @@ public class TopicMetricCollectorTest {
 
 
         String metricPrefix = "Custom Metrics|EMS";
-        TopicMetricCollector topicMetricCollector = new TopicMetricCollector(tibjmsAdmin, Lists.newArrayList(includeAllPattern), false, false,
-                metrics, metricPrefix, phaser, collectedMetrics);
+        TopicMetricCollector topicMetricCollector = new TopicMetricCollector(tibjmsAdmin, includeAllMatcher, false, false,
+                metrics, metricPrefix, phaser, collectedMetrics, null);
         topicMetricCollector.run();
 
         Assert.assertEquals(10, collectedMetrics.size());
@@ -180,8 +180,8 @@ public class TopicMetricCollectorTest {
 
 
         String metricPrefix = "Custom Metrics|EMS";
-        TopicMetricCollector topicMetricCollector = new TopicMetricCollector(tibjmsAdmin, Lists.newArrayList(includeOnlyTopic2Pattern), false, false,
-                metrics, metricPrefix, phaser, collectedMetrics);
+        TopicMetricCollector topicMetricCollector = new TopicMetricCollector(tibjmsAdmin, includeOnlyTopic2Matcher, false, false,
+                metrics, metricPrefix, phaser, collectedMetrics, null);
         topicMetricCollector.run();
 
         Assert.assertEquals(5, collectedMetrics.size());
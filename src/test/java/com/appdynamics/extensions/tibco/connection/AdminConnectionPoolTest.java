@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.connection;
+
+import com.tibco.tibjms.admin.TibjmsAdmin;
+import com.tibco.tibjms.admin.TibjmsAdminException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AdminConnectionPoolTest {
+
+    @Test
+    public void testOpensAdditionalConnectionsOnlyWhenAllAreInUse() throws Exception {
+        TibjmsAdmin primary = mock(TibjmsAdmin.class);
+        TibjmsAdmin second = mock(TibjmsAdmin.class);
+        AdminConnectionPool.ConnectionFactory connectionFactory = mock(AdminConnectionPool.ConnectionFactory.class);
+        when(connectionFactory.connect()).thenReturn(second);
+
+        AdminConnectionPool pool = new AdminConnectionPool("Local EMS", primary, 2, connectionFactory);
+
+        TibjmsAdmin first = pool.borrow();
+        Assert.assertSame(primary, first);
+        pool.release(first, false);
+
+        //Released connections are reused before a new one is opened
+        Assert.assertSame(primary, pool.borrow());
+        Assert.assertSame(second, pool.borrow());
+        Assert.assertEquals(2, pool.getOpenCount());
+
+        pool.release(second, false);
+        Assert.assertSame(second, pool.borrow());
+        verify(connectionFactory, times(1)).connect();
+    }
+
+    @Test
+    public void testWaitsForAReleasedConnectionOncePoolIsFull() throws Exception {
+        TibjmsAdmin primary = mock(TibjmsAdmin.class);
+        AdminConnectionPool.ConnectionFactory connectionFactory = mock(AdminConnectionPool.ConnectionFactory.class);
+
+        AdminConnectionPool pool = new AdminConnectionPool("Local EMS", primary, 1, connectionFactory);
+        TibjmsAdmin borrowed = pool.borrow();
+
+        CountDownLatch waiting = new CountDownLatch(1);
+        AtomicReference<TibjmsAdmin> borrowedByOther = new AtomicReference<>();
+        Thread other = new Thread(() -> {
+            waiting.countDown();
+            try {
+                borrowedByOther.set(pool.borrow());
+            } catch (TibjmsAdminException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        other.start();
+
+        Assert.assertTrue(waiting.await(5, TimeUnit.SECONDS));
+        other.join(200);
+        Assert.assertNull(borrowedByOther.get());
+
+        pool.release(borrowed, false);
+        other.join(TimeUnit.SECONDS.toMillis(5));
+        Assert.assertSame(primary, borrowedByOther.get());
+        verify(connectionFactory, never()).connect();
+    }
+
+    @Test
+    public void testFailedConnectionIsClosedAndReplaced() throws Exception {
+        TibjmsAdmin primary = mock(TibjmsAdmin.class);
+        TibjmsAdmin broken = mock(TibjmsAdmin.class);
+        TibjmsAdmin replacement = mock(TibjmsAdmin.class);
+        AdminConnectionPool.ConnectionFactory connectionFactory = mock(AdminConnectionPool.ConnectionFactory.class);
+        when(connectionFactory.connect()).thenReturn(broken, replacement);
+
+        AdminConnectionPool pool = new AdminConnectionPool("Local EMS", primary, 2, connectionFactory);
+        pool.borrow();
+        TibjmsAdmin pooled = pool.borrow();
+        Assert.assertSame(broken, pooled);
+
+        pool.release(pooled, true);
+        verify(broken).close();
+        Assert.assertEquals(1, pool.getOpenCount());
+
+        Assert.assertSame(replacement, pool.borrow());
+        Assert.assertEquals(2, pool.getOpenCount());
+    }
+
+    @Test
+    public void testFailedConnectDoesNotUseUpASlot() throws Exception {
+        TibjmsAdmin primary = mock(TibjmsAdmin.class);
+        TibjmsAdmin second = mock(TibjmsAdmin.class);
+        AdminConnectionPool.ConnectionFactory connectionFactory = mock(AdminConnectionPool.ConnectionFactory.class);
+        when(connectionFactory.connect()).thenThrow(new TibjmsAdminException("Connection refused")).thenReturn(second);
+
+        AdminConnectionPool pool = new AdminConnectionPool("Local EMS", primary, 2, connectionFactory);
+        pool.borrow();
+        try {
+            pool.borrow();
+            Assert.fail("Expected the connect failure to be thrown");
+        } catch (TibjmsAdminException e) {
+            Assert.assertEquals(1, pool.getOpenCount());
+        }
+
+        Assert.assertSame(second, pool.borrow());
+    }
+
+    @Test
+    public void testCloseClosesPooledConnectionsButNotTheSessionConnection() throws Exception {
+        TibjmsAdmin primary = mock(TibjmsAdmin.class);
+        TibjmsAdmin second = mock(TibjmsAdmin.class);
+        TibjmsAdmin third = mock(TibjmsAdmin.class);
+        AdminConnectionPool.ConnectionFactory connectionFactory = mock(AdminConnectionPool.ConnectionFactory.class);
+        when(connectionFactory.connect()).thenReturn(second, third);
+
+        AdminConnectionPool pool = new AdminConnectionPool("Local EMS", primary, 3, connectionFactory);
+        TibjmsAdmin borrowedPrimary = pool.borrow();
+        TibjmsAdmin idleSecond = pool.borrow();
+        TibjmsAdmin borrowedThird = pool.borrow();
+        pool.release(idleSecond, false);
+
+        pool.close();
+        verify(second).close();
+        verify(third, never()).close();
+
+        //Connections still borrowed by late collectors are closed when they come back
+        pool.release(borrowedThird, false);
+        verify(third).close();
+        pool.release(borrowedPrimary, false);
+        verify(primary, never()).close();
+
+        Assert.assertSame(primary, pool.borrow());
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.connection;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdminSessionTest {
+
+    @Test
+    public void testKeepsConfiguredOrderWithoutKnownMembers() {
+        Assert.assertEquals("tcp://primary:7222,tcp://secondary:7222",
+                AdminSession.orderMembers("tcp://primary:7222,tcp://secondary:7222", null, null));
+        Assert.assertEquals("tcp://primary:7222", AdminSession.orderMembers("tcp://primary:7222", "tcp://secondary:7222", null));
+    }
+
+    @Test
+    public void testActiveMemberIsTriedFirst() {
+        Assert.assertEquals("tcp://secondary:7222,tcp://primary:7222",
+                AdminSession.orderMembers("tcp://primary:7222, tcp://secondary:7222", "TCP://SECONDARY:7222", null));
+    }
+
+    @Test
+    public void testStandbyMemberIsTriedLast() {
+        Assert.assertEquals("tcp://secondary:7222,tcp://third:7222,tcp://primary:7222",
+                AdminSession.orderMembers("tcp://primary:7222,tcp://secondary:7222,tcp://third:7222", null, "tcp://primary:7222"));
+    }
+
+    @Test
+    public void testMatchesAnyListenURLOfAMember() {
+        Assert.assertEquals("ssl://secondary:7243,tcp://primary:7222",
+                AdminSession.orderMembers("tcp://primary:7222,ssl://secondary:7243", "tcp://secondary:7222,ssl://secondary:7243", null));
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.connection;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class ConnectCircuitBreakerTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        ConnectCircuitBreaker circuitBreaker = new ConnectCircuitBreaker();
+        circuitBreaker.configure(3, 30, 600);
+
+        Assert.assertFalse(circuitBreaker.recordFailure(0));
+        Assert.assertFalse(circuitBreaker.recordFailure(0));
+        Assert.assertTrue(circuitBreaker.allowAttempt(0));
+
+        Assert.assertTrue(circuitBreaker.recordFailure(0));
+        Assert.assertTrue(circuitBreaker.isOpen());
+        Assert.assertFalse(circuitBreaker.allowAttempt(SECOND));
+    }
+
+    @Test
+    public void testSuccessResetsFailures() {
+        ConnectCircuitBreaker circuitBreaker = new ConnectCircuitBreaker();
+        circuitBreaker.configure(2, 30, 600);
+
+        circuitBreaker.recordFailure(0);
+        circuitBreaker.recordSuccess();
+        Assert.assertFalse(circuitBreaker.recordFailure(0));
+
+        circuitBreaker.recordFailure(0);
+        circuitBreaker.recordSuccess();
+        Assert.assertFalse(circuitBreaker.isOpen());
+        Assert.assertEquals(0, circuitBreaker.getConsecutiveFailures());
+        Assert.assertTrue(circuitBreaker.allowAttempt(0));
+    }
+
+    @Test
+    public void testBackoffDoublesUpToMaximum() {
+        ConnectCircuitBreaker circuitBreaker = new ConnectCircuitBreaker();
+        circuitBreaker.configure(3, 30, 200);
+
+        Assert.assertEquals(30 * SECOND, circuitBreaker.getBackoffNanos(0));
+        Assert.assertEquals(60 * SECOND, circuitBreaker.getBackoffNanos(1));
+        Assert.assertEquals(120 * SECOND, circuitBreaker.getBackoffNanos(2));
+        Assert.assertEquals(200 * SECOND, circuitBreaker.getBackoffNanos(3));
+        Assert.assertEquals(200 * SECOND, circuitBreaker.getBackoffNanos(1000));
+    }
+
+    @Test
+    public void testRetryIsJitteredWithinHalfTheBackoff() {
+        for (int i = 0; i < 100; i++) {
+            ConnectCircuitBreaker circuitBreaker = new ConnectCircuitBreaker();
+            circuitBreaker.configure(1, 30, 600);
+            circuitBreaker.recordFailure(0);
+
+            long retryAtNanos = circuitBreaker.getRetryAtNanos();
+            Assert.assertTrue(retryAtNanos >= 15 * SECOND);
+            Assert.assertTrue(retryAtNanos <= 30 * SECOND);
+            Assert.assertFalse(circuitBreaker.allowAttempt(15 * SECOND - 1));
+            Assert.assertTrue(circuitBreaker.allowAttempt(30 * SECOND));
+        }
+    }
+
+    @Test
+    public void testFailedTrialAttemptExtendsBackoff() {
+        ConnectCircuitBreaker circuitBreaker = new ConnectCircuitBreaker();
+        circuitBreaker.configure(1, 30, 600);
+
+        circuitBreaker.recordFailure(0);
+        long trialAt = 30 * SECOND;
+        Assert.assertTrue(circuitBreaker.allowAttempt(trialAt));
+
+        circuitBreaker.recordFailure(trialAt);
+        Assert.assertTrue(circuitBreaker.getRetryAtNanos() - trialAt >= 30 * SECOND);
+        Assert.assertFalse(circuitBreaker.allowAttempt(trialAt + 30 * SECOND - 1));
+    }
+
+    @Test
+    public void testThresholdOfZeroNeverOpens() {
+        ConnectCircuitBreaker circuitBreaker = new ConnectCircuitBreaker();
+        circuitBreaker.configure(0, 30, 600);
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertFalse(circuitBreaker.recordFailure(0));
+        }
+        Assert.assertTrue(circuitBreaker.allowAttempt(0));
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.connection;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ServerRunContextTest {
+
+    private final ServerRunContext runContext = new ServerRunContext(new ConnectCircuitBreaker());
+
+    @Test
+    public void testSettingsAreReadOncePerConfigLoad() {
+        Map<String, Object> emsServer = new HashMap<>();
+        Map<String, Object> configYml = new HashMap<>();
+        configYml.put("publishChangesOnly", true);
+        configYml.put("collectionTimeoutInSeconds", 20);
+
+        runContext.configure(configYml, emsServer);
+        Assert.assertNotNull(runContext.getPublishedValues());
+        Assert.assertEquals(20, runContext.getCollectionTimeoutInSeconds());
+
+        //The same config.yml is not read again
+        configYml.put("publishChangesOnly", false);
+        runContext.configure(configYml, emsServer);
+        Assert.assertNotNull(runContext.getPublishedValues());
+
+        //A reloaded config.yml is
+        Map<String, Object> reloadedYml = new HashMap<>(configYml);
+        runContext.configure(reloadedYml, emsServer);
+        Assert.assertNull(runContext.getPublishedValues());
+    }
+
+    @Test
+    public void testServerEntryOverridesTopLevelSettings() {
+        Map<String, Object> emsServer = new HashMap<>();
+        emsServer.put("collectionTimeoutInSeconds", "15");
+        emsServer.put("adminConnections", 0);
+        Map<String, Object> configYml = new HashMap<>();
+        configYml.put("collectionTimeoutInSeconds", 20);
+        configYml.put("streamMetrics", true);
+
+        runContext.configure(configYml, emsServer);
+        Assert.assertEquals(15, runContext.getCollectionTimeoutInSeconds());
+        Assert.assertEquals(1, runContext.getAdminConnections());
+        Assert.assertEquals(ServerRunContext.DEFAULT_PUBLISH_CHUNK_SIZE, runContext.getPublishChunkSize());
+        Assert.assertNull(runContext.getDestinationTrace());
+    }
+}
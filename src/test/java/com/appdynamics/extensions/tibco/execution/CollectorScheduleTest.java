@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.execution;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class CollectorScheduleTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    @Test
+    public void testGroupsWithoutIntervalAreAlwaysDue() {
+        CollectorSchedule collectorSchedule = new CollectorSchedule();
+        collectorSchedule.started("EMS1", "Server", 0);
+
+        Assert.assertTrue(collectorSchedule.isDue("EMS1", "Server", null, 1));
+        Assert.assertTrue(collectorSchedule.isDue("EMS1", "Server", 0, 1));
+    }
+
+    @Test
+    public void testGroupIsDueOnceItsIntervalElapsed() {
+        CollectorSchedule collectorSchedule = new CollectorSchedule();
+        long start = 1000;
+
+        Assert.assertTrue(collectorSchedule.isDue("EMS1", "Consumer", 300, start));
+        collectorSchedule.started("EMS1", "Consumer", start);
+
+        Assert.assertFalse(collectorSchedule.isDue("EMS1", "Consumer", 300, start + MINUTE));
+        Assert.assertFalse(collectorSchedule.isDue("EMS1", "Consumer", 300, start + 4 * MINUTE));
+        //A monitor cycle starting slightly early still picks the collector up
+        Assert.assertTrue(collectorSchedule.isDue("EMS1", "Consumer", 300, start + 5 * MINUTE - TimeUnit.SECONDS.toNanos(2)));
+
+        //Other servers and types keep their own schedule
+        Assert.assertTrue(collectorSchedule.isDue("EMS2", "Consumer", 300, start + MINUTE));
+        Assert.assertTrue(collectorSchedule.isDue("EMS1", "Producer", 300, start + MINUTE));
+    }
+
+    @Test
+    public void testRetainAllForgetsRemovedServers() {
+        CollectorSchedule collectorSchedule = new CollectorSchedule();
+        collectorSchedule.started("EMS1", "Consumer", 0);
+        collectorSchedule.started("EMS2", "Consumer", 0);
+
+        collectorSchedule.retainAll(Lists.newArrayList("EMS2"));
+
+        Assert.assertTrue(collectorSchedule.isDue("EMS1", "Consumer", 300, MINUTE));
+        Assert.assertFalse(collectorSchedule.isDue("EMS2", "Consumer", 300, MINUTE));
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.execution;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class CollectorThreadPoolTest {
+
+    @Test
+    public void testPoolIsSizedFromCollectorsAndCappedByAdminCalls() {
+        CollectorThreadPool collectorThreadPool = new CollectorThreadPool();
+        try {
+            collectorThreadPool.resize(3 * 7, 0);
+            Assert.assertEquals(21, collectorThreadPool.getPoolSize());
+
+            collectorThreadPool.resize(3 * 7, 8);
+            Assert.assertEquals(8, collectorThreadPool.getPoolSize());
+
+            collectorThreadPool.resize(0, 0);
+            Assert.assertEquals(1, collectorThreadPool.getPoolSize());
+        } finally {
+            collectorThreadPool.shutdown();
+        }
+    }
+
+    @Test
+    public void testAllCollectorsOfARunExecuteConcurrently() throws Exception {
+        CollectorThreadPool collectorThreadPool = new CollectorThreadPool();
+        try {
+            int collectors = 2 * 7;
+            ExecutorService executor = collectorThreadPool.resize(collectors, 0);
+
+            //Every collector waits for all others, which only completes if each one got its own thread
+            CountDownLatch started = new CountDownLatch(collectors);
+            CountDownLatch finished = new CountDownLatch(collectors);
+            for (int i = 0; i < collectors; i++) {
+                executor.execute(() -> {
+                    started.countDown();
+                    try {
+                        if (started.await(5, TimeUnit.SECONDS)) {
+                            finished.countDown();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            Assert.assertTrue(finished.await(10, TimeUnit.SECONDS));
+        } finally {
+            collectorThreadPool.shutdown();
+        }
+    }
+}
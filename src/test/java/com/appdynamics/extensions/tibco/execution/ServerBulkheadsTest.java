@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.execution;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public class ServerBulkheadsTest {
+
+    @Test
+    public void testThreadsAreSharedRoundRobinBetweenServers() {
+        ManualExecutor executor = new ManualExecutor();
+        ServerBulkheads serverBulkheads = new ServerBulkheads(executor, 0);
+        List<String> order = new ArrayList<>();
+
+        //The slow server queues all its collectors first, the healthy one still gets every other thread
+        for (int i = 0; i < 4; i++) {
+            serverBulkheads.submit("Slow", () -> order.add("Slow"));
+        }
+        serverBulkheads.submit("Healthy", () -> order.add("Healthy"));
+        serverBulkheads.submit("Healthy", () -> order.add("Healthy"));
+
+        serverBulkheads.setExecutor(executor, 1);
+        executor.runAll();
+
+        Assert.assertEquals(Lists.newArrayList("Slow", "Healthy", "Slow", "Healthy", "Slow", "Slow"), order);
+    }
+
+    @Test
+    public void testServerCanNotRunMoreThanItsShareOfCollectors() {
+        ManualExecutor executor = new ManualExecutor();
+        ServerBulkheads serverBulkheads = new ServerBulkheads(executor, 10);
+        serverBulkheads.configure("Slow", 2, 0);
+
+        for (int i = 0; i < 5; i++) {
+            serverBulkheads.submit("Slow", () -> {
+            });
+        }
+        serverBulkheads.submit("Healthy", () -> {
+        });
+
+        //Slow ones hang: only two of them are started, the healthy server is not affected
+        Assert.assertEquals(2, serverBulkheads.getRunning("Slow"));
+        Assert.assertEquals(3, serverBulkheads.getPending("Slow"));
+        Assert.assertEquals(1, serverBulkheads.getRunning("Healthy"));
+        Assert.assertEquals(3, executor.tasks.size());
+
+        executor.runNext();
+        Assert.assertEquals(2, serverBulkheads.getRunning("Slow"));
+        Assert.assertEquals(2, serverBulkheads.getPending("Slow"));
+    }
+
+    @Test
+    public void testAdminCallPermitsPerServer() {
+        ServerBulkheads serverBulkheads = new ServerBulkheads(new ManualExecutor(), 10);
+        serverBulkheads.configure("EMS1", 0, 3);
+
+        Assert.assertEquals(3, serverBulkheads.getAdminCallPermits("EMS1").availablePermits());
+        Assert.assertNull(serverBulkheads.getAdminCallPermits("EMS2"));
+
+        //Reconfiguring with the same limit keeps the permits collectors already hold
+        Semaphore permits = serverBulkheads.getAdminCallPermits("EMS1");
+        serverBulkheads.configure("EMS1", 0, 3);
+        Assert.assertSame(permits, serverBulkheads.getAdminCallPermits("EMS1"));
+    }
+
+    /**
+     * Holds submitted tasks until the test runs them.
+     */
+    private static class ManualExecutor extends AbstractExecutorService {
+
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runNext() {
+            tasks.remove(0).run();
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                runNext();
+            }
+        }
+
+        public void shutdown() {
+        }
+
+        public List<Runnable> shutdownNow() {
+            return tasks;
+        }
+
+        public boolean isShutdown() {
+            return false;
+        }
+
+        public boolean isTerminated() {
+            return false;
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.execution;
+
+import com.appdynamics.extensions.AMonitorTaskRunnable;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class VirtualThreadTaskTest {
+
+    @Test
+    public void testRunsTheFetcherOnTheExecutorAndWaitsForIt() {
+        final AtomicReference<Thread> fetcherThread = new AtomicReference<>();
+        final AtomicInteger completed = new AtomicInteger();
+        AMonitorTaskRunnable fetcher = new AMonitorTaskRunnable() {
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                fetcherThread.set(Thread.currentThread());
+            }
+
+            public void onTaskComplete() {
+                completed.incrementAndGet();
+            }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            VirtualThreadTask task = new VirtualThreadTask(fetcher, executor);
+            task.run();
+            Assert.assertNotNull(fetcherThread.get());
+            Assert.assertNotSame(Thread.currentThread(), fetcherThread.get());
+
+            //The monitor's pool reports the completion of the task, it is passed on to the fetcher once
+            task.onTaskComplete();
+            Assert.assertEquals(1, completed.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018. AppDynamics LLC and its affiliates.
+ * All Rights Reserved.
+ * This is unpublished proprietary source code of AppDynamics LLC and its affiliates.
+ * The copyright notice above does not evidence any actual or intended publication of such source code.
+ *
+ */
+
+package com.appdynamics.extensions.tibco.util;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+public class DestinationMatcherTest {
+
+    @Test
+    public void testMatchesLikeThePatternsItWasCompiledFrom() {
+        List<String> includes = Lists.newArrayList("orders", "orders\\.in", "billing.*", "audit\\..+", "app\\.[0-9]+\\.out", "(?i)Trace.*", "a(b)\\1");
+        List<String> names = Lists.newArrayList("orders", "ordersX", "orders.in", "ordersXin", "billing", "billing.eu", "audit.", "audit.x",
+                "app.12.out", "app.x.out", "TRACE.1", "abb", "ab", "queue.sample", "");
+
+        DestinationMatcher destinationMatcher = DestinationMatcher.compile(includes, null, false);
+
+        for (String name : names) {
+            boolean expected = false;
+            for (String include : includes) {
+                expected |= Pattern.compile(include).matcher(name).matches();
+            }
+            Assert.assertEquals(name, expected, destinationMatcher.matches(name));
+        }
+    }
+
+    @Test
+    public void testExcludesWinOverIncludes() {
+        DestinationMatcher destinationMatcher = DestinationMatcher.compile(Lists.newArrayList(".*"),
+                Lists.newArrayList("orders\\.dlq", "temp\\..*", ".*\\.bak"), false);
+
+        Assert.assertTrue(destinationMatcher.matches("orders"));
+        Assert.assertFalse(destinationMatcher.matches("orders.dlq"));
+        Assert.assertFalse(destinationMatcher.matches("temp.1"));
+        Assert.assertFalse(destinationMatcher.matches("orders.bak"));
+    }
+
+    @Test
+    public void testReadsEMSWildcardsWhenAsked() {
+        DestinationMatcher destinationMatcher = DestinationMatcher.compile(Lists.newArrayList("orders.>", "app.*.in", "billing.eu"),
+                Lists.newArrayList("orders.test.>"), true);
+
+        Assert.assertTrue(destinationMatcher.matches("orders.new"));
+        Assert.assertFalse(destinationMatcher.matches("orders."));
+        Assert.assertFalse(destinationMatcher.matches("orders.test.1"));
+        Assert.assertTrue(destinationMatcher.matches("app.eu.in"));
+        Assert.assertFalse(destinationMatcher.matches("app.eu.west.in"));
+        Assert.assertTrue(destinationMatcher.matches("billing.eu"));
+        Assert.assertFalse(destinationMatcher.matches("billingXeu"));
+    }
+
+    @Test
+    public void testNothingMatchesWithoutIncludes() {
+        Assert.assertFalse(DestinationMatcher.compile(null, null, false).matches("orders"));
+        Assert.assertTrue(DestinationMatcher.compile(Lists.<String>newArrayList(), null, false).isEmpty());
+    }
+
+    @Test
+    public void testSameNamedGroupInTwoEntries() {
+        DestinationMatcher destinationMatcher = DestinationMatcher.compile(Lists.newArrayList("(?<n>a)x", "(?<n>b)y"), null, false);
+
+        Assert.assertTrue(destinationMatcher.matches("ax"));
+        Assert.assertTrue(destinationMatcher.matches("by"));
+        Assert.assertFalse(destinationMatcher.matches("ay"));
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void testRejectsInvalidEntries() {
+        DestinationMatcher.compile(Lists.newArrayList("orders["), null, false);
+    }
+}